@@ -1,14 +1,13 @@
 package com.polynomeer;
 
+import com.polynomeer.config.ServerConfig;
 import com.polynomeer.net.Reactor;
 
 public class ServerMain {
     public static void main(String[] args) throws Exception {
-        int port = 6379;
-        if (args.length > 0) {
-            port = Integer.parseInt(args[0]);
-        }
-        Reactor reactor = new Reactor(port);
+        // usage: [port] [--name value ...], e.g. 6380 --dir /var/lib/jredis --save "60 1000"
+        ServerConfig config = ServerConfig.fromArgs(args);
+        Reactor reactor = new Reactor(config);
         reactor.start(); // blocking loop
     }
 }
@@ -0,0 +1,164 @@
+package com.polynomeer.cluster;
+
+import com.polynomeer.net.PeerLink;
+import com.polynomeer.resp.RespError;
+import com.polynomeer.resp.RespReader;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.ByteBuf;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Outbound gossip connection from this node to a peer, on the peer's client port.
+ * Sends CLUSTER GOSSIP messages and hands each reply (the peer's view, an array of bulk
+ * strings) to ClusterManager.onPong. An error reply (e.g. a server not in cluster mode)
+ * fails the link.
+ * <p>
+ * Reactor-thread only.
+ */
+public final class ClusterLink implements PeerLink {
+    private static final int READ_BUF_SIZE = 16 * 1024;
+
+    final ClusterNode node;
+    private final ClusterManager cluster;
+    private final SocketChannel ch;
+    private final Selector selector;
+    private final RespReader reader = new RespReader();
+    private final Deque<ByteBuffer> out = new ArrayDeque<>();
+    private ByteBuffer in = ByteBuffer.allocate(READ_BUF_SIZE);
+    private boolean connected;
+    private boolean closed;
+
+    private ClusterLink(ClusterManager cluster, ClusterNode node, SocketChannel ch, Selector selector) {
+        this.cluster = cluster;
+        this.node = node;
+        this.ch = ch;
+        this.selector = selector;
+    }
+
+    static ClusterLink connect(ClusterManager cluster, Selector selector, ClusterNode node) throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        try {
+            ch.configureBlocking(false);
+            ClusterLink link = new ClusterLink(cluster, node, ch, selector);
+            ch.register(selector, SelectionKey.OP_CONNECT, link);
+            if (ch.connect(new InetSocketAddress(node.ip, node.port))) link.connected();
+            return link;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+    }
+
+    boolean ready() {
+        return connected && !closed;
+    }
+
+    @Override
+    public void handleConnect() throws IOException {
+        if (ch.finishConnect()) connected();
+    }
+
+    private void connected() throws IOException {
+        connected = true;
+        setInterest(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        String localIp = ((InetSocketAddress) ch.getLocalAddress()).getAddress().getHostAddress();
+        cluster.onLinkConnected(this, localIp);
+    }
+
+    @Override
+    public void handleRead() throws IOException {
+        if (!in.hasRemaining()) {
+            // a reply larger than the buffer (many known nodes): grow it
+            ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+        int n = ch.read(in);
+        if (n < 0) throw new IOException("connection closed by peer");
+        if (n == 0) return;
+        in.flip();
+        try {
+            while (!closed && in.hasRemaining()) {
+                if (in.get(in.position()) == '-') {
+                    String line = readLine();
+                    if (line == null) break;
+                    throw new IOException("peer replied " + line.substring(1));
+                }
+                List<String> reply = reader.tryReadCommand(in);
+                if (reply == null) break;
+                cluster.onPong(this, reply);
+            }
+        } catch (RespError | IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            if (!closed) in.compact();
+        }
+    }
+
+    @Override
+    public void handleWrite() throws IOException {
+        while (!out.isEmpty()) {
+            ByteBuffer b = out.peekFirst();
+            ch.write(b);
+            if (b.hasRemaining()) return;
+            out.pollFirst();
+        }
+        setInterest(SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void fail(String reason) {
+        if (closed) return;
+        cluster.onLinkLost(this, reason);
+        close();
+    }
+
+    void send(List<String> argv) {
+        ByteBuf b = new ByteBuf(256);
+        RespWriter.appendCommand(argv, b);
+        out.addLast(ByteBuffer.wrap(b.array(), 0, b.length()));
+        if (!connected) return;
+        try {
+            handleWrite();
+            if (!out.isEmpty()) setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private String readLine() {
+        for (int i = in.position(); i + 1 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                String s = new String(in.array(), in.position(), i - in.position(), StandardCharsets.ISO_8859_1);
+                in.position(i + 2);
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private void setInterest(int ops) {
+        SelectionKey key = ch.keyFor(selector);
+        if (key != null && key.isValid()) key.interestOps(ops);
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,787 @@
+package com.polynomeer.cluster;
+
+import com.polynomeer.cmd.KeyPositions;
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.Db;
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.Clocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.polynomeer.cluster.HashSlots.SLOTS;
+
+/**
+ * Cluster mode ("cluster-enabled yes"): the 16384 hash slots are spread over several nodes,
+ * each serving the slots it owns and redirecting clients for the others.
+ * - topology: every node keeps the node list and a slot owner table; changes spread by
+ *   gossip over the client port (CLUSTER GOSSIP, sent every second to each known node and
+ *   answered with the receiver's own view), so one CLUSTER MEET is enough to join
+ * - conflicting slot claims resolve by configEpoch, the higher epoch wins; taking over an
+ *   imported slot (SETSLOT NODE myself) bumps this node's epoch so its claim prevails
+ * - routing: a command's keys (KeyPositions) must hash to one slot; keys of a slot served
+ *   elsewhere get -MOVED, keys missing from a slot being migrated away get -ASK
+ * - nodes, slots and epochs persist in "cluster-config-file" (CLUSTER NODES format)
+ * All nodes are primaries: cluster replicas and failover are not supported.
+ * <p>
+ * Reactor-thread only.
+ */
+public final class ClusterManager {
+    private static final long PING_INTERVAL_MS = 1000;
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final long FORGET_TTL_MS = 60_000;
+
+    private final Db db;
+    private final ServerConfig config;
+    private final boolean enabled;
+    private Selector selector;
+
+    private ClusterNode myself;
+    private final Map<String, ClusterNode> nodes = new LinkedHashMap<>();
+    private final ClusterNode[] owners = new ClusterNode[SLOTS];
+    private final ClusterNode[] migratingTo = new ClusterNode[SLOTS];
+    private final ClusterNode[] importingFrom = new ClusterNode[SLOTS];
+    private final Map<String, Long> forgotten = new HashMap<>(); // node ID -> monotonic expiry
+    private long currentEpoch;
+    private boolean stateOk;
+    private boolean configDirty;
+    private long messagesSent;
+    private long messagesReceived;
+
+    public ClusterManager(Db db, ServerConfig config) {
+        this.db = db;
+        this.config = config;
+        this.enabled = config.clusterEnabled();
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Load or create this node's cluster configuration; call before the dataset is loaded,
+     * so keys are indexed by slot as they come in.
+     */
+    public void start(Selector selector) throws IOException {
+        if (!enabled) return;
+        this.selector = selector;
+        if (config.replicaOf() != null) throw new IOException("replicaof is not allowed in cluster mode");
+        db.enableSlotIndex();
+        Path path = configPath();
+        if (Files.exists(path)) {
+            loadConfig(path);
+            System.out.println("[jredis] Cluster configuration loaded from " + path + ": node " + myself.id
+                    + ", " + nodes.size() + " known node(s)");
+        } else {
+            myself = new ClusterNode(newNodeId(), "127.0.0.1", config.port());
+            myself.myself = true;
+            nodes.put(myself.id, myself);
+            System.out.println("[jredis] No cluster configuration found, I'm " + myself.id);
+        }
+        myself.port = config.port();
+        if (!config.clusterAnnounceIp().isEmpty()) myself.ip = config.clusterAnnounceIp();
+        long now = Clocks.monoMillis();
+        for (ClusterNode n : nodes.values()) n.createdMs = now;
+        saveConfigOrLog();
+        updateState();
+    }
+
+    // ---------- routing ----------
+
+    /**
+     * Where a client's command must run: null to run it here, else the redirection or error
+     * to reply with. 'asking' is set when the client sent ASKING just before.
+     */
+    public ByteBuffer route(String name, List<String> argv, boolean asking) {
+        int[] keys = KeyPositions.of(name, argv);
+        if (keys.length == 0) return null;
+        int slot = -1;
+        boolean multipleKeys = false;
+        for (int i : keys) {
+            int s = HashSlots.slot(argv.get(i));
+            if (slot < 0) {
+                slot = s;
+            } else if (s != slot) {
+                return RespWriter.error("CROSSSLOT Keys in request don't hash to the same slot");
+            } else if (!argv.get(i).equals(argv.get(keys[0]))) {
+                multipleKeys = true;
+            }
+        }
+        if (!stateOk && config.clusterRequireFullCoverage()) {
+            return RespWriter.error("CLUSTERDOWN The cluster is down");
+        }
+        ClusterNode owner = owners[slot];
+        boolean importing = importingFrom[slot] != null;
+        if (owner == null && !importing) return RespWriter.error("CLUSTERDOWN Hash slot not served");
+        boolean migrating = owner == myself && migratingTo[slot] != null;
+        if (name.equals("MIGRATE") && (migrating || importing)) return null;
+        if (owner == myself) {
+            if (!migrating) return null;
+            int missing = missingKeys(argv, keys);
+            if (missing == 0) return null;
+            // some keys already moved: the client retries once the migration is done
+            if (missing < keys.length) {
+                return RespWriter.error("TRYAGAIN Multiple keys request during rehashing of slot");
+            }
+            return RespWriter.error("ASK " + slot + " " + migratingTo[slot].address());
+        }
+        if (importing && (asking || name.equals("RESTORE-ASKING"))) {
+            if (multipleKeys && missingKeys(argv, keys) > 0) {
+                return RespWriter.error("TRYAGAIN Multiple keys request during rehashing of slot");
+            }
+            return null;
+        }
+        if (owner == null) return RespWriter.error("CLUSTERDOWN Hash slot not served");
+        return RespWriter.error("MOVED " + slot + " " + owner.address());
+    }
+
+    private int missingKeys(List<String> argv, int[] keys) {
+        int missing = 0;
+        for (int i : keys) if (!db.exists(argv.get(i))) missing++;
+        return missing;
+    }
+
+    // ---------- gossip ----------
+
+    /**
+     * This node's view as sent to peers: id, port, configEpoch, currentEpoch, owned slot
+     * ranges ("-" if none), then "id,ip,port" for every other known node.
+     */
+    private List<String> gossipFields() {
+        List<String> f = new ArrayList<>();
+        f.add(myself.id);
+        f.add(Integer.toString(myself.port));
+        f.add(Long.toString(myself.configEpoch));
+        f.add(Long.toString(currentEpoch));
+        String ranges = String.join(",", slotRanges(myself));
+        f.add(ranges.isEmpty() ? "-" : ranges);
+        for (ClusterNode n : nodes.values()) {
+            if (n.myself || n.handshake) continue;
+            f.add(n.id + "," + n.ip + "," + n.port);
+        }
+        return f;
+    }
+
+    /**
+     * CLUSTER GOSSIP from a peer's link: take in its view and answer with ours.
+     */
+    public ByteBuffer gossip(List<String> argv, ClientConn ctx) {
+        messagesReceived++;
+        try {
+            absorb(argv.subList(2, argv.size()), ctx.remoteIp(), null);
+        } catch (IllegalArgumentException e) {
+            return RespWriter.error("ERR " + e.getMessage());
+        }
+        return RespWriter.arrayOfBulkStrings(gossipFields().toArray(new String[0]));
+    }
+
+    void onLinkConnected(ClusterLink link, String localIp) {
+        link.node.link = link; // may be called from ClusterLink.connect, before it returns
+        if (config.clusterAnnounceIp().isEmpty() && !myself.ip.equals(localIp) && localIp != null) {
+            // the address peers reach us on, as seen from our side of the connection
+            myself.ip = localIp;
+            configDirty = true;
+        }
+        ping(link.node);
+    }
+
+    void onPong(ClusterLink link, List<String> fields) {
+        ClusterNode n = link.node;
+        messagesReceived++;
+        n.pingSentMs = 0;
+        n.pongReceivedMs = Clocks.monoMillis();
+        if (n.pfail) {
+            n.pfail = false;
+            System.out.println("[jredis] Cluster node " + n.id + " (" + n.address() + ") is reachable again");
+        }
+        absorb(fields, n.ip, n);
+    }
+
+    void onLinkLost(ClusterLink link, String reason) {
+        ClusterNode n = link.node;
+        if (n.link != link) return;
+        if (link.ready() && !n.pfail) {
+            System.out.println("[jredis] Cluster link to " + n.id + " (" + n.address() + ") lost: " + reason);
+        }
+        n.link = null;
+        n.pingSentMs = 0;
+        n.nextConnectMs = Clocks.monoMillis() + RECONNECT_DELAY_MS;
+    }
+
+    private void ping(ClusterNode n) {
+        List<String> msg = new ArrayList<>();
+        msg.add("CLUSTER");
+        msg.add("GOSSIP");
+        msg.addAll(gossipFields());
+        n.link.send(msg);
+        n.pingSentMs = Clocks.monoMillis();
+        messagesSent++;
+    }
+
+    /**
+     * Apply a peer's view (see gossipFields). 'ip' is the peer's address; 'via' is the node
+     * whose link carried the reply, null for a CLUSTER GOSSIP received as a command.
+     */
+    private void absorb(List<String> f, String ip, ClusterNode via) {
+        if (f.size() < 5) throw new IllegalArgumentException("malformed cluster message");
+        String id = f.get(0);
+        int port;
+        long cfgEpoch;
+        long curEpoch;
+        try {
+            port = Integer.parseInt(f.get(1));
+            cfgEpoch = Long.parseLong(f.get(2));
+            curEpoch = Long.parseLong(f.get(3));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed cluster message");
+        }
+        BitSet claimed = parseRanges(f.get(4));
+
+        if (id.equals(myself.id)) {
+            // met our own address
+            if (via != null) removeNode(via);
+            return;
+        }
+        ClusterNode n = nodes.get(id);
+        if (via != null && via != n) {
+            if (via.handshake && n == null) {
+                // first reply to a MEET: the node's real ID
+                nodes.remove(via.id);
+                via.id = id;
+                via.handshake = false;
+                nodes.put(id, via);
+                n = via;
+                System.out.println("[jredis] Cluster node " + id + " joined (" + via.address() + ")");
+            } else {
+                // met a node we already know, or a different node now answers at this address
+                if (!via.handshake) {
+                    System.out.println("[jredis] Cluster node at " + via.address() + " is now " + id
+                            + ", was " + via.id);
+                }
+                removeNode(via);
+            }
+        }
+        if (n == null) {
+            if (forgotten.containsKey(id)) return;
+            n = new ClusterNode(id, ip, port);
+            n.createdMs = Clocks.monoMillis();
+            nodes.put(id, n);
+            System.out.println("[jredis] Cluster node " + id + " joined (" + n.address() + ")");
+            configDirty = true;
+        }
+        if (!n.ip.equals(ip) || n.port != port) {
+            n.ip = ip;
+            n.port = port;
+            configDirty = true;
+        }
+        if (curEpoch > currentEpoch) {
+            currentEpoch = curEpoch;
+            configDirty = true;
+        }
+        if (n.configEpoch != cfgEpoch) {
+            n.configEpoch = cfgEpoch;
+            configDirty = true;
+        }
+
+        // ownership only moves to a claim with a newer epoch; a slot a node stops claiming keeps
+        // its owner until another node claims it (the new owner of a migrated slot will)
+        boolean slotsChanged = false;
+        for (int s = claimed.nextSetBit(0); s >= 0; s = claimed.nextSetBit(s + 1)) {
+            ClusterNode owner = owners[s];
+            if (owner == n || importingFrom[s] != null) continue;
+            if (owner == null || n.configEpoch > owner.configEpoch) {
+                if (owner == myself) {
+                    migratingTo[s] = null;
+                    System.out.println("[jredis] Slot " + s + " taken over by " + n.id + " (epoch "
+                            + n.configEpoch + ")" + (db.countKeysInSlot(s) > 0 ? ", keys left here" : ""));
+                }
+                owners[s] = n;
+                slotsChanged = true;
+            }
+        }
+        if (slotsChanged) {
+            configDirty = true;
+            updateState();
+        }
+        handleEpochCollision(n);
+
+        for (int i = 5; i < f.size(); i++) {
+            String[] g = f.get(i).split(",");
+            if (g.length != 3 || g[0].equals(myself.id) || nodes.containsKey(g[0]) || forgotten.containsKey(g[0])) {
+                continue;
+            }
+            try {
+                ClusterNode m = new ClusterNode(g[0], g[1], Integer.parseInt(g[2]));
+                m.createdMs = Clocks.monoMillis();
+                nodes.put(m.id, m);
+                configDirty = true;
+                System.out.println("[jredis] Cluster node " + m.id + " (" + m.address() + ") learned from " + n.id);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (configDirty) saveConfigOrLog();
+    }
+
+    /**
+     * Two primaries with the same configEpoch: the one with the smaller ID moves to a new
+     * epoch, so later conflicting claims always have a winner.
+     */
+    private void handleEpochCollision(ClusterNode sender) {
+        if (sender.configEpoch != myself.configEpoch || sender.id.compareTo(myself.id) <= 0) return;
+        currentEpoch++;
+        myself.configEpoch = currentEpoch;
+        configDirty = true;
+        System.out.println("[jredis] configEpoch collision with node " + sender.id + ", configEpoch set to "
+                + currentEpoch);
+    }
+
+    // ---------- cron ----------
+
+    public void cron(long nowMs) {
+        if (!enabled) return;
+        forgotten.values().removeIf(until -> until <= nowMs);
+        long timeout = config.clusterNodeTimeoutMillis();
+        for (ClusterNode n : new ArrayList<>(nodes.values())) {
+            if (n.myself || !nodes.containsKey(n.id)) continue;
+            if (n.handshake && nowMs - n.createdMs > timeout) {
+                System.out.println("[jredis] Cluster handshake with " + n.address() + " timed out");
+                removeNode(n);
+                continue;
+            }
+            if (n.link == null) {
+                if (nowMs >= n.nextConnectMs) connect(n, nowMs);
+            } else if (n.link.ready()) {
+                if (n.pingSentMs == 0 && nowMs - n.pongReceivedMs >= PING_INTERVAL_MS) {
+                    ping(n);
+                } else if (n.pingSentMs != 0 && nowMs - n.pingSentMs > timeout / 2) {
+                    n.link.fail("no reply for " + (nowMs - n.pingSentMs) + " ms");
+                }
+            }
+            long lastSeen = Math.max(n.pongReceivedMs, n.createdMs);
+            if (!n.pfail && !n.handshake && nowMs - lastSeen > timeout) {
+                n.pfail = true;
+                System.out.println("[jredis] Cluster node " + n.id + " (" + n.address() + ") possibly failing");
+            }
+        }
+        if (configDirty) saveConfigOrLog();
+    }
+
+    private void connect(ClusterNode n, long nowMs) {
+        try {
+            n.link = ClusterLink.connect(this, selector, n);
+            n.pingSentMs = 0;
+        } catch (IOException e) {
+            n.nextConnectMs = nowMs + RECONNECT_DELAY_MS;
+        }
+    }
+
+    // ---------- topology changes (CLUSTER subcommands) ----------
+
+    public String myId() {
+        return myself.id;
+    }
+
+    public ByteBuffer meet(String host, int port) {
+        for (ClusterNode n : nodes.values()) {
+            if (!n.myself && n.ip.equals(host) && n.port == port) return RespWriter.simpleString("OK");
+        }
+        ClusterNode n = new ClusterNode(newNodeId(), host, port);
+        n.handshake = true;
+        n.createdMs = Clocks.monoMillis();
+        nodes.put(n.id, n);
+        connect(n, n.createdMs);
+        return RespWriter.simpleString("OK");
+    }
+
+    public ByteBuffer forget(String id) {
+        ClusterNode n = nodes.get(id);
+        if (n == null) return RespWriter.error("ERR Unknown node " + id);
+        if (n == myself) return RespWriter.error("ERR I tried hard but I can't forget myself...");
+        removeNode(n);
+        forgotten.put(id, Clocks.monoMillis() + FORGET_TTL_MS);
+        saveConfigOrLog();
+        return RespWriter.simpleString("OK");
+    }
+
+    private void removeNode(ClusterNode n) {
+        nodes.remove(n.id);
+        if (n.link != null) {
+            n.link.close();
+            n.link = null;
+        }
+        boolean slotsChanged = false;
+        for (int s = 0; s < SLOTS; s++) {
+            if (owners[s] == n) {
+                owners[s] = null;
+                slotsChanged = true;
+            }
+            if (migratingTo[s] == n) migratingTo[s] = null;
+            if (importingFrom[s] == n) importingFrom[s] = null;
+        }
+        configDirty = true;
+        if (slotsChanged) updateState();
+    }
+
+    public ByteBuffer addSlots(int[] slots) {
+        for (int s : slots) {
+            if (owners[s] != null) return RespWriter.error("ERR Slot " + s + " is already busy");
+        }
+        for (int s : slots) {
+            owners[s] = myself;
+            importingFrom[s] = null;
+        }
+        slotsChanged();
+        return RespWriter.simpleString("OK");
+    }
+
+    public ByteBuffer delSlots(int[] slots) {
+        for (int s : slots) {
+            if (owners[s] == null) return RespWriter.error("ERR Slot " + s + " is already unassigned");
+        }
+        for (int s : slots) {
+            owners[s] = null;
+            migratingTo[s] = null;
+            importingFrom[s] = null;
+        }
+        slotsChanged();
+        return RespWriter.simpleString("OK");
+    }
+
+    /**
+     * CLUSTER SETSLOT slot IMPORTING|MIGRATING|NODE node-id, or STABLE (nodeId null).
+     */
+    public ByteBuffer setSlot(int slot, String action, String nodeId) {
+        ClusterNode n = null;
+        if (nodeId != null) {
+            n = nodes.get(nodeId);
+            if (n == null || n.handshake) return RespWriter.error("ERR I don't know about node " + nodeId);
+        }
+        switch (action) {
+            case "MIGRATING":
+                if (owners[slot] != myself) return RespWriter.error("ERR I'm not the owner of hash slot " + slot);
+                if (n == myself) return RespWriter.error("ERR Can't MIGRATE to myself");
+                migratingTo[slot] = n;
+                break;
+            case "IMPORTING":
+                if (owners[slot] == myself) {
+                    return RespWriter.error("ERR I'm already the owner of hash slot " + slot);
+                }
+                if (n == myself) return RespWriter.error("ERR Can't IMPORT from myself");
+                importingFrom[slot] = n;
+                break;
+            case "STABLE":
+                migratingTo[slot] = null;
+                importingFrom[slot] = null;
+                break;
+            default: // NODE
+                if (owners[slot] == myself && n != myself && db.countKeysInSlot(slot) > 0) {
+                    return RespWriter.error("ERR Can't assign hashslot " + slot
+                            + " to a different node while I still hold keys for this hash slot.");
+                }
+                if (n != myself) migratingTo[slot] = null;
+                if (n == myself && importingFrom[slot] != null) {
+                    importingFrom[slot] = null;
+                    // the previous owner still claims the slot: make our claim the newer one
+                    bumpEpochWithoutConsensus();
+                }
+                owners[slot] = n;
+                break;
+        }
+        slotsChanged();
+        return RespWriter.simpleString("OK");
+    }
+
+    private void slotsChanged() {
+        updateState();
+        saveConfigOrLog();
+    }
+
+    /**
+     * Give this node the highest configEpoch in the cluster, unless it already has it alone.
+     * Returns true if the epoch changed.
+     */
+    private boolean bumpEpochWithoutConsensus() {
+        long max = currentEpoch;
+        boolean shared = false;
+        for (ClusterNode n : nodes.values()) {
+            if (n.myself) continue;
+            if (n.configEpoch > max) max = n.configEpoch;
+            if (n.configEpoch == myself.configEpoch) shared = true;
+        }
+        if (myself.configEpoch != 0 && myself.configEpoch == max && !shared) return false;
+        currentEpoch = max + 1;
+        myself.configEpoch = currentEpoch;
+        configDirty = true;
+        System.out.println("[jredis] New configEpoch set to " + currentEpoch);
+        return true;
+    }
+
+    public ByteBuffer bumpEpoch() {
+        boolean bumped = bumpEpochWithoutConsensus();
+        saveConfigOrLog();
+        return RespWriter.simpleString((bumped ? "BUMPED " : "STILL ") + myself.configEpoch);
+    }
+
+    public ByteBuffer setConfigEpoch(long epoch) {
+        if (nodes.size() > 1) {
+            return RespWriter.error("ERR The user can assign a config epoch only when the node does not know any other node.");
+        }
+        if (myself.configEpoch != 0) return RespWriter.error("ERR Node config epoch is already non-zero");
+        myself.configEpoch = epoch;
+        if (epoch > currentEpoch) currentEpoch = epoch;
+        saveConfigOrLog();
+        return RespWriter.simpleString("OK");
+    }
+
+    public ByteBuffer saveConfig() {
+        try {
+            writeConfig();
+            return RespWriter.simpleString("OK");
+        } catch (IOException e) {
+            return RespWriter.error("ERR error saving the cluster node config: " + e.getMessage());
+        }
+    }
+
+    private void updateState() {
+        boolean ok = true;
+        for (ClusterNode o : owners) {
+            if (o == null) {
+                ok = false;
+                break;
+            }
+        }
+        if (ok != stateOk) System.out.println("[jredis] Cluster state changed: " + (ok ? "ok" : "fail"));
+        stateOk = ok;
+    }
+
+    // ---------- introspection ----------
+
+    public ByteBuffer nodes() {
+        StringBuilder sb = new StringBuilder();
+        for (ClusterNode n : nodes.values()) describe(n, sb);
+        return RespWriter.bulkString(sb.toString());
+    }
+
+    // one CLUSTER NODES line; also the cluster-config-file format
+    private void describe(ClusterNode n, StringBuilder sb) {
+        long wallOffset = Clocks.nowMillis() - Clocks.monoMillis();
+        sb.append(n.id).append(' ').append(n.address()).append('@').append(n.port).append(' ').append(n.flags())
+                .append(" - ").append(n.pingSentMs == 0 ? 0 : n.pingSentMs + wallOffset)
+                .append(' ').append(n.pongReceivedMs == 0 ? 0 : n.pongReceivedMs + wallOffset)
+                .append(' ').append(n.configEpoch).append(' ').append(n.connected() ? "connected" : "disconnected");
+        for (String r : slotRanges(n)) sb.append(' ').append(r);
+        if (n.myself) {
+            for (int s = 0; s < SLOTS; s++) {
+                if (migratingTo[s] != null) sb.append(" [").append(s).append("->-").append(migratingTo[s].id).append(']');
+                if (importingFrom[s] != null) {
+                    sb.append(" [").append(s).append("-<-").append(importingFrom[s].id).append(']');
+                }
+            }
+        }
+        sb.append('\n');
+    }
+
+    public ByteBuffer slots() {
+        List<ByteBuffer> out = new ArrayList<>();
+        int s = 0;
+        while (s < SLOTS) {
+            ClusterNode o = owners[s];
+            int start = s;
+            while (s < SLOTS && owners[s] == o) s++;
+            if (o == null) continue;
+            List<ByteBuffer> range = new ArrayList<>();
+            range.add(RespWriter.integer(start));
+            range.add(RespWriter.integer(s - 1));
+            range.add(RespWriter.arrayOfFrames(List.of(RespWriter.bulkString(o.ip), RespWriter.integer(o.port),
+                    RespWriter.bulkString(o.id))));
+            out.add(RespWriter.arrayOfFrames(range));
+        }
+        return RespWriter.arrayOfFrames(out);
+    }
+
+    public ByteBuffer shards() {
+        List<ByteBuffer> out = new ArrayList<>();
+        for (ClusterNode n : nodes.values()) {
+            if (n.handshake) continue;
+            List<ByteBuffer> ranges = new ArrayList<>();
+            for (String r : slotRanges(n)) {
+                int dash = r.indexOf('-');
+                ranges.add(RespWriter.integer(Integer.parseInt(dash < 0 ? r : r.substring(0, dash))));
+                ranges.add(RespWriter.integer(Integer.parseInt(dash < 0 ? r : r.substring(dash + 1))));
+            }
+            List<ByteBuffer> node = List.of(
+                    RespWriter.bulkString("id"), RespWriter.bulkString(n.id),
+                    RespWriter.bulkString("port"), RespWriter.integer(n.port),
+                    RespWriter.bulkString("ip"), RespWriter.bulkString(n.ip),
+                    RespWriter.bulkString("endpoint"), RespWriter.bulkString(n.ip),
+                    RespWriter.bulkString("role"), RespWriter.bulkString("master"),
+                    RespWriter.bulkString("replication-offset"), RespWriter.integer(0),
+                    RespWriter.bulkString("health"), RespWriter.bulkString(n.pfail ? "fail" : "online"));
+            out.add(RespWriter.arrayOfFrames(List.of(
+                    RespWriter.bulkString("slots"), RespWriter.arrayOfFrames(ranges),
+                    RespWriter.bulkString("nodes"), RespWriter.arrayOfFrames(List.of(RespWriter.arrayOfFrames(node))))));
+        }
+        return RespWriter.arrayOfFrames(out);
+    }
+
+    public String info() {
+        int assigned = 0;
+        int pfail = 0;
+        int size = 0;
+        Map<ClusterNode, Boolean> serving = new HashMap<>();
+        for (ClusterNode o : owners) {
+            if (o == null) continue;
+            assigned++;
+            if (o.pfail) pfail++;
+            if (serving.put(o, Boolean.TRUE) == null) size++;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("cluster_state:").append(stateOk ? "ok" : "fail").append("\r\n");
+        sb.append("cluster_slots_assigned:").append(assigned).append("\r\n");
+        sb.append("cluster_slots_ok:").append(assigned - pfail).append("\r\n");
+        sb.append("cluster_slots_pfail:").append(pfail).append("\r\n");
+        sb.append("cluster_slots_fail:0\r\n");
+        sb.append("cluster_known_nodes:").append(nodes.size()).append("\r\n");
+        sb.append("cluster_size:").append(size).append("\r\n");
+        sb.append("cluster_current_epoch:").append(currentEpoch).append("\r\n");
+        sb.append("cluster_my_epoch:").append(myself.configEpoch).append("\r\n");
+        sb.append("cluster_stats_messages_sent:").append(messagesSent).append("\r\n");
+        sb.append("cluster_stats_messages_received:").append(messagesReceived).append("\r\n");
+        return sb.toString();
+    }
+
+    /**
+     * Owned slots as "start-end" ranges ("n" for a single slot), ascending.
+     */
+    private List<String> slotRanges(ClusterNode n) {
+        List<String> out = new ArrayList<>();
+        int s = 0;
+        while (s < SLOTS) {
+            if (owners[s] != n) {
+                s++;
+                continue;
+            }
+            int start = s;
+            while (s < SLOTS && owners[s] == n) s++;
+            out.add(start == s - 1 ? Integer.toString(start) : start + "-" + (s - 1));
+        }
+        return out;
+    }
+
+    private static BitSet parseRanges(String spec) {
+        BitSet b = new BitSet(SLOTS);
+        if (spec.equals("-")) return b;
+        try {
+            for (String r : spec.split(",")) {
+                int dash = r.indexOf('-');
+                int from = Integer.parseInt(dash < 0 ? r : r.substring(0, dash));
+                int to = Integer.parseInt(dash < 0 ? r : r.substring(dash + 1));
+                if (from < 0 || to >= SLOTS || from > to) throw new IllegalArgumentException("bad slot range " + r);
+                b.set(from, to + 1);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad slot range " + spec);
+        }
+        return b;
+    }
+
+    // ---------- configuration file ----------
+
+    private Path configPath() {
+        return Paths.get(config.dir()).resolve(config.clusterConfigFile());
+    }
+
+    private void saveConfigOrLog() {
+        try {
+            writeConfig();
+        } catch (IOException e) {
+            System.out.println("[jredis] Can't save the cluster configuration: " + e.getMessage());
+        }
+    }
+
+    private void writeConfig() throws IOException {
+        configDirty = false;
+        StringBuilder sb = new StringBuilder();
+        for (ClusterNode n : nodes.values()) {
+            if (!n.handshake) describe(n, sb);
+        }
+        sb.append("vars currentEpoch ").append(currentEpoch).append(" lastVoteEpoch 0\n");
+        Path path = configPath();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadConfig(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.ISO_8859_1);
+        List<String[]> slotSpecs = new ArrayList<>();
+        try {
+            for (String line : lines) {
+                String[] t = line.trim().split(" ");
+                if (t.length == 0 || t[0].isEmpty()) continue;
+                if (t[0].equals("vars")) {
+                    for (int i = 1; i + 1 < t.length; i += 2) {
+                        if (t[i].equals("currentEpoch")) currentEpoch = Long.parseLong(t[i + 1]);
+                    }
+                    continue;
+                }
+                if (t.length < 8) throw new IOException("bad line: " + line);
+                String addr = t[1].contains("@") ? t[1].substring(0, t[1].indexOf('@')) : t[1];
+                int colon = addr.lastIndexOf(':');
+                ClusterNode n = new ClusterNode(t[0], addr.substring(0, colon),
+                        Integer.parseInt(addr.substring(colon + 1)));
+                n.configEpoch = Long.parseLong(t[6]);
+                n.myself = t[2].contains("myself");
+                if (n.myself) myself = n;
+                nodes.put(n.id, n);
+                slotSpecs.add(t);
+            }
+            if (myself == null) throw new IOException("no 'myself' node");
+            for (String[] t : slotSpecs) {
+                ClusterNode n = nodes.get(t[0]);
+                for (int i = 8; i < t.length; i++) loadSlotSpec(n, t[i]);
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IOException("corrupt cluster configuration " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void loadSlotSpec(ClusterNode n, String spec) throws IOException {
+        if (spec.startsWith("[")) {
+            // [slot->-id] migrating, [slot-<-id] importing
+            boolean migrating = spec.contains("->-");
+            String sep = migrating ? "->-" : "-<-";
+            int at = spec.indexOf(sep);
+            int slot = Integer.parseInt(spec.substring(1, at));
+            ClusterNode other = nodes.get(spec.substring(at + 3, spec.length() - 1));
+            if (other == null) return;
+            if (migrating) migratingTo[slot] = other;
+            else importingFrom[slot] = other;
+            return;
+        }
+        BitSet b = parseRanges(spec);
+        for (int s = b.nextSetBit(0); s >= 0; s = b.nextSetBit(s + 1)) owners[s] = n;
+    }
+
+    private static String newNodeId() {
+        byte[] b = new byte[20];
+        new SecureRandom().nextBytes(b);
+        StringBuilder sb = new StringBuilder(40);
+        for (byte x : b) sb.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        return sb.toString();
+    }
+}
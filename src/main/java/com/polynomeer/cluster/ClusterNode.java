@@ -0,0 +1,46 @@
+package com.polynomeer.cluster;
+
+/**
+ * A node of the cluster as this server knows it. Slot ownership is kept by ClusterManager
+ * (one owner per slot); a node only carries what is needed to reach and rank it.
+ */
+final class ClusterNode {
+    String id;               // 40 hex chars; random while 'handshake' (MEET before the first reply)
+    String ip;
+    int port;
+    long configEpoch;        // ranks conflicting slot claims: the higher epoch wins
+    boolean myself;
+    boolean handshake;       // met but not heard from yet
+    ClusterLink link;        // outbound bus connection (null for myself or while disconnected)
+    long pingSentMs;         // monotonic; 0 when no ping is waiting for its reply
+    long pongReceivedMs;     // monotonic time of the last reply
+    long nextConnectMs;      // monotonic; reconnect not before
+    long createdMs;          // monotonic; handshake nodes give up after the node timeout
+    boolean pfail;           // no reply within the node timeout
+
+    ClusterNode(String id, String ip, int port) {
+        this.id = id;
+        this.ip = ip;
+        this.port = port;
+    }
+
+    String address() {
+        return ip + ":" + port;
+    }
+
+    /**
+     * Flags as shown by CLUSTER NODES.
+     */
+    String flags() {
+        StringBuilder sb = new StringBuilder();
+        if (myself) sb.append("myself,");
+        sb.append("master");
+        if (pfail) sb.append(",fail?");
+        if (handshake) sb.append(",handshake");
+        return sb.toString();
+    }
+
+    boolean connected() {
+        return myself || (link != null && link.ready());
+    }
+}
@@ -0,0 +1,42 @@
+package com.polynomeer.cluster;
+
+/**
+ * Key to hash slot mapping, as in Redis Cluster: CRC16 (XMODEM) of the key modulo 16384.
+ * If the key contains a non-empty "{...}" section, only the part between the first '{'
+ * and the following '}' is hashed, so related keys can be forced into the same slot.
+ * Keys are ISO-8859-1 strings (one char per byte).
+ */
+public final class HashSlots {
+    public static final int SLOTS = 16384;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int b = 0; b < 8; b++) crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private HashSlots() {
+    }
+
+    public static int slot(String key) {
+        int len = key.length();
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) return crc16(key, open + 1, close) & (SLOTS - 1);
+        }
+        return crc16(key, 0, len) & (SLOTS - 1);
+    }
+
+    static int crc16(String s, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ s.charAt(i)) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
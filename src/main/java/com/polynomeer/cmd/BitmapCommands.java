@@ -0,0 +1,378 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceEvents;
+import com.polynomeer.db.WrongTypeException;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.BitOps;
+import com.polynomeer.util.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bitmap commands over string values (mutated in place through Db.getBytes):
+ * - SETBIT key offset 0|1, GETBIT key offset
+ * - BITCOUNT key [start end [BYTE|BIT]]
+ * - BITPOS key bit [start [end [BYTE|BIT]]]
+ * - BITOP AND|OR|XOR|NOT destkey key [key ...]
+ * - BITFIELD key [GET type offset] [SET type offset value] [INCRBY type offset increment]
+ * [OVERFLOW WRAP|SAT|FAIL] ..., and the read-only BITFIELD_RO key [GET type offset] ...
+ */
+public final class BitmapCommands {
+    private static final long MAX_BIT_OFFSET = (512L * 1024 * 1024 * 8) - 1; // 512 MB strings
+
+    private BitmapCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, Db db) {
+        reg.put("SETBIT", (argv, ctx) -> guard(() -> setbit(db, argv)));
+        reg.put("GETBIT", (argv, ctx) -> guard(() -> getbit(db, argv)));
+        reg.put("BITCOUNT", (argv, ctx) -> guard(() -> bitcount(db, argv)));
+        reg.put("BITPOS", (argv, ctx) -> guard(() -> bitpos(db, argv)));
+        reg.put("BITOP", (argv, ctx) -> guard(() -> bitop(db, argv)));
+        reg.put("BITFIELD", (argv, ctx) -> guard(() -> bitfield(db, argv, false)));
+        reg.put("BITFIELD_RO", (argv, ctx) -> guard(() -> bitfield(db, argv, true)));
+    }
+
+    private interface Body {
+        ByteBuffer run() throws WrongTypeException;
+    }
+
+    private static ByteBuffer guard(Body b) {
+        try {
+            return b.run();
+        } catch (WrongTypeException e) {
+            return RespWriter.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+        } catch (IllegalArgumentException e) {
+            return RespWriter.error(e.getMessage());
+        }
+    }
+
+    // ---------- SETBIT / GETBIT ----------
+
+    private static ByteBuffer setbit(Db db, List<String> argv) throws WrongTypeException {
+        if (argv.size() != 4) return RespWriter.error("ERR wrong number of arguments for 'SETBIT'");
+        long off = parseBitOffset(argv.get(2));
+        String v = argv.get(3);
+        if (!v.equals("0") && !v.equals("1")) return RespWriter.error("ERR bit is not an integer or out of range");
+        ByteBuf buf = db.getOrCreateBytes(argv.get(1));
+        buf.ensureLength((int) (off >>> 3) + 1);
+        int old = BitOps.setBit(buf.array(), off, v.charAt(0) - '0');
+        db.notifyKeyspaceEvent(KeyspaceEvents.STRING, "setbit", argv.get(1));
+        return RespWriter.integer(old);
+    }
+
+    private static ByteBuffer getbit(Db db, List<String> argv) throws WrongTypeException {
+        if (argv.size() != 3) return RespWriter.error("ERR wrong number of arguments for 'GETBIT'");
+        long off = parseBitOffset(argv.get(2));
+        ByteBuf buf = db.getBytes(argv.get(1));
+        if (buf == null) return RespWriter.integer(0);
+        return RespWriter.integer(BitOps.getBit(buf.array(), buf.length(), off));
+    }
+
+    // ---------- BITCOUNT / BITPOS ----------
+
+    private static ByteBuffer bitcount(Db db, List<String> argv) throws WrongTypeException {
+        if (argv.size() != 2 && argv.size() != 4 && argv.size() != 5) {
+            return argv.size() < 2
+                    ? RespWriter.error("ERR wrong number of arguments for 'BITCOUNT'")
+                    : RespWriter.error("ERR syntax error");
+        }
+        ByteBuf buf = db.getBytes(argv.get(1));
+        if (argv.size() == 2) {
+            return RespWriter.integer(buf == null ? 0 : BitOps.popcount(buf.array(), 0, buf.length()));
+        }
+        long start = parseLong(argv.get(2)), end = parseLong(argv.get(3));
+        boolean bitMode = argv.size() == 5 && parseUnit(argv.get(4));
+        if (buf == null || buf.length() == 0) return RespWriter.integer(0);
+        long total = bitMode ? (long) buf.length() << 3 : buf.length();
+        long[] r = normalizeRange(start, end, total);
+        if (r == null) return RespWriter.integer(0);
+        if (bitMode) return RespWriter.integer(BitOps.popcountBits(buf.array(), r[0], r[1]));
+        return RespWriter.integer(BitOps.popcount(buf.array(), (int) r[0], (int) r[1] + 1));
+    }
+
+    private static ByteBuffer bitpos(Db db, List<String> argv) throws WrongTypeException {
+        if (argv.size() < 3 || argv.size() > 6) {
+            return argv.size() < 3
+                    ? RespWriter.error("ERR wrong number of arguments for 'BITPOS'")
+                    : RespWriter.error("ERR syntax error");
+        }
+        String b = argv.get(2);
+        if (!b.equals("0") && !b.equals("1")) return RespWriter.error("ERR The bit argument must be 1 or 0.");
+        int bit = b.charAt(0) - '0';
+        long start = argv.size() > 3 ? parseLong(argv.get(3)) : 0;
+        boolean endGiven = argv.size() > 4;
+        long end = endGiven ? parseLong(argv.get(4)) : -1;
+        boolean bitMode = argv.size() == 6 && parseUnit(argv.get(5));
+
+        ByteBuf buf = db.getBytes(argv.get(1));
+        if (buf == null || buf.length() == 0) return RespWriter.integer(bit == 1 ? -1 : 0);
+        long total = bitMode ? (long) buf.length() << 3 : buf.length();
+        long[] r = normalizeRange(start, end, total);
+        if (r == null) return RespWriter.integer(-1);
+        long startBit = bitMode ? r[0] : r[0] << 3;
+        long endBit = bitMode ? r[1] : (r[1] << 3) + 7;
+        long pos = BitOps.bitpos(buf.array(), startBit, endBit, bit);
+        // Looking for a clear bit with no explicit end: the string is treated as zero-padded on the right
+        if (pos < 0 && bit == 0 && !endGiven) pos = endBit + 1;
+        return RespWriter.integer(pos);
+    }
+
+    /**
+     * Redis-style range normalization: negative indexes count from the end, then clamp.
+     * Returns {start, end} inclusive, or null if empty.
+     */
+    private static long[] normalizeRange(long start, long end, long total) {
+        if (start < 0) start = total + start;
+        if (end < 0) end = total + end;
+        if (start < 0) start = 0;
+        if (end < 0) end = 0;
+        if (end >= total) end = total - 1;
+        if (start > end) return null;
+        return new long[]{start, end};
+    }
+
+    /**
+     * BYTE|BIT unit argument; returns true for BIT.
+     */
+    private static boolean parseUnit(String s) {
+        String u = s.toUpperCase(Locale.ROOT);
+        if (u.equals("BIT")) return true;
+        if (u.equals("BYTE")) return false;
+        throw new IllegalArgumentException("ERR syntax error");
+    }
+
+    // ---------- BITOP ----------
+
+    private static ByteBuffer bitop(Db db, List<String> argv) throws WrongTypeException {
+        if (argv.size() < 4) return RespWriter.error("ERR wrong number of arguments for 'BITOP'");
+        int op;
+        switch (argv.get(1).toUpperCase(Locale.ROOT)) {
+            case "AND":
+                op = BitOps.AND;
+                break;
+            case "OR":
+                op = BitOps.OR;
+                break;
+            case "XOR":
+                op = BitOps.XOR;
+                break;
+            case "NOT":
+                op = BitOps.NOT;
+                break;
+            default:
+                return RespWriter.error("ERR syntax error");
+        }
+        List<String> keys = argv.subList(3, argv.size());
+        if (op == BitOps.NOT && keys.size() != 1) {
+            return RespWriter.error("ERR BITOP NOT must be called with a single source key.");
+        }
+        byte[][] srcs = new byte[keys.size()][];
+        int[] lens = new int[keys.size()];
+        int maxLen = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            ByteBuf b = db.getBytes(keys.get(i));
+            if (b == null) continue;
+            srcs[i] = b.array();
+            lens[i] = b.length();
+            maxLen = Math.max(maxLen, lens[i]);
+        }
+        String dest = argv.get(2);
+        if (maxLen == 0) {
+            db.del(dest);
+            return RespWriter.integer(0);
+        }
+        byte[] out = BitOps.bitop(op, srcs, lens, maxLen);
+        db.setBytes(dest, ByteBuf.wrap(out, maxLen), -1);
+        return RespWriter.integer(maxLen);
+    }
+
+    // ---------- BITFIELD ----------
+
+    private static final int OVERFLOW_WRAP = 0, OVERFLOW_SAT = 1, OVERFLOW_FAIL = 2;
+
+    private static final class FieldOp {
+        final int kind; // 0 = GET, 1 = SET, 2 = INCRBY
+        final boolean signed;
+        final int bits;
+        final long offset;
+        final long value;
+        final int overflow;
+
+        FieldOp(int kind, boolean signed, int bits, long offset, long value, int overflow) {
+            this.kind = kind;
+            this.signed = signed;
+            this.bits = bits;
+            this.offset = offset;
+            this.value = value;
+            this.overflow = overflow;
+        }
+    }
+
+    private static ByteBuffer bitfield(Db db, List<String> argv, boolean readOnly) throws WrongTypeException {
+        String name = readOnly ? "BITFIELD_RO" : "BITFIELD";
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for '" + name + "'");
+
+        // Parse everything first so a syntax error doesn't leave partial writes behind
+        List<FieldOp> ops = new ArrayList<>();
+        int overflow = OVERFLOW_WRAP;
+        boolean writes = false;
+        for (int i = 2; i < argv.size(); ) {
+            String sub = argv.get(i).toUpperCase(Locale.ROOT);
+            if (sub.equals("OVERFLOW")) {
+                if (i + 1 >= argv.size()) return RespWriter.error("ERR syntax error");
+                switch (argv.get(i + 1).toUpperCase(Locale.ROOT)) {
+                    case "WRAP":
+                        overflow = OVERFLOW_WRAP;
+                        break;
+                    case "SAT":
+                        overflow = OVERFLOW_SAT;
+                        break;
+                    case "FAIL":
+                        overflow = OVERFLOW_FAIL;
+                        break;
+                    default:
+                        return RespWriter.error("ERR Invalid OVERFLOW type specified");
+                }
+                i += 2;
+                continue;
+            }
+            int kind = sub.equals("GET") ? 0 : sub.equals("SET") ? 1 : sub.equals("INCRBY") ? 2 : -1;
+            if (kind < 0) return RespWriter.error("ERR syntax error");
+            int nargs = kind == 0 ? 2 : 3;
+            if (i + nargs >= argv.size()) return RespWriter.error("ERR syntax error");
+            if (readOnly && kind != 0) return RespWriter.error("ERR BITFIELD_RO only supports the GET subcommand");
+
+            String type = argv.get(i + 1);
+            boolean signed = !type.isEmpty() && (type.charAt(0) == 'i' || type.charAt(0) == 'I');
+            int bits;
+            try {
+                if (type.isEmpty() || !(signed || type.charAt(0) == 'u' || type.charAt(0) == 'U')) {
+                    throw new NumberFormatException();
+                }
+                bits = Integer.parseInt(type.substring(1));
+            } catch (NumberFormatException e) {
+                bits = 0;
+            }
+            if (bits < 1 || (signed && bits > 64) || (!signed && bits > 63)) {
+                return RespWriter.error("ERR Invalid bitfield type. Use something like i16 u8. "
+                        + "Note that u64 is not supported but i64 is.");
+            }
+            String o = argv.get(i + 2);
+            long offset = o.startsWith("#") ? parseBitOffset(o.substring(1)) * bits : parseBitOffset(o);
+            if (offset + bits - 1 > MAX_BIT_OFFSET) {
+                return RespWriter.error("ERR bit offset is not an integer or out of range");
+            }
+            long value = kind == 0 ? 0 : parseLong(argv.get(i + 3));
+            ops.add(new FieldOp(kind, signed, bits, offset, value, overflow));
+            writes |= kind != 0;
+            i += nargs + 1;
+        }
+
+        ByteBuf buf = writes ? db.getOrCreateBytes(argv.get(1)) : db.getBytes(argv.get(1));
+        List<ByteBuffer> replies = new ArrayList<>(ops.size());
+        for (FieldOp op : ops) {
+            if (op.kind == 0) {
+                long v = buf == null ? 0 : op.signed
+                        ? BitOps.getSigned(buf.array(), buf.length(), op.offset, op.bits)
+                        : BitOps.getUnsigned(buf.array(), buf.length(), op.offset, op.bits);
+                replies.add(RespWriter.integer(v));
+                continue;
+            }
+            buf.ensureLength((int) ((op.offset + op.bits - 1) >>> 3) + 1);
+            byte[] a = buf.array();
+            long old = op.signed
+                    ? BitOps.getSigned(a, buf.length(), op.offset, op.bits)
+                    : BitOps.getUnsigned(a, buf.length(), op.offset, op.bits);
+            long[] limit = new long[1];
+            int of;
+            if (op.kind == 1) {
+                of = op.signed ? signedOverflow(op.value, 0, op.bits, op.overflow, limit)
+                        : unsignedOverflow(op.value, 0, op.bits, op.overflow, limit);
+                if (of == 0) limit[0] = op.value;
+            } else {
+                of = op.signed ? signedOverflow(old, op.value, op.bits, op.overflow, limit)
+                        : unsignedOverflow(old, op.value, op.bits, op.overflow, limit);
+                if (of == 0) limit[0] = old + op.value;
+            }
+            if (of != 0 && op.overflow == OVERFLOW_FAIL) {
+                replies.add(RespWriter.nullBulk());
+                continue;
+            }
+            BitOps.setBits(a, op.offset, op.bits, limit[0]);
+            replies.add(RespWriter.integer(op.kind == 1 ? old : limit[0]));
+        }
+        if (writes) db.notifyKeyspaceEvent(KeyspaceEvents.STRING, "setbit", argv.get(1));
+        return RespWriter.arrayOfFrames(replies);
+    }
+
+    /**
+     * Overflow check for value + incr in an unsigned field of 'bits' bits.
+     * Returns 1 on overflow, -1 on underflow, 0 otherwise; sets limit[0] to the WRAP/SAT result.
+     */
+    private static int unsignedOverflow(long value, long incr, int bits, int owtype, long[] limit) {
+        long max = (1L << bits) - 1;
+        long maxincr = max - value;
+        long minincr = -value;
+        if (Long.compareUnsigned(value, max) > 0 || incr > maxincr) {
+            limit[0] = owtype == OVERFLOW_WRAP ? (value + incr) & max : max;
+            return 1;
+        }
+        if (incr < 0 && incr < minincr) {
+            limit[0] = owtype == OVERFLOW_WRAP ? (value + incr) & max : 0;
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Overflow check for value + incr in a signed field of 'bits' bits (see unsignedOverflow).
+     */
+    private static int signedOverflow(long value, long incr, int bits, int owtype, long[] limit) {
+        long max = bits == 64 ? Long.MAX_VALUE : (1L << (bits - 1)) - 1;
+        long min = -max - 1;
+        long maxincr = max - value;
+        long minincr = min - value;
+        int result = 0;
+        if (value > max || (bits != 64 && incr > maxincr) || (value >= 0 && incr > 0 && incr > maxincr)) {
+            result = 1;
+            limit[0] = max;
+        } else if (value < min || (bits != 64 && incr < minincr) || (value < 0 && incr < 0 && incr < minincr)) {
+            result = -1;
+            limit[0] = min;
+        }
+        if (result != 0 && owtype == OVERFLOW_WRAP) {
+            long c = value + incr;
+            if (bits < 64) {
+                long mask = -1L << bits;
+                c = (c & (1L << (bits - 1))) != 0 ? c | mask : c & ~mask;
+            }
+            limit[0] = c;
+        }
+        return result;
+    }
+
+    // ---------- parsing ----------
+
+    private static long parseBitOffset(String s) {
+        try {
+            long v = Long.parseLong(s);
+            if (v >= 0 && v <= MAX_BIT_OFFSET) return v;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("ERR bit offset is not an integer or out of range");
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERR value is not an integer or out of range");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.cluster.ClusterManager;
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.net.ClientTracking;
+import com.polynomeer.repl.ReplicationManager;
+import com.polynomeer.resp.RespWriter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Connection commands:
+ * - HELLO [protover [AUTH username password] [SETNAME name]]   (RESP2 or RESP3; server info map)
+ * - CLIENT ID | SETNAME name | GETNAME
+ * - CLIENT TRACKING ON|OFF [REDIRECT id] [PREFIX p ...] [BCAST] [OPTIN] [OPTOUT] [NOLOOP]
+ * - CLIENT CACHING YES|NO | GETREDIR | TRACKINGINFO
+ * <p>
+ * There are no passwords: HELLO's AUTH accepts the default user with any password, like a
+ * Redis server without requirepass.
+ */
+public final class ClientCommands {
+    // advertised in HELLO; clients use it to pick protocol features
+    private static final String SERVER_VERSION = "7.0.0";
+
+    private ClientCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, ClientTracking tracking, ReplicationManager repl,
+                                ClusterManager cluster) {
+        reg.put("HELLO", (argv, ctx) -> hello(repl, cluster, argv, ctx));
+        reg.put("CLIENT", (argv, ctx) -> client(tracking, argv, ctx));
+    }
+
+    private static ByteBuffer hello(ReplicationManager repl, ClusterManager cluster, List<String> argv,
+                                    ClientConn ctx) {
+        int protocol = ctx.protocol();
+        String name = null;
+        if (argv.size() > 1) {
+            try {
+                protocol = Integer.parseInt(argv.get(1));
+            } catch (NumberFormatException e) {
+                return RespWriter.error("ERR Protocol version is not an integer or out of range");
+            }
+            if (protocol != 2 && protocol != 3) return RespWriter.error("NOPROTO unsupported protocol version");
+        }
+        for (int i = 2; i < argv.size(); i++) {
+            String opt = argv.get(i).toUpperCase(Locale.ROOT);
+            if (opt.equals("AUTH") && i + 2 < argv.size()) {
+                if (!argv.get(i + 1).equals("default")) {
+                    return RespWriter.error("WRONGPASS invalid username-password pair or user is disabled.");
+                }
+                i += 2;
+            } else if (opt.equals("SETNAME") && i + 1 < argv.size()) {
+                name = argv.get(++i);
+                if (!validName(name)) return badName();
+            } else {
+                return RespWriter.error("ERR Syntax error in HELLO option '" + argv.get(i) + "'");
+            }
+        }
+        ctx.setProtocol(protocol);
+        if (name != null) ctx.setName(name);
+        boolean resp3 = protocol == 3;
+        List<ByteBuffer> out = new ArrayList<>();
+        out.add(RespWriter.bulkString("server"));
+        out.add(RespWriter.bulkString("redis"));
+        out.add(RespWriter.bulkString("version"));
+        out.add(RespWriter.bulkString(SERVER_VERSION));
+        out.add(RespWriter.bulkString("proto"));
+        out.add(RespWriter.integer(protocol));
+        out.add(RespWriter.bulkString("id"));
+        out.add(RespWriter.integer(ctx.id()));
+        out.add(RespWriter.bulkString("mode"));
+        out.add(RespWriter.bulkString(cluster.enabled() ? "cluster" : "standalone"));
+        out.add(RespWriter.bulkString("role"));
+        out.add(RespWriter.bulkString(repl.isReplica() ? "replica" : "master"));
+        out.add(RespWriter.bulkString("modules"));
+        out.add(RespWriter.arrayOfFrames(List.of()));
+        return RespWriter.mapOfFrames(out, resp3);
+    }
+
+    private static ByteBuffer client(ClientTracking tracking, List<String> argv, ClientConn ctx) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'CLIENT'");
+        String sub = argv.get(1).toUpperCase(Locale.ROOT);
+        int argc = argv.size();
+        switch (sub) {
+            case "ID":
+                return argc != 2 ? arity(sub) : RespWriter.integer(ctx.id());
+            case "SETNAME":
+                if (argc != 3) return arity(sub);
+                if (!validName(argv.get(2))) return badName();
+                ctx.setName(argv.get(2));
+                return RespWriter.simpleString("OK");
+            case "GETNAME":
+                if (argc != 2) return arity(sub);
+                return ctx.name().isEmpty() ? RespWriter.nullValue(ctx.resp3()) : RespWriter.bulkString(ctx.name());
+            case "TRACKING":
+                return tracking(tracking, argv, ctx);
+            case "CACHING": {
+                if (argc != 3) return arity(sub);
+                String v = argv.get(2).toUpperCase(Locale.ROOT);
+                if (!v.equals("YES") && !v.equals("NO")) return RespWriter.error("ERR syntax error");
+                String err = tracking.caching(ctx, v.equals("YES"));
+                return err != null ? RespWriter.error(err) : RespWriter.simpleString("OK");
+            }
+            case "GETREDIR":
+                return argc != 2 ? arity(sub) : RespWriter.integer(tracking.redirect(ctx));
+            case "TRACKINGINFO":
+                return argc != 2 ? arity(sub) : tracking.info(ctx);
+            default:
+                return RespWriter.error("ERR unknown subcommand '" + argv.get(1) + "'. Try CLIENT HELP.");
+        }
+    }
+
+    private static ByteBuffer tracking(ClientTracking tracking, List<String> argv, ClientConn ctx) {
+        if (argv.size() < 3) return arity("TRACKING");
+        String mode = argv.get(2).toUpperCase(Locale.ROOT);
+        if (mode.equals("OFF")) {
+            tracking.disable(ctx);
+            return RespWriter.simpleString("OK");
+        }
+        if (!mode.equals("ON")) return RespWriter.error("ERR syntax error");
+        long redirect = 0;
+        boolean bcast = false, optin = false, optout = false, noloop = false;
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (int i = 3; i < argv.size(); i++) {
+            String opt = argv.get(i).toUpperCase(Locale.ROOT);
+            switch (opt) {
+                case "REDIRECT":
+                    if (i + 1 >= argv.size()) return RespWriter.error("ERR syntax error");
+                    if (redirect != 0) return RespWriter.error("ERR A client can only redirect to a single other client");
+                    try {
+                        redirect = Long.parseLong(argv.get(++i));
+                    } catch (NumberFormatException e) {
+                        return RespWriter.error("ERR value is not an integer or out of range");
+                    }
+                    break;
+                case "PREFIX":
+                    if (i + 1 >= argv.size()) return RespWriter.error("ERR syntax error");
+                    prefixes.add(argv.get(++i));
+                    break;
+                case "BCAST":
+                    bcast = true;
+                    break;
+                case "OPTIN":
+                    optin = true;
+                    break;
+                case "OPTOUT":
+                    optout = true;
+                    break;
+                case "NOLOOP":
+                    noloop = true;
+                    break;
+                default:
+                    return RespWriter.error("ERR syntax error");
+            }
+        }
+        String err = tracking.enable(ctx, new ClientTracking.Options(redirect, bcast, optin, optout, noloop, prefixes));
+        return err != null ? RespWriter.error(err) : RespWriter.simpleString("OK");
+    }
+
+    // like Redis: printable ASCII without spaces
+    private static boolean validName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '!' || c > '~') return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer badName() {
+        return RespWriter.error("ERR Client names cannot contain spaces, newlines or special characters.");
+    }
+
+    private static ByteBuffer arity(String sub) {
+        return RespWriter.error("ERR wrong number of arguments for 'CLIENT|" + sub.toLowerCase(Locale.ROOT) + "'");
+    }
+}
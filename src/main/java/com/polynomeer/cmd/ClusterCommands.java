@@ -0,0 +1,183 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.cluster.ClusterManager;
+import com.polynomeer.cluster.HashSlots;
+import com.polynomeer.db.Db;
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.resp.RespWriter;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cluster commands (cluster mode only):
+ * - CLUSTER INFO | MYID | NODES | SLOTS | SHARDS
+ * - CLUSTER KEYSLOT key | COUNTKEYSINSLOT slot | GETKEYSINSLOT slot count
+ * - CLUSTER ADDSLOTS slot [slot ...] | ADDSLOTSRANGE start end [start end ...] (and DEL variants)
+ * - CLUSTER SETSLOT slot IMPORTING node-id | MIGRATING node-id | NODE node-id | STABLE
+ * - CLUSTER MEET ip port | FORGET node-id
+ * - CLUSTER SET-CONFIG-EPOCH epoch | BUMPEPOCH | SAVECONFIG
+ * - CLUSTER GOSSIP ...   (internal: node-to-node state exchange)
+ * - ASKING   (the next command may use a slot this node is importing)
+ * REPLICAOF is refused in cluster mode.
+ */
+public final class ClusterCommands {
+    private ClusterCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, Db db, ClusterManager cluster) {
+        reg.put("CLUSTER", (argv, ctx) -> cluster(db, cluster, argv, ctx));
+        reg.put("ASKING", (argv, ctx) -> asking(cluster, argv, ctx));
+        if (cluster.enabled()) {
+            Command refused = (argv, ctx) -> RespWriter.error("ERR REPLICAOF not allowed in cluster mode.");
+            reg.put("REPLICAOF", refused);
+            reg.put("SLAVEOF", refused);
+        }
+    }
+
+    private static ByteBuffer asking(ClusterManager cluster, List<String> argv, ClientConn ctx) {
+        if (argv.size() != 1) return RespWriter.error("ERR wrong number of arguments for 'ASKING'");
+        if (!cluster.enabled()) return RespWriter.error("ERR This instance has cluster support disabled");
+        ctx.setAsking(true);
+        return RespWriter.simpleString("OK");
+    }
+
+    private static ByteBuffer cluster(Db db, ClusterManager cluster, List<String> argv, ClientConn ctx) {
+        if (!cluster.enabled()) return RespWriter.error("ERR This instance has cluster support disabled");
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'CLUSTER'");
+        String sub = argv.get(1).toUpperCase(Locale.ROOT);
+        int argc = argv.size();
+        try {
+            switch (sub) {
+                case "INFO":
+                    return argc != 2 ? arity(sub) : RespWriter.bulkString(cluster.info());
+                case "MYID":
+                    return argc != 2 ? arity(sub) : RespWriter.bulkString(cluster.myId());
+                case "NODES":
+                    return argc != 2 ? arity(sub) : cluster.nodes();
+                case "SLOTS":
+                    return argc != 2 ? arity(sub) : cluster.slots();
+                case "SHARDS":
+                    return argc != 2 ? arity(sub) : cluster.shards();
+                case "KEYSLOT":
+                    return argc != 3 ? arity(sub) : RespWriter.integer(HashSlots.slot(argv.get(2)));
+                case "COUNTKEYSINSLOT":
+                    return argc != 3 ? arity(sub) : RespWriter.integer(db.countKeysInSlot(slot(argv.get(2))));
+                case "GETKEYSINSLOT": {
+                    if (argc != 4) return arity(sub);
+                    int slot = slot(argv.get(2));
+                    int count = parseInt(argv.get(3));
+                    if (count < 0) return RespWriter.error("ERR Invalid number of keys");
+                    return RespWriter.arrayOfBulkStrings(db.keysInSlot(slot, count).toArray(new String[0]));
+                }
+                case "ADDSLOTS":
+                case "DELSLOTS": {
+                    if (argc < 3) return arity(sub);
+                    BitSet seen = new BitSet(HashSlots.SLOTS);
+                    int[] slots = new int[argc - 2];
+                    for (int i = 2; i < argc; i++) {
+                        int s = slot(argv.get(i));
+                        if (seen.get(s)) return RespWriter.error("ERR Slot " + s + " specified multiple times");
+                        seen.set(s);
+                        slots[i - 2] = s;
+                    }
+                    return sub.equals("ADDSLOTS") ? cluster.addSlots(slots) : cluster.delSlots(slots);
+                }
+                case "ADDSLOTSRANGE":
+                case "DELSLOTSRANGE": {
+                    if (argc < 4 || argc % 2 != 0) return arity(sub);
+                    BitSet seen = new BitSet(HashSlots.SLOTS);
+                    for (int i = 2; i < argc; i += 2) {
+                        int from = slot(argv.get(i));
+                        int to = slot(argv.get(i + 1));
+                        if (from > to) {
+                            return RespWriter.error("ERR start slot number " + from
+                                    + " is greater than end slot number " + to);
+                        }
+                        for (int s = from; s <= to; s++) {
+                            if (seen.get(s)) return RespWriter.error("ERR Slot " + s + " specified multiple times");
+                            seen.set(s);
+                        }
+                    }
+                    int[] slots = seen.stream().toArray();
+                    return sub.equals("ADDSLOTSRANGE") ? cluster.addSlots(slots) : cluster.delSlots(slots);
+                }
+                case "SETSLOT": {
+                    if (argc < 4) return arity(sub);
+                    int slot = slot(argv.get(2));
+                    String action = argv.get(3).toUpperCase(Locale.ROOT);
+                    switch (action) {
+                        case "STABLE":
+                            return argc != 4 ? arity(sub) : cluster.setSlot(slot, action, null);
+                        case "IMPORTING":
+                        case "MIGRATING":
+                        case "NODE":
+                            return argc != 5 ? arity(sub) : cluster.setSlot(slot, action, argv.get(4));
+                        default:
+                            return RespWriter.error("ERR Invalid CLUSTER SETSLOT action or number of arguments. Try CLUSTER HELP");
+                    }
+                }
+                case "MEET": {
+                    if (argc != 4 && argc != 5) return arity(sub);
+                    int port;
+                    try {
+                        port = Integer.parseInt(argv.get(3));
+                    } catch (NumberFormatException e) {
+                        port = -1;
+                    }
+                    if (port < 1 || port > 65535 || argv.get(2).isEmpty()) {
+                        return RespWriter.error("ERR Invalid node address specified: " + argv.get(2) + ":" + argv.get(3));
+                    }
+                    return cluster.meet(argv.get(2), port);
+                }
+                case "FORGET":
+                    return argc != 3 ? arity(sub) : cluster.forget(argv.get(2));
+                case "SET-CONFIG-EPOCH": {
+                    if (argc != 3) return arity(sub);
+                    long epoch;
+                    try {
+                        epoch = Long.parseLong(argv.get(2));
+                    } catch (NumberFormatException e) {
+                        epoch = -1;
+                    }
+                    if (epoch < 0) return RespWriter.error("ERR Invalid config epoch specified: " + argv.get(2));
+                    return cluster.setConfigEpoch(epoch);
+                }
+                case "BUMPEPOCH":
+                    return argc != 2 ? arity(sub) : cluster.bumpEpoch();
+                case "SAVECONFIG":
+                    return argc != 2 ? arity(sub) : cluster.saveConfig();
+                case "GOSSIP":
+                    return cluster.gossip(argv, ctx);
+                default:
+                    return RespWriter.error("ERR unknown subcommand '" + argv.get(1) + "'. Try CLUSTER HELP.");
+            }
+        } catch (IllegalArgumentException e) {
+            return RespWriter.error(e.getMessage());
+        }
+    }
+
+    private static ByteBuffer arity(String sub) {
+        return RespWriter.error("ERR wrong number of arguments for 'CLUSTER|" + sub.toLowerCase(Locale.ROOT) + "'");
+    }
+
+    private static int slot(String s) {
+        try {
+            int slot = Integer.parseInt(s);
+            if (slot >= 0 && slot < HashSlots.SLOTS) return slot;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("ERR Invalid or out of range slot");
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERR value is not an integer or out of range");
+        }
+    }
+}
@@ -1,9 +1,20 @@
 package com.polynomeer.cmd;
 
+import com.polynomeer.cluster.ClusterManager;
+import com.polynomeer.config.ServerConfig;
 import com.polynomeer.db.Db;
 import com.polynomeer.lua.LuaEngine;
+import com.polynomeer.net.BlockingManager;
 import com.polynomeer.net.ClientConn;
+import com.polynomeer.net.ClientTracking;
+import com.polynomeer.net.WatchedKeys;
+import com.polynomeer.persist.AppendOnlyFile;
+import com.polynomeer.persist.ImportManager;
+import com.polynomeer.persist.SnapshotManager;
 import com.polynomeer.pubsub.PubSubBroker;
+import com.polynomeer.repl.ReplicationManager;
+import com.polynomeer.resp.ReplySink;
+import com.polynomeer.resp.RespReader;
 import com.polynomeer.resp.RespWriter;
 
 import java.nio.ByteBuffer;
@@ -11,34 +22,292 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public final class CommandRegistry {
     private static final Map<String, Command> CMDS = new HashMap<>();
+    private static final int[] NO_KEYS = new int[0];
+    private static final RespReader TXN_READER = new RespReader(); // stateless
+    private static final List<Propagator> PROPAGATORS = new ArrayList<>();
+    // commands that may modify the dataset; refused from clients of a read-only replica
+    private static final Set<String> WRITE_COMMANDS = Set.of(
+            "SET", "SETNX", "DEL", "APPEND", "SETRANGE", "SETBIT", "BITOP", "BITFIELD",
+            "HSET", "HDEL", "SADD", "SREM", "SDIFFSTORE", "SINTERSTORE", "SUNIONSTORE",
+            "XADD", "XDEL", "XTRIM", "XACK", "XCLAIM", "XGROUP", "XREADGROUP", "XSETID",
+            "PFADD", "PFMERGE", "PFRESTORE", "PEXPIRE", "PEXPIREAT", "EVAL", "EVALSHA", "IMPORTRDB",
+            "MIGRATE", "RESTORE", "RESTORE-ASKING");
+    // refused from redis.call: they need a connection, control transactions or scripts, or
+    // act on the server as a whole
+    private static final Set<String> NOSCRIPT_COMMANDS = Set.of(
+            "EVAL", "EVALSHA", "SCRIPT", "MULTI", "EXEC", "DISCARD", "WATCH", "UNWATCH",
+            "SUBSCRIBE", "UNSUBSCRIBE", "PSUBSCRIBE", "PUNSUBSCRIBE", "HELLO", "CLIENT", "ASKING",
+            "CLUSTER", "MIGRATE", "REPLICAOF", "SLAVEOF", "PSYNC", "REPLCONF", "SAVE", "BGSAVE",
+            "BGREWRITEAOF", "IMPORTRDB", "SHUTDOWN");
+    // replies (or effects) depend on the time or server state, not only on the dataset: run
+    // again from a replayed script, they can differ
+    private static final Set<String> RANDOM_COMMANDS = Set.of(
+            "PTTL", "OBJECT", "XADD", "XCLAIM", "XPENDING", "XREADGROUP", "LASTSAVE", "INFO", "PUBSUB");
+    private static boolean readOnly;
+    private static Db db;
+    private static ClusterManager cluster;
+    private static ClientTracking tracking;
+    private static WatchedKeys watches;
+    private static LuaEngine lua;
+    // replacement argv for propagation, set by the executing command (e.g. relative TTL -> absolute)
+    private static List<String> rewritten;
+    private static final List<String> MULTI_ARGV = List.of("MULTI");
+    private static final List<String> EXEC_ARGV = List.of("EXEC");
+    // inside EXEC: the first propagated write is preceded by MULTI, and EXEC closes the block
+    private static boolean txnPropagation;
+    private static boolean multiPropagated;
+    // inside EVAL/EVALSHA: the script's writes are propagated instead of the script
+    private static boolean scriptEffects;
+    // MULTI ... EXEC read from the append-only file or the primary, applied at once on EXEC
+    private static List<List<String>> streamTxn;
 
     private CommandRegistry() {
     }
 
-    public static void initDefaults(Db db, PubSubBroker broker, LuaEngine lua) {
+    public static void initDefaults(Db db, PubSubBroker broker, LuaEngine lua, BlockingManager blocking,
+                                    ServerConfig config, SnapshotManager snapshots, AppendOnlyFile aof,
+                                    ImportManager imports, ReplicationManager repl, ClusterManager cluster,
+                                    ClientTracking tracking, WatchedKeys watches) {
         CMDS.clear();
+        PROPAGATORS.clear();
+        CommandRegistry.db = db;
+        CommandRegistry.cluster = cluster;
+        CommandRegistry.tracking = tracking;
+        CommandRegistry.watches = watches;
+        CommandRegistry.lua = lua;
         PingEchoCommands.register(CMDS);
         StringCommands.register(CMDS, db);      // GET/SET/DEL/SETNX
+        BitmapCommands.register(CMDS, db);      // SETBIT/GETBIT/BIT*
         HashCommands.register(CMDS, db);        // H*
+        SetCommands.register(CMDS, db);         // S*
+        StreamCommands.register(CMDS, db, blocking); // X*
+        HyperLogLogCommands.register(CMDS, db); // PF*
         ExpireCommands.register(CMDS, db);      // PEXPIRE/PTTL
         PubSubCommands.register(CMDS, broker);  // SUB/UNSUB/PUBLISH
-        TxCommands.register(CMDS);               // MULTI/EXEC/DISCARD
+        TxCommands.register(CMDS, watches);      // MULTI/EXEC/DISCARD/WATCH
         LuaCommands.register(CMDS, lua);        // EVAL/EVALSHA/SCRIPT
+        ServerCommands.register(CMDS, db, broker, config, snapshots, aof, imports, repl); // SAVE/BGSAVE/INFO/CONFIG
+        ReplicationCommands.register(CMDS, repl); // REPLICAOF/PSYNC/REPLCONF/ROLE
+        MigrateCommands.register(CMDS, db);     // MIGRATE/RESTORE
+        ClusterCommands.register(CMDS, db, cluster); // CLUSTER/ASKING
+        ClientCommands.register(CMDS, tracking, repl, cluster); // HELLO/CLIENT
     }
 
     public static void register(String name, Command c) {
         CMDS.put(name.toUpperCase(), c);
     }
 
+    /**
+     * Refuse write commands from clients (a read-only replica); the primary's stream still applies.
+     */
+    public static void setReadOnly(boolean on) {
+        readOnly = on;
+    }
+
+    public static void addPropagator(Propagator p) {
+        PROPAGATORS.add(p);
+    }
+
+    public static void removePropagator(Propagator p) {
+        PROPAGATORS.remove(p);
+    }
+
+    /**
+     * True for commands that may modify the dataset.
+     */
+    public static boolean isWriteCommand(String name) {
+        return WRITE_COMMANDS.contains(name.toUpperCase());
+    }
+
+    /**
+     * True for commands whose reply or effect depends on more than the dataset and arguments.
+     */
+    public static boolean isNonDeterministic(String name) {
+        return RANDOM_COMMANDS.contains(name.toUpperCase());
+    }
+
+    /**
+     * True when executed writes are being propagated; commands use it to skip building rewrites.
+     */
+    public static boolean isPropagating() {
+        return !PROPAGATORS.isEmpty();
+    }
+
+    /**
+     * Called by a command during execution: propagate 'argv' instead of the command as received,
+     * for commands whose effect depends on the time or state of execution (XADD *, PEXPIRE).
+     */
+    public static void rewriteForPropagation(List<String> argv) {
+        rewritten = argv;
+    }
+
+    /**
+     * True while a script runs whose writes are propagated one by one, so the script itself is not.
+     */
+    public static boolean isPropagatingScriptEffects() {
+        return scriptEffects;
+    }
+
+    /**
+     * Propagate a write made outside dispatch (e.g., a blocked command served later).
+     */
+    public static void propagate(List<String> argv) {
+        if (txnPropagation && !multiPropagated) {
+            multiPropagated = true;
+            for (Propagator p : PROPAGATORS) p.propagate(MULTI_ARGV);
+        }
+        for (Propagator p : PROPAGATORS) p.propagate(argv);
+    }
+
+    private static void beginTxnPropagation() {
+        txnPropagation = true;
+        multiPropagated = false;
+    }
+
+    private static void endTxnPropagation() {
+        if (multiPropagated) {
+            for (Propagator p : PROPAGATORS) p.propagate(EXEC_ARGV);
+        }
+        txnPropagation = false;
+        multiPropagated = false;
+    }
+
+    /**
+     * Wrap a blocking command's retry so that, when it is served later and writes, 'argv'
+     * (the non-blocking equivalent) is propagated.
+     */
+    public static BlockingManager.Retry propagatingRetry(List<String> argv, BlockingManager.Retry retry) {
+        if (!isPropagating()) return retry;
+        List<String> copy = new ArrayList<>(argv);
+        return () -> {
+            long before = db.dirty();
+            ByteBuffer r = retry.tryServe();
+            if (db.dirty() != before) propagate(copy);
+            return r;
+        };
+    }
+
+    /**
+     * Execute a command read from the append-only file: no client, no propagation. A MULTI ...
+     * EXEC block is queued and applied at EXEC. Returns the reply (errors included).
+     */
+    public static ByteBuffer replay(List<String> argv) {
+        return fromStream(argv, false);
+    }
+
+    /**
+     * Execute a command from the replication stream of this server's primary: no client,
+     * no read-only check; propagated like a client's write (to the append-only file). A MULTI
+     * ... EXEC block is queued and applied at EXEC, so a partly received transaction is never
+     * visible.
+     */
+    public static ByteBuffer applyFromPrimary(List<String> argv) {
+        return fromStream(argv, true);
+    }
+
+    /**
+     * Drop a transaction whose EXEC never came (the file ended, or the dataset is replaced);
+     * true if there was one.
+     */
+    public static boolean discardStreamTxn() {
+        boolean open = streamTxn != null;
+        streamTxn = null;
+        return open;
+    }
+
+    private static ByteBuffer fromStream(List<String> argv, boolean propagate) {
+        String name = argv.get(0).toUpperCase();
+        if (streamTxn != null) {
+            switch (name) {
+                case "EXEC": {
+                    List<List<String>> queued = streamTxn;
+                    streamTxn = null;
+                    List<ByteBuffer> replies = new ArrayList<>(queued.size());
+                    if (propagate) beginTxnPropagation();
+                    try {
+                        for (List<String> q : queued) replies.add(fromStream(q, propagate));
+                    } finally {
+                        if (propagate) endTxnPropagation();
+                    }
+                    return RespWriter.arrayOfFrames(replies);
+                }
+                case "DISCARD":
+                    streamTxn = null;
+                    return RespWriter.simpleString("OK");
+                case "MULTI":
+                    return RespWriter.error("ERR MULTI calls can not be nested");
+                default:
+                    streamTxn.add(new ArrayList<>(argv));
+                    return RespWriter.simpleString("QUEUED");
+            }
+        }
+        switch (name) {
+            case "MULTI":
+                streamTxn = new ArrayList<>();
+                return RespWriter.simpleString("OK");
+            case "EXEC":
+                return RespWriter.error("ERR EXEC without MULTI");
+            case "DISCARD":
+                return RespWriter.error("ERR DISCARD without MULTI");
+            default:
+                break;
+        }
+        Command c = CMDS.get(name);
+        if (c == null) return RespWriter.error("ERR unknown command '" + argv.get(0) + "'");
+        return propagate ? call(c, name, argv, null) : c.execute(argv, null);
+    }
+
+    /**
+     * Execute a command for a script's redis.call/pcall. With lua-replicate-commands, a write
+     * made here is propagated (as rewritten, e.g. XADD * with the ID it got) inside the script's
+     * MULTI/EXEC block; otherwise the script's own command (EVAL) is what gets propagated, and a
+     * rewrite asked for here must not replace the script's. There is no connection: replies are
+     * RESP2 and blocking commands do not block. The reply, errors included, goes to 'out':
+     * straight from a SinkCommand, or as the RESP frame of any other command.
+     */
+    public static <R> R callFromScript(List<String> argv, ReplySink<R> out) {
+        String name = argv.get(0).toUpperCase();
+        Command c = CMDS.get(name);
+        if (c == null) return out.error("ERR Unknown Redis command called from script");
+        if (NOSCRIPT_COMMANDS.contains(name)) return out.error("ERR This Redis command is not allowed from script");
+        List<String> outer = rewritten;
+        rewritten = null;
+        long before = db.dirty();
+        try {
+            if (c instanceof SinkCommand) return ((SinkCommand) c).execute(argv, null, out);
+            ByteBuffer r = c.execute(argv, null);
+            return r != null ? out.frame(r) : out.error("ERR This Redis command is not allowed from script");
+        } finally {
+            if (scriptEffects && db.dirty() != before) propagate(rewritten != null ? rewritten : argv);
+            rewritten = outer;
+        }
+    }
+
     /**
      * Normal dispatch path used by ClientConn. Handles transactional queuing.
      */
     public static ByteBuffer dispatch(List<String> argv, ClientConn ctx) {
         if (argv.isEmpty()) return RespWriter.error("ERR empty command");
         String name = argv.get(0).toUpperCase();
+        ByteBuffer r = dispatch(name, argv, ctx);
+        // CLIENT CACHING covers the next command, or the whole MULTI/EXEC block
+        if (!ctx.isInTxn() && !ctx.isBypassTxn()
+                && !(name.equals("CLIENT") && argv.size() > 1 && argv.get(1).equalsIgnoreCase("CACHING"))) {
+            ctx.clearCachingFlag();
+        }
+        return r;
+    }
+
+    private static ByteBuffer dispatch(String name, List<String> argv, ClientConn ctx) {
+        // a script is running past busy-reply-threshold (we are inside its hook)
+        if (lua.busy() && !allowedWhileBusy(name, argv)) {
+            if (ctx.isInTxn()) ctx.markTxnDirty();
+            return RespWriter.error("BUSY Redis is busy running a script. You can only call SCRIPT KILL or SHUTDOWN NOSAVE.");
+        }
 
         Command c = CMDS.get(name);
         if (c == null) {
@@ -50,19 +319,85 @@ public final class CommandRegistry {
             return RespWriter.error("ERR unknown command '" + argv.get(0) + "'");
         }
 
+        if (readOnly && WRITE_COMMANDS.contains(name)) {
+            if (ctx.isInTxn()) ctx.markTxnDirty();
+            return RespWriter.error("READONLY You can't write against a read only replica.");
+        }
+
         // MULTI/EXEC/DISCARD are handled always (even inside MULTI)
         if (TxCommands.isTxControl(name)) {
             return c.execute(argv, ctx);
         }
 
+        // Cluster mode: the keys' slot must be served here
+        if (cluster.enabled()) {
+            boolean asking = ctx.isAsking();
+            if (!ctx.isInTxn()) ctx.setAsking(false);
+            ByteBuffer redirect = cluster.route(name, argv, asking);
+            if (redirect != null) {
+                if (ctx.isInTxn() && !ctx.isBypassTxn()) ctx.markTxnDirty();
+                return redirect;
+            }
+        }
+
         // If in transaction and not EXEC/DISCARD/MULTI: queue instead of executing
         if (ctx.isInTxn() && !ctx.isBypassTxn()) {
+            if (name.equals("WATCH")) return RespWriter.error("ERR WATCH inside MULTI is not allowed");
             ctx.queueTxn(argv);
             return RespWriter.simpleString("QUEUED");
         }
 
         // Normal immediate execution
-        return c.execute(argv, ctx);
+        return call(c, name, argv, ctx);
+    }
+
+    private static boolean allowedWhileBusy(String name, List<String> argv) {
+        if (argv.size() != 2) return false;
+        return name.equals("SCRIPT") && argv.get(1).equalsIgnoreCase("KILL")
+                || name.equals("SHUTDOWN") && argv.get(1).equalsIgnoreCase("NOSAVE");
+    }
+
+    /**
+     * Execute, then send the invalidations of client tracking for what the command changed and
+     * remember what it read.
+     */
+    private static ByteBuffer call(Command c, String name, List<String> argv, ClientConn ctx) {
+        ByteBuffer r = execute(c, name, argv, ctx);
+        if (tracking.active()) {
+            boolean read = !WRITE_COMMANDS.contains(name) && !name.equals("WATCH"); // WATCH reads nothing
+            tracking.afterCommand(ctx, argv, read ? KeyPositions.of(name, argv) : NO_KEYS);
+        }
+        return r;
+    }
+
+    /**
+     * Execute and, if the dataset changed, propagate the command (or its rewrite). A script's
+     * writes are propagated as they happen, in a MULTI/EXEC block of their own or of the
+     * enclosing EXEC, and the script is not.
+     */
+    private static ByteBuffer execute(Command c, String name, List<String> argv, ClientConn ctx) {
+        if (PROPAGATORS.isEmpty()) return c.execute(argv, ctx);
+        if ((name.equals("EVAL") || name.equals("EVALSHA")) && lua.replicatesCommands()) {
+            boolean inTxn = txnPropagation;
+            if (!inTxn) beginTxnPropagation();
+            scriptEffects = true;
+            try {
+                return c.execute(argv, ctx);
+            } finally {
+                scriptEffects = false;
+                if (!inTxn) endTxnPropagation();
+            }
+        }
+        long before = db.dirty();
+        List<String> outer = rewritten;
+        rewritten = null;
+        try {
+            ByteBuffer r = c.execute(argv, ctx);
+            if (db.dirty() != before) propagate(rewritten != null ? rewritten : argv);
+            return r;
+        } finally {
+            rewritten = outer;
+        }
     }
 
     /**
@@ -78,26 +413,40 @@ public final class CommandRegistry {
     }
 
     /**
-     * Internal: EXEC implementation. Runs queued commands and returns an array of their replies.
+     * Internal: EXEC implementation. Pushes the array header, then each queued command's reply
+     * as it executes, so replies reach the write queue without being gathered and copied into
+     * one array; returns null once they are pushed (errors and aborts are returned as usual).
+     * The queued frames are parsed one at a time from the connection's queue buffer.
+     * A command that pushes its own replies (SUBSCRIBE) contributes those frames, as in Redis.
      */
     static ByteBuffer execQueued(ClientConn ctx) {
         if (!ctx.isInTxn()) return RespWriter.error("ERR EXEC without MULTI");
         if (ctx.isTxnDirty()) {
             ctx.endTxn();
+            watches.unwatchAll(ctx);
             return RespWriter.error("EXECABORT Transaction discarded because of previous errors.");
         }
-        List<List<String>> queued = ctx.drainTxnQueue();
-        List<ByteBuffer> replies = new ArrayList<>(queued.size());
-        for (List<String> a : queued) {
-            ByteBuffer r = dispatchImmediate(a, ctx);
-            if (r == null) {
-                // Some commands (e.g., SUBSCRIBE) normally return null because they push.
-                // In transaction context, such commands are unusual; encode as $-1 for simplicity.
-                r = RespWriter.nullBulk();
+        if (ctx.isWatchTouched()) {
+            ctx.endTxn();
+            watches.unwatchAll(ctx);
+            return ctx.resp3() ? RespWriter.nullValue(true) : RespWriter.nullArray();
+        }
+        watches.unwatchAll(ctx); // the transaction's own writes must not matter
+        int n = ctx.queuedCount();
+        ByteBuffer frames = ctx.queuedFrames();
+        ctx.push(RespWriter.arrayHeader(n));
+        beginTxnPropagation();
+        try {
+            for (int i = 0; i < n; i++) {
+                ByteBuffer r = dispatchImmediate(TXN_READER.tryReadCommand(frames), ctx);
+                if (r != null) ctx.push(r);
             }
-            replies.add(r);
+        } finally {
+            endTxnPropagation();
         }
         ctx.endTxn();
-        return RespWriter.arrayOfFrames(replies);
+        // invalidations held back while the replies were being pushed
+        if (tracking.active()) tracking.afterCommand(ctx, List.of(), NO_KEYS);
+        return null;
     }
 }
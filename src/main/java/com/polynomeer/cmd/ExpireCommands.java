@@ -1,44 +1,57 @@
 package com.polynomeer.cmd;
 
 import com.polynomeer.db.Db;
-import com.polynomeer.resp.RespWriter;
+import com.polynomeer.resp.ReplySink;
 
-import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Expiration commands: PEXPIRE key ms, PTTL key
+ * Expiration commands: PEXPIRE key ms, PEXPIREAT key unix-ms, PTTL key
  */
 public final class ExpireCommands {
     private ExpireCommands() {
     }
 
     public static void register(Map<String, Command> reg, Db db) {
-        reg.put("PEXPIRE", (argv, ctx) -> pexpire(db, argv));
-        reg.put("PTTL", (argv, ctx) -> pttl(db, argv));
+        reg.put("PEXPIRE", SinkCommand.on(db, ExpireCommands::pexpire));
+        reg.put("PEXPIREAT", SinkCommand.on(db, ExpireCommands::pexpireat));
+        reg.put("PTTL", SinkCommand.on(db, ExpireCommands::pttl));
     }
 
-    private static ByteBuffer pexpire(Db db, List<String> argv) {
-        if (argv.size() != 3) return RespWriter.error("ERR wrong number of arguments for 'PEXPIRE'");
+    private static <R> R pexpire(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 3) return out.error("ERR wrong number of arguments for 'PEXPIRE'");
         String key = argv.get(1);
         long ms;
         try {
             ms = Long.parseLong(argv.get(2));
         } catch (Exception e) {
-            return RespWriter.error("ERR value is not an integer or out of range");
+            return out.error("ERR value is not an integer or out of range");
         }
-        if (ms <= 0) {
-            // Redis: ms <= 0 → key is expired (deleted) and returns 1 if existed.
-            int r = db.pexpire(key, ms);
-            return RespWriter.integer(r);
+        // Redis: ms <= 0 → key is expired (deleted) and returns 1 if existed.
+        long at = ms <= 0 ? 0 : System.currentTimeMillis() + ms;
+        int r = db.pexpireAt(key, at);
+        if (r == 1 && CommandRegistry.isPropagating()) {
+            CommandRegistry.rewriteForPropagation(ms <= 0 ? List.of("DEL", key)
+                    : List.of("PEXPIREAT", key, Long.toString(at)));
         }
-        return RespWriter.integer(db.pexpire(key, ms));
+        return out.integer(r);
     }
 
-    private static ByteBuffer pttl(Db db, List<String> argv) {
-        if (argv.size() != 2) return RespWriter.error("ERR wrong number of arguments for 'PTTL'");
+    private static <R> R pexpireat(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 3) return out.error("ERR wrong number of arguments for 'PEXPIREAT'");
+        long at;
+        try {
+            at = Long.parseLong(argv.get(2));
+        } catch (Exception e) {
+            return out.error("ERR value is not an integer or out of range");
+        }
+        return out.integer(db.pexpireAt(argv.get(1), at));
+    }
+
+    private static <R> R pttl(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 2) return out.error("ERR wrong number of arguments for 'PTTL'");
         long v = db.pttl(argv.get(1));
-        return RespWriter.integer(v);
+        return out.integer(v);
     }
 }
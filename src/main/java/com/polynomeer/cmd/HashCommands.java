@@ -2,9 +2,8 @@ package com.polynomeer.cmd;
 
 import com.polynomeer.db.Db;
 import com.polynomeer.db.WrongTypeException;
-import com.polynomeer.resp.RespWriter;
+import com.polynomeer.resp.ReplySink;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -14,14 +13,14 @@ public final class HashCommands {
     }
 
     public static void register(Map<String, Command> reg, Db db) {
-        reg.put("HSET", (argv, ctx) -> hset(db, argv));
-        reg.put("HGET", (argv, ctx) -> hget(db, argv));
-        reg.put("HDEL", (argv, ctx) -> hdel(db, argv));
+        reg.put("HSET", SinkCommand.on(db, HashCommands::hset));
+        reg.put("HGET", SinkCommand.on(db, HashCommands::hget));
+        reg.put("HDEL", SinkCommand.on(db, HashCommands::hdel));
     }
 
-    private static ByteBuffer hset(Db db, List<String> argv) {
+    private static <R> R hset(Db db, List<String> argv, ReplySink<R> out) {
         if (argv.size() < 4 || (argv.size() % 2) != 0) {
-            return RespWriter.error("ERR wrong number of arguments for 'HSET'");
+            return out.error("ERR wrong number of arguments for 'HSET'");
         }
         String key = argv.get(1);
         int added = 0;
@@ -32,14 +31,14 @@ public final class HashCommands {
                 added += db.hset(key, field, value);
             }
         } catch (WrongTypeException e) {
-            return RespWriter.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+            return out.error("WRONGTYPE Operation against a key holding the wrong kind of value");
         }
-        return RespWriter.integer(added);
+        return out.integer(added);
     }
 
-    private static ByteBuffer hget(Db db, List<String> argv) {
+    private static <R> R hget(Db db, List<String> argv, ReplySink<R> out) {
         if (argv.size() != 3) {
-            return RespWriter.error("ERR wrong number of arguments for 'HGET'");
+            return out.error("ERR wrong number of arguments for 'HGET'");
         }
         String key = argv.get(1);
         String field = argv.get(2);
@@ -47,14 +46,14 @@ public final class HashCommands {
         try {
             val = db.hget(key, field);
         } catch (WrongTypeException e) {
-            return RespWriter.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+            return out.error("WRONGTYPE Operation against a key holding the wrong kind of value");
         }
-        return (val == null) ? RespWriter.nullBulk() : RespWriter.bulkString(val);
+        return (val == null) ? out.nullBulk() : out.bulk(val);
     }
 
-    private static ByteBuffer hdel(Db db, List<String> argv) {
+    private static <R> R hdel(Db db, List<String> argv, ReplySink<R> out) {
         if (argv.size() < 3) {
-            return RespWriter.error("ERR wrong number of arguments for 'HDEL'");
+            return out.error("ERR wrong number of arguments for 'HDEL'");
         }
         String key = argv.get(1);
         List<String> fields = new ArrayList<>(argv.subList(2, argv.size()));
@@ -62,8 +61,8 @@ public final class HashCommands {
         try {
             removed = db.hdel(key, fields);
         } catch (WrongTypeException e) {
-            return RespWriter.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+            return out.error("WRONGTYPE Operation against a key holding the wrong kind of value");
         }
-        return RespWriter.integer(removed);
+        return out.integer(removed);
     }
 }
@@ -0,0 +1,71 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.db.WrongTypeException;
+import com.polynomeer.resp.RespWriter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HyperLogLog commands:
+ * - PFADD key [element ...]
+ * - PFCOUNT key [key ...]   (multiple keys: count of the union, nothing stored)
+ * - PFMERGE destkey [sourcekey ...]
+ * - PFRESTORE key payload   (internal: emitted by AOF rewrite, payload from HyperLogLog.toBytes())
+ */
+public final class HyperLogLogCommands {
+    private HyperLogLogCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, Db db) {
+        reg.put("PFADD", (argv, ctx) -> pfadd(db, argv));
+        reg.put("PFCOUNT", (argv, ctx) -> pfcount(db, argv));
+        reg.put("PFMERGE", (argv, ctx) -> pfmerge(db, argv));
+        reg.put("PFRESTORE", (argv, ctx) -> pfrestore(db, argv));
+    }
+
+    private static ByteBuffer pfadd(Db db, List<String> argv) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'PFADD'");
+        try {
+            return RespWriter.integer(db.pfadd(argv.get(1), argv.subList(2, argv.size())));
+        } catch (WrongTypeException e) {
+            return wrongType();
+        }
+    }
+
+    private static ByteBuffer pfcount(Db db, List<String> argv) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'PFCOUNT'");
+        try {
+            return RespWriter.integer(db.pfcount(argv.subList(1, argv.size())));
+        } catch (WrongTypeException e) {
+            return wrongType();
+        }
+    }
+
+    private static ByteBuffer pfmerge(Db db, List<String> argv) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'PFMERGE'");
+        try {
+            db.pfmerge(argv.get(1), argv.subList(2, argv.size()));
+            return RespWriter.simpleString("OK");
+        } catch (WrongTypeException e) {
+            return wrongType();
+        }
+    }
+
+    private static ByteBuffer pfrestore(Db db, List<String> argv) {
+        if (argv.size() != 3) return RespWriter.error("ERR wrong number of arguments for 'PFRESTORE'");
+        try {
+            db.pfrestore(argv.get(1), argv.get(2).getBytes(StandardCharsets.ISO_8859_1));
+            return RespWriter.simpleString("OK");
+        } catch (IllegalArgumentException e) {
+            return RespWriter.error("ERR Bad HyperLogLog payload: " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer wrongType() {
+        return RespWriter.error("WRONGTYPE Key is not a valid HyperLogLog string value.");
+    }
+}
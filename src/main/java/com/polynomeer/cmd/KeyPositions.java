@@ -0,0 +1,105 @@
+package com.polynomeer.cmd;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Positions of the key arguments of each command, used in cluster mode to find the hash
+ * slot a command touches. Commands not listed take no keys (PING, PUBLISH, CONFIG, ...).
+ * - fixed ranges {first, last, step}; a negative last counts from the end (-1 = last argument)
+ * - EVAL/EVALSHA and SINTERCARD: a numkeys argument followed by the keys
+ * - XREAD/XREADGROUP: the first half of the arguments after STREAMS
+ * - MIGRATE: the key argument, or the arguments after KEYS when it is empty
+ */
+public final class KeyPositions {
+    private static final int[] NONE = new int[0];
+    private static final Map<String, int[]> RANGES = new HashMap<>();
+
+    static {
+        for (String c : new String[]{"GET", "SET", "SETNX", "APPEND", "SETRANGE", "GETRANGE", "STRLEN",
+                "HSET", "HGET", "HDEL", "SADD", "SREM", "SISMEMBER", "SMEMBERS", "SCARD",
+                "SETBIT", "GETBIT", "BITCOUNT", "BITPOS", "BITFIELD", "BITFIELD_RO",
+                "XADD", "XTRIM", "XDEL", "XSETID", "XLEN", "XRANGE", "XREVRANGE", "XACK", "XPENDING", "XCLAIM",
+                "PFADD", "PFRESTORE", "PEXPIRE", "PEXPIREAT", "PTTL", "DUMP", "RESTORE", "RESTORE-ASKING"}) {
+            RANGES.put(c, new int[]{1, 1, 1});
+        }
+        for (String c : new String[]{"DEL", "WATCH", "PFCOUNT", "PFMERGE", "SINTER", "SUNION", "SDIFF",
+                "SINTERSTORE", "SUNIONSTORE", "SDIFFSTORE"}) {
+            RANGES.put(c, new int[]{1, -1, 1});
+        }
+        RANGES.put("BITOP", new int[]{2, -1, 1});
+        RANGES.put("XGROUP", new int[]{2, 2, 1});
+        RANGES.put("OBJECT", new int[]{2, 2, 1});
+    }
+
+    private KeyPositions() {
+    }
+
+    /**
+     * Indexes into argv of the command's keys; empty if it takes none or argv is malformed
+     * (the command reports the error itself).
+     */
+    public static int[] of(String name, List<String> argv) {
+        switch (name) {
+            case "EVAL":
+            case "EVALSHA":
+                return numkeys(argv, 2);
+            case "SINTERCARD":
+                return numkeys(argv, 1);
+            case "XREAD":
+            case "XREADGROUP":
+                return streams(argv);
+            case "MIGRATE":
+                return migrate(argv);
+            default:
+                break;
+        }
+        int[] r = RANGES.get(name);
+        if (r == null) return NONE;
+        int last = r[1] < 0 ? argv.size() + r[1] : Math.min(r[1], argv.size() - 1);
+        if (last < r[0]) return NONE;
+        int[] out = new int[(last - r[0]) / r[2] + 1];
+        for (int i = 0; i < out.length; i++) out[i] = r[0] + i * r[2];
+        return out;
+    }
+
+    private static int[] numkeys(List<String> argv, int at) {
+        if (argv.size() <= at) return NONE;
+        int n;
+        try {
+            n = Integer.parseInt(argv.get(at));
+        } catch (NumberFormatException e) {
+            return NONE;
+        }
+        if (n <= 0 || n > argv.size() - at - 1) return NONE;
+        return range(at + 1, n);
+    }
+
+    private static int[] streams(List<String> argv) {
+        for (int i = 1; i < argv.size(); i++) {
+            if (argv.get(i).toUpperCase(Locale.ROOT).equals("STREAMS")) {
+                int rest = argv.size() - i - 1;
+                return rest == 0 || rest % 2 != 0 ? NONE : range(i + 1, rest / 2);
+            }
+        }
+        return NONE;
+    }
+
+    // MIGRATE host port key|"" db timeout [COPY] [REPLACE] [KEYS key ...]
+    private static int[] migrate(List<String> argv) {
+        if (argv.size() < 6) return NONE;
+        if (!argv.get(3).isEmpty()) return new int[]{3};
+        for (int i = 6; i < argv.size(); i++) {
+            if (argv.get(i).toUpperCase(Locale.ROOT).equals("KEYS")) return range(i + 1, argv.size() - i - 1);
+        }
+        return NONE;
+    }
+
+    private static int[] range(int first, int n) {
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = first + i;
+        return out;
+    }
+}
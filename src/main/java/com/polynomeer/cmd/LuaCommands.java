@@ -2,6 +2,7 @@ package com.polynomeer.cmd;
 
 import com.polynomeer.lua.LuaEngine;
 import com.polynomeer.lua.LuaRespEncoder;
+import com.polynomeer.net.ClientConn;
 import com.polynomeer.resp.RespWriter;
 
 import java.nio.ByteBuffer;
@@ -16,19 +17,19 @@ import java.util.Map;
  * - SCRIPT LOAD script
  * - SCRIPT EXISTS sha1 [sha1 ...]
  * - SCRIPT FLUSH
- * (SCRIPT KILL is not supported in this step)
+ * - SCRIPT KILL   (stops a script running past busy-reply-threshold, unless it has written)
  */
 public final class LuaCommands {
     private LuaCommands() {
     }
 
     public static void register(Map<String, Command> reg, LuaEngine lua) {
-        reg.put("EVAL", (argv, ctx) -> eval(lua, argv));
-        reg.put("EVALSHA", (argv, ctx) -> evalsha(lua, argv));
+        reg.put("EVAL", (argv, ctx) -> eval(lua, argv, ctx));
+        reg.put("EVALSHA", (argv, ctx) -> evalsha(lua, argv, ctx));
         reg.put("SCRIPT", (argv, ctx) -> script(lua, argv));
     }
 
-    private static ByteBuffer eval(LuaEngine lua, List<String> argv) {
+    private static ByteBuffer eval(LuaEngine lua, List<String> argv, ClientConn ctx) {
         if (argv.size() < 3) return RespWriter.error("ERR wrong number of arguments for 'EVAL'");
         String script = argv.get(1);
         int numkeys;
@@ -46,14 +47,16 @@ public final class LuaCommands {
         for (int i = 3 + numkeys; i < argv.size(); i++) args.add(argv.get(i));
 
         try {
-            var luaVal = lua.eval(script, keys, args);
+            var luaVal = lua.eval(script, keys, args, ctx);
             return LuaRespEncoder.encode(luaVal);
+        } catch (LuaEngine.ScriptError e) {
+            return RespWriter.error(e.getMessage());
         } catch (RuntimeException e) {
             return RespWriter.error("ERR " + e.getMessage());
         }
     }
 
-    private static ByteBuffer evalsha(LuaEngine lua, List<String> argv) {
+    private static ByteBuffer evalsha(LuaEngine lua, List<String> argv, ClientConn ctx) {
         if (argv.size() < 3) return RespWriter.error("ERR wrong number of arguments for 'EVALSHA'");
         String sha = argv.get(1);
         int numkeys;
@@ -71,10 +74,19 @@ public final class LuaCommands {
         for (int i = 3 + numkeys; i < argv.size(); i++) args.add(argv.get(i));
 
         try {
-            var luaVal = lua.evalSha(sha, keys, args);
+            var luaVal = lua.evalSha(sha, keys, args, ctx);
+            if (CommandRegistry.isPropagating() && !CommandRegistry.isPropagatingScriptEffects()) {
+                // the script cache is not persisted: propagate the script body
+                List<String> rewrite = new ArrayList<>(argv);
+                rewrite.set(0, "EVAL");
+                rewrite.set(1, lua.scriptSource(sha));
+                CommandRegistry.rewriteForPropagation(rewrite);
+            }
             return LuaRespEncoder.encode(luaVal);
         } catch (LuaEngine.NoScript e) {
             return RespWriter.error("NOSCRIPT No matching script. Please use EVAL.");
+        } catch (LuaEngine.ScriptError e) {
+            return RespWriter.error(e.getMessage());
         } catch (RuntimeException e) {
             return RespWriter.error("ERR " + e.getMessage());
         }
@@ -96,8 +108,11 @@ public final class LuaCommands {
             case "FLUSH":
                 lua.scriptFlush();
                 return RespWriter.simpleString("OK");
-            case "KILL":
-                return RespWriter.error("ERR SCRIPT KILL not supported");
+            case "KILL": {
+                if (argv.size() != 2) return RespWriter.error("ERR wrong number of arguments for 'SCRIPT KILL'");
+                String err = lua.kill();
+                return err != null ? RespWriter.error(err) : RespWriter.simpleString("OK");
+            }
             default:
                 return RespWriter.error("ERR unknown subcommand or wrong number of arguments for 'SCRIPT'");
         }
@@ -0,0 +1,311 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.ByteBuf;
+import com.polynomeer.util.Clocks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Key serialization and moving keys between servers (cluster resharding, single-key backups):
+ * - DUMP key   (value, format version and CRC-64; no key or TTL, see Db.dump)
+ * - RESTORE key ttl serialized-value [REPLACE] [ABSTTL] [IDLETIME seconds]   (ttl in ms, 0 for none)
+ * - RESTORE-ASKING ...   (RESTORE that may target a slot this node is importing)
+ * - MIGRATE host port key|"" destination-db timeout [COPY] [REPLACE] [KEYS key ...]
+ *   pipelines one RESTORE-ASKING per key, then reads the replies and deletes the keys the
+ *   target accepted (unless COPY). Blocks this server for the duration, like Redis, with
+ *   'timeout' ms per socket operation. Connections are kept per target and closed by cron
+ *   after 10 s unused.
+ * - OBJECT IDLETIME key
+ */
+public final class MigrateCommands {
+    private static final int DEFAULT_TIMEOUT_MS = 1000;
+    private static final long IDLE_CONN_MS = 10_000;
+    private static final int MAX_CACHED_CONNS = 64;
+    private static final int FLUSH_BYTES = 64 * 1024; // pipeline write size; larger values go out directly
+
+    // cached MIGRATE connections by "host:port"; reactor thread only
+    private static final Map<String, Target> CONNS = new HashMap<>();
+
+    private MigrateCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, Db db) {
+        reg.put("DUMP", (argv, ctx) -> dump(db, argv));
+        reg.put("MIGRATE", (argv, ctx) -> migrate(db, argv));
+        reg.put("RESTORE", (argv, ctx) -> restore(db, argv));
+        reg.put("RESTORE-ASKING", (argv, ctx) -> restore(db, argv));
+        reg.put("OBJECT", (argv, ctx) -> object(db, argv));
+    }
+
+    /**
+     * Close MIGRATE connections unused for a while (called from the reactor cron).
+     */
+    public static void cron(long nowMonoMs) {
+        for (Iterator<Target> it = CONNS.values().iterator(); it.hasNext(); ) {
+            Target t = it.next();
+            if (nowMonoMs - t.lastUseMs >= IDLE_CONN_MS) {
+                t.close();
+                it.remove();
+            }
+        }
+    }
+
+    private static ByteBuffer dump(Db db, List<String> argv) {
+        if (argv.size() != 2) return RespWriter.error("ERR wrong number of arguments for 'DUMP'");
+        ByteBuf out = new ByteBuf(64);
+        if (!db.dump(argv.get(1), out)) return RespWriter.nullBulk();
+        return RespWriter.bulkBytes(out.array(), 0, out.length());
+    }
+
+    private static ByteBuffer object(Db db, List<String> argv) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'OBJECT'");
+        String sub = argv.get(1).toUpperCase(Locale.ROOT);
+        if (!sub.equals("IDLETIME")) {
+            return RespWriter.error("ERR unknown subcommand '" + argv.get(1) + "'. Try OBJECT HELP.");
+        }
+        if (argv.size() != 3) return RespWriter.error("ERR wrong number of arguments for 'OBJECT|idletime'");
+        long idle = db.idleSeconds(argv.get(2));
+        return idle < 0 ? RespWriter.nullBulk() : RespWriter.integer(idle);
+    }
+
+    private static ByteBuffer restore(Db db, List<String> argv) {
+        if (argv.size() < 4) return RespWriter.error("ERR wrong number of arguments for 'RESTORE'");
+        String key = argv.get(1);
+        long ttl;
+        try {
+            ttl = Long.parseLong(argv.get(2));
+        } catch (NumberFormatException e) {
+            return RespWriter.error("ERR value is not an integer or out of range");
+        }
+        if (ttl < 0) return RespWriter.error("ERR Invalid TTL value, must be >= 0");
+        boolean replace = false;
+        boolean absTtl = false;
+        long idle = -1;
+        for (int i = 4; i < argv.size(); i++) {
+            String opt = argv.get(i).toUpperCase(Locale.ROOT);
+            if (opt.equals("REPLACE")) {
+                replace = true;
+            } else if (opt.equals("ABSTTL")) {
+                absTtl = true;
+            } else if (opt.equals("IDLETIME") && i + 1 < argv.size()) {
+                try {
+                    idle = Long.parseLong(argv.get(++i));
+                } catch (NumberFormatException e) {
+                    return RespWriter.error("ERR value is not an integer or out of range");
+                }
+                if (idle < 0) return RespWriter.error("ERR Invalid IDLETIME value, must be >= 0");
+            } else {
+                return RespWriter.error("ERR syntax error");
+            }
+        }
+        if (!replace && db.exists(key)) return RespWriter.error("BUSYKEY Target key name already exists.");
+        long now = System.currentTimeMillis();
+        long expireAt = ttl == 0 ? -1 : absTtl ? ttl : now + ttl;
+        byte[] payload = argv.get(3).getBytes(StandardCharsets.ISO_8859_1);
+        if (expireAt >= 0 && expireAt <= now) {
+            // already expired: nothing to create
+            if (replace) db.del(key);
+            return RespWriter.simpleString("OK");
+        }
+        try {
+            db.restore(key, payload, expireAt, idle);
+        } catch (IllegalArgumentException e) {
+            return RespWriter.error("ERR " + e.getMessage());
+        }
+        if (expireAt >= 0 && !absTtl && CommandRegistry.isPropagating()) {
+            List<String> abs = new ArrayList<>(List.of("RESTORE", key, Long.toString(expireAt), argv.get(3),
+                    "REPLACE", "ABSTTL"));
+            if (idle >= 0) {
+                abs.add("IDLETIME");
+                abs.add(Long.toString(idle));
+            }
+            CommandRegistry.rewriteForPropagation(abs);
+        }
+        return RespWriter.simpleString("OK");
+    }
+
+    private static ByteBuffer migrate(Db db, List<String> argv) {
+        if (argv.size() < 6) return RespWriter.error("ERR wrong number of arguments for 'MIGRATE'");
+        String host = argv.get(1);
+        int port;
+        int destDb;
+        long timeout;
+        try {
+            port = Integer.parseInt(argv.get(2));
+            destDb = Integer.parseInt(argv.get(4));
+            timeout = Long.parseLong(argv.get(5));
+        } catch (NumberFormatException e) {
+            return RespWriter.error("ERR value is not an integer or out of range");
+        }
+        boolean copy = false;
+        boolean replace = false;
+        List<String> keys = null;
+        for (int i = 6; i < argv.size() && keys == null; i++) {
+            String opt = argv.get(i).toUpperCase(Locale.ROOT);
+            if (opt.equals("COPY")) {
+                copy = true;
+            } else if (opt.equals("REPLACE")) {
+                replace = true;
+            } else if (opt.equals("KEYS")) {
+                if (!argv.get(3).isEmpty()) {
+                    return RespWriter.error("ERR When using MIGRATE KEYS option, the key argument must be set to the empty string");
+                }
+                keys = argv.subList(i + 1, argv.size());
+            } else {
+                return RespWriter.error("ERR syntax error");
+            }
+        }
+        if (keys == null) keys = List.of(argv.get(3));
+        if (destDb != 0) return RespWriter.error("ERR Target database must be 0");
+        if (timeout <= 0) timeout = DEFAULT_TIMEOUT_MS;
+        int timeoutMs = (int) Math.min(timeout, Integer.MAX_VALUE);
+
+        List<String> present = new ArrayList<>(keys.size());
+        for (String k : keys) if (db.exists(k)) present.add(k);
+        if (present.isEmpty()) return RespWriter.simpleString("NOKEY");
+
+        String addr = host + ":" + port;
+        List<String> moved = new ArrayList<>();
+        String targetError = null;
+        boolean ioError = false;
+        for (int attempt = 0; ; attempt++) {
+            Target t = CONNS.remove(addr);
+            boolean cached = t != null;
+            int replies = 0;
+            try {
+                if (t == null) t = Target.open(host, port, timeoutMs);
+                t.socket.setSoTimeout(timeoutMs);
+                List<String> sent = send(db, t, present, replace);
+                for (String k : sent) {
+                    String reply = readLine(t.in);
+                    replies++;
+                    if (reply.startsWith("-")) {
+                        if (targetError == null) targetError = reply.substring(1);
+                    } else if (!copy) {
+                        moved.add(k);
+                    }
+                }
+                t.lastUseMs = Clocks.monoMillis();
+                if (CONNS.size() < MAX_CACHED_CONNS) CONNS.put(addr, t);
+                else t.close();
+                break;
+            } catch (IOException e) {
+                if (t != null) t.close();
+                // a cached connection the target has since closed: retry once on a fresh one
+                if (cached && attempt == 0 && replies == 0 && !(e instanceof SocketTimeoutException)) continue;
+                ioError = true; // keys accepted before the failure are still deleted here
+                break;
+            }
+        }
+        for (String k : moved) db.del(k);
+        if (!moved.isEmpty() && CommandRegistry.isPropagating()) {
+            List<String> del = new ArrayList<>(moved.size() + 1);
+            del.add("DEL");
+            del.addAll(moved);
+            CommandRegistry.rewriteForPropagation(del);
+        }
+        if (ioError) return RespWriter.error("IOERR error or timeout migrating to target instance");
+        if (targetError != null) return RespWriter.error("ERR Target instance replied with error: " + targetError);
+        return RespWriter.simpleString("OK");
+    }
+
+    /**
+     * Write one RESTORE-ASKING per key without waiting for replies. Each value is encoded
+     * once into a reused buffer; small ones are batched, large ones written from that buffer.
+     * Returns the keys sent, in order (one reply each).
+     */
+    private static List<String> send(Db db, Target t, List<String> keys, boolean replace) throws IOException {
+        ByteBuf batch = new ByteBuf(Math.min(FLUSH_BYTES, 256 * keys.size()));
+        ByteBuf value = new ByteBuf(256);
+        List<String> sent = new ArrayList<>(keys.size());
+        for (String k : keys) {
+            value.clear();
+            long ttl = db.pttl(k);
+            if (!db.dump(k, value)) continue;
+            batch.append(replace ? "*5\r\n" : "*4\r\n");
+            RespWriter.appendBulk("RESTORE-ASKING", batch);
+            RespWriter.appendBulk(k, batch);
+            RespWriter.appendBulk(Long.toString(Math.max(ttl, 0)), batch);
+            RespWriter.appendBulkHeader(value.length(), batch);
+            if (value.length() >= FLUSH_BYTES) {
+                t.out.write(batch.array(), 0, batch.length());
+                batch.clear();
+                t.out.write(value.array(), 0, value.length());
+            } else {
+                batch.append(value.array(), 0, value.length());
+            }
+            batch.append("\r\n");
+            if (replace) RespWriter.appendBulk("REPLACE", batch);
+            sent.add(k);
+            if (batch.length() >= FLUSH_BYTES) {
+                t.out.write(batch.array(), 0, batch.length());
+                batch.clear();
+            }
+        }
+        t.out.write(batch.array(), 0, batch.length());
+        t.out.flush();
+        return sent;
+    }
+
+    // one reply line from the target, without CRLF
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\r') {
+                if (in.read() != '\n') throw new IOException("protocol error");
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        throw new IOException("connection closed");
+    }
+
+    private static final class Target {
+        final Socket socket;
+        final OutputStream out;
+        final InputStream in;
+        long lastUseMs;
+
+        private Target(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+            this.in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        static Target open(String host, int port, int timeoutMs) throws IOException {
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(host, port), timeoutMs);
+                s.setTcpNoDelay(true);
+                return new Target(s);
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
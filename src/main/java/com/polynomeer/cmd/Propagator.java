@@ -0,0 +1,12 @@
+package com.polynomeer.cmd;
+
+import java.util.List;
+
+/**
+ * Receives every command that changed the dataset, after it executed, in execution order
+ * (e.g., the append-only file). Called on the reactor thread; argv must not be retained
+ * beyond the call unless copied.
+ */
+public interface Propagator {
+    void propagate(List<String> argv);
+}
@@ -6,17 +6,27 @@ import com.polynomeer.pubsub.PubSubBroker;
 import com.polynomeer.resp.RespWriter;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
  * Pub/Sub commands:
  * - SUBSCRIBE channel [channel ...]         -> ["subscribe", ch, count] per channel
  * - UNSUBSCRIBE [channel ...]               -> ["unsubscribe", ch, count] per channel (or all if none)
- * - PUBLISH channel message                 -> :<receivers>
+ * - PSUBSCRIBE pattern [pattern ...]        -> ["psubscribe", pattern, count] per pattern
+ * - PUNSUBSCRIBE [pattern ...]              -> ["punsubscribe", pattern, count] per pattern (or all if none)
+ * - PUBLISH channel message                 -> :<receivers> (channel subscribers + pattern matches)
+ * - PUBSUB CHANNELS [pattern]               -> active channels
+ * - PUBSUB NUMSUB [channel ...]             -> flat array of channel, count pairs
+ * - PUBSUB NUMPAT                           -> :<patterns with subscribers>
  * <p>
  * Notes:
- * - This step implements channel-based Pub/Sub (no PSUBSCRIBE/patterns).
+ * - Patterns use Redis glob syntax (*, ?, [...], \ escapes); a channel matching several
+ *   patterns of one client is delivered once per pattern, as in Redis.
+ * - Counts in acks are channels + patterns of the connection.
+ * - On a RESP3 connection (HELLO 3) acks and messages are push frames.
  * - A connection in subscribed mode normally accepts only pubsub cmds;
  * for simplicity we don't enforce strict mode here.
  */
@@ -27,7 +37,10 @@ public final class PubSubCommands {
     public static void register(Map<String, Command> reg, PubSubBroker broker) {
         reg.put("SUBSCRIBE", (argv, ctx) -> subscribe(broker, argv, ctx));
         reg.put("UNSUBSCRIBE", (argv, ctx) -> unsubscribe(broker, argv, ctx));
+        reg.put("PSUBSCRIBE", (argv, ctx) -> psubscribe(broker, argv, ctx));
+        reg.put("PUNSUBSCRIBE", (argv, ctx) -> punsubscribe(broker, argv, ctx));
         reg.put("PUBLISH", (argv, ctx) -> publish(broker, argv));
+        reg.put("PUBSUB", (argv, ctx) -> pubsub(broker, argv));
     }
 
     private static ByteBuffer subscribe(PubSubBroker broker, List<String> argv, ClientConn ctx) {
@@ -38,7 +51,7 @@ public final class PubSubCommands {
         for (int i = 1; i < argv.size(); i++) {
             String ch = argv.get(i);
             int count = broker.subscribe(ch, ctx);
-            ctx.push(RespWriter.array3("subscribe", ch, count));
+            ctx.push(PubSubBroker.ack(ctx, "subscribe", ch, count));
         }
         // All acks already pushed
         return null;
@@ -47,18 +60,82 @@ public final class PubSubCommands {
     private static ByteBuffer unsubscribe(PubSubBroker broker, List<String> argv, ClientConn ctx) {
         // No arg: unsubscribe from all channels
         if (argv.size() == 1) {
-            broker.unsubscribeAll(ctx, null); // broker will pull set from ctx
-            // broker will push ["unsubscribe", ch, count] for each
+            if (ctx.subscribedChannels().isEmpty()) return noneAck("unsubscribe", ctx);
+            broker.unsubscribeAll(ctx); // pushes ["unsubscribe", ch, count] for each
             return null;
         }
         for (int i = 1; i < argv.size(); i++) {
             String ch = argv.get(i);
             int count = broker.unsubscribe(ch, ctx);
-            ctx.push(RespWriter.array3("unsubscribe", ch, count));
+            ctx.push(PubSubBroker.ack(ctx, "unsubscribe", ch, count));
         }
         return null;
     }
 
+    private static ByteBuffer psubscribe(PubSubBroker broker, List<String> argv, ClientConn ctx) {
+        if (argv.size() < 2) {
+            return RespWriter.error("ERR wrong number of arguments for 'PSUBSCRIBE'");
+        }
+        for (int i = 1; i < argv.size(); i++) {
+            String p = argv.get(i);
+            int count = broker.psubscribe(p, ctx);
+            ctx.push(PubSubBroker.ack(ctx, "psubscribe", p, count));
+        }
+        return null;
+    }
+
+    private static ByteBuffer punsubscribe(PubSubBroker broker, List<String> argv, ClientConn ctx) {
+        if (argv.size() == 1) {
+            if (ctx.subscribedPatterns().isEmpty()) return noneAck("punsubscribe", ctx);
+            broker.punsubscribeAll(ctx);
+            return null;
+        }
+        for (int i = 1; i < argv.size(); i++) {
+            String p = argv.get(i);
+            int count = broker.punsubscribe(p, ctx);
+            ctx.push(PubSubBroker.ack(ctx, "punsubscribe", p, count));
+        }
+        return null;
+    }
+
+    // [kind, nil, count]: "unsubscribe from all" while subscribed to nothing of that kind
+    private static ByteBuffer noneAck(String kind, ClientConn ctx) {
+        List<ByteBuffer> ack = List.of(RespWriter.bulkString(kind), RespWriter.nullValue(ctx.resp3()),
+                RespWriter.integer(ctx.subscriptionCount()));
+        return ctx.resp3() ? RespWriter.pushOfFrames(ack) : RespWriter.arrayOfFrames(ack);
+    }
+
+    private static ByteBuffer pubsub(PubSubBroker broker, List<String> argv) {
+        if (argv.size() < 2) {
+            return RespWriter.error("ERR wrong number of arguments for 'PUBSUB'");
+        }
+        String sub = argv.get(1).toUpperCase(Locale.ROOT);
+        switch (sub) {
+            case "CHANNELS": {
+                if (argv.size() > 3) {
+                    return RespWriter.error("ERR wrong number of arguments for 'PUBSUB|CHANNELS'");
+                }
+                List<String> chans = broker.channels(argv.size() == 3 ? argv.get(2) : null);
+                return RespWriter.arrayOfBulkStrings(chans.toArray(new String[0]));
+            }
+            case "NUMSUB": {
+                List<ByteBuffer> out = new ArrayList<>();
+                for (int i = 2; i < argv.size(); i++) {
+                    out.add(RespWriter.bulkString(argv.get(i)));
+                    out.add(RespWriter.integer(broker.numsub(argv.get(i))));
+                }
+                return RespWriter.arrayOfFrames(out);
+            }
+            case "NUMPAT":
+                if (argv.size() != 2) {
+                    return RespWriter.error("ERR wrong number of arguments for 'PUBSUB|NUMPAT'");
+                }
+                return RespWriter.integer(broker.numpat());
+            default:
+                return RespWriter.error("ERR unknown subcommand '" + argv.get(1) + "'. Try PUBSUB HELP.");
+        }
+    }
+
     private static ByteBuffer publish(PubSubBroker broker, List<String> argv) {
         if (argv.size() != 3) {
             return RespWriter.error("ERR wrong number of arguments for 'PUBLISH'");
@@ -0,0 +1,51 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.repl.ReplicationManager;
+import com.polynomeer.resp.RespWriter;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replication commands:
+ * - REPLICAOF host port | REPLICAOF NO ONE   (SLAVEOF is an alias)
+ * - PSYNC replid offset   (sent by replicas; replies +FULLRESYNC or +CONTINUE, then streams)
+ * - REPLCONF option value ...   (listening-port, capa, ACK from replicas)
+ * - ROLE
+ */
+public final class ReplicationCommands {
+    private ReplicationCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, ReplicationManager repl) {
+        reg.put("REPLICAOF", (argv, ctx) -> replicaOf(repl, argv));
+        reg.put("SLAVEOF", (argv, ctx) -> replicaOf(repl, argv));
+        reg.put("PSYNC", (argv, ctx) -> argv.size() != 3
+                ? RespWriter.error("ERR wrong number of arguments for 'PSYNC'")
+                : repl.psync(ctx, argv.get(1), argv.get(2)));
+        reg.put("REPLCONF", repl::replconf);
+        reg.put("ROLE", (argv, ctx) -> argv.size() != 1
+                ? RespWriter.error("ERR wrong number of arguments for 'ROLE'")
+                : repl.role());
+    }
+
+    private static ByteBuffer replicaOf(ReplicationManager repl, List<String> argv) {
+        if (argv.size() != 3) return RespWriter.error("ERR wrong number of arguments for 'REPLICAOF'");
+        String host = argv.get(1);
+        if (host.equalsIgnoreCase("NO") && argv.get(2).equalsIgnoreCase("ONE")) {
+            repl.replicaOfNoOne();
+            return RespWriter.simpleString("OK");
+        }
+        int port;
+        try {
+            port = Integer.parseInt(argv.get(2));
+        } catch (NumberFormatException e) {
+            return RespWriter.error("ERR Invalid master port");
+        }
+        if (port < 1 || port > 65535) return RespWriter.error("ERR Invalid master port");
+        if (repl.connectedTo(host, port)) return RespWriter.simpleString("OK Already connected to specified master");
+        repl.replicaOf(host, port);
+        return RespWriter.simpleString("OK");
+    }
+}
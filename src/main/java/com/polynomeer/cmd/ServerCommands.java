@@ -0,0 +1,207 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.Db;
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.persist.AppendOnlyFile;
+import com.polynomeer.persist.ImportManager;
+import com.polynomeer.persist.SnapshotManager;
+import com.polynomeer.pubsub.PubSubBroker;
+import com.polynomeer.repl.ReplicationManager;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.Clocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Server / persistence commands:
+ * - SAVE, BGSAVE, LASTSAVE, BGREWRITEAOF
+ * - IMPORTRDB path   (background import of a Redis RDB file, relative to "dir")
+ * - DBSIZE
+ * - INFO [section]   (server, memory, persistence, tiered, replication, cluster, keyspace)
+ * - CONFIG GET pattern | CONFIG SET name value
+ * - SHUTDOWN [NOSAVE|SAVE]   (exits; saves a snapshot if "save" rules are set, or with SAVE)
+ */
+public final class ServerCommands {
+    private ServerCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, Db db, PubSubBroker broker, ServerConfig config,
+                                SnapshotManager snapshots, AppendOnlyFile aof, ImportManager imports,
+                                ReplicationManager repl) {
+        long startedMs = System.currentTimeMillis();
+        reg.put("SAVE", (argv, ctx) -> save(snapshots, argv));
+        reg.put("BGSAVE", (argv, ctx) -> bgsave(snapshots, argv));
+        reg.put("BGREWRITEAOF", (argv, ctx) -> bgrewriteaof(aof, argv));
+        reg.put("IMPORTRDB", (argv, ctx) -> importRdb(imports, argv));
+        reg.put("LASTSAVE", (argv, ctx) -> argv.size() != 1
+                ? RespWriter.error("ERR wrong number of arguments for 'LASTSAVE'")
+                : RespWriter.integer(snapshots.lastSaveSeconds()));
+        reg.put("DBSIZE", (argv, ctx) -> argv.size() != 1
+                ? RespWriter.error("ERR wrong number of arguments for 'DBSIZE'")
+                : RespWriter.integer(db.dbsize()));
+        reg.put("INFO", (argv, ctx) -> info(db, config, snapshots, aof, imports, repl, startedMs, argv));
+        reg.put("CONFIG", (argv, ctx) -> config(config, broker, aof, repl, argv, ctx));
+        reg.put("SHUTDOWN", (argv, ctx) -> shutdown(config, snapshots, aof, argv));
+    }
+
+    private static ByteBuffer save(SnapshotManager snapshots, List<String> argv) {
+        if (argv.size() != 1) return RespWriter.error("ERR wrong number of arguments for 'SAVE'");
+        try {
+            snapshots.save();
+            return RespWriter.simpleString("OK");
+        } catch (IOException | RuntimeException e) {
+            return RespWriter.error("ERR " + e.getMessage());
+        }
+    }
+
+    /**
+     * The AOF is always flushed and synced; NOSAVE skips only the snapshot. Returns an error if the
+     * snapshot fails (the server keeps running); otherwise the process exits without a reply.
+     */
+    private static ByteBuffer shutdown(ServerConfig config, SnapshotManager snapshots, AppendOnlyFile aof,
+                                       List<String> argv) {
+        if (argv.size() > 2) return RespWriter.error("ERR wrong number of arguments for 'SHUTDOWN'");
+        String mode = argv.size() == 2 ? argv.get(1).toUpperCase(Locale.ROOT) : "";
+        if (!mode.isEmpty() && !mode.equals("NOSAVE") && !mode.equals("SAVE")) {
+            return RespWriter.error("ERR syntax error");
+        }
+        aof.flushForShutdown(Clocks.monoMillis());
+        if (mode.equals("SAVE") || mode.isEmpty() && !config.saveRules().isEmpty()) {
+            try {
+                snapshots.save();
+            } catch (IOException | RuntimeException e) {
+                System.out.println("[jredis] Error trying to save the DB on shutdown: " + e.getMessage());
+                return RespWriter.error("ERR Errors trying to SHUTDOWN. Check logs.");
+            }
+        }
+        System.out.println("[jredis] Redis is now ready to exit, bye bye...");
+        System.exit(0);
+        return null;
+    }
+
+    private static ByteBuffer bgsave(SnapshotManager snapshots, List<String> argv) {
+        if (argv.size() > 2) return RespWriter.error("ERR wrong number of arguments for 'BGSAVE'");
+        if (snapshots.inProgress()) return RespWriter.error("ERR Background save already in progress");
+        if (!snapshots.bgsave()) {
+            return RespWriter.error("ERR Background append only file rewriting in progress");
+        }
+        return RespWriter.simpleString("Background saving started");
+    }
+
+    private static ByteBuffer bgrewriteaof(AppendOnlyFile aof, List<String> argv) {
+        if (argv.size() != 1) return RespWriter.error("ERR wrong number of arguments for 'BGREWRITEAOF'");
+        switch (aof.bgrewrite()) {
+            case STARTED:
+                return RespWriter.simpleString("Background append only file rewriting started");
+            case SCHEDULED:
+                return RespWriter.simpleString("Background append only file rewriting scheduled");
+            default:
+                return RespWriter.error("ERR Background append only file rewriting already in progress");
+        }
+    }
+
+    private static ByteBuffer importRdb(ImportManager imports, List<String> argv) {
+        if (argv.size() != 2) return RespWriter.error("ERR wrong number of arguments for 'IMPORTRDB'");
+        Path file = imports.resolve(argv.get(1));
+        if (!Files.isRegularFile(file)) return RespWriter.error("ERR no such file: " + file);
+        if (!imports.bgimport(file)) return RespWriter.error("ERR RDB import already in progress");
+        return RespWriter.simpleString("Background RDB import started");
+    }
+
+    private static ByteBuffer info(Db db, ServerConfig config, SnapshotManager snapshots, AppendOnlyFile aof,
+                                   ImportManager imports, ReplicationManager repl, long startedMs,
+                                   List<String> argv) {
+        if (argv.size() > 2) return RespWriter.error("ERR syntax error");
+        String section = argv.size() == 2 ? argv.get(1).toLowerCase(Locale.ROOT) : "default";
+        boolean all = section.equals("default") || section.equals("all") || section.equals("everything");
+        StringBuilder sb = new StringBuilder();
+        if (all || section.equals("server")) {
+            sb.append("# Server\r\n");
+            sb.append("tcp_port:").append(config.port()).append("\r\n");
+            sb.append("process_id:").append(ProcessHandle.current().pid()).append("\r\n");
+            sb.append("uptime_in_seconds:").append((System.currentTimeMillis() - startedMs) / 1000).append("\r\n");
+            sb.append("\r\n");
+        }
+        if (all || section.equals("memory")) {
+            Runtime rt = Runtime.getRuntime();
+            sb.append("# Memory\r\n");
+            sb.append("used_memory_heap:").append(rt.totalMemory() - rt.freeMemory()).append("\r\n");
+            sb.append("max_memory_heap:").append(rt.maxMemory()).append("\r\n");
+            sb.append(db.memoryInfo());
+            sb.append("\r\n");
+        }
+        if (all || section.equals("persistence")) {
+            sb.append("# Persistence\r\n");
+            sb.append(snapshots.info());
+            sb.append(aof.info());
+            sb.append(imports.info());
+            sb.append("\r\n");
+        }
+        if (all || section.equals("tiered")) {
+            sb.append("# Tiered\r\n");
+            sb.append(db.tierInfo());
+            sb.append("\r\n");
+        }
+        if (all || section.equals("replication")) {
+            sb.append("# Replication\r\n");
+            sb.append(repl.info());
+            sb.append("\r\n");
+        }
+        if (all || section.equals("cluster")) {
+            sb.append("# Cluster\r\n");
+            sb.append("cluster_enabled:").append(config.clusterEnabled() ? 1 : 0).append("\r\n");
+            sb.append("\r\n");
+        }
+        if (all || section.equals("keyspace")) {
+            sb.append("# Keyspace\r\n");
+            int n = db.dbsize();
+            if (n > 0) sb.append("db0:keys=").append(n).append("\r\n");
+        }
+        return RespWriter.bulkString(sb.toString());
+    }
+
+    private static ByteBuffer config(ServerConfig config, PubSubBroker broker, AppendOnlyFile aof,
+                                     ReplicationManager repl, List<String> argv, ClientConn ctx) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'CONFIG'");
+        String sub = argv.get(1).toUpperCase(Locale.ROOT);
+        switch (sub) {
+            case "GET": {
+                if (argv.size() < 3) return RespWriter.error("ERR wrong number of arguments for 'CONFIG|GET'");
+                Map<String, String> found = new LinkedHashMap<>();
+                for (int i = 2; i < argv.size(); i++) found.putAll(config.match(argv.get(i)));
+                List<ByteBuffer> out = new ArrayList<>();
+                for (Map.Entry<String, String> e : found.entrySet()) {
+                    out.add(RespWriter.bulkString(e.getKey()));
+                    out.add(RespWriter.bulkString(e.getValue()));
+                }
+                return RespWriter.mapOfFrames(out, ctx != null && ctx.resp3());
+            }
+            case "SET": {
+                if (argv.size() < 4 || argv.size() % 2 != 0) {
+                    return RespWriter.error("ERR wrong number of arguments for 'CONFIG|SET'");
+                }
+                try {
+                    for (int i = 2; i < argv.size(); i += 2) config.set(argv.get(i), argv.get(i + 1));
+                } catch (IllegalArgumentException e) {
+                    return RespWriter.error("ERR " + e.getMessage());
+                }
+                aof.setEnabled(config.appendOnly());
+                repl.applyConfig();
+                broker.applyConfig();
+                ClientConn.applyConfig(config);
+                return RespWriter.simpleString("OK");
+            }
+            default:
+                return RespWriter.error("ERR unknown subcommand '" + argv.get(1) + "'. Try CONFIG GET, CONFIG SET.");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceEvents;
+import com.polynomeer.db.WrongTypeException;
+import com.polynomeer.resp.ReplySink;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Set commands:
+ * - SADD/SREM/SISMEMBER/SMEMBERS/SCARD
+ * - SINTER/SUNION/SDIFF and their STORE variants
+ * - SINTERCARD numkeys key [key ...] [LIMIT limit]
+ */
+public final class SetCommands {
+    private SetCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, Db db) {
+        reg.put("SADD", SinkCommand.on(db, SetCommands::sadd));
+        reg.put("SREM", SinkCommand.on(db, SetCommands::srem));
+        reg.put("SISMEMBER", SinkCommand.on(db, SetCommands::sismember));
+        reg.put("SMEMBERS", SinkCommand.on(db, SetCommands::smembers));
+        reg.put("SCARD", SinkCommand.on(db, SetCommands::scard));
+        reg.put("SINTER", SinkCommand.on(db, SetCommands::algebra));
+        reg.put("SUNION", SinkCommand.on(db, SetCommands::algebra));
+        reg.put("SDIFF", SinkCommand.on(db, SetCommands::algebra));
+        reg.put("SINTERSTORE", SinkCommand.on(db, SetCommands::algebraStore));
+        reg.put("SUNIONSTORE", SinkCommand.on(db, SetCommands::algebraStore));
+        reg.put("SDIFFSTORE", SinkCommand.on(db, SetCommands::algebraStore));
+        reg.put("SINTERCARD", SinkCommand.on(db, SetCommands::sintercard));
+    }
+
+    private static <R> R sadd(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() < 3) return out.error("ERR wrong number of arguments for 'SADD'");
+        try {
+            return out.integer(db.sadd(argv.get(1), argv.subList(2, argv.size())));
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R srem(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() < 3) return out.error("ERR wrong number of arguments for 'SREM'");
+        try {
+            return out.integer(db.srem(argv.get(1), argv.subList(2, argv.size())));
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R sismember(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 3) return out.error("ERR wrong number of arguments for 'SISMEMBER'");
+        try {
+            return out.integer(db.sismember(argv.get(1), argv.get(2)) ? 1 : 0);
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R smembers(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 2) return out.error("ERR wrong number of arguments for 'SMEMBERS'");
+        try {
+            return out.set(db.smembers(argv.get(1)));
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R scard(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 2) return out.error("ERR wrong number of arguments for 'SCARD'");
+        try {
+            return out.integer(db.scard(argv.get(1)));
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R algebra(Db db, List<String> argv, ReplySink<R> out) {
+        String name = argv.get(0).toUpperCase(Locale.ROOT);
+        if (argv.size() < 2) return out.error("ERR wrong number of arguments for '" + name + "'");
+        try {
+            List<String> res = compute(db, name, argv.subList(1, argv.size()));
+            return out.set(res);
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R algebraStore(Db db, List<String> argv, ReplySink<R> out) {
+        String name = argv.get(0).toUpperCase(Locale.ROOT);
+        if (argv.size() < 3) return out.error("ERR wrong number of arguments for '" + name + "'");
+        String op = name.substring(0, name.length() - "STORE".length());
+        try {
+            List<String> res = compute(db, op, argv.subList(2, argv.size()));
+            int n = db.sstore(argv.get(1), res);
+            if (n > 0) db.notifyKeyspaceEvent(KeyspaceEvents.SET, name.toLowerCase(Locale.ROOT), argv.get(1));
+            return out.integer(n);
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static List<String> compute(Db db, String op, List<String> keys) {
+        switch (op) {
+            case "SINTER":
+                return db.sinter(keys);
+            case "SUNION":
+                return db.sunion(keys);
+            default:
+                return db.sdiff(keys);
+        }
+    }
+
+    private static <R> R sintercard(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() < 3) return out.error("ERR wrong number of arguments for 'SINTERCARD'");
+        int numkeys;
+        try {
+            numkeys = Integer.parseInt(argv.get(1));
+        } catch (Exception e) {
+            return out.error("ERR numkeys should be greater than 0");
+        }
+        if (numkeys <= 0) return out.error("ERR numkeys should be greater than 0");
+        if (numkeys > argv.size() - 2) {
+            return out.error("ERR Number of keys can't be greater than number of args");
+        }
+        long limit = 0;
+        int i = 2 + numkeys;
+        while (i < argv.size()) {
+            if (!"LIMIT".equals(argv.get(i).toUpperCase(Locale.ROOT)) || i + 1 >= argv.size()) {
+                return out.error("ERR syntax error");
+            }
+            try {
+                limit = Long.parseLong(argv.get(i + 1));
+            } catch (Exception e) {
+                return out.error("ERR LIMIT can't be negative");
+            }
+            if (limit < 0) return out.error("ERR LIMIT can't be negative");
+            i += 2;
+        }
+        try {
+            return out.integer(db.sintercard(argv.subList(2, 2 + numkeys), limit));
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R wrongType(ReplySink<R> out) {
+        return out.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+}
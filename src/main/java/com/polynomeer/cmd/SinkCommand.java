@@ -0,0 +1,39 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.resp.ReplySink;
+import com.polynomeer.resp.RespSink;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A command that gives its reply to a ReplySink instead of building a RESP frame, so one
+ * implementation answers connections (execute(argv, ctx): RESP) and scripts' redis.call
+ * (Lua values, see CommandRegistry.callFromScript) alike.
+ */
+public interface SinkCommand extends Command {
+    <R> R execute(List<String> argv, ClientConn ctx, ReplySink<R> out);
+
+    @Override
+    default ByteBuffer execute(List<String> argv, ClientConn ctx) {
+        return execute(argv, ctx, RespSink.of(ctx != null && ctx.resp3()));
+    }
+
+    /**
+     * A command implemented as a static method over the Db, e.g. StringCommands::get.
+     */
+    interface OnDb {
+        <R> R execute(Db db, List<String> argv, ReplySink<R> out);
+    }
+
+    static SinkCommand on(Db db, OnDb impl) {
+        return new SinkCommand() {
+            @Override
+            public <R> R execute(List<String> argv, ClientConn ctx, ReplySink<R> out) {
+                return impl.execute(db, argv, out);
+            }
+        };
+    }
+}
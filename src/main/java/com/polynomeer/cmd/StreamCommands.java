@@ -0,0 +1,706 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceEvents;
+import com.polynomeer.db.WrongTypeException;
+import com.polynomeer.net.BlockingManager;
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.struct.Stream;
+import com.polynomeer.struct.StreamConsumerGroup;
+import com.polynomeer.struct.StreamEntry;
+import com.polynomeer.struct.StreamId;
+import com.polynomeer.util.Clocks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stream commands:
+ * - XADD key [NOMKSTREAM] [MAXLEN|MINID [=|~] threshold [LIMIT count]] *|id field value [...]
+ * - XTRIM, XDEL, XLEN, XRANGE, XREVRANGE
+ * - XSETID key last-id [ENTRIESADDED n]
+ * - XREAD [COUNT n] [BLOCK ms] STREAMS key [key ...] id [id ...]
+ * - XGROUP CREATE|SETID|DESTROY|CREATECONSUMER|DELCONSUMER
+ * - XREADGROUP GROUP g c [COUNT n] [BLOCK ms] [NOACK] STREAMS key [key ...] id [id ...]
+ * - XACK, XPENDING, XCLAIM
+ * <p>
+ * BLOCK parks the client in BlockingManager; XADD signals the key so parked readers are retried.
+ */
+public final class StreamCommands {
+    private static final String ERR_INVALID_ID = "ERR Invalid stream ID specified as stream command argument";
+    private static final String ERR_SYNTAX = "ERR syntax error";
+
+    private StreamCommands() {
+    }
+
+    public static void register(Map<String, Command> reg, Db db, BlockingManager blocking) {
+        reg.put("XADD", (argv, ctx) -> guard(() -> xadd(db, blocking, argv)));
+        reg.put("XTRIM", (argv, ctx) -> guard(() -> xtrim(db, argv)));
+        reg.put("XDEL", (argv, ctx) -> guard(() -> xdel(db, argv)));
+        reg.put("XSETID", (argv, ctx) -> guard(() -> xsetid(db, argv)));
+        reg.put("XLEN", (argv, ctx) -> guard(() -> xlen(db, argv)));
+        reg.put("XRANGE", (argv, ctx) -> guard(() -> xrange(db, argv, false)));
+        reg.put("XREVRANGE", (argv, ctx) -> guard(() -> xrange(db, argv, true)));
+        reg.put("XREAD", (argv, ctx) -> guard(() -> xread(db, blocking, argv, ctx)));
+        reg.put("XGROUP", (argv, ctx) -> guard(() -> xgroup(db, argv)));
+        reg.put("XREADGROUP", (argv, ctx) -> guard(() -> xreadgroup(db, blocking, argv, ctx)));
+        reg.put("XACK", (argv, ctx) -> guard(() -> xack(db, argv)));
+        reg.put("XPENDING", (argv, ctx) -> guard(() -> xpending(db, argv)));
+        reg.put("XCLAIM", (argv, ctx) -> guard(() -> xclaim(db, argv)));
+    }
+
+    private interface Body {
+        ByteBuffer run();
+    }
+
+    private static ByteBuffer guard(Body body) {
+        try {
+            return body.run();
+        } catch (WrongTypeException e) {
+            return RespWriter.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+        } catch (IllegalArgumentException e) {
+            return RespWriter.error(e.getMessage());
+        }
+    }
+
+    // ---------- XADD / XTRIM / XDEL / XLEN ----------
+
+    /**
+     * Parsed MAXLEN|MINID [=|~] threshold [LIMIT count] clause.
+     */
+    private static final class Trim {
+        boolean byMinId;
+        boolean approx;
+        long maxLen;
+        StreamId minId;
+        long limit;
+        int next; // index after the clause
+
+        long apply(Stream s) {
+            return byMinId ? s.trimByMinId(minId, approx, limit) : s.trimByMaxLen(maxLen, approx, limit);
+        }
+    }
+
+    /**
+     * Parse a trim clause starting at argv[i] (which is MAXLEN or MINID).
+     */
+    private static Trim parseTrim(List<String> argv, int i) {
+        Trim t = new Trim();
+        t.byMinId = "MINID".equals(argv.get(i).toUpperCase(Locale.ROOT));
+        i++;
+        if (i < argv.size() && (argv.get(i).equals("~") || argv.get(i).equals("="))) {
+            t.approx = argv.get(i).equals("~");
+            i++;
+        }
+        if (i >= argv.size()) throw new IllegalArgumentException(ERR_SYNTAX);
+        if (t.byMinId) {
+            t.minId = StreamId.parse(argv.get(i), 0);
+            if (t.minId == null) throw new IllegalArgumentException(ERR_INVALID_ID);
+        } else {
+            t.maxLen = parseLong(argv.get(i));
+            if (t.maxLen < 0) throw new IllegalArgumentException("ERR The MAXLEN argument must be >= 0.");
+        }
+        i++;
+        if (i + 1 < argv.size() && "LIMIT".equals(argv.get(i).toUpperCase(Locale.ROOT))) {
+            t.limit = parseLong(argv.get(i + 1));
+            if (t.limit < 0) throw new IllegalArgumentException("ERR The LIMIT argument must be >= 0.");
+            if (!t.approx) {
+                throw new IllegalArgumentException("ERR syntax error, LIMIT cannot be used without the special ~ option");
+            }
+            i += 2;
+        } else if (t.approx) {
+            t.limit = 100L * 100; // default effort bound, as in Redis (100 * stream-node-max-entries)
+        }
+        t.next = i;
+        return t;
+    }
+
+    private static ByteBuffer xadd(Db db, BlockingManager blocking, List<String> argv) {
+        if (argv.size() < 5) return RespWriter.error("ERR wrong number of arguments for 'XADD'");
+        String key = argv.get(1);
+        boolean noMkStream = false;
+        Trim trim = null;
+        int i = 2;
+        while (i < argv.size()) {
+            String opt = argv.get(i).toUpperCase(Locale.ROOT);
+            if (opt.equals("NOMKSTREAM")) {
+                noMkStream = true;
+                i++;
+            } else if (opt.equals("MAXLEN") || opt.equals("MINID")) {
+                trim = parseTrim(argv, i);
+                i = trim.next;
+            } else {
+                break;
+            }
+        }
+        if (i >= argv.size()) return RespWriter.error(ERR_SYNTAX);
+        String idSpec = argv.get(i);
+        List<String> fieldsValues = argv.subList(i + 1, argv.size());
+        if (fieldsValues.isEmpty() || fieldsValues.size() % 2 != 0) {
+            return RespWriter.error("ERR wrong number of arguments for 'XADD'");
+        }
+
+        Stream s = db.getStream(key);
+        if (s == null && noMkStream) return RespWriter.nullBulk();
+        StreamId id = nextId(s == null ? StreamId.MIN : s.lastId(), idSpec);
+        s = db.getOrCreateStream(key);
+        s.append(id, new ArrayList<>(fieldsValues));
+        if (trim != null) trim.apply(s);
+        db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xadd", key);
+        blocking.signalKeyAsReady(key);
+        if (CommandRegistry.isPropagating() && idSpec.indexOf('*') >= 0) {
+            // auto-generated IDs depend on the clock: propagate the ID actually assigned
+            List<String> rewrite = new ArrayList<>(argv);
+            rewrite.set(i, id.toString());
+            CommandRegistry.rewriteForPropagation(rewrite);
+        }
+        return RespWriter.bulkString(id.toString());
+    }
+
+    /**
+     * Resolve '*', 'ms-*' or an explicit ID against the stream's last ID.
+     */
+    private static StreamId nextId(StreamId last, String spec) {
+        if (spec.equals("*")) {
+            long now = Clocks.nowMillis();
+            if (now > last.ms) return new StreamId(now, 0);
+            StreamId nx = last.next();
+            if (nx == null) throw new IllegalArgumentException("ERR The stream has exhausted the last possible ID, unable to add more items");
+            return nx;
+        }
+        StreamId id;
+        if (spec.endsWith("-*")) {
+            StreamId base = StreamId.parse(spec.substring(0, spec.length() - 2), 0);
+            if (base == null) throw new IllegalArgumentException(ERR_INVALID_ID);
+            id = (base.ms == last.ms) ? last.next() : base;
+            if (id == null) throw new IllegalArgumentException(ERR_INVALID_ID);
+        } else {
+            id = StreamId.parse(spec, 0);
+            if (id == null) throw new IllegalArgumentException(ERR_INVALID_ID);
+        }
+        if (id.equals(StreamId.MIN)) {
+            throw new IllegalArgumentException("ERR The ID specified in XADD must be greater than 0-0");
+        }
+        if (id.compareTo(last) <= 0) {
+            throw new IllegalArgumentException("ERR The ID specified in XADD is equal or smaller than the target stream top item");
+        }
+        return id;
+    }
+
+    private static ByteBuffer xtrim(Db db, List<String> argv) {
+        if (argv.size() < 4) return RespWriter.error("ERR wrong number of arguments for 'XTRIM'");
+        String strategy = argv.get(2).toUpperCase(Locale.ROOT);
+        if (!strategy.equals("MAXLEN") && !strategy.equals("MINID")) return RespWriter.error(ERR_SYNTAX);
+        Trim trim = parseTrim(argv, 2);
+        if (trim.next != argv.size()) return RespWriter.error(ERR_SYNTAX);
+        Stream s = db.getStreamForWrite(argv.get(1));
+        long n = s == null ? 0 : trim.apply(s);
+        if (n > 0) db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xtrim", argv.get(1));
+        return RespWriter.integer(n);
+    }
+
+    private static ByteBuffer xdel(Db db, List<String> argv) {
+        if (argv.size() < 3) return RespWriter.error("ERR wrong number of arguments for 'XDEL'");
+        List<StreamId> ids = new ArrayList<>();
+        for (int i = 2; i < argv.size(); i++) ids.add(parseStrictId(argv.get(i)));
+        Stream s = db.getStreamForWrite(argv.get(1));
+        if (s == null) return RespWriter.integer(0);
+        long n = 0;
+        for (StreamId id : ids) {
+            if (s.delete(id)) n++;
+        }
+        if (n > 0) db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xdel", argv.get(1));
+        return RespWriter.integer(n);
+    }
+
+    private static ByteBuffer xsetid(Db db, List<String> argv) {
+        if (argv.size() != 3 && argv.size() != 5) return RespWriter.error("ERR wrong number of arguments for 'XSETID'");
+        StreamId id = parseStrictId(argv.get(2));
+        long entriesAdded = -1;
+        if (argv.size() == 5) {
+            if (!argv.get(3).equalsIgnoreCase("ENTRIESADDED")) return RespWriter.error(ERR_SYNTAX);
+            entriesAdded = parseLong(argv.get(4));
+            if (entriesAdded < 0) return RespWriter.error("ERR entries_added must be positive");
+        }
+        Stream s = db.getStreamForWrite(argv.get(1));
+        if (s == null) return RespWriter.error("ERR no such key");
+        List<StreamEntry> top = s.range(StreamId.MIN, StreamId.MAX, 1, true);
+        if (!top.isEmpty() && id.compareTo(top.get(0).id) < 0) {
+            return RespWriter.error("ERR The ID specified in XSETID is smaller than the target stream top item");
+        }
+        if (entriesAdded >= 0 && entriesAdded < s.length()) {
+            return RespWriter.error("ERR The entries_added specified in XSETID is smaller than the target stream length");
+        }
+        s.restoreCounters(id, entriesAdded >= 0 ? entriesAdded : s.entriesAdded());
+        db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xsetid", argv.get(1));
+        return RespWriter.simpleString("OK");
+    }
+
+    private static ByteBuffer xlen(Db db, List<String> argv) {
+        if (argv.size() != 2) return RespWriter.error("ERR wrong number of arguments for 'XLEN'");
+        Stream s = db.getStream(argv.get(1));
+        return RespWriter.integer(s == null ? 0 : s.length());
+    }
+
+    // ---------- XRANGE / XREVRANGE ----------
+
+    private static ByteBuffer xrange(Db db, List<String> argv, boolean rev) {
+        String name = rev ? "XREVRANGE" : "XRANGE";
+        if (argv.size() != 4 && argv.size() != 6) {
+            return RespWriter.error("ERR wrong number of arguments for '" + name + "'");
+        }
+        // XREVRANGE takes end before start
+        StreamId start = parseRangeId(argv.get(rev ? 3 : 2), true);
+        StreamId end = parseRangeId(argv.get(rev ? 2 : 3), false);
+        long count = Long.MAX_VALUE;
+        if (argv.size() == 6) {
+            if (!"COUNT".equals(argv.get(4).toUpperCase(Locale.ROOT))) return RespWriter.error(ERR_SYNTAX);
+            count = parseLong(argv.get(5));
+            if (count < 0) count = 0;
+        }
+        Stream s = db.getStream(argv.get(1));
+        if (s == null || start == null || end == null) return entriesFrame(new ArrayList<>());
+        return entriesFrame(s.range(start, end, count, rev));
+    }
+
+    /**
+     * "-", "+", "ms", "ms-seq", or "(" exclusive forms. Returns null when an exclusive bound
+     * leaves an empty range (e.g. "(0-0" as end).
+     */
+    private static StreamId parseRangeId(String s, boolean isStart) {
+        if (s.equals("-")) return StreamId.MIN;
+        if (s.equals("+")) return StreamId.MAX;
+        boolean exclusive = s.startsWith("(");
+        if (exclusive) s = s.substring(1);
+        StreamId id = StreamId.parse(s, isStart ? 0 : Long.MAX_VALUE);
+        if (id == null) throw new IllegalArgumentException(ERR_INVALID_ID);
+        if (!exclusive) return id;
+        return isStart ? id.next() : id.prev();
+    }
+
+    // ---------- XREAD ----------
+
+    private static ByteBuffer xread(Db db, BlockingManager blocking, List<String> argv, ClientConn ctx) {
+        ReadArgs a = parseReadArgs(argv, 1, "xread");
+        if (a.ids.contains(">")) {
+            return RespWriter.error("ERR The > ID can be specified only when calling XREADGROUP using the GROUP <group> <consumer> option.");
+        }
+        // resolve '$' now so that a blocked client only sees entries added after this call
+        List<StreamId> after = new ArrayList<>(a.keys.size());
+        for (int i = 0; i < a.keys.size(); i++) {
+            String spec = a.ids.get(i);
+            if (spec.equals("$")) {
+                Stream s = db.getStream(a.keys.get(i));
+                after.add(s == null ? StreamId.MIN : s.lastId());
+            } else {
+                after.add(parseStrictId(spec));
+            }
+        }
+        long count = a.count;
+        BlockingManager.Retry serve = () -> guard(() -> {
+            List<ByteBuffer> perKey = new ArrayList<>();
+            for (int i = 0; i < a.keys.size(); i++) {
+                Stream s = db.getStream(a.keys.get(i));
+                if (s == null || s.lastId().compareTo(after.get(i)) <= 0) continue;
+                List<StreamEntry> entries = s.range(after.get(i).next(), StreamId.MAX, count, false);
+                if (!entries.isEmpty()) perKey.add(keyEntriesFrame(a.keys.get(i), entries));
+            }
+            return perKey.isEmpty() ? null : RespWriter.arrayOfFrames(perKey);
+        });
+        return serveOrBlock(blocking, ctx, argv, a, serve);
+    }
+
+    /**
+     * Reply now if possible; otherwise block (when BLOCK was given outside MULTI) or reply null.
+     */
+    private static ByteBuffer serveOrBlock(BlockingManager blocking, ClientConn ctx, List<String> argv, ReadArgs a,
+                                           BlockingManager.Retry serve) {
+        // a read that writes (XREADGROUP) is propagated without BLOCK, so replay never blocks
+        List<String> nonBlocking = a.blockMs >= 0 && CommandRegistry.isPropagating() ? withoutBlock(argv) : null;
+        if (nonBlocking != null) CommandRegistry.rewriteForPropagation(nonBlocking);
+        ByteBuffer reply = serve.tryServe();
+        if (reply != null) return reply;
+        if (a.blockMs < 0 || ctx == null || ctx.isBypassTxn()) return RespWriter.nullArray();
+        // served later: propagate the read then, so replay delivers the same entries
+        BlockingManager.Retry retry = nonBlocking == null ? serve : CommandRegistry.propagatingRetry(nonBlocking, serve);
+        blocking.block(ctx, a.keys, a.blockMs, Clocks.monoMillis(), RespWriter.nullArray(), retry);
+        return null;
+    }
+
+    private static List<String> withoutBlock(List<String> argv) {
+        // options start after "XREAD" or after "XREADGROUP GROUP g c"
+        int opts = argv.get(0).equalsIgnoreCase("XREADGROUP") ? 4 : 1;
+        List<String> out = new ArrayList<>(argv.subList(0, opts));
+        for (int i = opts; i < argv.size(); i++) {
+            String a = argv.get(i);
+            if (a.equalsIgnoreCase("STREAMS")) {
+                out.addAll(argv.subList(i, argv.size()));
+                break;
+            }
+            if (a.equalsIgnoreCase("BLOCK")) i++;
+            else out.add(a);
+        }
+        return out;
+    }
+
+    /**
+     * Shared [COUNT n] [BLOCK ms] [NOACK] STREAMS key... id... parsing for XREAD/XREADGROUP.
+     */
+    private static final class ReadArgs {
+        long count = Long.MAX_VALUE;
+        long blockMs = -1;
+        boolean noAck;
+        List<String> keys;
+        List<String> ids;
+    }
+
+    private static ReadArgs parseReadArgs(List<String> argv, int i, String cmdName) {
+        ReadArgs a = new ReadArgs();
+        int streamsAt = -1;
+        while (i < argv.size()) {
+            String opt = argv.get(i).toUpperCase(Locale.ROOT);
+            if (opt.equals("COUNT") && i + 1 < argv.size()) {
+                a.count = parseLong(argv.get(i + 1));
+                if (a.count <= 0) a.count = Long.MAX_VALUE;
+                i += 2;
+            } else if (opt.equals("BLOCK") && i + 1 < argv.size()) {
+                a.blockMs = parseLong(argv.get(i + 1));
+                if (a.blockMs < 0) throw new IllegalArgumentException("ERR timeout is negative");
+                i += 2;
+            } else if (opt.equals("NOACK") && cmdName.equals("xreadgroup")) {
+                a.noAck = true;
+                i++;
+            } else if (opt.equals("STREAMS")) {
+                streamsAt = i + 1;
+                break;
+            } else {
+                throw new IllegalArgumentException(ERR_SYNTAX);
+            }
+        }
+        int rest = (streamsAt < 0) ? 0 : argv.size() - streamsAt;
+        if (streamsAt < 0 || rest == 0 || rest % 2 != 0) {
+            throw new IllegalArgumentException("ERR Unbalanced '" + cmdName
+                    + "' list of streams: for each stream key an ID or '$' must be specified.");
+        }
+        int n = rest / 2;
+        a.keys = argv.subList(streamsAt, streamsAt + n);
+        a.ids = argv.subList(streamsAt + n, argv.size());
+        return a;
+    }
+
+    // ---------- consumer groups ----------
+
+    private static ByteBuffer xgroup(Db db, List<String> argv) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'XGROUP'");
+        String sub = argv.get(1).toUpperCase(Locale.ROOT);
+        if (argv.size() < 4) return RespWriter.error("ERR wrong number of arguments for 'XGROUP " + sub + "'");
+        String key = argv.get(2);
+        String group = argv.get(3);
+        switch (sub) {
+            case "CREATE": {
+                if (argv.size() < 5) return RespWriter.error("ERR wrong number of arguments for 'XGROUP CREATE'");
+                boolean mkStream = false;
+                for (int i = 5; i < argv.size(); i++) {
+                    String opt = argv.get(i).toUpperCase(Locale.ROOT);
+                    if (opt.equals("MKSTREAM")) mkStream = true;
+                    else if (opt.equals("ENTRIESREAD") && i + 1 < argv.size()) i++; // lag tracking not kept
+                    else return RespWriter.error(ERR_SYNTAX);
+                }
+                Stream s = db.getStreamForWrite(key);
+                if (s == null && !mkStream) {
+                    return RespWriter.error("ERR The XGROUP subcommand requires the key to exist. "
+                            + "Note that for CREATE you may want to use the MKSTREAM option to create an empty stream automatically.");
+                }
+                StreamId last = groupStartId(s, argv.get(4));
+                if (s == null) s = db.getOrCreateStream(key);
+                if (s.createGroup(group, last) == null) {
+                    return RespWriter.error("BUSYGROUP Consumer Group name already exists");
+                }
+                db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xgroup-create", key);
+                return RespWriter.simpleString("OK");
+            }
+            case "SETID": {
+                if (argv.size() < 5) return RespWriter.error("ERR wrong number of arguments for 'XGROUP SETID'");
+                Stream s = db.getStreamForWrite(key);
+                StreamConsumerGroup g = s == null ? null : s.group(group);
+                if (g == null) return noGroup(key, group);
+                g.lastDeliveredId = groupStartId(s, argv.get(4));
+                db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xgroup-setid", key);
+                return RespWriter.simpleString("OK");
+            }
+            case "DESTROY": {
+                Stream s = db.getStreamForWrite(key);
+                if (s == null) return noGroup(key, group);
+                if (!s.destroyGroup(group)) return RespWriter.integer(0);
+                db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xgroup-destroy", key);
+                return RespWriter.integer(1);
+            }
+            case "CREATECONSUMER":
+            case "DELCONSUMER": {
+                if (argv.size() != 5) return RespWriter.error("ERR wrong number of arguments for 'XGROUP " + sub + "'");
+                Stream s = db.getStreamForWrite(key);
+                StreamConsumerGroup g = s == null ? null : s.group(group);
+                if (g == null) return noGroup(key, group);
+                String consumer = argv.get(4);
+                if (sub.equals("CREATECONSUMER")) {
+                    if (g.consumer(consumer) != null) return RespWriter.integer(0);
+                    g.getOrCreateConsumer(consumer, Clocks.nowMillis());
+                    db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xgroup-createconsumer", key);
+                    return RespWriter.integer(1);
+                }
+                long pending = g.deleteConsumer(consumer);
+                if (pending < 0) return RespWriter.integer(0);
+                db.notifyKeyspaceEvent(KeyspaceEvents.STREAM, "xgroup-delconsumer", key);
+                return RespWriter.integer(pending);
+            }
+            default:
+                return RespWriter.error("ERR unknown subcommand '" + argv.get(1) + "'");
+        }
+    }
+
+    private static StreamId groupStartId(Stream s, String spec) {
+        if (spec.equals("$")) return s == null ? StreamId.MIN : s.lastId();
+        return parseStrictId(spec);
+    }
+
+    private static ByteBuffer xreadgroup(Db db, BlockingManager blocking, List<String> argv, ClientConn ctx) {
+        if (argv.size() < 7 || !"GROUP".equals(argv.get(1).toUpperCase(Locale.ROOT))) {
+            return RespWriter.error("ERR wrong number of arguments for 'XREADGROUP'");
+        }
+        String group = argv.get(2);
+        String consumer = argv.get(3);
+        ReadArgs a = parseReadArgs(argv, 4, "xreadgroup");
+
+        boolean allNew = true;
+        List<StreamId> history = new ArrayList<>(a.keys.size());
+        for (int i = 0; i < a.keys.size(); i++) {
+            String spec = a.ids.get(i);
+            if (spec.equals(">")) {
+                history.add(null);
+            } else {
+                allNew = false;
+                history.add(parseStrictId(spec));
+            }
+            Stream s = db.getStream(a.keys.get(i));
+            if (s == null || s.group(group) == null) {
+                return RespWriter.error("NOGROUP No such key '" + a.keys.get(i) + "' or consumer group '"
+                        + group + "' in XREADGROUP with GROUP option");
+            }
+        }
+
+        BlockingManager.Retry serve = () -> guard(() -> {
+            long now = Clocks.nowMillis();
+            List<ByteBuffer> perKey = new ArrayList<>();
+            for (int i = 0; i < a.keys.size(); i++) {
+                String key = a.keys.get(i);
+                Stream s = db.getStreamForWrite(key);
+                StreamConsumerGroup g = s == null ? null : s.group(group);
+                if (g == null) {
+                    return RespWriter.error("NOGROUP No such key '" + key + "' or consumer group '" + group + "'");
+                }
+                StreamConsumerGroup.Consumer c = g.getOrCreateConsumer(consumer, now);
+                c.seenTime = now;
+                if (history.get(i) == null) {
+                    StreamId from = g.lastDeliveredId.next();
+                    List<StreamEntry> entries = from == null ? new ArrayList<>()
+                            : s.range(from, StreamId.MAX, a.count, false);
+                    if (entries.isEmpty()) continue;
+                    g.lastDeliveredId = entries.get(entries.size() - 1).id;
+                    if (!a.noAck) {
+                        for (StreamEntry e : entries) g.deliver(e.id, c, now);
+                    }
+                    perKey.add(keyEntriesFrame(key, entries));
+                } else {
+                    // history: this consumer's pending entries; deleted ones come back with nil fields
+                    List<StreamEntry> entries = new ArrayList<>();
+                    for (StreamConsumerGroup.PendingEntry pe : g.consumerPendingAfter(c, history.get(i), a.count)) {
+                        StreamEntry e = s.get(pe.id);
+                        entries.add(e != null ? e : new StreamEntry(pe.id, null));
+                    }
+                    perKey.add(keyEntriesFrame(key, entries));
+                }
+            }
+            return perKey.isEmpty() ? null : RespWriter.arrayOfFrames(perKey);
+        });
+        if (!allNew) {
+            ByteBuffer reply = serve.tryServe();
+            return reply != null ? reply : RespWriter.nullArray();
+        }
+        return serveOrBlock(blocking, ctx, argv, a, serve);
+    }
+
+    private static ByteBuffer xack(Db db, List<String> argv) {
+        if (argv.size() < 4) return RespWriter.error("ERR wrong number of arguments for 'XACK'");
+        List<StreamId> ids = new ArrayList<>();
+        for (int i = 3; i < argv.size(); i++) ids.add(parseStrictId(argv.get(i)));
+        Stream s = db.getStreamForWrite(argv.get(1));
+        StreamConsumerGroup g = s == null ? null : s.group(argv.get(2));
+        if (g == null) return RespWriter.integer(0);
+        long n = 0;
+        for (StreamId id : ids) {
+            if (g.ack(id)) n++;
+        }
+        return RespWriter.integer(n);
+    }
+
+    private static ByteBuffer xpending(Db db, List<String> argv) {
+        if (argv.size() != 3 && argv.size() < 6) return RespWriter.error("ERR wrong number of arguments for 'XPENDING'");
+        String key = argv.get(1);
+        Stream s = db.getStream(key);
+        StreamConsumerGroup g = s == null ? null : s.group(argv.get(2));
+        if (g == null) return noGroup(key, argv.get(2));
+
+        if (argv.size() == 3) {
+            // summary: [count, min-id, max-id, [[consumer, count], ...]]
+            List<ByteBuffer> out = new ArrayList<>(4);
+            out.add(RespWriter.integer(g.pendingCount()));
+            if (g.pendingCount() == 0) {
+                out.add(RespWriter.nullBulk());
+                out.add(RespWriter.nullBulk());
+                out.add(RespWriter.nullArray());
+                return RespWriter.arrayOfFrames(out);
+            }
+            out.add(RespWriter.bulkString(g.firstPendingId().toString()));
+            out.add(RespWriter.bulkString(g.lastPendingId().toString()));
+            List<ByteBuffer> perConsumer = new ArrayList<>();
+            for (StreamConsumerGroup.Consumer c : g.consumers()) {
+                if (c.pendingCount() == 0) continue;
+                perConsumer.add(RespWriter.arrayOfBulkStrings(new String[]{c.name, Integer.toString(c.pendingCount())}));
+            }
+            out.add(RespWriter.arrayOfFrames(perConsumer));
+            return RespWriter.arrayOfFrames(out);
+        }
+
+        int i = 3;
+        long minIdle = 0;
+        if ("IDLE".equals(argv.get(i).toUpperCase(Locale.ROOT))) {
+            minIdle = parseLong(argv.get(i + 1));
+            i += 2;
+        }
+        if (argv.size() - i < 3 || argv.size() - i > 4) return RespWriter.error(ERR_SYNTAX);
+        StreamId start = parseRangeId(argv.get(i), true);
+        StreamId end = parseRangeId(argv.get(i + 1), false);
+        long count = parseLong(argv.get(i + 2));
+        StreamConsumerGroup.Consumer only = null;
+        if (argv.size() - i == 4) {
+            only = g.consumer(argv.get(i + 3));
+            if (only == null) return RespWriter.arrayOfFrames(new ArrayList<>());
+        }
+        if (start == null || end == null || count <= 0) return RespWriter.arrayOfFrames(new ArrayList<>());
+        long now = Clocks.nowMillis();
+        List<ByteBuffer> out = new ArrayList<>();
+        for (StreamConsumerGroup.PendingEntry pe : g.pendingRange(start, end, count, only, minIdle, now)) {
+            List<ByteBuffer> row = new ArrayList<>(4);
+            row.add(RespWriter.bulkString(pe.id.toString()));
+            row.add(RespWriter.bulkString(pe.consumer.name));
+            row.add(RespWriter.integer(now - pe.deliveryTime));
+            row.add(RespWriter.integer(pe.deliveryCount));
+            out.add(RespWriter.arrayOfFrames(row));
+        }
+        return RespWriter.arrayOfFrames(out);
+    }
+
+    private static ByteBuffer xclaim(Db db, List<String> argv) {
+        if (argv.size() < 6) return RespWriter.error("ERR wrong number of arguments for 'XCLAIM'");
+        String key = argv.get(1);
+        String group = argv.get(2);
+        String consumer = argv.get(3);
+        long minIdle = parseLong(argv.get(4));
+        if (minIdle < 0) minIdle = 0;
+
+        List<StreamId> ids = new ArrayList<>();
+        int i = 5;
+        for (; i < argv.size(); i++) {
+            StreamId id = StreamId.parse(argv.get(i), 0);
+            if (id == null) break;
+            ids.add(id);
+        }
+        long now = Clocks.nowMillis();
+        long deliveryTime = now;
+        long retryCount = -1;
+        boolean force = false, justId = false;
+        StreamId lastId = null;
+        for (; i < argv.size(); i++) {
+            String opt = argv.get(i).toUpperCase(Locale.ROOT);
+            boolean hasArg = i + 1 < argv.size();
+            if (opt.equals("FORCE")) force = true;
+            else if (opt.equals("JUSTID")) justId = true;
+            else if (opt.equals("IDLE") && hasArg) deliveryTime = now - parseLong(argv.get(++i));
+            else if (opt.equals("TIME") && hasArg) deliveryTime = parseLong(argv.get(++i));
+            else if (opt.equals("RETRYCOUNT") && hasArg) retryCount = parseLong(argv.get(++i));
+            else if (opt.equals("LASTID") && hasArg) lastId = parseStrictId(argv.get(++i));
+            else return RespWriter.error("ERR Unrecognized XCLAIM option '" + argv.get(i) + "'");
+        }
+
+        Stream s = db.getStreamForWrite(key);
+        StreamConsumerGroup g = s == null ? null : s.group(group);
+        if (g == null) return noGroup(key, group);
+        if (lastId != null && lastId.compareTo(g.lastDeliveredId) > 0) g.lastDeliveredId = lastId;
+
+        StreamConsumerGroup.Consumer c = g.getOrCreateConsumer(consumer, now);
+        List<ByteBuffer> out = new ArrayList<>();
+        for (StreamId id : ids) {
+            StreamConsumerGroup.PendingEntry pe = g.pending(id);
+            StreamEntry e = s.get(id);
+            if (pe == null) {
+                if (!force || e == null) continue;
+                pe = g.forcePending(id, c, now);
+            } else if (e == null) {
+                g.ack(id); // entry deleted meanwhile: drop it from the PEL
+                continue;
+            }
+            if (minIdle > 0 && now - pe.deliveryTime < minIdle) continue;
+            g.moveTo(pe, c);
+            pe.deliveryTime = deliveryTime;
+            if (retryCount >= 0) pe.deliveryCount = retryCount;
+            else if (!justId) pe.deliveryCount++;
+            out.add(justId ? RespWriter.bulkString(id.toString()) : entryFrame(e));
+        }
+        c.seenTime = now;
+        return RespWriter.arrayOfFrames(out);
+    }
+
+    // ---------- helpers ----------
+
+    private static ByteBuffer noGroup(String key, String group) {
+        return RespWriter.error("NOGROUP No such key '" + key + "' or consumer group '" + group + "'");
+    }
+
+    private static StreamId parseStrictId(String s) {
+        StreamId id = StreamId.parse(s, 0);
+        if (id == null) throw new IllegalArgumentException(ERR_INVALID_ID);
+        return id;
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERR value is not an integer or out of range");
+        }
+    }
+
+    private static ByteBuffer entryFrame(StreamEntry e) {
+        List<ByteBuffer> pair = new ArrayList<>(2);
+        pair.add(RespWriter.bulkString(e.id.toString()));
+        pair.add(e.fieldsValues == null ? RespWriter.nullArray() : RespWriter.arrayOfBulkStrings(e.fieldsValues));
+        return RespWriter.arrayOfFrames(pair);
+    }
+
+    private static ByteBuffer entriesFrame(List<StreamEntry> entries) {
+        List<ByteBuffer> frames = new ArrayList<>(entries.size());
+        for (StreamEntry e : entries) frames.add(entryFrame(e));
+        return RespWriter.arrayOfFrames(frames);
+    }
+
+    private static ByteBuffer keyEntriesFrame(String key, List<StreamEntry> entries) {
+        List<ByteBuffer> pair = new ArrayList<>(2);
+        pair.add(RespWriter.bulkString(key));
+        pair.add(entriesFrame(entries));
+        return RespWriter.arrayOfFrames(pair);
+    }
+}
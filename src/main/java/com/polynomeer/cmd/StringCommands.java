@@ -1,53 +1,76 @@
 package com.polynomeer.cmd;
 
 import com.polynomeer.db.Db;
-import com.polynomeer.resp.RespWriter;
+import com.polynomeer.db.KeyspaceEvents;
+import com.polynomeer.db.WrongTypeException;
+import com.polynomeer.resp.ReplySink;
+import com.polynomeer.util.ByteBuf;
 
-import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
+/**
+ * String commands:
+ * - GET/SET/DEL/SETNX  (SET [EX|PX|EXAT|PXAT t] [NX|XX])
+ * - APPEND/SETRANGE/GETRANGE/STRLEN, which work on the mutable ByteBuf form of the value
+ *   (converted once, then appended/overwritten in place with spare capacity)
+ */
 public final class StringCommands {
+    private static final int MAX_STRING_BYTES = 512 * 1024 * 1024;
+
     private StringCommands() {
     }
 
     public static void register(Map<String, Command> reg, Db db) {
-        reg.put("GET", (argv, ctx) -> get(db, argv));
-        reg.put("SET", (argv, ctx) -> set(db, argv));
-        reg.put("DEL", (argv, ctx) -> del(db, argv));
-        reg.put("SETNX", (argv, ctx) -> setnx(db, argv));
+        reg.put("GET", SinkCommand.on(db, StringCommands::get));
+        reg.put("SET", SinkCommand.on(db, StringCommands::set));
+        reg.put("DEL", SinkCommand.on(db, StringCommands::del));
+        reg.put("SETNX", SinkCommand.on(db, StringCommands::setnx));
+        reg.put("APPEND", SinkCommand.on(db, StringCommands::append));
+        reg.put("SETRANGE", SinkCommand.on(db, StringCommands::setrange));
+        reg.put("GETRANGE", SinkCommand.on(db, StringCommands::getrange));
+        reg.put("STRLEN", SinkCommand.on(db, StringCommands::strlen));
     }
 
-    private static ByteBuffer get(Db db, List<String> argv) {
-        if (argv.size() != 2) return RespWriter.error("ERR wrong number of arguments for 'GET'");
+    private static <R> R get(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 2) return out.error("ERR wrong number of arguments for 'GET'");
         String key = argv.get(1);
         String val = db.getString(key);
-        if (val == null) return RespWriter.nullBulk();
-        return RespWriter.bulkString(val);
+        if (val == null) return out.nullBulk();
+        return out.bulk(val);
     }
 
-    private static ByteBuffer set(Db db, List<String> argv) {
-        if (argv.size() < 3) return RespWriter.error("ERR wrong number of arguments for 'SET'");
+    private static <R> R set(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() < 3) return out.error("ERR wrong number of arguments for 'SET'");
         String key = argv.get(1);
         String value = argv.get(2);
 
         boolean nx = false, xx = false;
         Long pxMs = null;
+        Long atMs = null;
 
         int i = 3;
         while (i < argv.size()) {
             String opt = argv.get(i).toUpperCase(Locale.ROOT);
             switch (opt) {
                 case "PX":
-                    if (i + 1 >= argv.size()) return RespWriter.error("ERR syntax error");
+                    if (i + 1 >= argv.size()) return out.error("ERR syntax error");
                     pxMs = parsePositiveLong(argv.get(++i), "PX");
                     break;
                 case "EX":
-                    if (i + 1 >= argv.size()) return RespWriter.error("ERR syntax error");
+                    if (i + 1 >= argv.size()) return out.error("ERR syntax error");
                     long sec = parsePositiveLong(argv.get(++i), "EX");
                     pxMs = sec * 1000L;
                     break;
+                case "PXAT":
+                    if (i + 1 >= argv.size()) return out.error("ERR syntax error");
+                    atMs = parsePositiveLong(argv.get(++i), "PXAT");
+                    break;
+                case "EXAT":
+                    if (i + 1 >= argv.size()) return out.error("ERR syntax error");
+                    atMs = parsePositiveLong(argv.get(++i), "EXAT") * 1000L;
+                    break;
                 case "NX":
                     nx = true;
                     break;
@@ -55,37 +78,123 @@ public final class StringCommands {
                     xx = true;
                     break;
                 default:
-                    return RespWriter.error("ERR syntax error");
+                    return out.error("ERR syntax error");
             }
             i++;
         }
-        if (nx && xx) return RespWriter.error("ERR NX and XX options at the same time are not compatible");
+        if (nx && xx) return out.error("ERR NX and XX options at the same time are not compatible");
+        if (pxMs != null && atMs != null) return out.error("ERR syntax error");
 
         boolean exists = db.exists(key);
-        if (nx && exists) return RespWriter.nullBulk();
-        if (xx && !exists) return RespWriter.nullBulk();
+        if (nx && exists) return out.nullBulk();
+        if (xx && !exists) return out.nullBulk();
 
-        long expireAt = (pxMs == null) ? -1L : (System.currentTimeMillis() + pxMs);
+        long expireAt = pxMs != null ? System.currentTimeMillis() + pxMs : atMs != null ? atMs : -1L;
         db.setString(key, value, expireAt);
-        return RespWriter.simpleString("OK");
+        if (expireAt >= 0 && CommandRegistry.isPropagating()) {
+            // replay must not extend the TTL: propagate the absolute deadline
+            CommandRegistry.rewriteForPropagation(List.of("SET", key, value, "PXAT", Long.toString(expireAt)));
+        }
+        return out.status("OK");
     }
 
-    private static ByteBuffer setnx(Db db, List<String> argv) {
-        if (argv.size() != 3) return RespWriter.error("ERR wrong number of arguments for 'SETNX'");
+    private static <R> R setnx(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 3) return out.error("ERR wrong number of arguments for 'SETNX'");
         String key = argv.get(1);
         String value = argv.get(2);
-        if (db.exists(key)) return RespWriter.integer(0);
+        if (db.exists(key)) return out.integer(0);
         db.setString(key, value, -1L);
-        return RespWriter.integer(1);
+        return out.integer(1);
     }
 
-    private static ByteBuffer del(Db db, List<String> argv) {
-        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'DEL'");
+    private static <R> R del(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() < 2) return out.error("ERR wrong number of arguments for 'DEL'");
         long deleted = 0;
         for (int i = 1; i < argv.size(); i++) {
             if (db.del(argv.get(i))) deleted++;
         }
-        return RespWriter.integer(deleted);
+        return out.integer(deleted);
+    }
+
+    private static <R> R append(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 3) return out.error("ERR wrong number of arguments for 'APPEND'");
+        try {
+            ByteBuf buf = db.getOrCreateBytes(argv.get(1));
+            if ((long) buf.length() + argv.get(2).length() > MAX_STRING_BYTES) {
+                return out.error("ERR string exceeds maximum allowed size (proto-max-bulk-len)");
+            }
+            buf.append(argv.get(2));
+            db.notifyKeyspaceEvent(KeyspaceEvents.STRING, "append", argv.get(1));
+            return out.integer(buf.length());
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R setrange(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 4) return out.error("ERR wrong number of arguments for 'SETRANGE'");
+        long off;
+        try {
+            off = Long.parseLong(argv.get(2));
+        } catch (NumberFormatException e) {
+            return out.error("ERR value is not an integer or out of range");
+        }
+        if (off < 0) return out.error("ERR offset is out of range");
+        String value = argv.get(3);
+        if (off + value.length() > MAX_STRING_BYTES) {
+            return out.error("ERR string exceeds maximum allowed size (proto-max-bulk-len)");
+        }
+        try {
+            if (value.isEmpty()) {
+                // Nothing to write: don't create the key, just report the current length
+                return out.integer(db.strlen(argv.get(1)));
+            }
+            ByteBuf buf = db.getOrCreateBytes(argv.get(1));
+            buf.setRange((int) off, value);
+            db.notifyKeyspaceEvent(KeyspaceEvents.STRING, "setrange", argv.get(1));
+            return out.integer(buf.length());
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R getrange(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 4) return out.error("ERR wrong number of arguments for 'GETRANGE'");
+        long start, end;
+        try {
+            start = Long.parseLong(argv.get(2));
+            end = Long.parseLong(argv.get(3));
+        } catch (NumberFormatException e) {
+            return out.error("ERR value is not an integer or out of range");
+        }
+        try {
+            ByteBuf buf = db.getBytes(argv.get(1));
+            int len = buf == null ? 0 : buf.length();
+            if (start < 0 && end < 0 && start > end) return out.bulk("");
+            if (start < 0) start = len + start;
+            if (end < 0) end = len + end;
+            if (start < 0) start = 0;
+            if (end < 0) end = 0;
+            if (end >= len) end = len - 1;
+            if (len == 0 || start > end) return out.bulk("");
+            // Only the requested slice is copied into the reply frame
+            return out.bulkBytes(buf.array(), (int) start, (int) (end - start + 1));
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R strlen(Db db, List<String> argv, ReplySink<R> out) {
+        if (argv.size() != 2) return out.error("ERR wrong number of arguments for 'STRLEN'");
+        try {
+            return out.integer(db.strlen(argv.get(1)));
+        } catch (WrongTypeException e) {
+            return wrongType(out);
+        }
+    }
+
+    private static <R> R wrongType(ReplySink<R> out) {
+        return out.error("WRONGTYPE Operation against a key holding the wrong kind of value");
     }
 
     private static long parsePositiveLong(String s, String opt) {
@@ -1,6 +1,7 @@
 package com.polynomeer.cmd;
 
 import com.polynomeer.net.ClientConn;
+import com.polynomeer.net.WatchedKeys;
 import com.polynomeer.resp.RespWriter;
 
 import java.nio.ByteBuffer;
@@ -10,17 +11,22 @@ import java.util.Map;
 /**
  * MULTI/EXEC/DISCARD transaction control.
  * - MULTI: begin queuing; subsequent commands return +QUEUED
- * - EXEC:  execute queued commands atomically; return RESP array of replies
+ * - EXEC:  execute queued commands atomically; return RESP array of replies, or a null array
+ *   if a WATCHed key changed since WATCH
  * - DISCARD: clear queue and exit transactional state
+ * - WATCH key [key ...]: check-and-set guard for the next EXEC (not allowed inside MULTI)
+ * - UNWATCH: forget the watched keys (EXEC and DISCARD do so as well)
  */
 public final class TxCommands {
     private TxCommands() {
     }
 
-    public static void register(Map<String, Command> reg) {
+    public static void register(Map<String, Command> reg, WatchedKeys watches) {
         reg.put("MULTI", TxCommands::multi);
         reg.put("EXEC", TxCommands::exec);
-        reg.put("DISCARD", TxCommands::discard);
+        reg.put("DISCARD", (argv, ctx) -> discard(watches, argv, ctx));
+        reg.put("WATCH", (argv, ctx) -> watch(watches, argv, ctx));
+        reg.put("UNWATCH", (argv, ctx) -> unwatch(watches, argv, ctx));
     }
 
     public static boolean isTxControl(String name) {
@@ -46,10 +52,23 @@ public final class TxCommands {
         return CommandRegistry.execQueued(ctx);
     }
 
-    private static ByteBuffer discard(List<String> argv, ClientConn ctx) {
+    private static ByteBuffer discard(WatchedKeys watches, List<String> argv, ClientConn ctx) {
         if (argv.size() != 1) return RespWriter.error("ERR wrong number of arguments for 'DISCARD'");
         if (!ctx.isInTxn()) return RespWriter.error("ERR DISCARD without MULTI");
         ctx.endTxn();
+        watches.unwatchAll(ctx);
+        return RespWriter.simpleString("OK");
+    }
+
+    private static ByteBuffer watch(WatchedKeys watches, List<String> argv, ClientConn ctx) {
+        if (argv.size() < 2) return RespWriter.error("ERR wrong number of arguments for 'WATCH'");
+        for (int i = 1; i < argv.size(); i++) watches.watch(ctx, argv.get(i));
+        return RespWriter.simpleString("OK");
+    }
+
+    private static ByteBuffer unwatch(WatchedKeys watches, List<String> argv, ClientConn ctx) {
+        if (argv.size() != 1) return RespWriter.error("ERR wrong number of arguments for 'UNWATCH'");
+        watches.unwatchAll(ctx);
         return RespWriter.simpleString("OK");
     }
 }
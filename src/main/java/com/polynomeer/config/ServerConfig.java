@@ -0,0 +1,483 @@
+package com.polynomeer.config;
+
+import com.polynomeer.db.KeyspaceEvents;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Server parameters, settable from the command line ("[port] --name value ...")
+ * and at runtime through CONFIG SET. Values are kept as strings and parsed by the
+ * typed accessors, so readers always see the current value.
+ * <p>
+ * Reactor-thread only after startup.
+ */
+public final class ServerConfig {
+    // read once at startup (the listener, the keyspace store, the append-only file name, loading,
+    // replication, cluster identity, the value log, Pub/Sub delivery threads; REPLICAOF changes
+    // the primary at runtime)
+    private static final Set<String> STARTUP_ONLY = Set.of("port", "storage-engine", "appendfilename", "load-threads", "rdb-import",
+            "replicaof", "repl-backlog-size", "cluster-enabled", "cluster-config-file", "cluster-announce-ip",
+            "tiered-storage", "tiered-dir", "tiered-segment-size", "pubsub-delivery-threads");
+
+    private final Map<String, String> params = new LinkedHashMap<>();
+
+    public ServerConfig() {
+        params.put("port", "6379");
+        params.put("storage-engine", "heap");
+        params.put("dir", ".");
+        params.put("dbfilename", "dump.jrdb");
+        params.put("save", "3600 1 300 100 60 10000");
+        params.put("appendonly", "no");
+        params.put("appendfilename", "appendonly.aof");
+        params.put("appendfsync", "everysec");
+        params.put("auto-aof-rewrite-percentage", "100");
+        params.put("auto-aof-rewrite-min-size", "64mb");
+        params.put("load-threads", "0");
+        params.put("rdb-import", "");
+        params.put("replicaof", "");
+        params.put("repl-backlog-size", "1mb");
+        params.put("repl-timeout", "60");
+        params.put("replica-read-only", "yes");
+        params.put("cluster-enabled", "no");
+        params.put("cluster-config-file", "nodes.conf");
+        params.put("cluster-node-timeout", "15000");
+        params.put("cluster-announce-ip", "");
+        params.put("cluster-require-full-coverage", "yes");
+        params.put("tiered-storage", "no");
+        params.put("tiered-dir", "valuelog");
+        params.put("tiered-segment-size", "64mb");
+        params.put("tiered-idle-seconds", "300");
+        params.put("tiered-max-heap-percent", "75");
+        params.put("pubsub-delivery-threads", "0");
+        params.put("pubsub-offload-threshold", "1000");
+        params.put("notify-keyspace-events", "");
+        params.put("tracking-table-max-keys", "1000000");
+        params.put("busy-reply-threshold", "5000");
+        params.put("lua-replicate-commands", "yes");
+        params.put("proto-max-bulk-len", "512mb");
+        params.put("client-query-buffer-limit", "1gb");
+    }
+
+    /**
+     * Parse "[port] [--name value ...]"; throws IllegalArgumentException on bad input.
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig c = new ServerConfig();
+        int i = 0;
+        if (args.length > 0 && !args[0].startsWith("--")) c.apply("port", args[i++]);
+        while (i < args.length) {
+            String a = args[i];
+            if (!a.startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("expected --name value, got '" + a + "'");
+            }
+            c.apply(a.substring(2), args[i + 1]);
+            i += 2;
+        }
+        return c;
+    }
+
+    public String get(String name) {
+        return params.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Name/value pairs whose name matches a glob pattern (CONFIG GET).
+     */
+    public Map<String, String> match(String glob) {
+        Pattern p = Pattern.compile(globToRegex(glob.toLowerCase(Locale.ROOT)));
+        Map<String, String> out = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            if (p.matcher(e.getKey()).matches()) out.put(e.getKey(), e.getValue());
+        }
+        return out;
+    }
+
+    /**
+     * Validate and set a parameter; throws IllegalArgumentException with a client-facing message.
+     */
+    public void set(String name, String value) {
+        String n = name.toLowerCase(Locale.ROOT);
+        if (STARTUP_ONLY.contains(n)) {
+            throw new IllegalArgumentException("CONFIG SET failed (possibly related to argument '" + name
+                    + "') - can't set immutable config");
+        }
+        apply(n, value);
+    }
+
+    private void apply(String name, String value) {
+        String n = name.toLowerCase(Locale.ROOT);
+        if (!params.containsKey(n)) {
+            throw new IllegalArgumentException("Unknown option or number of arguments for CONFIG SET - '" + name + "'");
+        }
+        switch (n) {
+            case "port":
+                parseLong(n, value, 0, 65535);
+                break;
+            case "save":
+                parseSaveRules(value);
+                break;
+            case "appendonly":
+                parseYesNo(n, value);
+                break;
+            case "appendfsync":
+                if (!List.of("always", "everysec", "no").contains(value.toLowerCase(Locale.ROOT))) {
+                    throw new IllegalArgumentException("Invalid argument '" + value + "' for CONFIG SET '" + n + "'");
+                }
+                value = value.toLowerCase(Locale.ROOT);
+                break;
+            case "storage-engine":
+                if (!List.of("heap", "offheap").contains(value.toLowerCase(Locale.ROOT))) {
+                    throw new IllegalArgumentException("Invalid argument '" + value + "' for CONFIG SET '" + n + "'");
+                }
+                value = value.toLowerCase(Locale.ROOT);
+                break;
+            case "auto-aof-rewrite-percentage":
+                parseLong(n, value, 0, Integer.MAX_VALUE);
+                break;
+            case "auto-aof-rewrite-min-size":
+                parseMemory(n, value);
+                break;
+            case "load-threads":
+                parseLong(n, value, 0, 1024);
+                break;
+            case "replicaof":
+                if (!value.trim().isEmpty()) parseReplicaOf(value);
+                break;
+            case "repl-backlog-size":
+                long size = parseMemory(n, value);
+                if (size < 16 * 1024 || size > Integer.MAX_VALUE - 8) {
+                    throw new IllegalArgumentException("Invalid argument '" + value + "' for CONFIG SET '" + n + "'");
+                }
+                break;
+            case "repl-timeout":
+                parseLong(n, value, 1, Integer.MAX_VALUE);
+                break;
+            case "replica-read-only":
+            case "cluster-enabled":
+            case "cluster-require-full-coverage":
+            case "tiered-storage":
+            case "lua-replicate-commands":
+                parseYesNo(n, value);
+                break;
+            case "tiered-segment-size":
+                long segment = parseMemory(n, value);
+                if (segment < 1024 * 1024 || segment > 1024 * 1024 * 1024) {
+                    throw new IllegalArgumentException("Invalid argument '" + value + "' for CONFIG SET '" + n + "'");
+                }
+                break;
+            case "tiered-idle-seconds":
+                parseLong(n, value, 1, Integer.MAX_VALUE);
+                break;
+            case "tiered-max-heap-percent":
+                parseLong(n, value, 0, 100);
+                break;
+            case "cluster-node-timeout":
+                parseLong(n, value, 100, Integer.MAX_VALUE);
+                break;
+            case "pubsub-delivery-threads":
+                parseLong(n, value, 0, 64);
+                break;
+            case "pubsub-offload-threshold":
+                parseLong(n, value, 1, Integer.MAX_VALUE);
+                break;
+            case "notify-keyspace-events":
+                value = KeyspaceEvents.formatFlags(KeyspaceEvents.parseFlags(value));
+                break;
+            case "tracking-table-max-keys":
+            case "busy-reply-threshold":
+                parseLong(n, value, 0, Integer.MAX_VALUE);
+                break;
+            case "proto-max-bulk-len":
+            case "client-query-buffer-limit":
+                long bytes = parseMemory(n, value);
+                // both bound a byte array
+                if (bytes < 1024 * 1024 || bytes > Integer.MAX_VALUE - 8) {
+                    throw new IllegalArgumentException("Invalid argument '" + value + "' for CONFIG SET '" + n + "'");
+                }
+                break;
+            default:
+                break;
+        }
+        params.put(n, value);
+    }
+
+    // ---------- typed accessors ----------
+
+    public int port() {
+        return Integer.parseInt(params.get("port"));
+    }
+
+    /**
+     * "heap" (MemoryDb) or "offheap" (OffHeapDb: string keys in direct memory; size the JVM's
+     * -XX:MaxDirectMemorySize for the dataset).
+     */
+    public String storageEngine() {
+        return params.get("storage-engine");
+    }
+
+        public String dir() {
+        return params.get("dir");
+    }
+
+    public String dbFilename() {
+        return params.get("dbfilename");
+    }
+
+    public boolean appendOnly() {
+        return parseYesNo("appendonly", params.get("appendonly"));
+    }
+
+    public String appendFilename() {
+        return params.get("appendfilename");
+    }
+
+    /**
+     * "always", "everysec" or "no".
+     */
+    public String appendFsync() {
+        return params.get("appendfsync");
+    }
+
+    /**
+     * Growth over the post-rewrite size, in percent, that triggers a rewrite; 0 disables.
+     */
+    public long autoAofRewritePercentage() {
+        return Long.parseLong(params.get("auto-aof-rewrite-percentage"));
+    }
+
+    public long autoAofRewriteMinSize() {
+        return parseMemory("auto-aof-rewrite-min-size", params.get("auto-aof-rewrite-min-size"));
+    }
+
+    /**
+     * Snapshot decode threads at startup; "0" means one per available core.
+     */
+    public int loadThreads() {
+        int n = Integer.parseInt(params.get("load-threads"));
+        return n > 0 ? n : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Redis RDB file to import at startup, relative to "dir"; empty for none.
+     */
+    public String rdbImport() {
+        return params.get("rdb-import");
+    }
+
+    /**
+     * Primary to replicate from at startup as {host, port}, or null.
+     */
+    public String[] replicaOf() {
+        String v = params.get("replicaof").trim();
+        return v.isEmpty() ? null : parseReplicaOf(v);
+    }
+
+    public int replBacklogSize() {
+        return (int) parseMemory("repl-backlog-size", params.get("repl-backlog-size"));
+    }
+
+    public long replTimeoutMillis() {
+        return Long.parseLong(params.get("repl-timeout")) * 1000;
+    }
+
+    public boolean replicaReadOnly() {
+        return parseYesNo("replica-read-only", params.get("replica-read-only"));
+    }
+
+    public boolean clusterEnabled() {
+        return parseYesNo("cluster-enabled", params.get("cluster-enabled"));
+    }
+
+    /**
+     * Node list and slot table of this cluster node, relative to "dir".
+     */
+    public String clusterConfigFile() {
+        return params.get("cluster-config-file");
+    }
+
+    /**
+     * Milliseconds without a reply after which a node is considered possibly failing.
+     */
+    public long clusterNodeTimeoutMillis() {
+        return Long.parseLong(params.get("cluster-node-timeout"));
+    }
+
+    /**
+     * Address announced to other nodes; empty to use the one peers are reached from.
+     */
+    public String clusterAnnounceIp() {
+        return params.get("cluster-announce-ip");
+    }
+
+    /**
+     * Refuse keyed commands while any slot is unassigned ("yes"), or only those of unassigned slots.
+     */
+    public boolean clusterRequireFullCoverage() {
+        return parseYesNo("cluster-require-full-coverage", params.get("cluster-require-full-coverage"));
+    }
+
+    public boolean tieredStorage() {
+        return parseYesNo("tiered-storage", params.get("tiered-storage"));
+    }
+
+    /**
+     * Directory of the value log segments, relative to "dir".
+     */
+    public String tieredDir() {
+        return params.get("tiered-dir");
+    }
+
+    public int tieredSegmentSize() {
+        return (int) parseMemory("tiered-segment-size", params.get("tiered-segment-size"));
+    }
+
+    /**
+     * Seconds without access after which a value is moved to the value log.
+     */
+    public long tieredIdleSeconds() {
+        return Long.parseLong(params.get("tiered-idle-seconds"));
+    }
+
+    /**
+     * Heap use after GC, in percent of the maximum, above which values are spilled whether
+     * idle or not; 0 spills by idle time only.
+     */
+    public int tieredMaxHeapPercent() {
+        return Integer.parseInt(params.get("tiered-max-heap-percent"));
+    }
+
+    /**
+     * Threads delivering large Pub/Sub fan-outs off the reactor; 0 delivers everything inline.
+     */
+    public int pubsubDeliveryThreads() {
+        return Integer.parseInt(params.get("pubsub-delivery-threads"));
+    }
+
+    /**
+     * Subscribers of one channel (or pattern) from which a publish is handed to the delivery threads.
+     */
+    public int pubsubOffloadThreshold() {
+        return Integer.parseInt(params.get("pubsub-offload-threshold"));
+    }
+
+    /**
+     * Keyspace event classes to publish, as KeyspaceEvents flags (0: notifications off).
+     */
+    public int notifyKeyspaceEvents() {
+        return KeyspaceEvents.parseFlags(params.get("notify-keyspace-events"));
+    }
+
+    /**
+     * Keys remembered for client-side caching (CLIENT TRACKING) before the oldest are evicted
+     * and invalidated; 0 means no limit.
+     */
+    public int trackingTableMaxKeys() {
+        return Integer.parseInt(params.get("tracking-table-max-keys"));
+    }
+
+    /**
+     * Milliseconds a script may run before other clients are answered with -BUSY and SCRIPT KILL
+     * becomes available.
+     */
+    public long busyReplyThresholdMillis() {
+        return Long.parseLong(params.get("busy-reply-threshold"));
+    }
+
+    /**
+     * Propagate the writes a script makes, in a MULTI/EXEC block ("yes"), or the script itself;
+     * then writes after a non-deterministic command are refused, as replay could diverge.
+     */
+    public boolean luaReplicateCommands() {
+        return parseYesNo("lua-replicate-commands", params.get("lua-replicate-commands"));
+    }
+
+    /**
+     * Longest bulk string a client may send; a longer one is a protocol error.
+     */
+    public int protoMaxBulkLen() {
+        return (int) parseMemory("proto-max-bulk-len", params.get("proto-max-bulk-len"));
+    }
+
+    /**
+     * Most bytes buffered for one client's unparsed input; a client that needs more is closed.
+     */
+    public int clientQueryBufferLimit() {
+        return (int) parseMemory("client-query-buffer-limit", params.get("client-query-buffer-limit"));
+    }
+
+    /**
+     * "save" rules as {seconds, changes} pairs; empty when snapshots are disabled.
+     */
+    public List<long[]> saveRules() {
+        return parseSaveRules(params.get("save"));
+    }
+
+    // ---------- parsing ----------
+
+    private static List<long[]> parseSaveRules(String v) {
+        String[] parts = v.trim().isEmpty() ? new String[0] : v.trim().split("\\s+");
+        if (parts.length % 2 != 0) throw new IllegalArgumentException("Invalid save parameters");
+        List<long[]> rules = new ArrayList<>();
+        for (int i = 0; i < parts.length; i += 2) {
+            rules.add(new long[]{parseLong("save", parts[i], 1, Long.MAX_VALUE),
+                    parseLong("save", parts[i + 1], 1, Long.MAX_VALUE)});
+        }
+        return rules;
+    }
+
+    private static String[] parseReplicaOf(String v) {
+        String[] parts = v.trim().split("\\s+");
+        if (parts.length != 2) throw new IllegalArgumentException("Invalid argument '" + v + "' for 'replicaof'");
+        parseLong("replicaof", parts[1], 1, 65535);
+        return parts;
+    }
+
+    private static boolean parseYesNo(String name, String v) {
+        if (v.equalsIgnoreCase("yes")) return true;
+        if (v.equalsIgnoreCase("no")) return false;
+        throw new IllegalArgumentException("Invalid argument '" + v + "' for CONFIG SET '" + name + "'");
+    }
+
+    /**
+     * Byte count with an optional k/kb/m/mb/g/gb suffix (1k = 1000, 1kb = 1024), as in redis.conf.
+     */
+    static long parseMemory(String name, String v) {
+        String x = v.trim().toLowerCase(Locale.ROOT);
+        long mul = 1;
+        String[][] units = {{"gb", "1073741824"}, {"mb", "1048576"}, {"kb", "1024"},
+                {"g", "1000000000"}, {"m", "1000000"}, {"k", "1000"}, {"b", "1"}};
+        for (String[] u : units) {
+            if (x.endsWith(u[0])) {
+                mul = Long.parseLong(u[1]);
+                x = x.substring(0, x.length() - u[0].length());
+                break;
+            }
+        }
+        return parseLong(name, x, 0, Long.MAX_VALUE / mul) * mul;
+    }
+
+    static long parseLong(String name, String v, long min, long max) {
+        try {
+            long x = Long.parseLong(v);
+            if (x >= min && x <= max) return x;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid argument '" + v + "' for CONFIG SET '" + name + "'");
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (char ch : glob.toCharArray()) {
+            if (ch == '*') sb.append(".*");
+            else if (ch == '?') sb.append('.');
+            else sb.append(Pattern.quote(String.valueOf(ch)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package com.polynomeer.db;
+
+import com.polynomeer.util.ByteBuf;
+
+/**
+ * Location of a spilled value in the value log: 'length' bytes of RecordCodec encoding at
+ * 'offset' of a segment. Immutable, so a snapshot that captured it can read the bytes from
+ * a background thread while the reactor moves the value (compaction builds a new ColdRef).
+ */
+final class ColdRef {
+    final TieredStore.Segment segment;
+    final int offset;
+    final int length;
+
+    ColdRef(TieredStore.Segment segment, int offset, int length) {
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Append the encoded value (type byte included) to out.
+     */
+    void copyTo(ByteBuf out) {
+        int at = out.length();
+        out.ensureLength(at + length);
+        segment.map.get(offset, out.array(), at, length);
+    }
+
+    /**
+     * Decode the value into a new Record.
+     */
+    Record decode(long expireAtMs) {
+        return RecordCodec.decode(segment.map.slice(offset, length), expireAtMs);
+    }
+}
@@ -1,5 +1,10 @@
 package com.polynomeer.db;
 
+import com.polynomeer.struct.Stream;
+import com.polynomeer.util.ByteBuf;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -19,6 +24,30 @@ public interface Db {
      */
     void setString(String key, String value, long expireAtMs);
 
+    /**
+     * String value as a byte buffer for reading, or null if missing. A String value is converted
+     * in place once, so later in-place writes (SETBIT, ...) don't copy the whole value.
+     * Throws WrongTypeException if key holds a non-string value.
+     */
+    ByteBuf getBytes(String key) throws WrongTypeException;
+
+    /**
+     * Like getBytes, but the buffer may be modified by the caller; creates an empty
+     * string value if the key is missing.
+     */
+    ByteBuf getOrCreateBytes(String key) throws WrongTypeException;
+
+    /**
+     * STRLEN key: length in bytes of the string value, 0 if missing.
+     * Throws WrongTypeException if key holds a non-string value.
+     */
+    int strlen(String key) throws WrongTypeException;
+
+    /**
+     * Store a byte buffer as the string value of key; same semantics as setString.
+     */
+    void setBytes(String key, ByteBuf value, long expireAtMs);
+
     /**
      * Delete key; returns true if key existed.
      */
@@ -65,13 +94,239 @@ public interface Db {
      */
     int hdel(String key, List<String> fields) throws WrongTypeException;
 
+    // ----- Set operations -----
+
+    /**
+     * SADD key member [member ...]: returns number of members added.
+     * Creates the set if it does not exist.
+     * Throws WrongTypeException if key holds a non-set value.
+     */
+    int sadd(String key, List<String> members) throws WrongTypeException;
+
+    /**
+     * SREM key member [member ...]: returns number of members removed.
+     * If the set becomes empty, the key is removed.
+     */
+    int srem(String key, List<String> members) throws WrongTypeException;
+
+    /**
+     * SISMEMBER key member.
+     */
+    boolean sismember(String key, String member) throws WrongTypeException;
+
+    /**
+     * SMEMBERS key: all members (empty list if key missing).
+     */
+    List<String> smembers(String key) throws WrongTypeException;
+
+    /**
+     * SCARD key: set cardinality, 0 if key missing.
+     */
+    int scard(String key) throws WrongTypeException;
+
+    /**
+     * SINTER key [key ...]: members present in every set; a missing key is an empty set.
+     */
+    List<String> sinter(List<String> keys) throws WrongTypeException;
+
+    /**
+     * SINTERCARD: cardinality of the intersection, stopping once 'limit' is reached (0 = no limit).
+     */
+    long sintercard(List<String> keys, long limit) throws WrongTypeException;
+
+    /**
+     * SUNION key [key ...]: members present in any set.
+     */
+    List<String> sunion(List<String> keys) throws WrongTypeException;
+
+    /**
+     * SDIFF key [key ...]: members of the first set not present in the others.
+     */
+    List<String> sdiff(List<String> keys) throws WrongTypeException;
+
+    /**
+     * Replace dest with a set holding 'members' (removes dest if empty, dropping any TTL).
+     * Returns resulting cardinality. Used by the *STORE variants.
+     */
+    int sstore(String dest, List<String> members);
+
+    // ----- Stream operations -----
+
+    /**
+     * Stream stored at key for reading, or null if missing.
+     * Throws WrongTypeException if key holds a non-stream value.
+     */
+    Stream getStream(String key) throws WrongTypeException;
+
+    /**
+     * Stream stored at key that the caller may mutate in place, or null if missing.
+     */
+    Stream getStreamForWrite(String key) throws WrongTypeException;
+
+    /**
+     * Writable stream stored at key, creating an empty one if missing.
+     */
+    Stream getOrCreateStream(String key) throws WrongTypeException;
+
+    // ----- HyperLogLog operations -----
+
+    /**
+     * PFADD key [element ...]: returns 1 if the estimate may have changed (or the key was created), else 0.
+     * Throws WrongTypeException if key holds a non-HLL value.
+     */
+    int pfadd(String key, List<String> elements) throws WrongTypeException;
+
+    /**
+     * PFCOUNT key [key ...]: estimated cardinality of the union; missing keys count as empty.
+     */
+    long pfcount(List<String> keys) throws WrongTypeException;
+
+    /**
+     * PFMERGE dest [source ...]: store the union of dest (if present) and sources into dest.
+     */
+    void pfmerge(String dest, List<String> sources) throws WrongTypeException;
+
+    /**
+     * Replace key with a HyperLogLog decoded from HyperLogLog.toBytes() output (AOF rewrite).
+     * Throws IllegalArgumentException if the payload is invalid.
+     */
+    void pfrestore(String key, byte[] payload);
+
     /**
      * Set absolute TTL: now + ms (ms>0), returns 1 if updated or key deleted when ms<=0, 0 if key missing.
      */
     int pexpire(String key, long ms);
 
+    /**
+     * Set TTL as an absolute unix time in ms; a time already past deletes the key.
+     * Returns 1 if the key existed, 0 otherwise.
+     */
+    int pexpireAt(String key, long whenMs);
+
     /**
      * Remaining TTL in ms: -2 if key doesn't exist, -1 if no TTL, else >=0.
      */
     long pttl(String key);
+
+    // ----- Keyspace / persistence -----
+
+    /**
+     * Number of keys (may include keys whose TTL passed but were not yet reclaimed).
+     */
+    int dbsize();
+
+    /**
+     * Monotonic count of write operations since startup; persistence compares it
+     * against the value at the last save.
+     */
+    long dirty();
+
+    /**
+     * Report changes to 'events' from now on (keyspace notifications): writes by event name,
+     * deletions, expirations and key creation.
+     */
+    void setKeyspaceEvents(KeyspaceEvents events);
+
+    /**
+     * Report a change the Db cannot name itself, e.g. SETRANGE writing through getOrCreateBytes.
+     */
+    void notifyKeyspaceEvent(int type, String event, String key);
+
+    /**
+     * Capture a point-in-time view for background serialization. Until releaseSnapshot()
+     * values are copied before in-place mutation, so the snapshot stays consistent.
+     */
+    KeyspaceSnapshot snapshot();
+
+    /**
+     * Release a snapshot taken by snapshot(); copy-on-write ends when none is left.
+     * Snapshots may overlap: a value is copied once per newer snapshot, older ones keep theirs.
+     */
+    void releaseSnapshot();
+
+    /**
+     * True while any snapshot is held (a background save or AOF rewrite is running).
+     */
+    boolean snapshotActive();
+
+    /**
+     * Values copied by copy-on-write since copy-on-write last started (reported by INFO).
+     */
+    long cowCopies();
+
+    /**
+     * Bulk-insert decoded keys, skipping those already expired at nowMs. Returns keys loaded.
+     * Loaded keys count as changes for the save rules.
+     */
+    int loadBulk(PartialTable table, long nowMs);
+
+    /**
+     * Track keys per cluster hash slot from now on (cluster mode), for the slot queries below.
+     */
+    void enableSlotIndex();
+
+    /**
+     * Keys stored in a hash slot; 0 unless the slot index is enabled.
+     */
+    int countKeysInSlot(int slot);
+
+    /**
+     * Up to 'max' keys of a hash slot, in no particular order; empty unless the slot index is enabled.
+     */
+    List<String> keysInSlot(int slot, int max);
+
+    /**
+     * Append the DUMP payload of key (value, format version, checksum; no key or TTL) to out.
+     * Returns false, appending nothing, if the key is missing.
+     */
+    boolean dump(String key, ByteBuf out);
+
+    /**
+     * Replace key with a value from a DUMP payload, expiring at expireAtMs (< 0: no TTL) and
+     * last accessed idleSeconds ago (<= 0: now). Throws IllegalArgumentException with the
+     * error text if the payload's version or checksum is wrong or the value is malformed.
+     */
+    void restore(String key, byte[] payload, long expireAtMs, long idleSeconds);
+
+    /**
+     * Seconds since key was last read or written, or -1 if missing. Does not count as an access.
+     */
+    long idleSeconds(String key);
+
+    /**
+     * Pre-size an empty keyspace for about 'keys' entries before a bulk load, so merging
+     * does not rehash as it grows. No-op if the keyspace is not empty.
+     */
+    void reserve(int keys);
+
+    /**
+     * Remove every key (a replica about to load its primary's dataset); reported to the
+     * keyspace events as flushed().
+     */
+    void flushAll();
+
+    /**
+     * Keep values idle for a while in a memory-mapped value log under dir (files of
+     * segmentSize bytes) instead of on the heap; values come back on access. Call before
+     * loading data.
+     */
+    void enableTiering(Path dir, int segmentSize) throws IOException;
+
+    /**
+     * Periodic tiering work: spill values idle for idleSeconds or more (and, while the heap
+     * after GC is above maxHeapPercent of its maximum, the least recently used regardless;
+     * 0 disables that), then compact the value log a little. No-op unless tiering is enabled.
+     */
+    void tierCron(long idleSeconds, int maxHeapPercent);
+
+    /**
+     * INFO fields of the tiered storage ("tiered_enabled:0" when disabled).
+     */
+    String tierInfo();
+
+    /**
+     * INFO fields describing where the keyspace is stored ("storage_engine:heap" or "offheap",
+     * plus allocator statistics for the latter).
+     */
+    String memoryInfo();
 }
@@ -0,0 +1,115 @@
+package com.polynomeer.db;
+
+/**
+ * Receiver of keyspace events (notify-keyspace-events): a Db reports each change with an
+ * event class and a Redis event name ("set", "del", "expired", ...).
+ * <p>
+ * notify() runs on every write, so an implementation must return at once when nothing is
+ * listening; callers that would have to build the key first ask enabled() before.
+ * Event classes use Redis' flag letters:
+ * K keyspace channel, E keyevent channel, g generic, $ string, l list, s set, h hash,
+ * z sorted set, x expired, e evicted, t stream, m key miss, d module, n new key,
+ * A alias for "g$lshzxetd".
+ */
+public interface KeyspaceEvents {
+    // bit i is the class of LETTERS.charAt(i)
+    String LETTERS = "g$lshzxetdmnKE";
+    int GENERIC = 1;
+    int STRING = 1 << 1;
+    int LIST = 1 << 2;
+    int SET = 1 << 3;
+    int HASH = 1 << 4;
+    int ZSET = 1 << 5;
+    int EXPIRED = 1 << 6;
+    int EVICTED = 1 << 7;
+    int STREAM = 1 << 8;
+    int MODULE = 1 << 9;
+    int KEY_MISS = 1 << 10;
+    int NEW = 1 << 11;
+    int KEYSPACE = 1 << 12;
+    int KEYEVENT = 1 << 13;
+    int ALL = GENERIC | STRING | LIST | SET | HASH | ZSET | EXPIRED | EVICTED | STREAM | MODULE;
+
+    KeyspaceEvents NONE = new KeyspaceEvents() {
+        @Override
+        public boolean enabled(int type) {
+            return false;
+        }
+
+        @Override
+        public void notify(int type, String event, String key) {
+        }
+    };
+
+    /**
+     * True if an event of this class would be published right now.
+     */
+    boolean enabled(int type);
+
+    void notify(int type, String event, String key);
+
+    /**
+     * Every key was removed at once (no per-key events are reported for it).
+     */
+    default void flushed() {
+    }
+
+    /**
+     * Both receivers, a first: e.g. the Pub/Sub notifications and client tracking.
+     */
+    static KeyspaceEvents both(KeyspaceEvents a, KeyspaceEvents b) {
+        return new KeyspaceEvents() {
+            @Override
+            public boolean enabled(int type) {
+                return a.enabled(type) || b.enabled(type);
+            }
+
+            @Override
+            public void notify(int type, String event, String key) {
+                a.notify(type, event, key);
+                b.notify(type, event, key);
+            }
+
+            @Override
+            public void flushed() {
+                a.flushed();
+                b.flushed();
+            }
+        };
+    }
+
+    /**
+     * Flags of a notify-keyspace-events value; throws IllegalArgumentException on an unknown letter.
+     */
+    static int parseFlags(String classes) {
+        int flags = 0;
+        for (int i = 0; i < classes.length(); i++) {
+            char c = classes.charAt(i);
+            int at = LETTERS.indexOf(c);
+            if (c == 'A') {
+                flags |= ALL;
+            } else if (at >= 0) {
+                flags |= 1 << at;
+            } else {
+                throw new IllegalArgumentException("Invalid argument '" + classes
+                        + "' for CONFIG SET 'notify-keyspace-events'");
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Canonical letters for flags, as CONFIG GET reports them ("A" for all of ALL).
+     */
+    static String formatFlags(int flags) {
+        StringBuilder sb = new StringBuilder();
+        if ((flags & ALL) == ALL) {
+            sb.append('A');
+            flags &= ~ALL;
+        }
+        for (int i = 0; i < LETTERS.length(); i++) {
+            if ((flags & 1 << i) != 0) sb.append(LETTERS.charAt(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package com.polynomeer.db;
+
+import com.polynomeer.util.ByteBuf;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Point-in-time view of the keyspace for background persistence.
+ * MemoryDb captures a shallow copy of keys, value references and TTLs on the reactor thread
+ * and copies a value before mutating it while the snapshot is active; OffHeapDb captures
+ * entry addresses and writes changed entries elsewhere until the snapshot is released.
+ * Either way a background thread may encode the captured values without synchronization.
+ */
+public abstract class KeyspaceSnapshot {
+    private final long createdAtMs;
+
+    KeyspaceSnapshot(long createdAtMs) {
+        this.createdAtMs = createdAtMs;
+    }
+
+    /**
+     * Snapshot of captured arrays (the first 'size' entries).
+     */
+    static KeyspaceSnapshot of(String[] keys, Record.Type[] types, Object[] values, long[] expireAt,
+                               int size, long createdAtMs) {
+        return new Captured(keys, types, values, expireAt, size, createdAtMs);
+    }
+
+    /**
+     * Entries of a followed by those of b (a Db keeping keys in two stores).
+     */
+    static KeyspaceSnapshot concat(KeyspaceSnapshot a, KeyspaceSnapshot b) {
+        return new Concat(a, b);
+    }
+
+    public abstract int size();
+
+    public long createdAtMs() {
+        return createdAtMs;
+    }
+
+    public abstract String key(int i);
+
+    /**
+     * Absolute expiry in ms since epoch, or -1 if the key has no TTL.
+     */
+    public abstract long expireAt(int i);
+
+    /**
+     * Append the encoded value of entry i to out (format of RecordCodec).
+     */
+    public abstract void writeValue(int i, ByteBuf out);
+
+    /**
+     * Emit the commands that recreate entry i, TTL included (AOF rewrite).
+     */
+    public abstract void writeCommands(int i, Consumer<List<String>> out);
+
+    private static final class Captured extends KeyspaceSnapshot {
+        private final String[] keys;
+        private final Record.Type[] types;
+        private final Object[] values;
+        private final long[] expireAt;
+        private final int size;
+
+        Captured(String[] keys, Record.Type[] types, Object[] values, long[] expireAt,
+                 int size, long createdAtMs) {
+            super(createdAtMs);
+            this.keys = keys;
+            this.types = types;
+            this.values = values;
+            this.expireAt = expireAt;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String key(int i) {
+            return keys[i];
+        }
+
+        @Override
+        public long expireAt(int i) {
+            return expireAt[i];
+        }
+
+        @Override
+        public void writeValue(int i, ByteBuf out) {
+            RecordCodec.encode(types[i], values[i], out);
+        }
+
+        @Override
+        public void writeCommands(int i, Consumer<List<String>> out) {
+            RecordCommands.emit(keys[i], types[i], values[i], expireAt[i], out);
+        }
+    }
+
+    private static final class Concat extends KeyspaceSnapshot {
+        private final KeyspaceSnapshot a;
+        private final KeyspaceSnapshot b;
+        private final int split;
+
+        Concat(KeyspaceSnapshot a, KeyspaceSnapshot b) {
+            super(a.createdAtMs());
+            this.a = a;
+            this.b = b;
+            this.split = a.size();
+        }
+
+        @Override
+        public int size() {
+            return split + b.size();
+        }
+
+        @Override
+        public String key(int i) {
+            return i < split ? a.key(i) : b.key(i - split);
+        }
+
+        @Override
+        public long expireAt(int i) {
+            return i < split ? a.expireAt(i) : b.expireAt(i - split);
+        }
+
+        @Override
+        public void writeValue(int i, ByteBuf out) {
+            if (i < split) a.writeValue(i, out);
+            else b.writeValue(i - split, out);
+        }
+
+        @Override
+        public void writeCommands(int i, Consumer<List<String>> out) {
+            if (i < split) a.writeCommands(i, out);
+            else b.writeCommands(i - split, out);
+        }
+    }
+}
@@ -1,7 +1,17 @@
 package com.polynomeer.db;
 
+import com.polynomeer.struct.HyperLogLog;
 import com.polynomeer.struct.OpenHashStringMap;
+import com.polynomeer.struct.Stream;
+import com.polynomeer.util.ByteBuf;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,50 +20,116 @@ import java.util.Map;
  * Single-threaded in-memory keyspace with millisecond TTL support.
  * - Passive expiration on access (get/exist/del)
  * - Active expiration via ExpiryHeap popped in reactor loop
+ * - String keys switch to a mutable ByteBuf the first time a byte-level command touches them
  * - Hash keys use an internal open-addressing string map
+ * - Set keys use an intset for small integer sets, else an open-addressing string set
+ * - Stream keys hold a radix-tree indexed Stream, mutated in place by stream commands
+ * - HyperLogLog keys start sparse and switch to the 12 KB dense encoding as they fill
+ * - snapshot() captures key/value references; while it is active, values are copied
+ *   before their first in-place mutation (per-record epoch), like fork()'s page COW
+ * - optionally tiered (enableTiering): idle values move to a memory-mapped value log and
+ *   come back on access; lookup() is the single place that promotes them
  * <p>
  * Note: Designed for reactor-thread-only access (no synchronization).
  */
 public class MemoryDb implements Db {
+    // origin of Record.accessSec, so idle times fit an int for decades of uptime
+    private static final long CLOCK_BASE_MS = System.currentTimeMillis();
 
-    private final Map<String, Record> map = new HashMap<>();
-    private final ExpiryHeap heap = new ExpiryHeap();
+    private Map<String, Record> map = new HashMap<>(); // replaced by reserve() (while empty) and flushAll()
+    private ExpiryHeap heap = new ExpiryHeap();
+    private SlotIndex slots; // keys per hash slot, cluster mode only
+    private TieredStore tier; // value log for cold values, tiered mode only
+    private KeyspaceEvents events = KeyspaceEvents.NONE;
+
+    private long dirty;          // write operations since startup
+    private int epoch;           // bumped per snapshot; records carry the epoch they were stored in
+    private int activeSnapshots; // snapshots being serialized; copy-on-write while > 0
+    private long cowCopies;      // values copied for the current snapshot
 
     @Override
     public String getString(String key) {
-        Record r = map.get(key);
+        Record r = lookup(key);
         if (r == null) return null;
-        if (isExpired(r, System.currentTimeMillis())) {
-            map.remove(key);
-            return null;
+        if (r.type != Record.Type.STR) return null;
+        return r.bufVal != null ? r.bufVal.toString() : r.strVal;
+    }
+
+    @Override
+    public ByteBuf getBytes(String key) throws WrongTypeException {
+        Record r = lookup(key);
+        if (r == null) return null;
+        if (r.type != Record.Type.STR) throw new WrongTypeException();
+        if (r.bufVal == null) {
+            r.bufVal = ByteBuf.of(r.strVal);
+            r.strVal = null;
         }
-        return r.type == Record.Type.STR ? r.strVal : null;
+        return r.bufVal;
+    }
+
+    @Override
+    public ByteBuf getOrCreateBytes(String key) throws WrongTypeException {
+        Record r = lookup(key);
+        dirty++;
+        if (r == null) {
+            ByteBuf b = new ByteBuf(0);
+            store(key, new Record(b, -1));
+            return b;
+        }
+        if (r.type != Record.Type.STR) throw new WrongTypeException();
+        r = writable(key, r);
+        if (r.bufVal == null) {
+            r.bufVal = ByteBuf.of(r.strVal);
+            r.strVal = null;
+        }
+        return r.bufVal;
+    }
+
+    @Override
+    public int strlen(String key) throws WrongTypeException {
+        Record r = lookup(key);
+        if (r == null) return 0;
+        if (r.type != Record.Type.STR) throw new WrongTypeException();
+        return r.bufVal != null ? r.bufVal.length() : r.strVal.length(); // one char per byte
+    }
+
+    @Override
+    public void setBytes(String key, ByteBuf value, long expireAtMs) {
+        Record r = new Record(value, expireAtMs);
+        store(key, r);
+        dirty++;
+        if (r.hasTtl()) {
+            heap.push(key, r.expireAtMs);
+        }
+        events.notify(KeyspaceEvents.STRING, "set", key);
+        if (r.hasTtl()) events.notify(KeyspaceEvents.GENERIC, "expire", key);
     }
 
     @Override
     public void setString(String key, String value, long expireAtMs) {
         Record r = new Record(value, expireAtMs);
-        map.put(key, r);
+        store(key, r);
+        dirty++;
         if (r.hasTtl()) {
             heap.push(key, r.expireAtMs);
         }
+        events.notify(KeyspaceEvents.STRING, "set", key);
+        if (r.hasTtl()) events.notify(KeyspaceEvents.GENERIC, "expire", key);
     }
 
     @Override
     public boolean del(String key) {
-        Record r = map.remove(key);
+        Record r = unlink(key);
+        if (r != null) {
+            dirty++;
+            events.notify(KeyspaceEvents.GENERIC, "del", key);
+        }
         return r != null;
     }
 
     @Override
     public boolean exists(String key) {
-        Record r = map.get(key);
-        if (r == null) return false;
-        if (isExpired(r, System.currentTimeMillis())) {
-            map.remove(key);
-            return false;
-        }
-        return true;
+        return live(key) != null; // no access: a spilled value stays in the log
     }
 
     @Override
@@ -66,8 +142,10 @@ public class MemoryDb implements Db {
             Record r = map.get(top.key);
             if (r == null) continue; // already gone
             if (r.expireAtMs == top.expireAtMs && r.expireAtMs <= nowMs) {
-                map.remove(top.key);
+                unlink(top.key);
+                dirty++;
                 n++;
+                events.notify(KeyspaceEvents.EXPIRED, "expired", top.key);
             }
         }
         return n;
@@ -85,12 +163,8 @@ public class MemoryDb implements Db {
 
     @Override
     public String hget(String key, String field) throws WrongTypeException {
-        Record r = map.get(key);
+        Record r = lookup(key);
         if (r == null) return null;
-        if (isExpired(r, System.currentTimeMillis())) {
-            map.remove(key);
-            return null;
-        }
         if (r.type != Record.Type.HASH) {
             throw new WrongTypeException();
         }
@@ -99,57 +173,355 @@ public class MemoryDb implements Db {
 
     @Override
     public int hset(String key, String field, String value) throws WrongTypeException {
-        Record r = map.get(key);
-        long now = System.currentTimeMillis();
-        if (r == null || isExpired(r, now)) {
+        Record r = lookup(key);
+        if (r == null) {
             OpenHashStringMap m = new OpenHashStringMap();
             r = new Record(m, -1);
-            map.put(key, r);
+            store(key, r);
         } else if (r.type != Record.Type.HASH) {
             throw new WrongTypeException();
+        } else {
+            r = writable(key, r);
         }
+        dirty++;
         boolean isNew = r.hashVal.put(field, value);
+        events.notify(KeyspaceEvents.HASH, "hset", key);
         return isNew ? 1 : 0;
     }
 
     @Override
     public int hdel(String key, List<String> fields) throws WrongTypeException {
-        Record r = map.get(key);
+        Record r = lookup(key);
         if (r == null) return 0;
-        if (isExpired(r, System.currentTimeMillis())) {
-            map.remove(key);
-            return 0;
-        }
         if (r.type != Record.Type.HASH) {
             throw new WrongTypeException();
         }
+        r = writable(key, r);
         int removed = 0;
         for (String f : fields) {
             if (r.hashVal.remove(f)) removed++;
         }
+        if (removed > 0) {
+            dirty++;
+            events.notify(KeyspaceEvents.HASH, "hdel", key);
+        }
         // If hash becomes empty, remove the key
         if (r.hashVal.size() == 0) {
-            map.remove(key);
+            unlink(key);
+            events.notify(KeyspaceEvents.GENERIC, "del", key);
         }
         return removed;
     }
 
+    // ---------- Set operations ----------
+
+    @Override
+    public int sadd(String key, List<String> members) throws WrongTypeException {
+        Record r = lookup(key);
+        if (r == null) {
+            r = new Record(SetValue.forFirstMember(members.get(0)), -1);
+            store(key, r);
+        } else if (r.type != Record.Type.SET) {
+            throw new WrongTypeException();
+        } else {
+            r = writable(key, r);
+        }
+        int added = 0;
+        for (String m : members) {
+            if (r.setVal.add(m)) added++;
+        }
+        if (added > 0) {
+            dirty++;
+            events.notify(KeyspaceEvents.SET, "sadd", key);
+        }
+        return added;
+    }
+
+    @Override
+    public int srem(String key, List<String> members) throws WrongTypeException {
+        if (setOrNull(key) == null) return 0;
+        SetValue s = writable(key, map.get(key)).setVal;
+        int removed = 0;
+        for (String m : members) {
+            if (s.remove(m)) removed++;
+        }
+        if (removed > 0) {
+            dirty++;
+            events.notify(KeyspaceEvents.SET, "srem", key);
+        }
+        if (s.size() == 0) {
+            unlink(key);
+            events.notify(KeyspaceEvents.GENERIC, "del", key);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean sismember(String key, String member) throws WrongTypeException {
+        SetValue s = setOrNull(key);
+        return s != null && s.contains(member);
+    }
+
+    @Override
+    public List<String> smembers(String key) throws WrongTypeException {
+        SetValue s = setOrNull(key);
+        if (s == null) return new ArrayList<>(0);
+        List<String> out = new ArrayList<>(s.size());
+        s.forEach(out::add);
+        return out;
+    }
+
+    @Override
+    public int scard(String key) throws WrongTypeException {
+        SetValue s = setOrNull(key);
+        return s == null ? 0 : s.size();
+    }
+
+    @Override
+    public List<String> sinter(List<String> keys) throws WrongTypeException {
+        List<String> out = new ArrayList<>();
+        intersect(keys, 0, out);
+        return out;
+    }
+
+    @Override
+    public long sintercard(List<String> keys, long limit) throws WrongTypeException {
+        return intersect(keys, limit, null);
+    }
+
+    @Override
+    public List<String> sunion(List<String> keys) throws WrongTypeException {
+        SetValue[] sets = setsOf(keys);
+        int max = 0;
+        for (SetValue s : sets) if (s != null) max = Math.max(max, s.size());
+        SetValue acc = SetValue.hashtable(max);
+        List<String> out = new ArrayList<>(max);
+        for (SetValue s : sets) {
+            if (s == null) continue;
+            s.forEach(m -> {
+                if (acc.add(m)) out.add(m);
+            });
+        }
+        return out;
+    }
+
+    @Override
+    public List<String> sdiff(List<String> keys) throws WrongTypeException {
+        SetValue[] sets = setsOf(keys);
+        List<String> out = new ArrayList<>();
+        if (sets[0] == null) return out;
+        sets[0].forEach(m -> {
+            for (int i = 1; i < sets.length; i++) {
+                if (sets[i] != null && sets[i].contains(m)) return;
+            }
+            out.add(m);
+        });
+        return out;
+    }
+
+    @Override
+    public int sstore(String dest, List<String> members) {
+        boolean existed = unlink(dest) != null;
+        dirty++;
+        if (members.isEmpty()) {
+            // the *STORE command reports a stored result itself, under its own name
+            if (existed) events.notify(KeyspaceEvents.GENERIC, "del", dest);
+            return 0;
+        }
+        Record r = new Record(SetValue.forFirstMember(members.get(0)), -1);
+        for (String m : members) r.setVal.add(m);
+        store(dest, r);
+        return r.setVal.size();
+    }
+
+    /**
+     * Intersect the sets at 'keys', iterating the smallest set and probing the others
+     * from smallest to largest so that most candidates are rejected early.
+     * Appends members to 'out' when non-null; stops after 'limit' matches when limit > 0.
+     * Returns the number of members found.
+     */
+    private long intersect(List<String> keys, long limit, List<String> out) {
+        SetValue[] sets = setsOf(keys);
+        for (SetValue s : sets) {
+            if (s == null) return 0; // missing key is an empty set
+        }
+        Arrays.sort(sets, Comparator.comparingInt(SetValue::size));
+        SetValue first = sets[0];
+        long found = 0;
+        if (first.isIntset()) {
+            for (int i = 0, n = first.size(); i < n; i++) {
+                long v = first.intAt(i);
+                if (!inAllLong(sets, v)) continue;
+                if (out != null) out.add(Long.toString(v));
+                if (++found == limit) break;
+            }
+            return found;
+        }
+        long[] count = {0};
+        try {
+            first.forEach(m -> {
+                for (int i = 1; i < sets.length; i++) {
+                    if (!sets[i].contains(m)) return;
+                }
+                if (out != null) out.add(m);
+                if (++count[0] == limit) throw LimitReached.INSTANCE;
+            });
+        } catch (LimitReached ignore) {
+            // early exit for SINTERCARD ... LIMIT
+        }
+        return count[0];
+    }
+
+    private static boolean inAllLong(SetValue[] sets, long v) {
+        for (int i = 1; i < sets.length; i++) {
+            if (!sets[i].containsLong(v)) return false;
+        }
+        return true;
+    }
+
+    private SetValue[] setsOf(List<String> keys) {
+        SetValue[] sets = new SetValue[keys.size()];
+        for (int i = 0; i < sets.length; i++) sets[i] = setOrNull(keys.get(i));
+        return sets;
+    }
+
+    private SetValue setOrNull(String key) {
+        Record r = lookup(key);
+        if (r == null) return null;
+        if (r.type != Record.Type.SET) throw new WrongTypeException();
+        return r.setVal;
+    }
+
+    /**
+     * Stack-less control-flow signal used to stop forEach iteration early.
+     */
+    private static final class LimitReached extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final LimitReached INSTANCE = new LimitReached();
+
+        private LimitReached() {
+            super(null, null, false, false);
+        }
+    }
+
+    // ---------- Stream operations ----------
+
+    @Override
+    public Stream getStream(String key) throws WrongTypeException {
+        Record r = lookup(key);
+        if (r == null) return null;
+        if (r.type != Record.Type.STREAM) throw new WrongTypeException();
+        return r.streamVal;
+    }
+
+    @Override
+    public Stream getStreamForWrite(String key) throws WrongTypeException {
+        if (getStream(key) == null) return null;
+        dirty++;
+        return writable(key, map.get(key)).streamVal;
+    }
+
+    @Override
+    public Stream getOrCreateStream(String key) throws WrongTypeException {
+        Stream s = getStreamForWrite(key);
+        if (s == null) {
+            s = new Stream();
+            store(key, new Record(s, -1));
+            dirty++;
+        }
+        return s;
+    }
+
+    // ---------- HyperLogLog operations ----------
+
+    @Override
+    public int pfadd(String key, List<String> elements) throws WrongTypeException {
+        HyperLogLog h = hllOrNull(key);
+        boolean changed = false;
+        if (h == null) {
+            h = new HyperLogLog();
+            store(key, new Record(h, -1));
+            changed = true;
+        } else {
+            h = writable(key, map.get(key)).hllVal;
+        }
+        for (String e : elements) {
+            if (h.add(e.getBytes(StandardCharsets.ISO_8859_1))) changed = true;
+        }
+        if (changed) {
+            dirty++;
+            events.notify(KeyspaceEvents.STRING, "pfadd", key);
+        }
+        return changed ? 1 : 0;
+    }
+
+    @Override
+    public long pfcount(List<String> keys) throws WrongTypeException {
+        if (keys.size() == 1) {
+            HyperLogLog h = hllOrNull(keys.get(0));
+            return h == null ? 0 : h.count(); // cached between writes
+        }
+        byte[] regs = new byte[HyperLogLog.REGISTERS];
+        for (String k : keys) {
+            HyperLogLog h = hllOrNull(k);
+            if (h != null) h.mergeInto(regs);
+        }
+        return HyperLogLog.countRegisters(regs);
+    }
+
+    @Override
+    public void pfmerge(String dest, List<String> sources) throws WrongTypeException {
+        HyperLogLog d = hllOrNull(dest);
+        byte[] regs = new byte[HyperLogLog.REGISTERS];
+        if (d != null) d.mergeInto(regs);
+        for (String k : sources) {
+            HyperLogLog h = hllOrNull(k);
+            if (h != null) h.mergeInto(regs);
+        }
+        long expireAt = d != null ? map.get(dest).expireAtMs : -1;
+        store(dest, new Record(HyperLogLog.fromRegisters(regs), expireAt));
+        dirty++;
+        events.notify(KeyspaceEvents.STRING, "pfadd", dest);
+    }
+
+    @Override
+    public void pfrestore(String key, byte[] payload) {
+        store(key, new Record(HyperLogLog.fromBytes(payload, 0, payload.length), -1));
+        dirty++;
+    }
+
+    private HyperLogLog hllOrNull(String key) throws WrongTypeException {
+        Record r = lookup(key);
+        if (r == null) return null;
+        if (r.type != Record.Type.HLL) throw new WrongTypeException();
+        return r.hllVal;
+    }
+
     // ----- TTL helpers -----
 
     @Override
     public int pexpire(String key, long ms) {
+        return pexpireAt(key, ms <= 0 ? 0 : System.currentTimeMillis() + ms);
+    }
+
+    @Override
+    public int pexpireAt(String key, long whenMs) {
         Record r = map.get(key);
         long now = System.currentTimeMillis();
-        if (r == null || isExpired(r, now)) {
-            map.remove(key);
+        if (r == null) return 0;
+        if (isExpired(r, now)) {
+            expire(key);
             return 0;
         }
-        if (ms <= 0) {
-            map.remove(key);
+        dirty++;
+        if (whenMs <= now) {
+            unlink(key);
+            events.notify(KeyspaceEvents.GENERIC, "del", key);
             return 1;
         }
-        r.expireAtMs = now + ms;
+        r.expireAtMs = whenMs;
         heap.push(key, r.expireAtMs);
+        events.notify(KeyspaceEvents.GENERIC, "expire", key);
         return 1;
     }
 
@@ -157,8 +529,9 @@ public class MemoryDb implements Db {
     public long pttl(String key) {
         Record r = map.get(key);
         long now = System.currentTimeMillis();
-        if (r == null || isExpired(r, now)) {
-            map.remove(key);
+        if (r == null) return -2;
+        if (isExpired(r, now)) {
+            expire(key);
             return -2;
         }
         if (!r.hasTtl()) return -1;
@@ -166,6 +539,271 @@ public class MemoryDb implements Db {
         return rem < 0 ? 0 : rem;
     }
 
+    // ----- Keyspace / persistence -----
+
+    @Override
+    public int dbsize() {
+        return map.size();
+    }
+
+    @Override
+    public long dirty() {
+        return dirty;
+    }
+
+    @Override
+    public void setKeyspaceEvents(KeyspaceEvents events) {
+        this.events = events;
+    }
+
+    @Override
+    public void notifyKeyspaceEvent(int type, String event, String key) {
+        events.notify(type, event, key);
+    }
+
+    @Override
+    public KeyspaceSnapshot snapshot() {
+        epoch++;
+        if (activeSnapshots++ == 0) cowCopies = 0;
+        int n = map.size();
+        String[] keys = new String[n];
+        Record.Type[] types = new Record.Type[n];
+        Object[] values = new Object[n];
+        long[] expireAt = new long[n];
+        long now = System.currentTimeMillis();
+        int i = 0;
+        for (Map.Entry<String, Record> e : map.entrySet()) {
+            Record r = e.getValue();
+            if (isExpired(r, now)) continue;
+            keys[i] = e.getKey();
+            types[i] = r.type;
+            values[i] = RecordCodec.valueOf(r);
+            expireAt[i] = r.expireAtMs;
+            i++;
+        }
+        return KeyspaceSnapshot.of(keys, types, values, expireAt, i, now);
+    }
+
+    @Override
+    public void releaseSnapshot() {
+        if (activeSnapshots > 0) activeSnapshots--;
+    }
+
+    @Override
+    public boolean snapshotActive() {
+        return activeSnapshots > 0;
+    }
+
+    @Override
+    public long cowCopies() {
+        return cowCopies;
+    }
+
+    @Override
+    public int loadBulk(PartialTable table, long nowMs) {
+        int loaded = 0;
+        KeyspaceEvents saved = events;
+        events = KeyspaceEvents.NONE; // loading a dataset is not a change to report
+        try {
+            for (int i = 0, n = table.size(); i < n; i++) {
+                Record r = table.records.get(i);
+                if (isExpired(r, nowMs)) continue;
+                String key = table.keys.get(i);
+                store(key, r);
+                if (r.hasTtl()) heap.push(key, r.expireAtMs);
+                loaded++;
+            }
+        } finally {
+            events = saved;
+        }
+        dirty += loaded;
+        return loaded;
+    }
+
+    @Override
+    public void flushAll() {
+        // snapshots in progress keep their own references to the old records
+        dirty += map.size();
+        map = new HashMap<>();
+        heap = new ExpiryHeap();
+        if (slots != null) slots = new SlotIndex();
+        if (tier != null) {
+            try {
+                tier.clear();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        events.flushed();
+    }
+
+    @Override
+    public void enableTiering(Path dir, int segmentSize) throws IOException {
+        if (tier != null) return;
+        tier = new TieredStore(dir, segmentSize, key -> map.get(key));
+        for (Map.Entry<String, Record> e : map.entrySet()) tier.track(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public void tierCron(long idleSeconds, int maxHeapPercent) {
+        if (tier == null) return;
+        int cutoff = clockSec(System.currentTimeMillis()) - (int) Math.min(idleSeconds, Integer.MAX_VALUE / 2);
+        try {
+            tier.cron(cutoff, maxHeapPercent);
+        } catch (IOException e) {
+            System.err.println("[jredis] Value log error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String tierInfo() {
+        return tier == null ? "tiered_enabled:0\r\n" : tier.info();
+    }
+
+    @Override
+    public String memoryInfo() {
+        return "storage_engine:heap\r\n";
+    }
+
+    @Override
+    public void enableSlotIndex() {
+        if (slots != null) return;
+        slots = new SlotIndex();
+        for (String key : map.keySet()) slots.add(key);
+    }
+
+    @Override
+    public int countKeysInSlot(int slot) {
+        return slots == null ? 0 : slots.count(slot);
+    }
+
+    @Override
+    public List<String> keysInSlot(int slot, int max) {
+        return slots == null ? new ArrayList<>() : slots.keys(slot, max);
+    }
+
+    @Override
+    public boolean dump(String key, ByteBuf out) {
+        Record r = lookup(key);
+        if (r == null) return false;
+        RecordCodec.dump(r, out);
+        return true;
+    }
+
+    @Override
+    public void restore(String key, byte[] payload, long expireAtMs, long idleSeconds) {
+        if (!RecordCodec.verifyDump(payload, 0, payload.length)) {
+            throw new IllegalArgumentException("DUMP payload version or checksum are wrong");
+        }
+        Record r;
+        try {
+            r = RecordCodec.undump(payload, 0, payload.length, expireAtMs);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad data format");
+        }
+        store(key, r);
+        if (idleSeconds > 0) r.accessSec -= (int) Math.min(idleSeconds, Integer.MAX_VALUE / 2);
+        dirty++;
+        if (r.hasTtl()) heap.push(key, r.expireAtMs);
+        events.notify(KeyspaceEvents.GENERIC, "restore", key);
+    }
+
+    @Override
+    public long idleSeconds(String key) {
+        Record r = map.get(key);
+        long now = System.currentTimeMillis();
+        if (r == null || isExpired(r, now)) return -1;
+        return clockSec(now) - r.accessSec;
+    }
+
+    @Override
+    public void reserve(int keys) {
+        if (!map.isEmpty() || keys <= 0) return;
+        map = new HashMap<>((int) Math.min((long) keys * 4 / 3 + 1, 1 << 30));
+    }
+
+    private void store(String key, Record r) {
+        r.epoch = epoch;
+        r.accessSec = clockSec(System.currentTimeMillis());
+        Record old = map.put(key, r);
+        if (old == null) {
+            if (slots != null) slots.add(key);
+            events.notify(KeyspaceEvents.NEW, "new", key);
+        } else if (tier != null) {
+            tier.release(key, old);
+        }
+        if (tier != null) tier.track(key, r);
+    }
+
+    private Record unlink(String key) {
+        Record r = map.remove(key);
+        if (r != null) {
+            if (slots != null) slots.remove(key);
+            if (tier != null) tier.release(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * Record safe to mutate in place: while a snapshot is active, a record from an older
+     * epoch is still referenced by it, so its value is copied first (once per snapshot).
+     */
+    private Record writable(String key, Record r) {
+        if (tier != null) tier.modified(key, r);
+        if (activeSnapshots == 0 || r.epoch == epoch) return r;
+        if (r.type == Record.Type.STR && r.bufVal == null) {
+            // immutable String: the snapshot keeps its own reference, conversion can't affect it
+            r.epoch = epoch;
+            return r;
+        }
+        Record copy = RecordCodec.copy(r);
+        store(key, copy);
+        cowCopies++;
+        return copy;
+    }
+
+    /**
+     * Live record for key or null; lazily removes the key if its TTL has passed.
+     */
+    private Record lookup(String key) {
+        Record r = live(key);
+        if (r == null) {
+            if (tier != null) tier.miss();
+            return null;
+        }
+        r.accessSec = clockSec(System.currentTimeMillis());
+        if (tier != null) {
+            // a promoted value is decoded into fresh objects that no snapshot refers to
+            if (r.cold != null) r.epoch = epoch;
+            tier.access(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * Record for key or null, removing it if its TTL has passed; not an access (the value
+     * may still be in the value log).
+     */
+    private Record live(String key) {
+        Record r = map.get(key);
+        if (r == null) return null;
+        if (isExpired(r, System.currentTimeMillis())) {
+            expire(key);
+            return null;
+        }
+        return r;
+    }
+
+    // remove a key whose TTL has passed, found on access
+    private void expire(String key) {
+        unlink(key);
+        events.notify(KeyspaceEvents.EXPIRED, "expired", key);
+    }
+
+    static int clockSec(long nowMs) {
+        return (int) ((nowMs - CLOCK_BASE_MS) / 1000);
+    }
+
     private boolean isExpired(Record r, long nowMs) {
         return r.hasTtl() && r.expireAtMs <= nowMs;
     }
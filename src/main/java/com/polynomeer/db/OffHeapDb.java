@@ -0,0 +1,967 @@
+package com.polynomeer.db;
+
+import com.polynomeer.struct.Stream;
+import com.polynomeer.util.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Keyspace kept off the Java heap (storage-engine offheap), so a large dataset does not turn
+ * into millions of HashMap nodes, Records and Strings for the GC to trace.
+ * - String keys: key, value, TTL and access time share one chunk from a SlabAllocator:
+ *   [hash: i32][key length: i32][value length: i32][access sec: i32][expire at: i64][epoch: i32]
+ *   [key][value]
+ * - Index: open addressing with linear probing over OffHeapLongs; a slot holds the top 16 bits
+ *   of the key's hash above the chunk reference (0 = empty), so most mismatches are rejected
+ *   without touching the chunk. Deletion shifts followers back (no tombstones); the table
+ *   doubles at 3/4 load
+ * - Hashes, sets, streams and HyperLogLogs stay on the heap in an inner MemoryDb: commands
+ *   mutate them in place as objects. A key lives in exactly one of the two stores
+ * - Byte-level commands (SETBIT, APPEND, ...) get a heap copy of the value, written back as
+ *   soon as anything else touches the keyspace; consecutive commands on one key share it
+ * - TTLs: expired keys are removed on access and by an incremental sweep of the index from
+ *   expireDue (no expiry queue on the heap), so reclaiming may lag the deadline a little
+ * - Snapshots capture chunk references. While one is active, an entry it may refer to is
+ *   rewritten into a new chunk rather than in place, and freed chunks are held back until
+ *   the last snapshot is released
+ * <p>
+ * Note: Designed for reactor-thread-only access, except snapshot reads.
+ */
+public class OffHeapDb implements Db {
+    private static final int H_HASH = 0;
+    private static final int H_KEYLEN = 4;
+    private static final int H_VALLEN = 8;
+    private static final int H_ACCESS = 12;
+    private static final int H_EXPIRE = 16;
+    private static final int H_EPOCH = 24;
+    private static final int HEADER = 28;
+
+    private static final long TAG_MASK = 0xFFFF_0000_0000_0000L;
+    private static final long REF_MASK = ~TAG_MASK;
+    private static final int MIN_SLOTS = 1024;
+    private static final int SWEEP_SLOTS_PER_MS = 1000;       // index slots checked per ms by expireDue,
+    private static final int MAX_SWEEP_SLOTS_PER_MS = 64_000; // more while many are found expired
+    private static final int SCRATCH_MAX = 64 * 1024;
+
+    private final MemoryDb coll = new MemoryDb(); // non-string keys
+    private SlabAllocator arena = new SlabAllocator();
+    private OffHeapLongs slots = new OffHeapLongs(MIN_SLOTS);
+    private long mask = MIN_SLOTS - 1;
+    private long count;
+    private long volatileCount; // entries with a TTL; the sweep is skipped while 0
+    private long sweepCursor;
+    private long lastSweepMs;
+    private int sweepRate = SWEEP_SLOTS_PER_MS;
+    private SlotIndex slotIndex;
+    private KeyspaceEvents events = KeyspaceEvents.NONE;
+
+    private long dirty;
+    private int epoch;
+    private int activeSnapshots;
+    private long cowCopies;
+    private long[] deferred = new long[64]; // chunks freed while a snapshot may still read them
+    private int deferredCount;
+
+    // heap copy of a string value handed out by getBytes/getOrCreateBytes
+    private String bytesKey;
+    private ByteBuf bytesVal;
+    private boolean bytesDirty;
+
+    private byte[] scratch = new byte[256];
+
+    // ---------- strings ----------
+
+    @Override
+    public String getString(String key) {
+        settle();
+        long i = live(key);
+        if (i < 0) return null;
+        long ref = touch(i);
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        int klen = p.getInt(o + H_KEYLEN);
+        int vlen = p.getInt(o + H_VALLEN);
+        byte[] b = vlen <= SCRATCH_MAX ? scratch(vlen) : new byte[vlen];
+        p.get(o + HEADER + klen, b, 0, vlen);
+        return new String(b, 0, vlen, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public ByteBuf getBytes(String key) throws WrongTypeException {
+        if (key.equals(bytesKey)) return bytesVal;
+        settle();
+        long i = live(key);
+        if (i < 0) return coll.getBytes(key); // null, or WRONGTYPE for another type
+        bytesVal = copyValue(touch(i));
+        bytesKey = key;
+        bytesDirty = false;
+        return bytesVal;
+    }
+
+    @Override
+    public ByteBuf getOrCreateBytes(String key) throws WrongTypeException {
+        dirty++;
+        if (key.equals(bytesKey)) {
+            bytesDirty = true;
+            return bytesVal;
+        }
+        settle();
+        long i = live(key);
+        ByteBuf b;
+        if (i >= 0) {
+            b = copyValue(touch(i));
+        } else {
+            if (coll.exists(key)) throw new WrongTypeException();
+            b = new ByteBuf(0);
+            put(key, b.array(), 0, -1, MemoryDb.clockSec(System.currentTimeMillis()));
+            events.notify(KeyspaceEvents.NEW, "new", key);
+        }
+        bytesKey = key;
+        bytesVal = b;
+        bytesDirty = true;
+        return b;
+    }
+
+    @Override
+    public int strlen(String key) throws WrongTypeException {
+        if (key.equals(bytesKey)) return bytesVal.length();
+        settle();
+        long i = live(key);
+        if (i < 0) return coll.strlen(key);
+        long ref = touch(i);
+        return arena.page(ref).getInt(SlabAllocator.offset(ref) + H_VALLEN);
+    }
+
+    @Override
+    public void setBytes(String key, ByteBuf value, long expireAtMs) {
+        settle();
+        boolean replaced = dropColl(key);
+        if (put(key, value.array(), value.length(), expireAtMs, MemoryDb.clockSec(System.currentTimeMillis()))
+                && !replaced) {
+            events.notify(KeyspaceEvents.NEW, "new", key);
+        }
+        dirty++;
+        events.notify(KeyspaceEvents.STRING, "set", key);
+        if (expireAtMs >= 0) events.notify(KeyspaceEvents.GENERIC, "expire", key);
+    }
+
+    @Override
+    public void setString(String key, String value, long expireAtMs) {
+        settle();
+        boolean replaced = dropColl(key);
+        if (put(key, bytesOf(value), value.length(), expireAtMs, MemoryDb.clockSec(System.currentTimeMillis()))
+                && !replaced) {
+            events.notify(KeyspaceEvents.NEW, "new", key);
+        }
+        dirty++;
+        events.notify(KeyspaceEvents.STRING, "set", key);
+        if (expireAtMs >= 0) events.notify(KeyspaceEvents.GENERIC, "expire", key);
+    }
+
+    @Override
+    public boolean del(String key) {
+        settle();
+        if (remove(key)) {
+            dirty++;
+            events.notify(KeyspaceEvents.GENERIC, "del", key);
+            return true;
+        }
+        return coll.del(key);
+    }
+
+    // delete a non-string value about to be replaced by a string; not reported as a "del"
+    private boolean dropColl(String key) {
+        coll.setKeyspaceEvents(KeyspaceEvents.NONE);
+        try {
+            return coll.del(key);
+        } finally {
+            coll.setKeyspaceEvents(events);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return live(key) >= 0 || coll.exists(key);
+    }
+
+    @Override
+    public int expireDue(long nowMs, int limit) {
+        int n = 0;
+        if (volatileCount > 0) {
+            long budget = Math.min(Math.max(nowMs - lastSweepMs, 1) * sweepRate, (long) limit * 16);
+            lastSweepMs = nowMs;
+            budget = Math.min(budget, mask + 1);
+            int seen = 0; // entries with a TTL looked at
+            while (budget-- > 0 && n < limit) {
+                long i = sweepCursor & mask;
+                long s = slots.get(i);
+                if (s != 0) {
+                    long ref = s & REF_MASK;
+                    long at = arena.page(ref).getLong(SlabAllocator.offset(ref) + H_EXPIRE);
+                    if (at >= 0) seen++;
+                    if (at >= 0 && at <= nowMs) {
+                        String key = events.enabled(KeyspaceEvents.EXPIRED) ? keyAt(arena, ref) : null;
+                        removeSlot(i); // a follower may shift into slot i: look at it again
+                        dirty++;
+                        n++;
+                        if (key != null) events.notify(KeyspaceEvents.EXPIRED, "expired", key);
+                        continue;
+                    }
+                }
+                sweepCursor = i + 1;
+            }
+            // like Redis' fast expire cycle: sweep harder while a quarter or more of the TTLs were due
+            sweepRate = n * 4 >= seen && n > 0
+                    ? Math.min(sweepRate * 2, MAX_SWEEP_SLOTS_PER_MS)
+                    : Math.max(sweepRate / 2, SWEEP_SLOTS_PER_MS);
+        }
+        return n + coll.expireDue(nowMs, limit - n);
+    }
+
+    @Override
+    public long nextExpiryDelayMillis(long nowMs) {
+        long d = coll.nextExpiryDelayMillis(nowMs);
+        if (volatileCount == 0) return d;
+        long sweep = sweepRate > SWEEP_SLOTS_PER_MS ? 1 : 100;
+        return d < 0 ? sweep : Math.min(d, sweep);
+    }
+
+    // ---------- other types: checked here, stored in the inner MemoryDb ----------
+
+    @Override
+    public String hget(String key, String field) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.hget(key, field);
+    }
+
+    @Override
+    public int hset(String key, String field, String value) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.hset(key, field, value);
+    }
+
+    @Override
+    public int hdel(String key, List<String> fields) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.hdel(key, fields);
+    }
+
+    @Override
+    public int sadd(String key, List<String> members) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.sadd(key, members);
+    }
+
+    @Override
+    public int srem(String key, List<String> members) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.srem(key, members);
+    }
+
+    @Override
+    public boolean sismember(String key, String member) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.sismember(key, member);
+    }
+
+    @Override
+    public List<String> smembers(String key) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.smembers(key);
+    }
+
+    @Override
+    public int scard(String key) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.scard(key);
+    }
+
+    @Override
+    public List<String> sinter(List<String> keys) throws WrongTypeException {
+        settle();
+        requireNotString(keys);
+        return coll.sinter(keys);
+    }
+
+    @Override
+    public long sintercard(List<String> keys, long limit) throws WrongTypeException {
+        settle();
+        requireNotString(keys);
+        return coll.sintercard(keys, limit);
+    }
+
+    @Override
+    public List<String> sunion(List<String> keys) throws WrongTypeException {
+        settle();
+        requireNotString(keys);
+        return coll.sunion(keys);
+    }
+
+    @Override
+    public List<String> sdiff(List<String> keys) throws WrongTypeException {
+        settle();
+        requireNotString(keys);
+        return coll.sdiff(keys);
+    }
+
+    @Override
+    public int sstore(String dest, List<String> members) {
+        settle();
+        remove(dest);
+        return coll.sstore(dest, members);
+    }
+
+    @Override
+    public Stream getStream(String key) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.getStream(key);
+    }
+
+    @Override
+    public Stream getStreamForWrite(String key) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.getStreamForWrite(key);
+    }
+
+    @Override
+    public Stream getOrCreateStream(String key) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.getOrCreateStream(key);
+    }
+
+    @Override
+    public int pfadd(String key, List<String> elements) throws WrongTypeException {
+        settle();
+        requireNotString(key);
+        return coll.pfadd(key, elements);
+    }
+
+    @Override
+    public long pfcount(List<String> keys) throws WrongTypeException {
+        settle();
+        requireNotString(keys);
+        return coll.pfcount(keys);
+    }
+
+    @Override
+    public void pfmerge(String dest, List<String> sources) throws WrongTypeException {
+        settle();
+        requireNotString(dest);
+        requireNotString(sources);
+        coll.pfmerge(dest, sources);
+    }
+
+    @Override
+    public void pfrestore(String key, byte[] payload) {
+        settle();
+        remove(key);
+        coll.pfrestore(key, payload);
+    }
+
+    // ---------- TTL ----------
+
+    @Override
+    public int pexpire(String key, long ms) {
+        return pexpireAt(key, ms <= 0 ? 0 : System.currentTimeMillis() + ms);
+    }
+
+    @Override
+    public int pexpireAt(String key, long whenMs) {
+        settle();
+        long i = find(key);
+        if (i < 0) return coll.pexpireAt(key, whenMs);
+        long now = System.currentTimeMillis();
+        long ref = slots.get(i) & REF_MASK;
+        if (isExpired(ref, now)) {
+            expire(i, key);
+            return 0;
+        }
+        dirty++;
+        if (whenMs <= now) {
+            removeSlot(i);
+            events.notify(KeyspaceEvents.GENERIC, "del", key);
+            return 1;
+        }
+        if (!inPlace(ref)) ref = moveEntry(i, ref);
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        if (p.getLong(o + H_EXPIRE) < 0) volatileCount++;
+        p.putLong(o + H_EXPIRE, whenMs);
+        events.notify(KeyspaceEvents.GENERIC, "expire", key);
+        return 1;
+    }
+
+    @Override
+    public long pttl(String key) {
+        long i = find(key);
+        if (i < 0) return coll.pttl(key);
+        long now = System.currentTimeMillis();
+        long ref = slots.get(i) & REF_MASK;
+        if (isExpired(ref, now)) {
+            expire(i, key);
+            return -2;
+        }
+        long at = arena.page(ref).getLong(SlabAllocator.offset(ref) + H_EXPIRE);
+        if (at < 0) return -1;
+        return Math.max(at - now, 0);
+    }
+
+    // ---------- keyspace / persistence ----------
+
+    @Override
+    public int dbsize() {
+        return (int) Math.min(count + coll.dbsize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long dirty() {
+        return dirty + coll.dirty();
+    }
+
+    @Override
+    public void setKeyspaceEvents(KeyspaceEvents events) {
+        this.events = events;
+        coll.setKeyspaceEvents(events);
+    }
+
+    @Override
+    public void notifyKeyspaceEvent(int type, String event, String key) {
+        events.notify(type, event, key);
+    }
+
+    @Override
+    public KeyspaceSnapshot snapshot() {
+        settle();
+        epoch++;
+        if (activeSnapshots++ == 0) cowCopies = 0;
+        long now = System.currentTimeMillis();
+        OffHeapLongs refs = new OffHeapLongs(count);
+        long n = 0;
+        for (long i = 0; i <= mask; i++) {
+            long s = slots.get(i);
+            if (s == 0) continue;
+            long ref = s & REF_MASK;
+            if (!isExpired(ref, now)) refs.set(n++, ref);
+        }
+        return KeyspaceSnapshot.concat(new Snapshot(arena, refs, (int) n, now), coll.snapshot());
+    }
+
+    @Override
+    public void releaseSnapshot() {
+        coll.releaseSnapshot();
+        if (activeSnapshots == 0 || --activeSnapshots > 0) return;
+        for (int k = 0; k < deferredCount; k++) arena.free(deferred[k], entrySize(deferred[k]));
+        deferredCount = 0;
+        if (deferred.length > 1024) deferred = new long[64];
+    }
+
+    @Override
+    public boolean snapshotActive() {
+        return activeSnapshots > 0;
+    }
+
+    @Override
+    public long cowCopies() {
+        return cowCopies + coll.cowCopies();
+    }
+
+    @Override
+    public int loadBulk(PartialTable table, long nowMs) {
+        settle();
+        PartialTable rest = null;
+        int loaded = 0;
+        int access = MemoryDb.clockSec(nowMs);
+        for (int i = 0, n = table.size(); i < n; i++) {
+            Record r = table.records.get(i);
+            String key = table.keys.get(i);
+            if (r.type != Record.Type.STR) {
+                if (rest == null) rest = new PartialTable(n - i);
+                rest.keys.add(key);
+                rest.records.add(r);
+                remove(key);
+                continue;
+            }
+            if (r.hasTtl() && r.expireAtMs <= nowMs) continue;
+            if (coll.dbsize() > 0) dropColl(key);
+            if (r.bufVal != null) put(key, r.bufVal.array(), r.bufVal.length(), r.expireAtMs, access);
+            else put(key, bytesOf(r.strVal), r.strVal.length(), r.expireAtMs, access);
+            loaded++;
+        }
+        dirty += loaded;
+        return rest == null ? loaded : loaded + coll.loadBulk(rest, nowMs);
+    }
+
+    @Override
+    public void enableSlotIndex() {
+        if (slotIndex == null) {
+            slotIndex = new SlotIndex();
+            for (long i = 0; i <= mask; i++) {
+                long s = slots.get(i);
+                if (s != 0) slotIndex.add(keyAt(arena, s & REF_MASK));
+            }
+        }
+        coll.enableSlotIndex();
+    }
+
+    @Override
+    public int countKeysInSlot(int slot) {
+        return (slotIndex == null ? 0 : slotIndex.count(slot)) + coll.countKeysInSlot(slot);
+    }
+
+    @Override
+    public List<String> keysInSlot(int slot, int max) {
+        List<String> out = coll.keysInSlot(slot, max);
+        if (slotIndex != null && out.size() < max) out.addAll(slotIndex.keys(slot, max - out.size()));
+        return out;
+    }
+
+    @Override
+    public boolean dump(String key, ByteBuf out) {
+        settle();
+        long i = live(key);
+        if (i < 0) return coll.dump(key, out);
+        long ref = touch(i);
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        int start = out.length();
+        RecordCodec.encodeString(p, o + HEADER + p.getInt(o + H_KEYLEN), p.getInt(o + H_VALLEN), out);
+        RecordCodec.dumpTrailer(out, start);
+        return true;
+    }
+
+    @Override
+    public void restore(String key, byte[] payload, long expireAtMs, long idleSeconds) {
+        settle();
+        if (!RecordCodec.verifyDump(payload, 0, payload.length)) {
+            throw new IllegalArgumentException("DUMP payload version or checksum are wrong");
+        }
+        if ((payload[0] & 0xFF) != RecordCodec.T_STRING) {
+            remove(key);
+            coll.restore(key, payload, expireAtMs, idleSeconds);
+            return;
+        }
+        Record r;
+        try {
+            r = RecordCodec.undump(payload, 0, payload.length, expireAtMs);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad data format");
+        }
+        boolean replaced = dropColl(key);
+        int access = MemoryDb.clockSec(System.currentTimeMillis());
+        if (idleSeconds > 0) access -= (int) Math.min(idleSeconds, Integer.MAX_VALUE / 2);
+        if (put(key, bytesOf(r.strVal), r.strVal.length(), expireAtMs, access) && !replaced) {
+            events.notify(KeyspaceEvents.NEW, "new", key);
+        }
+        dirty++;
+        events.notify(KeyspaceEvents.GENERIC, "restore", key);
+    }
+
+    @Override
+    public long idleSeconds(String key) {
+        long i = find(key);
+        if (i < 0) return coll.idleSeconds(key);
+        long now = System.currentTimeMillis();
+        long ref = slots.get(i) & REF_MASK;
+        if (isExpired(ref, now)) return -1;
+        return MemoryDb.clockSec(now) - arena.page(ref).getInt(SlabAllocator.offset(ref) + H_ACCESS);
+    }
+
+    @Override
+    public void reserve(int keys) {
+        if (count > 0 || keys <= 0) return;
+        long want = Long.highestOneBit(Math.max((long) keys * 4 / 3 + 1, MIN_SLOTS) - 1) << 1;
+        if (want > mask + 1) resize(want);
+    }
+
+    @Override
+    public void flushAll() {
+        // a snapshot in progress keeps the old allocator, and thus its pages, reachable
+        bytesKey = null;
+        bytesVal = null;
+        dirty += count;
+        arena = new SlabAllocator();
+        slots = new OffHeapLongs(MIN_SLOTS);
+        mask = MIN_SLOTS - 1;
+        count = 0;
+        volatileCount = 0;
+        deferredCount = 0;
+        if (slotIndex != null) slotIndex = new SlotIndex();
+        coll.flushAll(); // reports the flush to the keyspace events
+    }
+
+    @Override
+    public void enableTiering(Path dir, int segmentSize) throws IOException {
+        coll.enableTiering(dir, segmentSize); // string values are off the heap already
+    }
+
+    @Override
+    public void tierCron(long idleSeconds, int maxHeapPercent) {
+        coll.tierCron(idleSeconds, maxHeapPercent);
+    }
+
+    @Override
+    public String tierInfo() {
+        return coll.tierInfo();
+    }
+
+    @Override
+    public String memoryInfo() {
+        long used = arena.usedBytes();
+        long reserved = arena.reservedBytes();
+        return "storage_engine:offheap\r\n"
+                + "offheap_keys:" + count + "\r\n"
+                + "offheap_used_bytes:" + used + "\r\n"
+                + "offheap_reserved_bytes:" + reserved + "\r\n"
+                + "offheap_index_bytes:" + (mask + 1) * 8 + "\r\n"
+                + "offheap_pages:" + arena.pages() + "\r\n"
+                + "offheap_large_chunks:" + arena.largeCount() + "\r\n"
+                + "offheap_fragmentation_ratio:"
+                + String.format(Locale.ROOT, "%.2f", used == 0 ? 1.0 : (double) reserved / used) + "\r\n"
+                + "heap_keys:" + coll.dbsize() + "\r\n";
+    }
+
+    // ---------- index ----------
+
+    private static long mix(int h) {
+        long x = h;
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /**
+     * Slot index of key, or -1; expired entries included.
+     */
+    private long find(String key) {
+        int h = key.hashCode();
+        long m = mix(h);
+        for (long i = m & mask; ; i = (i + 1) & mask) {
+            long s = slots.get(i);
+            if (s == 0) return -1;
+            if (((s ^ m) & TAG_MASK) == 0 && keyEquals(s & REF_MASK, h, key)) return i;
+        }
+    }
+
+    private boolean keyEquals(long ref, int h, String key) {
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        if (p.getInt(o + H_HASH) != h) return false;
+        int n = key.length();
+        if (p.getInt(o + H_KEYLEN) != n) return false;
+        o += HEADER;
+        for (int k = 0; k < n; k++) {
+            if ((p.get(o + k) & 0xFF) != key.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private void insertSlot(long s) {
+        long m = mix(hashAt(s & REF_MASK));
+        long i = m & mask;
+        while (slots.get(i) != 0) i = (i + 1) & mask;
+        slots.set(i, s);
+    }
+
+    private int hashAt(long ref) {
+        return arena.page(ref).getInt(SlabAllocator.offset(ref) + H_HASH);
+    }
+
+    /**
+     * Remove the entry at slot i, shifting back followers of its probe run.
+     */
+    private void removeSlot(long i) {
+        long ref = slots.get(i) & REF_MASK;
+        if (bytesKey != null && keyEquals(ref, bytesKey.hashCode(), bytesKey)) {
+            bytesKey = null; // deleted or expired: the pending copy goes too
+            bytesVal = null;
+        }
+        if (slotIndex != null) slotIndex.remove(keyAt(arena, ref));
+        if (arena.page(ref).getLong(SlabAllocator.offset(ref) + H_EXPIRE) >= 0) volatileCount--;
+        release(ref);
+        count--;
+        for (long j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            long s = slots.get(j);
+            if (s == 0) break;
+            long home = mix(hashAt(s & REF_MASK)) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                slots.set(i, s);
+                i = j;
+            }
+        }
+        slots.set(i, 0);
+    }
+
+    private void resize(long size) {
+        OffHeapLongs old = slots;
+        long oldSize = mask + 1;
+        slots = new OffHeapLongs(size);
+        mask = size - 1;
+        for (long i = 0; i < oldSize; i++) {
+            long s = old.get(i);
+            if (s != 0) insertSlot(s);
+        }
+        sweepCursor = 0;
+    }
+
+    private boolean remove(String key) {
+        long i = find(key);
+        if (i < 0) return false;
+        removeSlot(i);
+        return true;
+    }
+
+    /**
+     * Slot of the live entry for key, or -1; an expired entry is removed.
+     */
+    private long live(String key) {
+        long i = find(key);
+        if (i < 0) return -1;
+        if (isExpired(slots.get(i) & REF_MASK, System.currentTimeMillis())) {
+            expire(i, key);
+            return -1;
+        }
+        return i;
+    }
+
+    // remove the entry of key at slot i, whose TTL has passed, found on access
+    private void expire(long i, String key) {
+        removeSlot(i);
+        events.notify(KeyspaceEvents.EXPIRED, "expired", key);
+    }
+
+    private void requireNotString(String key) throws WrongTypeException {
+        if (live(key) >= 0) throw new WrongTypeException();
+    }
+
+    private void requireNotString(List<String> keys) throws WrongTypeException {
+        for (String k : keys) requireNotString(k);
+    }
+
+    // ---------- entries ----------
+
+    /**
+     * Store value v[0..len) under key, replacing any string entry in place when its chunk fits
+     * and no snapshot can see it. Returns true if there was no string entry for key.
+     */
+    private boolean put(String key, byte[] v, int len, long expireAtMs, int accessSec) {
+        int size = HEADER + key.length() + len;
+        long i = find(key);
+        if (i >= 0) {
+            long s = slots.get(i);
+            long ref = s & REF_MASK;
+            ByteBuffer p = arena.page(ref);
+            int o = SlabAllocator.offset(ref);
+            if (p.getLong(o + H_EXPIRE) >= 0) volatileCount--;
+            if (inPlace(ref) && SlabAllocator.chunkSize(entrySize(ref)) == SlabAllocator.chunkSize(size)) {
+                p.putInt(o + H_VALLEN, len);
+                p.putInt(o + H_ACCESS, accessSec);
+                p.putLong(o + H_EXPIRE, expireAtMs);
+                p.put(o + HEADER + key.length(), v, 0, len);
+                if (expireAtMs >= 0) volatileCount++;
+                return false;
+            }
+            if (!inPlace(ref)) cowCopies++;
+            release(ref);
+            slots.set(i, (s & TAG_MASK) | newEntry(key, v, len, expireAtMs, accessSec));
+            return false;
+        }
+        if ((count + 1) * 4 > (mask + 1) * 3) resize((mask + 1) * 2);
+        long ref = newEntry(key, v, len, expireAtMs, accessSec);
+        insertSlot((mix(key.hashCode()) & TAG_MASK) | ref);
+        count++;
+        if (slotIndex != null) slotIndex.add(key);
+        return true;
+    }
+
+    private long newEntry(String key, byte[] v, int len, long expireAtMs, int accessSec) {
+        int klen = key.length();
+        long ref = arena.allocate(HEADER + klen + len);
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        p.putInt(o + H_HASH, key.hashCode());
+        p.putInt(o + H_KEYLEN, klen);
+        p.putInt(o + H_VALLEN, len);
+        p.putInt(o + H_ACCESS, accessSec);
+        p.putLong(o + H_EXPIRE, expireAtMs);
+        p.putInt(o + H_EPOCH, epoch);
+        for (int k = 0; k < klen; k++) p.put(o + HEADER + k, (byte) key.charAt(k));
+        p.put(o + HEADER + klen, v, 0, len);
+        if (expireAtMs >= 0) volatileCount++;
+        return ref;
+    }
+
+    /**
+     * Copy the entry at slot i into a new chunk of the current epoch (copy-on-write).
+     */
+    private long moveEntry(long i, long ref) {
+        int size = entrySize(ref);
+        long to = arena.allocate(size);
+        ByteBuffer dst = arena.page(to);
+        int o = SlabAllocator.offset(to);
+        dst.put(o, arena.page(ref), SlabAllocator.offset(ref), size);
+        dst.putInt(o + H_EPOCH, epoch);
+        release(ref);
+        slots.set(i, (slots.get(i) & TAG_MASK) | to);
+        cowCopies++;
+        return to;
+    }
+
+    /**
+     * Whether the chunk may be written in place: no active snapshot can refer to it.
+     */
+    private boolean inPlace(long ref) {
+        return activeSnapshots == 0 || arena.page(ref).getInt(SlabAllocator.offset(ref) + H_EPOCH) == epoch;
+    }
+
+    private void release(long ref) {
+        if (inPlace(ref)) {
+            arena.free(ref, entrySize(ref));
+            return;
+        }
+        if (deferredCount == deferred.length) deferred = Arrays.copyOf(deferred, deferredCount * 2);
+        deferred[deferredCount++] = ref;
+    }
+
+    private int entrySize(long ref) {
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        return HEADER + p.getInt(o + H_KEYLEN) + p.getInt(o + H_VALLEN);
+    }
+
+    private boolean isExpired(long ref, long nowMs) {
+        long at = arena.page(ref).getLong(SlabAllocator.offset(ref) + H_EXPIRE);
+        return at >= 0 && at <= nowMs;
+    }
+
+    /**
+     * Record an access to the entry at slot i; returns its reference.
+     */
+    private long touch(long i) {
+        long ref = slots.get(i) & REF_MASK;
+        arena.page(ref).putInt(SlabAllocator.offset(ref) + H_ACCESS, MemoryDb.clockSec(System.currentTimeMillis()));
+        return ref;
+    }
+
+    private ByteBuf copyValue(long ref) {
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        int vlen = p.getInt(o + H_VALLEN);
+        byte[] b = new byte[vlen];
+        p.get(o + HEADER + p.getInt(o + H_KEYLEN), b, 0, vlen);
+        return ByteBuf.wrap(b, vlen);
+    }
+
+    /**
+     * Write back the value handed out by getOrCreateBytes (if any) and forget the heap copy.
+     */
+    private void settle() {
+        if (bytesKey == null) return;
+        String key = bytesKey;
+        ByteBuf b = bytesVal;
+        bytesKey = null;
+        bytesVal = null;
+        if (!bytesDirty) return;
+        long i = find(key);
+        if (i < 0) return;
+        long ref = slots.get(i) & REF_MASK;
+        long expireAt = arena.page(ref).getLong(SlabAllocator.offset(ref) + H_EXPIRE);
+        put(key, b.array(), b.length(), expireAt, MemoryDb.clockSec(System.currentTimeMillis()));
+    }
+
+    private byte[] scratch(int n) {
+        if (scratch.length < n) scratch = new byte[Math.max(n, scratch.length * 2)];
+        return scratch;
+    }
+
+    /**
+     * Bytes of s (one per char) in the scratch buffer, or a new array if s is large.
+     */
+    @SuppressWarnings("deprecation")
+    private byte[] bytesOf(String s) {
+        int n = s.length();
+        byte[] b = n <= SCRATCH_MAX ? scratch(n) : new byte[n];
+        s.getBytes(0, n, b, 0);
+        return b;
+    }
+
+    private static String keyAt(SlabAllocator arena, long ref) {
+        ByteBuffer p = arena.page(ref);
+        int o = SlabAllocator.offset(ref);
+        byte[] b = new byte[p.getInt(o + H_KEYLEN)];
+        p.get(o + HEADER, b, 0, b.length);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Entries captured by snapshot(): chunk references into an allocator whose chunks stay
+     * unchanged until the snapshot is released.
+     */
+    private static final class Snapshot extends KeyspaceSnapshot {
+        private final SlabAllocator arena;
+        private final OffHeapLongs refs;
+        private final int size;
+
+        Snapshot(SlabAllocator arena, OffHeapLongs refs, int size, long createdAtMs) {
+            super(createdAtMs);
+            this.arena = arena;
+            this.refs = refs;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String key(int i) {
+            return keyAt(arena, refs.get(i));
+        }
+
+        @Override
+        public long expireAt(int i) {
+            long ref = refs.get(i);
+            return arena.page(ref).getLong(SlabAllocator.offset(ref) + H_EXPIRE);
+        }
+
+        @Override
+        public void writeValue(int i, ByteBuf out) {
+            long ref = refs.get(i);
+            ByteBuffer p = arena.page(ref);
+            int o = SlabAllocator.offset(ref);
+            RecordCodec.encodeString(p, o + HEADER + p.getInt(o + H_KEYLEN), p.getInt(o + H_VALLEN), out);
+        }
+
+        @Override
+        public void writeCommands(int i, Consumer<List<String>> out) {
+            long ref = refs.get(i);
+            ByteBuffer p = arena.page(ref);
+            int o = SlabAllocator.offset(ref);
+            int klen = p.getInt(o + H_KEYLEN);
+            byte[] v = new byte[p.getInt(o + H_VALLEN)];
+            p.get(o + HEADER + klen, v, 0, v.length);
+            RecordCommands.emit(key(i), Record.Type.STR, new String(v, StandardCharsets.ISO_8859_1),
+                    expireAt(i), out);
+        }
+    }
+}
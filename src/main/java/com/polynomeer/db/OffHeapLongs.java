@@ -0,0 +1,40 @@
+package com.polynomeer.db;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-size array of longs in direct memory, zero-initialized; split into 128 MB buffers so
+ * it can exceed the 2 GB limit of one ByteBuffer. Memory is released when the array becomes
+ * unreachable (the buffers' cleaners).
+ */
+final class OffHeapLongs {
+    private static final int CHUNK_SHIFT = 24; // longs per buffer
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long length;
+
+    OffHeapLongs(long length) {
+        this.length = length;
+        int n = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+        chunks = new ByteBuffer[Math.max(n, 1)];
+        for (int i = 0; i < chunks.length; i++) {
+            long left = length - ((long) i << CHUNK_SHIFT);
+            int size = (int) Math.min(Math.max(left, 0), 1L << CHUNK_SHIFT);
+            chunks[i] = ByteBuffer.allocateDirect(size * 8).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    long get(long i) {
+        return chunks[(int) (i >>> CHUNK_SHIFT)].getLong(((int) i & CHUNK_MASK) << 3);
+    }
+
+    void set(long i, long v) {
+        chunks[(int) (i >>> CHUNK_SHIFT)].putLong(((int) i & CHUNK_MASK) << 3, v);
+    }
+}
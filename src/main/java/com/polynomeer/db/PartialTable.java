@@ -0,0 +1,61 @@
+package com.polynomeer.db;
+
+import com.polynomeer.struct.OpenHashStringMap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decoded keys waiting to be merged into a Db (see Db.loadBulk).
+ * Loaders decode into a PartialTable off the reactor thread; merging is then a plain
+ * bulk insert of ready-made records.
+ */
+public final class PartialTable {
+    final List<String> keys;
+    final List<Record> records;
+
+    public PartialTable(int expected) {
+        this.keys = new ArrayList<>(expected);
+        this.records = new ArrayList<>(expected);
+    }
+
+    /**
+     * Decode one value (RecordCodec format) at the buffer's position and add it under key.
+     * Throws IllegalArgumentException on malformed input.
+     */
+    public void decode(String key, long expireAtMs, ByteBuffer in) {
+        keys.add(key);
+        records.add(RecordCodec.decode(in, expireAtMs));
+    }
+
+    public void addString(String key, long expireAtMs, String value) {
+        keys.add(key);
+        records.add(new Record(value, expireAtMs));
+    }
+
+    /**
+     * Add a hash key; 'fieldsValues' alternates field, value and must not be empty.
+     */
+    public void addHash(String key, long expireAtMs, List<String> fieldsValues) {
+        OpenHashStringMap m = new OpenHashStringMap();
+        for (int i = 0; i + 1 < fieldsValues.size(); i += 2) m.put(fieldsValues.get(i), fieldsValues.get(i + 1));
+        keys.add(key);
+        records.add(new Record(m, expireAtMs));
+    }
+
+    /**
+     * Add a set key (intset encoded when every member is a small integer); 'members' must not be empty.
+     */
+    public void addSet(String key, long expireAtMs, List<String> members) {
+        SetValue s = members.size() <= SetValue.MAX_INTSET_ENTRIES
+                ? SetValue.forFirstMember(members.get(0)) : SetValue.hashtable(members.size());
+        for (String m : members) s.add(m);
+        keys.add(key);
+        records.add(new Record(s, expireAtMs));
+    }
+
+    public int size() {
+        return keys.size();
+    }
+}
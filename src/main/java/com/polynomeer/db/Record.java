@@ -1,33 +1,100 @@
 package com.polynomeer.db;
 
+import com.polynomeer.struct.HyperLogLog;
 import com.polynomeer.struct.OpenHashStringMap;
+import com.polynomeer.struct.Stream;
+import com.polynomeer.util.ByteBuf;
 
 /**
  * Record stored in keyspace.
- * Types supported so far: STR, HASH
+ * Types supported so far: STR, HASH, SET, STREAM, HLL
  */
 final class Record {
-    enum Type {STR, HASH}
+    enum Type {STR, HASH, SET, STREAM, HLL}
 
     Type type;
-    String strVal;                // when type == STR
+    String strVal;                // when type == STR (immutable form)
+    ByteBuf bufVal;               // when type == STR (mutable form, replaces strVal once in use)
     OpenHashStringMap hashVal;    // when type == HASH
+    SetValue setVal;              // when type == SET
+    Stream streamVal;             // when type == STREAM
+    HyperLogLog hllVal;           // when type == HLL
 
     // Absolute expiration time in millis since epoch; < 0 means no TTL
     long expireAtMs = -1L;
 
+    // Snapshot generation this record belongs to (see MemoryDb copy-on-write)
+    int epoch;
+
+    // Last access in seconds on MemoryDb's idle clock (OBJECT IDLETIME, RESTORE IDLETIME)
+    int accessSec;
+
+    // Tiered storage only: place in the LRU list while the value is on the heap, or the
+    // value's location in the value log once spilled (the value fields are then null)
+    TieredStore.HotNode hot;
+    ColdRef cold;
+
     Record(String strVal, long expireAtMs) {
         this.type = Type.STR;
         this.strVal = strVal;
         this.expireAtMs = expireAtMs;
     }
 
+    Record(ByteBuf buf, long expireAtMs) {
+        this.type = Type.STR;
+        this.bufVal = buf;
+        this.expireAtMs = expireAtMs;
+    }
+
     Record(OpenHashStringMap map, long expireAtMs) {
         this.type = Type.HASH;
         this.hashVal = map;
         this.expireAtMs = expireAtMs;
     }
 
+    Record(SetValue set, long expireAtMs) {
+        this.type = Type.SET;
+        this.setVal = set;
+        this.expireAtMs = expireAtMs;
+    }
+
+    Record(Stream stream, long expireAtMs) {
+        this.type = Type.STREAM;
+        this.streamVal = stream;
+        this.expireAtMs = expireAtMs;
+    }
+
+    Record(HyperLogLog hll, long expireAtMs) {
+        this.type = Type.HLL;
+        this.hllVal = hll;
+        this.expireAtMs = expireAtMs;
+    }
+
+    /**
+     * Take the value of 'from' (same key, decoded from the value log).
+     */
+    void takeValue(Record from) {
+        type = from.type;
+        strVal = from.strVal;
+        bufVal = from.bufVal;
+        hashVal = from.hashVal;
+        setVal = from.setVal;
+        streamVal = from.streamVal;
+        hllVal = from.hllVal;
+    }
+
+    /**
+     * Drop the in-memory value (spilled; the type stays for type checks).
+     */
+    void clearValue() {
+        strVal = null;
+        bufVal = null;
+        hashVal = null;
+        setVal = null;
+        streamVal = null;
+        hllVal = null;
+    }
+
     boolean hasTtl() {
         return expireAtMs >= 0;
     }
@@ -0,0 +1,332 @@
+package com.polynomeer.db;
+
+import com.polynomeer.struct.HyperLogLog;
+import com.polynomeer.struct.OpenHashStringMap;
+import com.polynomeer.struct.Stream;
+import com.polynomeer.struct.StreamConsumerGroup;
+import com.polynomeer.struct.StreamEntry;
+import com.polynomeer.struct.StreamId;
+import com.polynomeer.util.ByteBuf;
+import com.polynomeer.util.Crc64;
+import com.polynomeer.util.VarInts;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary encoding of record values, shared by snapshots and copy-on-write clones.
+ * Layout: [type byte][payload]; integers are unsigned LEB128 varints (zigzag for signed),
+ * strings are varint length + raw bytes.
+ * - STRING:  bytes
+ * - HASH:    count, then field/value pairs
+ * - SET:     count, then members; SET_INTSET: count, then zigzag integers (ascending)
+ * - STREAM:  lastId, entriesAdded, entries (ms delta from previous entry, seq, fields/values),
+ * then groups with consumers and pending entries
+ * - HLL:     HyperLogLog.toBytes()
+ * DUMP payloads (DUMP, RESTORE, MIGRATE) wrap one value as [value][version: u16 LE][CRC-64 of
+ * value and version: u64 LE]; RESTORE refuses newer versions and bad checksums.
+ */
+final class RecordCodec {
+    static final int T_STRING = 0;
+    static final int T_HASH = 1;
+    static final int T_SET = 2;
+    static final int T_SET_INTSET = 3;
+    static final int T_STREAM = 4;
+    static final int T_HLL = 5;
+
+    static final int DUMP_VERSION = 1;
+    private static final int DUMP_TRAILER = 10;
+
+    private RecordCodec() {
+    }
+
+    // ---------- encode ----------
+
+    /**
+     * Encode a value captured from a Record (strVal or bufVal for STR, else the type's field).
+     */
+    static void encode(Record.Type type, Object value, ByteBuf out) {
+        if (value instanceof ColdRef) {
+            // spilled: the value log holds this very encoding
+            ((ColdRef) value).copyTo(out);
+            return;
+        }
+        switch (type) {
+            case STR:
+                out.appendByte(T_STRING);
+                if (value instanceof ByteBuf) {
+                    ByteBuf b = (ByteBuf) value;
+                    VarInts.putVarLong(out, b.length());
+                    out.append(b.array(), 0, b.length());
+                } else {
+                    VarInts.putString(out, (String) value);
+                }
+                break;
+            case HASH: {
+                OpenHashStringMap m = (OpenHashStringMap) value;
+                out.appendByte(T_HASH);
+                VarInts.putVarLong(out, m.size());
+                m.forEach((f, v) -> {
+                    VarInts.putString(out, f);
+                    VarInts.putString(out, v);
+                });
+                break;
+            }
+            case SET: {
+                SetValue s = (SetValue) value;
+                if (s.isIntset()) {
+                    out.appendByte(T_SET_INTSET);
+                    VarInts.putVarLong(out, s.size());
+                    for (int i = 0; i < s.size(); i++) VarInts.putVarLong(out, zigzag(s.intAt(i)));
+                } else {
+                    out.appendByte(T_SET);
+                    VarInts.putVarLong(out, s.size());
+                    s.forEach(m -> VarInts.putString(out, m));
+                }
+                break;
+            }
+            case STREAM:
+                out.appendByte(T_STREAM);
+                encodeStream((Stream) value, out);
+                break;
+            case HLL: {
+                out.appendByte(T_HLL);
+                byte[] b = ((HyperLogLog) value).toBytes();
+                VarInts.putVarLong(out, b.length);
+                out.append(b, 0, b.length);
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown type " + type);
+        }
+    }
+
+    /**
+     * Encode a string value of len raw bytes at 'offset' of src (absolute reads; src unchanged).
+     */
+    static void encodeString(ByteBuffer src, int offset, int len, ByteBuf out) {
+        out.appendByte(T_STRING);
+        VarInts.putVarLong(out, len);
+        int at = out.length();
+        out.ensureLength(at + len);
+        src.get(offset, out.array(), at, len);
+    }
+
+    static void encode(Record r, ByteBuf out) {
+        encode(r.type, valueOf(r), out);
+    }
+
+    /**
+     * The value object of a record as passed to encode(); a ColdRef if the value is spilled.
+     */
+    static Object valueOf(Record r) {
+        if (r.cold != null) return r.cold;
+        switch (r.type) {
+            case STR:
+                return r.bufVal != null ? r.bufVal : r.strVal;
+            case HASH:
+                return r.hashVal;
+            case SET:
+                return r.setVal;
+            case STREAM:
+                return r.streamVal;
+            default:
+                return r.hllVal;
+        }
+    }
+
+    private static void encodeStream(Stream s, ByteBuf out) {
+        putId(out, s.lastId());
+        VarInts.putVarLong(out, s.entriesAdded());
+        List<StreamEntry> entries = s.range(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, false);
+        VarInts.putVarLong(out, entries.size());
+        long prevMs = 0;
+        for (StreamEntry e : entries) {
+            VarInts.putVarLong(out, e.id.ms - prevMs);
+            VarInts.putVarLong(out, e.id.seq);
+            prevMs = e.id.ms;
+            VarInts.putVarLong(out, e.fieldsValues.length);
+            for (String x : e.fieldsValues) VarInts.putString(out, x);
+        }
+        VarInts.putVarLong(out, s.groups().size());
+        for (StreamConsumerGroup g : s.groups()) {
+            VarInts.putString(out, g.name);
+            putId(out, g.lastDeliveredId);
+            VarInts.putVarLong(out, g.consumers().size());
+            for (StreamConsumerGroup.Consumer c : g.consumers()) {
+                VarInts.putString(out, c.name);
+                VarInts.putVarLong(out, c.seenTime);
+            }
+            List<StreamConsumerGroup.PendingEntry> pel =
+                    g.pendingRange(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, null, 0, Long.MAX_VALUE);
+            VarInts.putVarLong(out, pel.size());
+            for (StreamConsumerGroup.PendingEntry pe : pel) {
+                putId(out, pe.id);
+                VarInts.putString(out, pe.consumer.name);
+                VarInts.putVarLong(out, pe.deliveryTime);
+                VarInts.putVarLong(out, pe.deliveryCount);
+            }
+        }
+    }
+
+    /**
+     * Append the DUMP payload of a record to out (reusable buffer: no intermediate copies).
+     */
+    static void dump(Record r, ByteBuf out) {
+        int start = out.length();
+        encode(r, out);
+        dumpTrailer(out, start);
+    }
+
+    /**
+     * Turn the value encoded at out[start..] into a DUMP payload by appending version and checksum.
+     */
+    static void dumpTrailer(ByteBuf out, int start) {
+        out.appendByte(DUMP_VERSION);
+        out.appendByte(DUMP_VERSION >>> 8);
+        long crc = Crc64.update(0, out.array(), start, out.length() - start);
+        for (int i = 0; i < 8; i++) out.appendByte((int) (crc >>> (8 * i)));
+    }
+
+    // ---------- decode ----------
+
+    /**
+     * Whether b[off, off+len) carries a DUMP trailer with a known version and a matching checksum.
+     */
+    static boolean verifyDump(byte[] b, int off, int len) {
+        if (len < DUMP_TRAILER + 1) return false;
+        int v = off + len - DUMP_TRAILER;
+        int version = (b[v] & 0xFF) | (b[v + 1] & 0xFF) << 8;
+        if (version > DUMP_VERSION) return false;
+        long crc = 0;
+        for (int i = 7; i >= 0; i--) crc = crc << 8 | (b[v + 2 + i] & 0xFF);
+        return Crc64.update(0, b, off, len - 8) == crc;
+    }
+
+    /**
+     * Decode a DUMP payload already checked by verifyDump. Throws IllegalArgumentException
+     * if the value inside is malformed or does not fill the payload exactly.
+     */
+    static Record undump(byte[] b, int off, int len, long expireAtMs) {
+        ByteBuffer in = ByteBuffer.wrap(b, off, len - DUMP_TRAILER);
+        Record r = decode(in, expireAtMs);
+        if (in.hasRemaining()) throw new IllegalArgumentException("trailing bytes after value");
+        return r;
+    }
+
+    /**
+     * Decode one value at the buffer's position (advancing it) into a new Record.
+     * Throws IllegalArgumentException on malformed input.
+     */
+    static Record decode(ByteBuffer in, long expireAtMs) {
+        try {
+            int type = in.get() & 0xFF;
+            switch (type) {
+                case T_STRING:
+                    return new Record(VarInts.getString(in), expireAtMs);
+                case T_HASH: {
+                    int n = VarInts.getLength(in);
+                    OpenHashStringMap m = new OpenHashStringMap();
+                    for (int i = 0; i < n; i++) m.put(VarInts.getString(in), VarInts.getString(in));
+                    return new Record(m, expireAtMs);
+                }
+                case T_SET:
+                case T_SET_INTSET: {
+                    int n = VarInts.getLength(in);
+                    if (n == 0) throw new IllegalArgumentException("empty set");
+                    SetValue s = null;
+                    for (int i = 0; i < n; i++) {
+                        String m = type == T_SET ? VarInts.getString(in) : Long.toString(unzigzag(VarInts.getVarLong(in)));
+                        if (s == null) s = type == T_SET ? SetValue.hashtable(n) : SetValue.forFirstMember(m);
+                        s.add(m);
+                    }
+                    return new Record(s, expireAtMs);
+                }
+                case T_STREAM:
+                    return new Record(decodeStream(in), expireAtMs);
+                case T_HLL: {
+                    int n = VarInts.getLength(in);
+                    byte[] b = new byte[n];
+                    in.get(b);
+                    return new Record(HyperLogLog.fromBytes(b, 0, n), expireAtMs);
+                }
+                default:
+                    throw new IllegalArgumentException("unknown value type " + type);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated value");
+        }
+    }
+
+    private static Stream decodeStream(ByteBuffer in) {
+        Stream s = new Stream();
+        StreamId lastId = getId(in);
+        long entriesAdded = VarInts.getVarLong(in);
+        int n = VarInts.getLength(in);
+        long ms = 0;
+        for (int i = 0; i < n; i++) {
+            ms += VarInts.getVarLong(in);
+            StreamId id = new StreamId(ms, VarInts.getVarLong(in));
+            int nfv = VarInts.getLength(in);
+            String[] fv = new String[nfv];
+            for (int k = 0; k < nfv; k++) fv[k] = VarInts.getString(in);
+            s.append(id, Arrays.asList(fv));
+        }
+        s.restoreCounters(lastId, entriesAdded);
+        int groups = VarInts.getLength(in);
+        for (int i = 0; i < groups; i++) {
+            StreamConsumerGroup g = s.createGroup(VarInts.getString(in), getId(in));
+            if (g == null) throw new IllegalArgumentException("duplicate consumer group");
+            int consumers = VarInts.getLength(in);
+            for (int k = 0; k < consumers; k++) {
+                String name = VarInts.getString(in);
+                g.getOrCreateConsumer(name, VarInts.getVarLong(in));
+            }
+            int pel = VarInts.getLength(in);
+            for (int k = 0; k < pel; k++) {
+                StreamId id = getId(in);
+                StreamConsumerGroup.Consumer c = g.getOrCreateConsumer(VarInts.getString(in), 0);
+                StreamConsumerGroup.PendingEntry pe = g.forcePending(id, c, VarInts.getVarLong(in));
+                pe.deliveryCount = VarInts.getVarLong(in);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Deep copy of a record's value (copy-on-write while a snapshot holds the original).
+     */
+    static Record copy(Record r) {
+        Record c;
+        if (r.type == Record.Type.STR && r.bufVal != null) {
+            ByteBuf b = r.bufVal;
+            c = new Record(ByteBuf.wrap(Arrays.copyOf(b.array(), b.length()), b.length()), r.expireAtMs);
+        } else {
+            ByteBuf tmp = new ByteBuf(64);
+            encode(r, tmp);
+            c = decode(ByteBuffer.wrap(tmp.array(), 0, tmp.length()), r.expireAtMs);
+        }
+        return c;
+    }
+
+    // ---------- primitives ----------
+
+    private static void putId(ByteBuf out, StreamId id) {
+        VarInts.putVarLong(out, id.ms);
+        VarInts.putVarLong(out, id.seq);
+    }
+
+    private static StreamId getId(ByteBuffer in) {
+        return new StreamId(VarInts.getVarLong(in), VarInts.getVarLong(in));
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
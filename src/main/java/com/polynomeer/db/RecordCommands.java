@@ -0,0 +1,114 @@
+package com.polynomeer.db;
+
+import com.polynomeer.struct.HyperLogLog;
+import com.polynomeer.struct.OpenHashStringMap;
+import com.polynomeer.struct.Stream;
+import com.polynomeer.struct.StreamConsumerGroup;
+import com.polynomeer.struct.StreamEntry;
+import com.polynomeer.struct.StreamId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Shortest command sequence that recreates a value (AOF rewrite):
+ * - STRING: SET key value [PXAT t]
+ * - HASH / SET: HSET / SADD with up to ITEMS_PER_CMD items per command
+ * - STREAM: XADD per entry, XSETID (last ID and entries-added survive deletions),
+ *   XGROUP CREATE / CREATECONSUMER, and XCLAIM ... FORCE JUSTID to rebuild each PEL
+ * - HLL: PFRESTORE key <HyperLogLog.toBytes()>
+ * Non-string TTLs follow as PEXPIREAT.
+ */
+final class RecordCommands {
+    static final int ITEMS_PER_CMD = 64;
+
+    private RecordCommands() {
+    }
+
+    static void emit(String key, Record.Type type, Object value, long expireAt, Consumer<List<String>> out) {
+        if (value instanceof ColdRef) value = RecordCodec.valueOf(((ColdRef) value).decode(expireAt));
+        switch (type) {
+            case STR: {
+                List<String> cmd = new ArrayList<>(List.of("SET", key, value.toString()));
+                if (expireAt >= 0) {
+                    cmd.add("PXAT");
+                    cmd.add(Long.toString(expireAt));
+                }
+                out.accept(cmd);
+                return; // TTL already included
+            }
+            case HASH: {
+                List<String> cmd = new ArrayList<>();
+                ((OpenHashStringMap) value).forEach((f, v) -> {
+                    if (cmd.isEmpty()) cmd.addAll(List.of("HSET", key));
+                    cmd.add(f);
+                    cmd.add(v);
+                    if (cmd.size() >= 2 + 2 * ITEMS_PER_CMD) flush(cmd, out);
+                });
+                flush(cmd, out);
+                break;
+            }
+            case SET: {
+                List<String> cmd = new ArrayList<>();
+                ((SetValue) value).forEach(m -> {
+                    if (cmd.isEmpty()) cmd.addAll(List.of("SADD", key));
+                    cmd.add(m);
+                    if (cmd.size() >= 2 + ITEMS_PER_CMD) flush(cmd, out);
+                });
+                flush(cmd, out);
+                break;
+            }
+            case STREAM:
+                emitStream(key, (Stream) value, out);
+                break;
+            case HLL: {
+                byte[] b = ((HyperLogLog) value).toBytes();
+                out.accept(List.of("PFRESTORE", key, new String(b, StandardCharsets.ISO_8859_1)));
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown type " + type);
+        }
+        if (expireAt >= 0) out.accept(List.of("PEXPIREAT", key, Long.toString(expireAt)));
+    }
+
+    private static void emitStream(String key, Stream s, Consumer<List<String>> out) {
+        List<StreamEntry> entries = s.range(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, false);
+        if (entries.isEmpty()) {
+            // create the key with a placeholder entry trimmed right away; XSETID restores the ID
+            StreamId id = s.lastId().compareTo(StreamId.MIN) > 0 ? s.lastId() : new StreamId(0, 1);
+            out.accept(List.of("XADD", key, "MAXLEN", "0", id.toString(), "x", "y"));
+        }
+        for (StreamEntry e : entries) {
+            List<String> cmd = new ArrayList<>(3 + e.fieldsValues.length);
+            cmd.addAll(List.of("XADD", key, e.id.toString()));
+            cmd.addAll(Arrays.asList(e.fieldsValues));
+            out.accept(cmd);
+        }
+        out.accept(List.of("XSETID", key, s.lastId().toString(), "ENTRIESADDED", Long.toString(s.entriesAdded())));
+        for (StreamConsumerGroup g : s.groups()) {
+            out.accept(List.of("XGROUP", "CREATE", key, g.name, g.lastDeliveredId.toString()));
+            for (StreamConsumerGroup.Consumer c : g.consumers()) {
+                out.accept(List.of("XGROUP", "CREATECONSUMER", key, g.name, c.name));
+            }
+            List<StreamConsumerGroup.PendingEntry> pel =
+                    g.pendingRange(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, null, 0, Long.MAX_VALUE);
+            for (StreamConsumerGroup.PendingEntry pe : pel) {
+                // XCLAIM FORCE needs the entry: PEL items whose entry was deleted are dropped
+                if (s.get(pe.id) == null) continue;
+                out.accept(List.of("XCLAIM", key, g.name, pe.consumer.name, "0", pe.id.toString(),
+                        "TIME", Long.toString(pe.deliveryTime), "RETRYCOUNT", Long.toString(pe.deliveryCount),
+                        "FORCE", "JUSTID"));
+            }
+        }
+    }
+
+    private static void flush(List<String> cmd, Consumer<List<String>> out) {
+        if (cmd.isEmpty()) return;
+        out.accept(new ArrayList<>(cmd));
+        cmd.clear();
+    }
+}
@@ -0,0 +1,103 @@
+package com.polynomeer.db;
+
+import com.polynomeer.struct.IntSet;
+import com.polynomeer.struct.OpenHashStringSet;
+
+import java.util.function.Consumer;
+
+/**
+ * Value of a SET key with two encodings:
+ * - INTSET: every member is a canonical integer and size <= MAX_INTSET_ENTRIES
+ * - HASHTABLE: open-addressing string set
+ * Conversion is one-way (intset -> hashtable), as in Redis.
+ */
+final class SetValue {
+    static final int MAX_INTSET_ENTRIES = 512;
+
+    private IntSet ints;              // INTSET encoding
+    private OpenHashStringSet strs;   // HASHTABLE encoding
+
+    private SetValue(IntSet ints, OpenHashStringSet strs) {
+        this.ints = ints;
+        this.strs = strs;
+    }
+
+    /**
+     * Empty set whose initial encoding suits the first member to be added.
+     */
+    static SetValue forFirstMember(String member) {
+        return IntSet.isCanonicalLong(member)
+                ? new SetValue(new IntSet(), null)
+                : new SetValue(null, new OpenHashStringSet());
+    }
+
+    /**
+     * Empty hashtable-encoded set pre-sized for about 'expected' members.
+     */
+    static SetValue hashtable(int expected) {
+        return new SetValue(null, new OpenHashStringSet(expected));
+    }
+
+    boolean isIntset() {
+        return ints != null;
+    }
+
+    int size() {
+        return ints != null ? ints.size() : strs.size();
+    }
+
+    boolean add(String member) {
+        if (ints != null) {
+            if (IntSet.isCanonicalLong(member)) {
+                boolean added = ints.add(Long.parseLong(member));
+                if (added && ints.size() > MAX_INTSET_ENTRIES) convertToHashtable();
+                return added;
+            }
+            convertToHashtable();
+        }
+        return strs.add(member);
+    }
+
+    boolean remove(String member) {
+        if (ints != null) {
+            return IntSet.isCanonicalLong(member) && ints.remove(Long.parseLong(member));
+        }
+        return strs.remove(member);
+    }
+
+    boolean contains(String member) {
+        if (ints != null) {
+            return IntSet.isCanonicalLong(member) && ints.contains(Long.parseLong(member));
+        }
+        return strs.contains(member);
+    }
+
+    /**
+     * Membership test for an integer member without formatting it when this set is an intset.
+     */
+    boolean containsLong(long v) {
+        return ints != null ? ints.contains(v) : strs.contains(Long.toString(v));
+    }
+
+    /**
+     * Integer member at sorted position i; only valid for intset encoding.
+     */
+    long intAt(int i) {
+        return ints.get(i);
+    }
+
+    void forEach(Consumer<String> action) {
+        if (ints != null) {
+            for (int i = 0; i < ints.size(); i++) action.accept(Long.toString(ints.get(i)));
+        } else {
+            strs.forEach(action);
+        }
+    }
+
+    private void convertToHashtable() {
+        OpenHashStringSet s = new OpenHashStringSet(ints.size() + 1);
+        for (int i = 0; i < ints.size(); i++) s.add(Long.toString(ints.get(i)));
+        strs = s;
+        ints = null;
+    }
+}
@@ -0,0 +1,158 @@
+package com.polynomeer.db;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Allocator of off-heap chunks for OffHeapDb, memcached-style:
+ * - Memory comes in 1 MB direct pages; each page is carved into chunks of one size class
+ *   (16-byte steps up to 128 bytes, then four classes per power of two up to 256 KB)
+ * - Freed chunks go on a per-class free list threaded through the chunks themselves
+ *   (first 8 bytes hold the next reference), so allocation and free are O(1) and touch
+ *   no heap objects
+ * - Larger requests get a dedicated direct buffer that is dropped again on free
+ * <p>
+ * A chunk is addressed by a reference: page index << PAGE_SHIFT | offset (never 0; page 0
+ * is unused). Pages are never given back, so memory is reused by later allocations of the
+ * same class rather than returned to the OS.
+ * <p>
+ * Reactor-thread only, except reads by snapshot threads through page(): chunks a snapshot
+ * refers to are not freed before it is released, and a grown page table keeps every page
+ * at its index.
+ */
+final class SlabAllocator {
+    static final int PAGE_SHIFT = 20;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int OFFSET_MASK = PAGE_SIZE - 1;
+    private static final int MAX_CLASS_LIMIT = 256 * 1024;
+    private static final int[] CLASS_SIZES = classSizes();
+    static final int MAX_CHUNK = CLASS_SIZES[CLASS_SIZES.length - 1];
+
+    private volatile ByteBuffer[] pages = new ByteBuffer[64];
+    private int pageCount = 1;
+    private int[] freePages = new int[16]; // indexes of dropped large buffers, reused first
+    private int freePageCount;
+
+    private final long[] freeHead = new long[CLASS_SIZES.length];
+    private final int[] carvePage = new int[CLASS_SIZES.length];   // page being carved, 0 if none
+    private final int[] carveOffset = new int[CLASS_SIZES.length];
+
+    private long usedBytes;     // bytes of chunks handed out (class size, not requested size)
+    private long reservedBytes; // bytes of all pages and large buffers
+    private int largeCount;
+
+    private static int[] classSizes() {
+        int[] out = new int[64];
+        int n = 0;
+        for (int s = 16; s <= 128; s += 16) out[n++] = s;
+        for (int p = 128; p < MAX_CLASS_LIMIT; p <<= 1) {
+            for (int k = 5; k <= 8; k++) out[n++] = p * k / 4;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Chunk size actually reserved for a request of 'size' bytes.
+     */
+    static int chunkSize(int size) {
+        if (size > MAX_CHUNK) return size;
+        return CLASS_SIZES[classOf(size)];
+    }
+
+    private static int classOf(int size) {
+        int i = Arrays.binarySearch(CLASS_SIZES, Math.max(size, 16));
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Reference to a new chunk of at least 'size' bytes (contents undefined).
+     */
+    long allocate(int size) {
+        if (size > MAX_CHUNK) return allocateLarge(size);
+        int c = classOf(size);
+        int chunk = CLASS_SIZES[c];
+        usedBytes += chunk;
+        long ref = freeHead[c];
+        if (ref != 0) {
+            freeHead[c] = page(ref).getLong(offset(ref));
+            return ref;
+        }
+        int p = carvePage[c];
+        if (p == 0 || carveOffset[c] + chunk > PAGE_SIZE) {
+            p = newPage(ByteBuffer.allocateDirect(PAGE_SIZE));
+            carvePage[c] = p;
+            carveOffset[c] = 0;
+        }
+        ref = (long) p << PAGE_SHIFT | carveOffset[c];
+        carveOffset[c] += chunk;
+        return ref;
+    }
+
+    /**
+     * Return a chunk obtained from allocate(size) (same size).
+     */
+    void free(long ref, int size) {
+        if (size > MAX_CHUNK) {
+            int p = (int) (ref >>> PAGE_SHIFT);
+            reservedBytes -= pages[p].capacity();
+            usedBytes -= size;
+            largeCount--;
+            pages[p] = null;
+            if (freePageCount == freePages.length) freePages = Arrays.copyOf(freePages, freePageCount * 2);
+            freePages[freePageCount++] = p;
+            return;
+        }
+        int c = classOf(size);
+        usedBytes -= CLASS_SIZES[c];
+        page(ref).putLong(offset(ref), freeHead[c]);
+        freeHead[c] = ref;
+    }
+
+    private long allocateLarge(int size) {
+        largeCount++;
+        usedBytes += size;
+        return (long) newPage(ByteBuffer.allocateDirect(size)) << PAGE_SHIFT;
+    }
+
+    private int newPage(ByteBuffer b) {
+        b.order(ByteOrder.nativeOrder());
+        reservedBytes += b.capacity();
+        int p;
+        if (freePageCount > 0) {
+            p = freePages[--freePageCount];
+        } else {
+            if (pageCount == pages.length) pages = Arrays.copyOf(pages, pageCount * 2);
+            p = pageCount++;
+        }
+        pages[p] = b;
+        return p;
+    }
+
+    /**
+     * Buffer holding the chunk; use absolute get/put at offset(ref).
+     */
+    ByteBuffer page(long ref) {
+        return pages[(int) (ref >>> PAGE_SHIFT)];
+    }
+
+    static int offset(long ref) {
+        return (int) ref & OFFSET_MASK;
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    long reservedBytes() {
+        return reservedBytes;
+    }
+
+    int pages() {
+        return pageCount - 1 - freePageCount - largeCount;
+    }
+
+    int largeCount() {
+        return largeCount;
+    }
+}
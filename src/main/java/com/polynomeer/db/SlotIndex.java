@@ -0,0 +1,41 @@
+package com.polynomeer.db;
+
+import com.polynomeer.cluster.HashSlots;
+import com.polynomeer.struct.OpenHashStringSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keys grouped by cluster hash slot (cluster mode only), so counting or listing the keys of
+ * one slot during a migration doesn't scan the whole keyspace. Sets are created on first use.
+ */
+final class SlotIndex {
+    private final OpenHashStringSet[] slots = new OpenHashStringSet[HashSlots.SLOTS];
+
+    void add(String key) {
+        int s = HashSlots.slot(key);
+        OpenHashStringSet set = slots[s];
+        if (set == null) slots[s] = set = new OpenHashStringSet();
+        set.add(key);
+    }
+
+    void remove(String key) {
+        OpenHashStringSet set = slots[HashSlots.slot(key)];
+        if (set != null) set.remove(key);
+    }
+
+    int count(int slot) {
+        OpenHashStringSet set = slots[slot];
+        return set == null ? 0 : set.size();
+    }
+
+    List<String> keys(int slot, int max) {
+        OpenHashStringSet set = slots[slot];
+        List<String> out = new ArrayList<>(Math.min(max, count(slot)));
+        if (set != null) set.forEach(k -> {
+            if (out.size() < max) out.add(k);
+        });
+        return out;
+    }
+}
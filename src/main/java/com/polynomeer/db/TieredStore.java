@@ -0,0 +1,409 @@
+package com.polynomeer.db;
+
+import com.polynomeer.util.ByteBuf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Second storage tier for MemoryDb: values not accessed for a while are moved to an
+ * append-only value log of memory-mapped segment files, and their Record keeps only a
+ * ColdRef. A lookup of a cold key decodes the value back onto the heap (promotion).
+ * - Hot records are kept in LRU order; cron spills from the least recently used end while
+ *   records are idle past the threshold, or regardless of idleness while the heap is above
+ *   its target after GC
+ * - A promoted value keeps its log copy until it is modified, so a read-mostly key that
+ *   goes cold again is not rewritten
+ * - Entry layout: [key length: u32][value length: u32][key][value (RecordCodec encoding)]
+ * - Segments are sealed when full. Sealed segments whose live entries fall below half are
+ *   compacted incrementally by cron: live entries are copied to the active segment and
+ *   their records repointed, then the file is deleted. A snapshot still reading the old
+ *   entries keeps the mapping (and thus the bytes) alive until it is done
+ * - The log only backs the in-memory keyspace: files of a previous run are deleted at
+ *   startup (snapshots and the AOF are the durable copies)
+ * <p>
+ * Reactor-thread only, except ColdRef reads by snapshot threads.
+ */
+final class TieredStore {
+    private static final String SUFFIX = ".vlog";
+    private static final int HEADER = 8;
+    private static final int SPILL_BATCH = 10_000;               // records spilled per cron tick
+    private static final int COMPACT_BYTES_PER_TICK = 4 << 20;   // log bytes scanned per cron tick
+    private static final double COMPACT_BELOW_LIVE = 0.5;
+
+    /**
+     * One log file, mapped in full. Only absolute get/put are used on 'map', so readers on
+     * other threads never see its position move.
+     */
+    static final class Segment {
+        final Path path;
+        final MappedByteBuffer map;
+        int written;   // bytes appended
+        long live;     // bytes of entries still referenced
+
+        Segment(Path path, MappedByteBuffer map) {
+            this.path = path;
+            this.map = map;
+        }
+    }
+
+    /**
+     * Place of a hot record in the LRU list (least recently used at the head).
+     */
+    static final class HotNode {
+        final String key;
+        final Record record;
+        HotNode prev;
+        HotNode next;
+        ColdRef backing; // unmodified copy still in the log (after a promotion), or null
+
+        HotNode(String key, Record record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final Function<String, Record> records;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ByteBuf scratch = new ByteBuf(256);
+    private Segment active;
+    private int nextId;
+    private HotNode head;
+    private HotNode tail;
+    private long hotKeys;
+    private long coldKeys;
+
+    private Segment compacting; // segment being compacted, and how far
+    private int compactPos;
+
+    // stats
+    private long hotHits;
+    private long coldHits;
+    private long misses;
+    private long spilled;
+    private long spillsReused;
+    private long promoted;
+    private long compactions;
+    private long compactedBytes;
+
+    TieredStore(Path dir, int segmentSize, Function<String, Record> records) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.records = records;
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : old) Files.delete(p);
+        }
+        active = openSegment(segmentSize);
+    }
+
+    // ---------- access ----------
+
+    /**
+     * Start tracking a record just stored under key (hot, most recently used).
+     */
+    void track(String key, Record r) {
+        HotNode n = new HotNode(key, r);
+        r.hot = n;
+        linkLast(n);
+        hotKeys++;
+    }
+
+    /**
+     * A lookup found r: move it to the recently used end, or promote it if cold.
+     */
+    void access(String key, Record r) {
+        if (r.cold != null) {
+            coldHits++;
+            promote(key, r);
+        } else if (r.hot != null) {
+            hotHits++;
+            if (r.hot != tail) {
+                unlinkNode(r.hot);
+                linkLast(r.hot);
+            }
+        }
+    }
+
+    void miss() {
+        misses++;
+    }
+
+    /**
+     * r's value is about to change: its log copy, if any, is no longer valid.
+     */
+    void modified(String key, Record r) {
+        if (r.hot != null && r.hot.backing != null) {
+            free(key, r.hot.backing);
+            r.hot.backing = null;
+        }
+    }
+
+    /**
+     * r is leaving the keyspace (deleted, expired or replaced).
+     */
+    void release(String key, Record r) {
+        if (r.cold != null) {
+            free(key, r.cold);
+            r.cold = null;
+            coldKeys--;
+        } else if (r.hot != null) {
+            if (r.hot.backing != null) free(key, r.hot.backing);
+            unlinkNode(r.hot);
+            r.hot = null;
+            hotKeys--;
+        }
+    }
+
+    /**
+     * Forget everything (FLUSHALL): the keyspace the log backed is gone.
+     */
+    void clear() throws IOException {
+        for (Segment s : segments) Files.deleteIfExists(s.path);
+        segments.clear();
+        head = tail = null;
+        hotKeys = coldKeys = 0;
+        compacting = null;
+        active = openSegment(segmentSize);
+    }
+
+    private void promote(String key, Record r) {
+        ColdRef ref = r.cold;
+        r.takeValue(ref.decode(r.expireAtMs));
+        r.cold = null;
+        coldKeys--;
+        track(key, r);
+        r.hot.backing = ref;
+        promoted++;
+    }
+
+    // ---------- cron: spill and compact ----------
+
+    /**
+     * Spill records last accessed at or before cutoffSec (MemoryDb clock), oldest first;
+     * under heap pressure, spill a batch of the oldest regardless. Then compact a little.
+     */
+    void cron(int cutoffSec, int maxHeapPercent) throws IOException {
+        boolean pressure = maxHeapPercent > 0 && heapUsedPercent() > maxHeapPercent;
+        for (int n = 0; n < SPILL_BATCH && head != null; n++) {
+            if (!pressure && head.record.accessSec > cutoffSec) break;
+            spill(head);
+        }
+        compactStep();
+    }
+
+    private void spill(HotNode n) throws IOException {
+        Record r = n.record;
+        ColdRef ref = n.backing;
+        if (ref != null) {
+            spillsReused++;
+        } else {
+            ref = append(n.key, r);
+        }
+        unlinkNode(n);
+        r.hot = null;
+        r.clearValue();
+        r.cold = ref;
+        hotKeys--;
+        coldKeys++;
+        spilled++;
+    }
+
+    // encode key and value into one entry and append it to the active segment
+    private ColdRef append(String key, Record r) throws IOException {
+        scratch.clear();
+        scratch.ensureLength(HEADER);
+        scratch.append(key);
+        RecordCodec.encode(r, scratch);
+        int total = scratch.length();
+        int valueLen = total - HEADER - key.length();
+        byte[] b = scratch.array();
+        putInt(b, 0, key.length());
+        putInt(b, 4, valueLen);
+        return appendEntry(b, total, key.length(), valueLen);
+    }
+
+    private ColdRef appendEntry(byte[] entry, int total, int keyLen, int valueLen) throws IOException {
+        if (active.map.capacity() - active.written < total) {
+            active = openSegment(Math.max(segmentSize, total));
+        }
+        Segment s = active;
+        s.map.put(s.written, entry, 0, total);
+        ColdRef ref = new ColdRef(s, s.written + HEADER + keyLen, valueLen);
+        s.written += total;
+        s.live += total;
+        return ref;
+    }
+
+    /**
+     * Scan part of the segment being compacted, moving its live entries to the active
+     * segment; pick a new one to compact when done.
+     */
+    private void compactStep() throws IOException {
+        dropEmptySegments();
+        if (compacting == null && (compacting = pickVictim()) == null) return;
+        Segment s = compacting;
+        int budget = COMPACT_BYTES_PER_TICK;
+        while (compactPos < s.written && budget > 0) {
+            int keyLen = s.map.getInt(compactPos);
+            int valueLen = s.map.getInt(compactPos + 4);
+            int total = HEADER + keyLen + valueLen;
+            byte[] keyBytes = new byte[keyLen];
+            s.map.get(compactPos + HEADER, keyBytes, 0, keyLen);
+            String key = new String(keyBytes, StandardCharsets.ISO_8859_1);
+            Record r = records.apply(key);
+            int valueOffset = compactPos + HEADER + keyLen;
+            ColdRef ref = r == null ? null : r.cold != null ? r.cold : r.hot != null ? r.hot.backing : null;
+            if (ref != null && ref.segment == s && ref.offset == valueOffset) {
+                scratch.clear();
+                scratch.ensureLength(total);
+                s.map.get(compactPos, scratch.array(), 0, total);
+                ColdRef moved = appendEntry(scratch.array(), total, keyLen, valueLen);
+                if (r.cold != null) r.cold = moved;
+                else r.hot.backing = moved;
+                s.live -= total;
+                compactedBytes += total;
+            }
+            compactPos += total;
+            budget -= total;
+        }
+        if (compactPos >= s.written) {
+            compacting = null;
+            compactPos = 0;
+            compactions++;
+            s.live = 0; // whatever was not moved was dead
+            dropEmptySegments();
+        }
+    }
+
+    private Segment pickVictim() {
+        Segment best = null;
+        double bestRatio = COMPACT_BELOW_LIVE;
+        for (Segment s : segments) {
+            if (s == active || s.written == 0) continue;
+            double ratio = (double) s.live / s.written;
+            if (ratio < bestRatio) {
+                best = s;
+                bestRatio = ratio;
+            }
+        }
+        return best;
+    }
+
+    private void dropEmptySegments() throws IOException {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment s = segments.get(i);
+            if (s != active && s != compacting && s.live == 0) {
+                Files.deleteIfExists(s.path);
+                segments.remove(i);
+            }
+        }
+    }
+
+    private void free(String key, ColdRef ref) {
+        ref.segment.live -= HEADER + key.length() + ref.length;
+    }
+
+    private Segment openSegment(int size) throws IOException {
+        Path p = dir.resolve(String.format("valuelog-%06d%s", nextId, SUFFIX));
+        MappedByteBuffer map;
+        try (RandomAccessFile f = new RandomAccessFile(p.toFile(), "rw")) {
+            f.setLength(size);
+            map = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        nextId++;
+        Segment s = new Segment(p, map);
+        segments.add(s);
+        return s;
+    }
+
+    // ---------- LRU list ----------
+
+    private void linkLast(HotNode n) {
+        n.prev = tail;
+        n.next = null;
+        if (tail != null) tail.next = n;
+        else head = n;
+        tail = n;
+    }
+
+    private void unlinkNode(HotNode n) {
+        if (n.prev != null) n.prev.next = n.next;
+        else head = n.next;
+        if (n.next != null) n.next.prev = n.prev;
+        else tail = n.prev;
+        n.prev = n.next = null;
+    }
+
+    // ---------- stats ----------
+
+    String info() {
+        long logBytes = 0;
+        long liveBytes = 0;
+        for (Segment s : segments) {
+            logBytes += s.written;
+            liveBytes += s.live;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("tiered_enabled:1\r\n");
+        sb.append("tiered_hot_keys:").append(hotKeys).append("\r\n");
+        sb.append("tiered_cold_keys:").append(coldKeys).append("\r\n");
+        // memory tier: hit when the value is on the heap; log tier: hit when it had been spilled
+        sb.append("tiered_mem_hits:").append(hotHits).append("\r\n");
+        sb.append("tiered_mem_misses:").append(coldHits + misses).append("\r\n");
+        sb.append("tiered_mem_hit_ratio:").append(ratio(hotHits, hotHits + coldHits + misses)).append("\r\n");
+        sb.append("tiered_log_hits:").append(coldHits).append("\r\n");
+        sb.append("tiered_log_misses:").append(misses).append("\r\n");
+        sb.append("tiered_log_hit_ratio:").append(ratio(coldHits, coldHits + misses)).append("\r\n");
+        sb.append("tiered_spilled:").append(spilled).append("\r\n");
+        sb.append("tiered_spills_reused:").append(spillsReused).append("\r\n");
+        sb.append("tiered_promoted:").append(promoted).append("\r\n");
+        sb.append("tiered_segments:").append(segments.size()).append("\r\n");
+        sb.append("tiered_log_bytes:").append(logBytes).append("\r\n");
+        sb.append("tiered_live_bytes:").append(liveBytes).append("\r\n");
+        sb.append("tiered_compactions:").append(compactions).append("\r\n");
+        sb.append("tiered_compacted_bytes:").append(compactedBytes).append("\r\n");
+        return sb.toString();
+    }
+
+    private static String ratio(long part, long total) {
+        return total == 0 ? "0.00" : String.format(Locale.ROOT, "%.2f", (double) part / total);
+    }
+
+    /**
+     * Heap in use after the last collection, as a percentage of the maximum heap; garbage
+     * allocated since does not count.
+     */
+    private static int heapUsedPercent() {
+        long used = 0;
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (p.getType() != MemoryType.HEAP) continue;
+            MemoryUsage u = p.getCollectionUsage();
+            if (u != null) used += u.getUsed();
+        }
+        return (int) (used * 100 / Runtime.getRuntime().maxMemory());
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+}
@@ -1,7 +1,8 @@
 package com.polynomeer.lua;
 
-import com.polynomeer.db.Db;
-import com.polynomeer.pubsub.PubSubBroker;
+import com.polynomeer.cmd.CommandRegistry;
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.util.Clocks;
 import com.polynomeer.util.Sha1;
 import org.luaj.vm2.*;
 import org.luaj.vm2.compiler.LuaC;
@@ -10,86 +11,263 @@ import org.luaj.vm2.lib.*;
 /**
  * Lua sandbox powered by luaj:
  * - Minimal libs: base, table, string, math (no io/os)
- * - Exposes table 'redis' with function redis.call(...)
- * - Cooperative time & resource limits enforced at each redis.call boundary
+ * - Exposes table 'redis' with redis.call/pcall, which run any command of the command table
+ * - Resource limits enforced at each redis.call boundary
+ * - An instruction-count hook: past busy-reply-threshold the script keeps running, but other
+ *   clients are served with -BUSY between its instructions, and SCRIPT KILL can stop it
+ * <p>
+ * Scripts are compiled once: the Prototype is cached by SHA next to the source, and each run
+ * only wraps it in a new closure. All runs share one sandbox environment (KEYS, ARGV, redis,
+ * falling back to the library globals); globals a script defines are removed after it
+ * returns, so runs do not see each other. What is shared stays out of reach: the sandbox's
+ * metatable is protected, library tables and 'redis' are read-only proxies, and load()
+ * compiles text chunks into the sandbox only. Reactor-thread only.
  */
 public final class LuaEngine {
 
     public static class NoScript extends RuntimeException {
+        private static final long serialVersionUID = 1L;
     }
 
-    private final Db db;
-    private final PubSubBroker broker;
+    /**
+     * The script failed with a Redis error ({err = ...}, e.g. raised by redis.call); the
+     * message is the complete error reply, code included.
+     */
+    public static class ScriptError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
 
-    // Limits
-    private final long timeLimitMs;
-    private final int maxBytes;    // total bytes across args to redis.call
-    private final int maxCalls;    // total redis.call invocations per script
+        ScriptError(String message) {
+            super(message);
+        }
+    }
 
-    private final java.util.Map<String, String> cache = new java.util.HashMap<>();
+    private static final LuaString KEYS = LuaValue.valueOf("KEYS");
+    private static final LuaString ARGV = LuaValue.valueOf("ARGV");
+    private static final LuaString REDIS = LuaValue.valueOf("redis");
+    private static final LuaString G = LuaValue.valueOf("_G");
+    private static final LuaString TEXT_CHUNKS = LuaValue.valueOf("t");
+    // base functions that reach past the sandbox (files, modules, the shared globals)
+    private static final String[] HIDDEN = {"_G", "package", "require", "dofile", "loadfile"};
+    // instructions between two checks of the clock (as in Redis)
+    private static final int HOOK_INSTRUCTIONS = 100_000;
 
-    public LuaEngine(Db db, PubSubBroker broker, long timeLimitMs, int maxBytes, int maxCalls) {
-        this.db = db;
-        this.broker = broker;
-        this.timeLimitMs = timeLimitMs;
-        this.maxBytes = maxBytes;
-        this.maxCalls = maxCalls;
+    private final ServerConfig config;
+    // serves the other clients (with -BUSY) while a script runs past the threshold
+    private final Runnable whileBusy;
+
+    private final java.util.Map<String, String> cache = new java.util.HashMap<>();
+    private final java.util.Map<String, Prototype> compiled = new java.util.HashMap<>();
+
+    // built once, reused by every run
+    private final Globals globals;
+    private final LuaTable sandbox;
+    private final LuaTable sandboxMeta = new LuaTable();
+    private final java.util.List<LuaTable> readOnly = new java.util.ArrayList<>();
+    private final LuaTable redis;
+    private final Limits limits;
+    private final RedisCall call;
+    private final RedisCall pcall;
+
+    // state of the running script
+    private Object caller;
+    private long busyAfterMs;
+    private boolean busy;
+    private boolean killed;
+
+    /**
+     * maxBytes: total bytes across the arguments of redis.call; maxCalls: redis.call invocations,
+     * both per script run.
+     */
+    public LuaEngine(ServerConfig config, int maxBytes, int maxCalls, Runnable whileBusy) {
+        this.config = config;
+        this.whileBusy = whileBusy;
+        this.globals = makeGlobals();
+        this.limits = new Limits(maxBytes, maxCalls);
+        this.call = new RedisCall(this);
+        this.pcall = new RedisPCall(this);
+        // a Globals, not a plain table: closures only run the debug hook in a Globals environment
+        Globals env = new Globals();
+        env.debuglib = globals.debuglib;
+        this.sandbox = env;
+        sandboxMeta.rawset(LuaValue.INDEX, libraries());
+        sandboxMeta.rawset(LuaValue.METATABLE, LuaValue.FALSE); // getmetatable/setmetatable(_G) fail
+        sandbox.setmetatable(sandboxMeta);
+        sandbox.rawset(G, sandbox); // _G.x = ... must not reach the shared globals
+        LuaTable r = new LuaTable();
+        r.rawset("call", call);
+        r.rawset("pcall", pcall);
+        this.redis = readOnly(r);
     }
 
-    public LuaValue eval(String script, java.util.List<String> keys, java.util.List<String> args) {
+    /**
+     * Run a script for 'caller', the connection that sent EVAL (null when replayed from the
+     * AOF or a primary); see caller().
+     */
+    public LuaValue eval(String script, java.util.List<String> keys, java.util.List<String> args, Object caller) {
         String sha = Sha1.hex(script);
-        cache.putIfAbsent(sha.toLowerCase(), script);
-        return run(script, keys, args); // compile on current Globals
+        Prototype p = compiled.get(sha);
+        if (p == null) {
+            p = compile(script);
+            cache.putIfAbsent(sha, script);
+            compiled.put(sha, p);
+        }
+        return run(p, keys, args, caller);
     }
 
-    public LuaValue evalSha(String sha, java.util.List<String> keys, java.util.List<String> args) {
-        String src = cache.get(sha.toLowerCase());
-        if (src == null) throw new NoScript();
-        return run(src, keys, args);
+    public LuaValue evalSha(String sha, java.util.List<String> keys, java.util.List<String> args, Object caller) {
+        String key = sha.toLowerCase();
+        Prototype p = compiled.get(key);
+        if (p == null) {
+            String src = cache.get(key);
+            if (src == null) throw new NoScript();
+            p = compile(src);
+            compiled.put(key, p);
+        }
+        return run(p, keys, args, caller);
     }
 
     public String scriptLoad(String script) {
         String sha = Sha1.hex(script);
-        cache.putIfAbsent(sha.toLowerCase(), script);
+        cache.putIfAbsent(sha, script);
         return sha;
     }
 
+    /**
+     * Source of a cached script, or null.
+     */
+    public String scriptSource(String sha) {
+        return cache.get(sha.toLowerCase());
+    }
+
+    /**
+     * True if a script's writes are propagated rather than the script (lua-replicate-commands).
+     */
+    public boolean replicatesCommands() {
+        return config.luaReplicateCommands();
+    }
+
     public boolean scriptExists(String sha) {
         return cache.containsKey(sha.toLowerCase());
     }
 
     public void scriptFlush() {
         cache.clear();
+        compiled.clear();
     }
 
-    private LuaValue run(String script, java.util.List<String> keys, java.util.List<String> args) {
-        Globals g = makeGlobals();
+    /**
+     * True while a script runs past busy-reply-threshold; other clients get -BUSY.
+     */
+    public boolean busy() {
+        return busy;
+    }
+
+    /**
+     * The connection whose script is running, null if none (or if it has no connection).
+     * It is in the middle of a command, so it must not be served while the script is busy.
+     */
+    public Object caller() {
+        return caller;
+    }
 
-        // KEYS / ARGV
-        LuaTable KEYS = new LuaTable();
-        for (int i = 0; i < keys.size(); i++) KEYS.set(i + 1, LuaValue.valueOf(keys.get(i)));
-        g.set("KEYS", KEYS);
+    /**
+     * SCRIPT KILL: stop the busy script at its next check. Returns an error reply's message, or
+     * null once the kill is requested. A script that has written cannot be stopped without
+     * breaking its atomicity; only SHUTDOWN NOSAVE is left then.
+     */
+    public String kill() {
+        if (!busy) return "NOTBUSY No scripts in execution right now.";
+        if (limits.wrote) {
+            return "UNKILLABLE Sorry the script already executed write commands against the dataset. "
+                    + "You can either wait the script termination or kill the server in a hard way using "
+                    + "the SHUTDOWN NOSAVE command.";
+        }
+        killed = true;
+        return null;
+    }
 
-        LuaTable ARGV = new LuaTable();
-        for (int i = 0; i < args.size(); i++) ARGV.set(i + 1, LuaValue.valueOf(args.get(i)));
-        g.set("ARGV", ARGV);
+    private Prototype compile(String script) {
+        try {
+            // script bytes as received (one char per byte), not re-encoded as UTF-8
+            byte[] src = script.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+            return globals.compilePrototype(new java.io.ByteArrayInputStream(src), "script");
+        } catch (LuaError | java.io.IOException e) {
+            throw new RuntimeException("Lua script execution failed: " + e.getMessage(), e);
+        }
+    }
 
-        // redis.call / redis.pcall
-        Limits limits = new Limits(System.currentTimeMillis(), timeLimitMs, maxBytes, maxCalls);
-        LuaTable redis = new LuaTable();
-        redis.set("call", new RedisCall(limits));
-        redis.set("pcall", new RedisPCall(limits));
-        g.set("redis", redis);
+    private LuaValue run(Prototype p, java.util.List<String> keys, java.util.List<String> args, Object caller) {
+        sandbox.rawset(KEYS, array(keys));
+        sandbox.rawset(ARGV, array(args));
+        sandbox.rawset(REDIS, redis);
+        long startMs = Clocks.monoMillis();
+        busyAfterMs = startMs + config.busyReplyThresholdMillis();
+        limits.reset();
+        limits.verbatim = !config.luaReplicateCommands();
+        this.caller = caller;
 
         try {
-            // ✅ load chunk in THIS Globals and get a function
-            LuaFunction fn = g.load(script, "script").checkfunction();
-            return fn.invoke(LuaValue.NONE).arg1();
+            return new LuaClosure(p, sandbox).call();
         } catch (LuaError e) {
+            LuaValue err = e.getMessageObject();
+            if (err != null && LuaRespDecoder.isError(err)) throw new ScriptError(LuaStrings.toJava(err.rawget("err")));
             throw new RuntimeException("Lua script execution failed: " + e.getMessage(), e);
+        } finally {
+            if (busy) {
+                System.out.println("[jredis] Slow script finished after " + (Clocks.monoMillis() - startMs)
+                        + " milliseconds" + (killed ? " (killed)" : ""));
+            }
+            busy = false;
+            killed = false;
+            this.caller = null;
+            resetSandbox();
         }
     }
 
+    // KEYS and ARGV are the script's own to modify, so each run gets new ones
+    private static LuaTable array(java.util.List<String> values) {
+        int n = values.size();
+        LuaTable t = new LuaTable(n, 0);
+        for (int i = 0; i < n; i++) t.rawset(i + 1, LuaStrings.of(values.get(i)));
+        return t;
+    }
+
+    // drop globals the script defined and whatever rawset() put into the read-only proxies
+    private void resetSandbox() {
+        for (LuaValue k : sandbox.keys()) sandbox.rawset(k, LuaValue.NIL);
+        sandbox.rawset(G, sandbox);
+        sandbox.setmetatable(sandboxMeta);
+        for (LuaTable t : readOnly) {
+            if (t.next(LuaValue.NIL).arg1().isnil()) continue;
+            for (LuaValue k : t.keys()) t.rawset(k, LuaValue.NIL);
+        }
+    }
+
+    /**
+     * What scripts find behind their own globals: the base functions and read-only views of
+     * the library tables. Strings index the read-only string library as well.
+     */
+    private LuaTable libraries() {
+        java.util.List<String> hidden = java.util.Arrays.asList(HIDDEN);
+        LuaTable lib = new LuaTable();
+        for (LuaValue k : globals.keys()) {
+            if (hidden.contains(k.tojstring())) continue;
+            LuaValue v = globals.rawget(k);
+            lib.rawset(k, v.istable() ? readOnly(v.checktable()) : v);
+        }
+        lib.rawset("load", new Load(globals.get("load"), sandbox));
+        LuaString.s_metatable = LuaValue.tableOf(new LuaValue[]{
+                LuaValue.INDEX, lib.get("string"), LuaValue.METATABLE, LuaValue.FALSE});
+        return lib;
+    }
+
+    private LuaTable readOnly(LuaTable t) {
+        LuaTable proxy = new LuaTable();
+        proxy.setmetatable(LuaValue.tableOf(new LuaValue[]{
+                LuaValue.INDEX, t, LuaValue.NEWINDEX, READ_ONLY, LuaValue.METATABLE, LuaValue.FALSE}));
+        readOnly.add(proxy);
+        return proxy;
+    }
 
     private Globals makeGlobals() {
         Globals g = new Globals();
@@ -105,30 +283,89 @@ public final class LuaEngine {
         LoadState.install(g);
         LuaC.install(g);
 
+        // the count hook; the debug library itself is not left to scripts
+        g.load(new DebugLib());
+        LuaValue debug = g.get("debug");
+        debug.get("sethook").invoke(LuaValue.varargsOf(new LuaValue[]{
+                new Hook(), LuaValue.valueOf(""), LuaValue.valueOf(HOOK_INSTRUCTIONS)}));
+        g.rawset("debug", LuaValue.NIL);
+        g.get("package").get("loaded").rawset("debug", LuaValue.NIL);
+
         return g;
     }
 
+    /**
+     * Called every HOOK_INSTRUCTIONS instructions and before each redis.call: once the script
+     * is past the threshold, let the reactor serve the other clients, then stop if killed.
+     */
+    private void checkBusy() {
+        if (!busy) {
+            if (Clocks.monoMillis() < busyAfterMs) return;
+            busy = true;
+            System.out.println("[jredis] Slow script detected: still in execution after "
+                    + config.busyReplyThresholdMillis() + " milliseconds. "
+                    + "You can try killing the script using the SCRIPT KILL command.");
+        }
+        whileBusy.run();
+        if (killed) throw new LuaError(LuaRespDecoder.error("ERR Script killed by user with SCRIPT KILL..."));
+    }
+
+    private static final VarArgFunction READ_ONLY = new VarArgFunction() {
+        @Override
+        public Varargs invoke(Varargs va) {
+            throw new LuaError("Attempt to modify a readonly table");
+        }
+    };
+
+    // load(chunk [, name]): text only, and always into the sandbox rather than the shared globals
+    private static final class Load extends VarArgFunction {
+        private final LuaValue load;
+        private final LuaValue env;
+
+        Load(LuaValue load, LuaValue env) {
+            this.load = load;
+            this.env = env;
+        }
+
+        @Override
+        public Varargs invoke(Varargs va) {
+            return load.invoke(LuaValue.varargsOf(new LuaValue[]{va.arg(1), va.arg(2), TEXT_CHUNKS, env}));
+        }
+    }
+
+    private final class Hook extends TwoArgFunction {
+        @Override
+        public LuaValue call(LuaValue event, LuaValue line) {
+            checkBusy();
+            return LuaValue.NONE;
+        }
+    }
+
     // Cooperative limits context
     private static final class Limits {
-        final long startMs;
-        final long maxMs;
         final int maxBytes;
         final int maxCalls;
-        int usedBytes = 0;
-        int usedCalls = 0;
+        int usedBytes;
+        int usedCalls;
+        boolean wrote; // a write command was called: SCRIPT KILL is refused
+        boolean verbatim; // the script itself is propagated: it must be deterministic
+        boolean random; // a non-deterministic command was called: writes are refused if verbatim
 
-        Limits(long startMs, long maxMs, int maxBytes, int maxCalls) {
-            this.startMs = startMs;
-            this.maxMs = maxMs;
+        Limits(int maxBytes, int maxCalls) {
             this.maxBytes = maxBytes;
             this.maxCalls = maxCalls;
         }
 
+        void reset() {
+            usedBytes = 0;
+            usedCalls = 0;
+            wrote = false;
+            random = false;
+        }
+
         void tick(java.util.List<String> argv) {
-            long now = System.currentTimeMillis();
-            if (now - startMs > maxMs) throw new RuntimeException("Lua script timed out");
             int b = 0;
-            for (String s : argv) b += s.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+            for (String s : argv) b += s.length(); // one char per byte
             usedBytes += b;
             usedCalls++;
             if (usedBytes > maxBytes) throw new RuntimeException("Lua script exceeded call bytes limit");
@@ -136,181 +373,61 @@ public final class LuaEngine {
         }
     }
 
-    // redis.call(...)
-    private class RedisCall extends VarArgFunction {
-        private final Limits lim;
+    // redis.call(...): the command's reply as a Lua value; an error reply is raised as {err = ...}
+    private static class RedisCall extends VarArgFunction {
+        private final LuaEngine engine;
 
-        RedisCall(Limits lim) {
-            this.lim = lim;
+        RedisCall(LuaEngine engine) {
+            this.engine = engine;
         }
 
         @Override
         public Varargs invoke(Varargs va) {
-            // Convert Lua arguments to a Java list
-            java.util.List<String> argv = toArgv(va);
-            System.out.println("DEBUG redis.call arguments: " + argv);
-
-            // Apply resource limits
-            lim.tick(argv);
-
-            // Extract and execute the command
-            String cmd = argv.get(0).toUpperCase();
-            System.out.println("DEBUG redis.call executing command: " + cmd);
-
-            switch (cmd) {
-                case "GET":
-                    return v(get1(argv));
-                case "SET":
-                    return v(set(argv));
-                case "DEL":
-                    return LuaValue.valueOf(del(argv));
-                case "EXISTS":
-                    return LuaValue.valueOf(exists(argv));
-                case "HGET":
-                    return v(hget(argv));
-                case "HSET":
-                    return LuaValue.valueOf(hset(argv));
-                case "PEXPIRE":
-                    return LuaValue.valueOf(pexpire(argv));
-                case "PTTL":
-                    return LuaValue.valueOf(pttl(argv));
-                case "PUBLISH":
-                    return LuaValue.valueOf(publish(argv));
-                default:
-                    // Throw meaningful error for unsupported commands
-                    throw new RuntimeException("Unsupported redis.call command: " + cmd);
-            }
+            LuaValue reply = call(va);
+            if (LuaRespDecoder.isError(reply)) throw new LuaError(reply);
+            return reply;
         }
 
-        private String get1(java.util.List<String> a) {
-            if (a.size() != 2) throw new RuntimeException("wrong number of arguments for 'GET'");
-            return db.getString(a.get(1));
-        }
-
-        private String set(java.util.List<String> a) {
-            if (a.size() < 3) throw new RuntimeException("wrong number of arguments for 'SET'");
-            String key = a.get(1), val = a.get(2);
-            boolean nx = false, xx = false;
-            Long pxMs = null;
-            for (int i = 3; i < a.size(); i++) {
-                String opt = a.get(i).toUpperCase();
-                switch (opt) {
-                    case "NX":
-                        nx = true;
-                        break;
-                    case "XX":
-                        xx = true;
-                        break;
-                    case "PX":
-                        if (++i >= a.size()) throw new RuntimeException("syntax error");
-                        pxMs = parsePosLong(a.get(i));
-                        break;
-                    case "EX":
-                        if (++i >= a.size()) throw new RuntimeException("syntax error");
-                        pxMs = parsePosLong(a.get(i)) * 1000L;
-                        break;
-                    default:
-                        throw new RuntimeException("syntax error");
+        final LuaValue call(Varargs va) {
+            int n = va.narg();
+            if (n == 0) return LuaRespDecoder.error("ERR Please specify at least one argument for this redis lib call");
+            java.util.List<String> argv = new java.util.ArrayList<>(n);
+            for (int i = 1; i <= n; i++) {
+                LuaValue a = va.arg(i);
+                if (!a.isstring()) { // numbers included
+                    return LuaRespDecoder.error("ERR Lua redis lib command arguments must be strings or integers");
                 }
+                argv.add(LuaStrings.toJava(a));
             }
-            boolean exists = db.exists(key);
-            if (nx && exists) return null;
-            if (xx && !exists) return null;
-            long expireAt = (pxMs == null) ? -1L : (System.currentTimeMillis() + pxMs);
-            db.setString(key, val, expireAt);
-            return "OK";
-        }
-
-        private int del(java.util.List<String> a) {
-            if (a.size() < 2) throw new RuntimeException("wrong number of arguments for 'DEL'");
-            int n = 0;
-            for (int i = 1; i < a.size(); i++) if (db.del(a.get(i))) n++;
-            return n;
-        }
-
-        private int exists(java.util.List<String> a) {
-            if (a.size() != 2) throw new RuntimeException("wrong number of arguments for 'EXISTS'");
-            return db.exists(a.get(1)) ? 1 : 0;
-        }
-
-        private String hget(java.util.List<String> a) {
-            if (a.size() != 3) throw new RuntimeException("wrong number of arguments for 'HGET'");
-            try {
-                return db.hget(a.get(1), a.get(2));
-            } catch (RuntimeException e) {
-                throw new RuntimeException("WRONGTYPE Operation against a key holding the wrong kind of value");
+            engine.checkBusy();
+            engine.limits.tick(argv);
+            Limits l = engine.limits;
+            boolean write = CommandRegistry.isWriteCommand(argv.get(0));
+            boolean random = CommandRegistry.isNonDeterministic(argv.get(0));
+            // replayed from the propagated script, such a write could have another effect
+            if (l.verbatim && write && random) {
+                return LuaRespDecoder.error("ERR Non deterministic write commands are not allowed from scripts. "
+                        + "Set lua-replicate-commands to yes to propagate the script's effects instead.");
             }
-        }
-
-        private int hset(java.util.List<String> a) {
-            if (a.size() != 4) throw new RuntimeException("wrong number of arguments for 'HSET'");
-            try {
-                return db.hset(a.get(1), a.get(2), a.get(3));
-            } catch (RuntimeException e) {
-                throw new RuntimeException("WRONGTYPE Operation against a key holding the wrong kind of value");
+            if (l.verbatim && write && l.random) {
+                return LuaRespDecoder.error("ERR Write commands not allowed after non deterministic commands. "
+                        + "Set lua-replicate-commands to yes to propagate the script's effects instead.");
             }
+            if (random) l.random = true;
+            if (write) l.wrote = true;
+            return CommandRegistry.callFromScript(argv, LuaSink.INSTANCE);
         }
-
-        private int hdel(java.util.List<String> a) {
-            if (a.size() < 3) throw new RuntimeException("wrong number of arguments for 'HDEL'");
-            try {
-                return db.hdel(a.get(1), a.subList(2, a.size()));
-            } catch (RuntimeException e) {
-                throw new RuntimeException("WRONGTYPE Operation against a key holding the wrong kind of value");
-            }
-        }
-
-        private int pexpire(java.util.List<String> a) {
-            if (a.size() != 3) throw new RuntimeException("wrong number of arguments for 'PEXPIRE'");
-            long ms = parsePosLong(a.get(2));
-            return db.pexpire(a.get(1), ms);
-        }
-
-        private long pttl(java.util.List<String> a) {
-            if (a.size() != 2) throw new RuntimeException("wrong number of arguments for 'PTTL'");
-            return db.pttl(a.get(1));
-        }
-
-        private int publish(java.util.List<String> a) {
-            if (a.size() != 3) throw new RuntimeException("wrong number of arguments for 'PUBLISH'");
-            return broker.publish(a.get(1), a.get(2));
-        }
-
-        private long parsePosLong(String s) {
-            long v = Long.parseLong(s);
-            if (v <= 0) throw new RuntimeException("value is out of range");
-            return v;
-        }
-
-
-        // Helper function to convert Lua values to Java strings
-        private java.util.List<String> toArgv(Varargs va) {
-            int n = va.narg();
-            java.util.List<String> out = new java.util.ArrayList<>(n);
-            for (int i = 1; i <= n; i++) out.add(va.arg(i).tojstring());
-            return out;
-        }
-
-        // Debug helper for null-safe return
-        private LuaValue v(String s) {
-            return (s == null) ? LuaValue.NIL : LuaValue.valueOf(s);
-        }
-
     }
 
-    // redis.pcall(...) -> like call but returns ('err') as lua error string instead of throwing
-    private final class RedisPCall extends RedisCall {
-        RedisPCall(Limits lim) {
-            super(lim);
+    // redis.pcall(...): like call, but an error reply is returned as {err = ...} instead of raised
+    private static final class RedisPCall extends RedisCall {
+        RedisPCall(LuaEngine engine) {
+            super(engine);
         }
 
         @Override
         public Varargs invoke(Varargs va) {
-            try {
-                return super.invoke(va);
-            } catch (RuntimeException e) {
-                return LuaValue.varargsOf(LuaValue.NIL, LuaValue.valueOf("ERR " + e.getMessage()));
-            }
+            return call(va);
         }
     }
 }
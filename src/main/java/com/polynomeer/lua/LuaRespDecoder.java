@@ -0,0 +1,105 @@
+package com.polynomeer.lua;
+
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts a command's RESP reply into the value redis.call returns, with Redis' rules:
+ * - +status      -> table {ok = status}
+ * - -error       -> table {err = error}
+ * - :n           -> number
+ * - $len / $-1   -> string / false
+ * - *N / *-1     -> table (array) / false
+ * Bytes are copied straight from the reply into Lua strings; the buffer's position is left as is.
+ */
+final class LuaRespDecoder {
+    static final LuaString OK = LuaValue.valueOf("ok");
+    static final LuaString ERR = LuaValue.valueOf("err");
+
+    private final ByteBuffer buf;
+    private int pos;
+
+    private LuaRespDecoder(ByteBuffer buf) {
+        this.buf = buf;
+        this.pos = buf.position();
+    }
+
+    static LuaValue decode(ByteBuffer reply) {
+        return new LuaRespDecoder(reply).value();
+    }
+
+    /**
+     * The {err = ...} table of an error reply.
+     */
+    static LuaTable error(String message) {
+        LuaTable t = new LuaTable();
+        t.rawset(ERR, LuaStrings.of(message));
+        return t;
+    }
+
+    static boolean isError(LuaValue v) {
+        return v.istable() && !v.rawget("err").isnil();
+    }
+
+    private LuaValue value() {
+        byte type = buf.get(pos++);
+        switch (type) {
+            case '+':
+            case '-': {
+                int end = lineEnd();
+                LuaTable t = new LuaTable();
+                t.rawset(type == '+' ? OK : ERR, bytes(pos, end - pos));
+                pos = end + 2;
+                return t;
+            }
+            case ':':
+                return LuaValue.valueOf(number());
+            case '$': {
+                int len = (int) number();
+                if (len < 0) return LuaValue.FALSE;
+                LuaString s = bytes(pos, len);
+                pos += len + 2;
+                return s;
+            }
+            case '*': {
+                int n = (int) number();
+                if (n < 0) return LuaValue.FALSE;
+                LuaTable t = new LuaTable(n, 0);
+                for (int i = 1; i <= n; i++) t.rawset(i, value());
+                return t;
+            }
+            default:
+                throw new IllegalStateException("unexpected reply type '" + (char) type + "'");
+        }
+    }
+
+    // integer up to CRLF, which is consumed
+    private long number() {
+        boolean neg = buf.get(pos) == '-';
+        if (neg) pos++;
+        long n = 0;
+        byte b;
+        while ((b = buf.get(pos++)) != '\r') n = n * 10 + (b - '0');
+        pos++; // '\n'
+        return neg ? -n : n;
+    }
+
+    private int lineEnd() {
+        int i = pos;
+        while (buf.get(i) != '\r') i++;
+        return i;
+    }
+
+    private LuaString bytes(int at, int len) {
+        byte[] b = new byte[len];
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + at, b, 0, len);
+        } else {
+            for (int i = 0; i < len; i++) b[i] = buf.get(at + i);
+        }
+        return LuaString.valueUsing(b);
+    }
+}
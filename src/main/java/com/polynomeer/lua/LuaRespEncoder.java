@@ -8,10 +8,12 @@ import java.nio.charset.StandardCharsets;
 
 /**
  * Encodes a LuaValue into RESP:
- * - nil           -> $-1
- * - boolean       -> :1 / :0
+ * - nil, false    -> $-1
+ * - true          -> :1
  * - number        -> :<int>  (floats truncated)
  * - string        -> $<len>\r\n...\r\n
+ * - table {err=e} -> -e   (a failed redis.pcall, or redis.error_reply style)
+ * - table {ok=s}  -> +s
  * - table (array) -> *N + elements (1..N); non-integer keys ignored
  */
 public final class LuaRespEncoder {
@@ -26,34 +28,51 @@ public final class LuaRespEncoder {
     }
 
     private static void write(ByteArrayOutputStream out, LuaValue v) {
-        if (v.isnil()) {
-            out.writeBytes("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+        if (v.isnil() || (v.isboolean() && !v.toboolean())) {
+            out.writeBytes("$-1\r\n".getBytes(StandardCharsets.ISO_8859_1));
         } else if (v.isboolean()) {
-            out.writeBytes((v.toboolean() ? ":1\r\n" : ":0\r\n").getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(":1\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        } else if (v.istable() && v.rawget("err").isstring()) {
+            line(out, '-', v.rawget("err"));
+        } else if (v.istable() && v.rawget("ok").isstring()) {
+            line(out, '+', v.rawget("ok"));
         } else if (v.isnumber()) {
             String s = ":" + Long.toString(v.tolong()) + "\r\n";
-            out.writeBytes(s.getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(s.getBytes(StandardCharsets.ISO_8859_1));
         } else if (v.isstring()) {
-            byte[] b = v.tojstring().getBytes(StandardCharsets.UTF_8);
+            LuaString ls = v.checkstring();
+            byte[] b = new byte[ls.m_length];
+            ls.copyInto(0, b, 0, b.length);
             String h = "$" + b.length + "\r\n";
-            out.writeBytes(h.getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(h.getBytes(StandardCharsets.ISO_8859_1));
             out.writeBytes(b);
-            out.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+            out.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
         } else if (v.istable()) {
             LuaTable t = v.checktable();
             int n = t.length();
             String h = "*" + n + "\r\n";
-            out.writeBytes(h.getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(h.getBytes(StandardCharsets.ISO_8859_1));
             for (int i = 1; i <= n; i++) {
                 write(out, t.get(i));
             }
         } else {
             // Fallback: encode as string via tostring()
-            byte[] b = v.tojstring().getBytes(StandardCharsets.UTF_8);
+            byte[] b = v.tojstring().getBytes(StandardCharsets.ISO_8859_1);
             String h = "$" + b.length + "\r\n";
-            out.writeBytes(h.getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(h.getBytes(StandardCharsets.ISO_8859_1));
             out.writeBytes(b);
-            out.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+            out.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
         }
     }
+
+    // status or error line; CR/LF would end the line early, so they become spaces
+    private static void line(ByteArrayOutputStream out, char type, LuaValue text) {
+        LuaString ls = text.checkstring();
+        out.write(type);
+        for (int i = 0; i < ls.m_length; i++) {
+            byte b = ls.m_bytes[ls.m_offset + i];
+            out.write(b == '\r' || b == '\n' ? ' ' : b);
+        }
+        out.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    }
 }
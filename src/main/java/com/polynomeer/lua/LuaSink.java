@@ -0,0 +1,68 @@
+package com.polynomeer.lua;
+
+import com.polynomeer.resp.ReplySink;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * ReplySink for redis.call: builds the Lua value of the reply directly, with the same
+ * conversion rules as LuaRespDecoder (which still handles replies given as RESP frames).
+ */
+final class LuaSink implements ReplySink<LuaValue> {
+    static final LuaSink INSTANCE = new LuaSink();
+
+    private LuaSink() {
+    }
+
+    @Override
+    public LuaValue status(String s) {
+        LuaTable t = new LuaTable();
+        t.rawset(LuaRespDecoder.OK, LuaStrings.of(s));
+        return t;
+    }
+
+    @Override
+    public LuaValue error(String message) {
+        return LuaRespDecoder.error(message);
+    }
+
+    @Override
+    public LuaValue integer(long v) {
+        return LuaValue.valueOf(v);
+    }
+
+    @Override
+    public LuaValue bulk(String s) {
+        return s == null ? LuaValue.FALSE : LuaStrings.of(s);
+    }
+
+    @Override
+    public LuaValue bulkBytes(byte[] b, int off, int n) {
+        return LuaValue.valueOf(b, off, n); // copies the range
+    }
+
+    @Override
+    public LuaValue nullBulk() {
+        return LuaValue.FALSE;
+    }
+
+    @Override
+    public LuaValue array(List<String> items) {
+        LuaTable t = new LuaTable(items.size(), 0);
+        for (int i = 0; i < items.size(); i++) t.rawset(i + 1, bulk(items.get(i)));
+        return t;
+    }
+
+    @Override
+    public LuaValue set(List<String> members) {
+        return array(members);
+    }
+
+    @Override
+    public LuaValue frame(ByteBuffer resp) {
+        return LuaRespDecoder.decode(resp);
+    }
+}
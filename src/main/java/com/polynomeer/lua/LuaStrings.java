@@ -0,0 +1,29 @@
+package com.polynomeer.lua;
+
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-preserving conversion between server strings (ISO-8859-1, one char per byte)
+ * and Lua strings. LuaValue.valueOf(String)/tojstring() go through UTF-8 instead,
+ * which would change lengths and bytes of binary values.
+ */
+final class LuaStrings {
+    private LuaStrings() {
+    }
+
+    static LuaString of(String s) {
+        return LuaString.valueUsing(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Lua string (or number, coerced like Lua does) to a server string.
+     */
+    static String toJava(LuaValue v) {
+        if (!v.isstring()) return v.tojstring();
+        LuaString ls = v.checkstring();
+        return new String(ls.m_bytes, ls.m_offset, ls.m_length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,136 @@
+package com.polynomeer.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Clients parked on keys by blocking commands (e.g., XREAD BLOCK):
+ * - key -> FIFO of blocked clients; a blocked client stops processing its input
+ * - writers signal keys as ready; ready keys are served once per reactor iteration
+ * - deadlines use the monotonic clock; on timeout the client gets its timeout reply
+ * <p>
+ * Reactor-thread only.
+ */
+public final class BlockingManager {
+
+    /**
+     * Re-attempt a blocked command: return its reply, or null to keep waiting.
+     */
+    public interface Retry {
+        ByteBuffer tryServe();
+    }
+
+    static final class Blocked {
+        final ClientConn conn;
+        final List<String> keys;
+        final long deadlineMono; // 0 = wait forever
+        final ByteBuffer timeoutReply;
+        final Retry retry;
+
+        Blocked(ClientConn conn, List<String> keys, long deadlineMono, ByteBuffer timeoutReply, Retry retry) {
+            this.conn = conn;
+            this.keys = keys;
+            this.deadlineMono = deadlineMono;
+            this.timeoutReply = timeoutReply;
+            this.retry = retry;
+        }
+    }
+
+    private final Map<String, Deque<Blocked>> byKey = new HashMap<>();
+    private final Set<String> readyKeys = new LinkedHashSet<>();
+    private final PriorityQueue<Blocked> deadlines =
+            new PriorityQueue<>((a, b) -> Long.compare(a.deadlineMono, b.deadlineMono));
+
+    /**
+     * Park 'conn' until one of 'keys' is signalled and 'retry' produces a reply,
+     * or until timeoutMs elapses (0 = no timeout). The caller returns null as its reply.
+     */
+    public void block(ClientConn conn, List<String> keys, long timeoutMs, long nowMono,
+                      ByteBuffer timeoutReply, Retry retry) {
+        long deadline = timeoutMs > 0 ? nowMono + timeoutMs : 0;
+        Blocked b = new Blocked(conn, new ArrayList<>(keys), deadline, timeoutReply, retry);
+        for (String k : b.keys) {
+            byKey.computeIfAbsent(k, x -> new ArrayDeque<>()).addLast(b);
+        }
+        if (deadline > 0) deadlines.add(b);
+        conn.setBlocked(b);
+    }
+
+    /**
+     * Called by writers after modifying key; cheap no-op when nobody waits on it.
+     */
+    public void signalKeyAsReady(String key) {
+        if (byKey.containsKey(key)) readyKeys.add(key);
+    }
+
+    /**
+     * Retry clients blocked on keys signalled since the last call, in blocking order.
+     */
+    public void handleReadyKeys() {
+        while (!readyKeys.isEmpty()) {
+            List<String> keys = new ArrayList<>(readyKeys);
+            readyKeys.clear();
+            for (String k : keys) {
+                Deque<Blocked> q = byKey.get(k);
+                if (q == null) continue;
+                for (Blocked b : new ArrayList<>(q)) {
+                    if (b.conn.blocked() != b) continue;
+                    ByteBuffer reply = b.retry.tryServe();
+                    if (reply != null) {
+                        unblock(b);
+                        b.conn.resume(reply);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reply to clients whose deadline passed.
+     */
+    public void handleTimeouts(long nowMono) {
+        while (!deadlines.isEmpty() && deadlines.peek().deadlineMono <= nowMono) {
+            Blocked b = deadlines.poll();
+            if (b.conn.blocked() != b) continue; // already served
+            unblock(b);
+            b.conn.resume(b.timeoutReply);
+        }
+    }
+
+    /**
+     * Milliseconds until the nearest blocking timeout; negative if none.
+     */
+    public long nextTimeoutDelayMillis(long nowMono) {
+        while (!deadlines.isEmpty() && deadlines.peek().conn.blocked() != deadlines.peek()) {
+            deadlines.poll();
+        }
+        if (deadlines.isEmpty()) return -1;
+        return Math.max(0, deadlines.peek().deadlineMono - nowMono);
+    }
+
+    /**
+     * Forget a blocked client without replying (disconnect).
+     */
+    void cancel(ClientConn conn) {
+        Blocked b = conn.blocked();
+        if (b != null) unblock(b);
+    }
+
+    private void unblock(Blocked b) {
+        for (String k : b.keys) {
+            Deque<Blocked> q = byKey.get(k);
+            if (q == null) continue;
+            q.remove(b);
+            if (q.isEmpty()) byKey.remove(k);
+        }
+        b.conn.setBlocked(null);
+    }
+}
@@ -1,11 +1,18 @@
 package com.polynomeer.net;
 
 import com.polynomeer.cmd.CommandRegistry;
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.pubsub.DeliveryPool;
 import com.polynomeer.pubsub.PubSubBroker;
+import com.polynomeer.resp.RespError;
 import com.polynomeer.resp.RespReader;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.ByteBuf;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
@@ -14,39 +21,107 @@ import java.util.*;
 /**
  * Per-connection state:
  * - read buffer, write queue, parsing cursor
- * - Pub/Sub subscription set
- * - Transaction state (MULTI/EXEC/DISCARD)
+ * - Pub/Sub subscription sets (channels, patterns)
+ * - Transaction state (MULTI/EXEC/DISCARD, WATCHed keys)
+ * - Blocking state (parked by BlockingManager; input is buffered but not processed)
+ * - Identity and protocol (CLIENT ID, HELLO), client-side caching state (CLIENT TRACKING)
  */
 public class ClientConn {
     private static final int READ_BUF_SIZE = 64 * 1024;
+    // buffers handed to one gathering write (reactor thread only, so shared)
+    private static final ByteBuffer[] GATHER = new ByteBuffer[64];
+    private static long nextId = 1; // reactor thread only
+    // replies up to COALESCE_MAX bytes queued behind others are copied into blocks of REPLY_BLOCK
+    private static final int REPLY_BLOCK = 16 * 1024;
+    private static final int COALESCE_MAX = 1024;
+    // proto-max-bulk-len and client-query-buffer-limit (reactor thread only, see applyConfig)
+    private static int maxBulkLen = 512 * 1024 * 1024;
+    private static int queryBufferLimit = 1024 * 1024 * 1024;
 
     private final SocketChannel ch;
     private final Selector selector;
     private final PubSubBroker broker;
+    private final BlockingManager blocking;
+    private final ClientTracking tracking;
+    private final WatchedKeys watches;
+    private final long id = nextId++;
+    private String name = "";
+    // 2 or 3 (HELLO); read by delivery threads choosing how to frame Pub/Sub messages
+    private volatile int protocol = 2;
+    // non-null while CLIENT TRACKING is on; cachingFlag: CLIENT CACHING given for the next command
+    private ClientTracking.Options trackingOptions;
+    private boolean cachingFlag;
 
-    private final ByteBuffer readBuf = ByteBuffer.allocate(READ_BUF_SIZE);
-    private final Deque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private ByteBuffer readBuf = ByteBuffer.allocate(READ_BUF_SIZE); // grows for large commands
+    private final Deque<ByteBuffer> writeQueue = new ArrayDeque<>(); // guarded by itself (delivery threads)
+    private ByteBuffer tailBlock; // reply block last appended to (guarded by writeQueue)
     private final RespReader respReader = new RespReader();
 
-    // Pub/Sub subscriptions
+    // Pub/Sub subscriptions (channels and patterns)
     private final Set<String> subscriptions = new HashSet<>();
+    private final Set<String> patterns = new HashSet<>();
+    // delivery partition once subscribed with pubsub-delivery-threads on; never reset
+    private DeliveryPool.Partition delivery;
 
     // Transaction state (per connection)
     private boolean inTxn = false;
     private boolean txnDirty = false; // error occurred while queuing
     private boolean bypassTxn = false; // true while EXEC is executing queued commands
-    private final List<List<String>> txnQueue = new ArrayList<>();
+    // queued commands as their RESP frames, back to back (null until the first); EXEC parses them again
+    private ByteBuf txnFrames;
+    private int txnCount;
+    // frame of the command being dispatched, readBuf[frameStart, frameEnd) (read mode)
+    private int frameStart;
+    private int frameEnd;
+    // WATCHed keys (null until the first WATCH); watchTouched once one of them changed
+    private Set<String> watched;
+    private boolean watchTouched;
 
-    public ClientConn(SocketChannel ch, Selector selector, PubSubBroker broker) {
+    // ASKING was sent: the next command (or transaction) may use a slot this node is importing
+    private boolean asking;
+
+    // Non-null while parked by a blocking command
+    private BlockingManager.Blocked blocked;
+
+    // Run once when the connection goes away (e.g. a replica leaving the primary)
+    private Runnable disconnectHook;
+
+    public ClientConn(SocketChannel ch, Selector selector, PubSubBroker broker, BlockingManager blocking,
+                      ClientTracking tracking, WatchedKeys watches) {
         this.ch = ch;
         this.selector = selector;
         this.broker = broker;
+        this.blocking = blocking;
+        this.tracking = tracking;
+        this.watches = watches;
+        tracking.connected(this);
+    }
+
+    /**
+     * Take up the input limits of the current configuration (at startup and after CONFIG SET).
+     */
+    public static void applyConfig(ServerConfig config) {
+        maxBulkLen = config.protoMaxBulkLen();
+        queryBufferLimit = config.clientQueryBufferLimit();
     }
 
     /**
      * Handle readable event: read → parse → dispatch (or queue) → enqueue replies
      */
     public void handleRead() throws IOException {
+        if (!readBuf.hasRemaining() && blocked == null) {
+            // a command larger than the buffer (e.g. a multi-megabyte RESTORE payload): grow it,
+            // doubling up to client-query-buffer-limit
+            int capacity = readBuf.capacity();
+            if (capacity >= queryBufferLimit) {
+                System.out.println("[jredis] Closing client " + id + " that reached client-query-buffer-limit ("
+                        + queryBufferLimit + " bytes)");
+                onDisconnect();
+                closeQuietly();
+                return;
+            }
+            readBuf = resize((int) Math.min(2L * capacity, queryBufferLimit));
+        }
         int n = ch.read(readBuf);
         if (n == -1) {
             onDisconnect();
@@ -55,60 +130,192 @@ public class ClientConn {
         }
         if (n == 0) return;
 
+        if (blocked != null) {
+            // keep buffering; stop reading once the buffer is full until we are unblocked
+            if (!readBuf.hasRemaining()) setReadInterest(false);
+            return;
+        }
+        processInput();
+    }
+
+    /**
+     * Parse and dispatch every complete command in the read buffer (buffer in write mode),
+     * stopping early if a command blocks this client.
+     */
+    private void processInput() {
         readBuf.flip();
+        respReader.setMaxBulkLen(maxBulkLen);
 
-        while (true) {
+        while (blocked == null) {
             int markPos = readBuf.position();
-            List<String> argv = respReader.tryReadCommand(readBuf);
+            List<String> argv;
+            try {
+                argv = respReader.tryReadCommand(readBuf);
+            } catch (RespError e) {
+                closeOnProtocolError(e.getMessage());
+                return;
+            }
             if (argv == null) {
                 readBuf.position(markPos);
                 break;
             }
+            frameStart = markPos;
+            frameEnd = readBuf.position();
             ByteBuffer resp = CommandRegistry.dispatch(argv, this);
             if (resp != null) enqueue(resp);
         }
+        frameStart = frameEnd = 0;
 
         readBuf.compact();
+        if (readBuf.capacity() > READ_BUF_SIZE && readBuf.position() <= READ_BUF_SIZE / 2) {
+            readBuf = resize(READ_BUF_SIZE); // the large command is done: give the memory back
+        }
 
-        if (!writeQueue.isEmpty()) {
-            SelectionKey key = ch.keyFor(selector);
-            if (key != null && key.isValid()) {
-                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        boolean pending;
+        synchronized (writeQueue) {
+            pending = !writeQueue.isEmpty();
+        }
+        if (pending) setWriteInterest(true);
+    }
+
+    // as Redis does: the error is the last reply, sent if the socket takes it now, then the connection closes
+    private void closeOnProtocolError(String message) {
+        System.out.println("[jredis] Closing client " + id + " after: " + message);
+        enqueue(RespWriter.error("ERR " + message));
+        synchronized (writeQueue) {
+            try {
+                flush();
+            } catch (IOException ignore) {
             }
         }
+        onDisconnect();
+        closeQuietly();
+    }
+
+    // copy of the buffered input (buffer in write mode) into a new buffer of the given capacity
+    private ByteBuffer resize(int capacity) {
+        ByteBuffer b = ByteBuffer.allocate(capacity);
+        readBuf.flip();
+        b.put(readBuf);
+        return b;
     }
 
     /**
-     * Handle writable event: flush write queue with partial-write care
+     * Handle writable event: flush write queue with partial-write care. Queued buffers (replies
+     * to a pipeline, Pub/Sub messages) go out together in one gathering write per batch.
      */
     public void handleWrite() throws IOException {
+        synchronized (writeQueue) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
         while (!writeQueue.isEmpty()) {
-            ByteBuffer buf = writeQueue.peekFirst();
-            ch.write(buf);
-            if (buf.hasRemaining()) break;
-            writeQueue.pollFirst();
-        }
-        if (writeQueue.isEmpty()) {
-            SelectionKey key = ch.keyFor(selector);
-            if (key != null && key.isValid()) {
-                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            int n = 0;
+            for (ByteBuffer b : writeQueue) {
+                GATHER[n++] = b;
+                if (n == GATHER.length) break;
+            }
+            ch.write(GATHER, 0, n);
+            Arrays.fill(GATHER, 0, n, null);
+            int done = 0;
+            while (done < n && !writeQueue.peekFirst().hasRemaining()) {
+                writeQueue.pollFirst();
+                done++;
             }
+            if (done < n) break; // socket buffer full
         }
+        if (writeQueue.isEmpty()) setWriteInterest(false);
     }
 
     /**
      * Enqueue a server-pushed message and enable OP_WRITE.
      */
     public void push(ByteBuffer response) {
-        enqueue(response);
-        SelectionKey key = ch.keyFor(selector);
-        if (key != null && key.isValid()) {
-            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        if (delivery != null && delivery.busy()) {
+            delivery.submit(this, response); // keep behind messages still being delivered
+            return;
+        }
+        boolean idle;
+        synchronized (writeQueue) {
+            idle = writeQueue.isEmpty();
+            append(response);
         }
+        // a non-empty queue already has OP_WRITE set (or gets it when processInput finishes)
+        if (idle) setWriteInterest(true);
     }
 
     private void enqueue(ByteBuffer response) {
-        writeQueue.addLast(response);
+        if (delivery != null && delivery.busy()) {
+            delivery.submit(this, response);
+            return;
+        }
+        synchronized (writeQueue) {
+            append(response);
+        }
+    }
+
+    /**
+     * Add a buffer to the write queue (lock held). Behind other buffers a small one is copied
+     * into the reply block at the tail, so a long run of small replies (a pipeline, an EXEC,
+     * a burst of messages) goes out as a few large buffers; the first buffer of an empty queue
+     * and large ones are queued as they are.
+     */
+    private void append(ByteBuffer r) {
+        int n = r.remaining();
+        if (writeQueue.isEmpty() || n > COALESCE_MAX) {
+            writeQueue.addLast(r);
+            return;
+        }
+        ByteBuffer b = tailBlock;
+        if (b == null || writeQueue.peekLast() != b || b.capacity() - b.limit() < n) {
+            b = ByteBuffer.allocate(REPLY_BLOCK);
+            b.limit(0);
+            writeQueue.addLast(b);
+            tailBlock = b;
+        }
+        // append after the block's unsent bytes; its position belongs to the writer
+        int at = b.limit();
+        ByteBuffer dst = b.duplicate();
+        dst.limit(at + n).position(at);
+        dst.put(r.duplicate());
+        b.limit(at + n);
+    }
+
+    /**
+     * Delivery-thread side of push: write straight to the socket when nothing is queued,
+     * otherwise queue behind the pending buffers. Returns true if OP_WRITE was turned on, so
+     * the caller should wake the selector for it to take effect.
+     */
+    public boolean deliver(ByteBuffer frame) {
+        synchronized (writeQueue) {
+            if (!writeQueue.isEmpty()) {
+                append(frame);
+                return false;
+            }
+            try {
+                ch.write(frame);
+            } catch (IOException e) {
+                return false; // closed or broken: the reactor cleans up on its next read
+            }
+            if (!frame.hasRemaining()) return false;
+            writeQueue.addLast(frame);
+            return setWriteInterest(true);
+        }
+    }
+
+    // atomic updates: a delivery thread may set OP_WRITE while the reactor toggles OP_READ
+    private boolean setWriteInterest(boolean on) {
+        SelectionKey key = ch.keyFor(selector);
+        if (key == null || !key.isValid()) return false;
+        try {
+            if (on) key.interestOpsOr(SelectionKey.OP_WRITE);
+            else key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            return true;
+        } catch (CancelledKeyException e) {
+            return false;
+        }
     }
 
     public void closeQuietly() {
@@ -119,14 +326,113 @@ public class ClientConn {
     }
 
     public void onDisconnect() {
-        if (!subscriptions.isEmpty()) {
-            broker.unsubscribeAll(this, subscriptions);
-            subscriptions.clear();
+        if (blocked != null) {
+            blocking.cancel(this);
         }
+        if (!subscriptions.isEmpty() || !patterns.isEmpty()) {
+            broker.dropAll(this);
+        }
+        tracking.disconnected(this);
+        if (watched != null) watches.unwatchAll(this);
         // drop any transactional state
-        inTxn = false;
-        txnDirty = false;
-        txnQueue.clear();
+        endTxn();
+        Runnable hook = disconnectHook;
+        disconnectHook = null;
+        if (hook != null) hook.run();
+    }
+
+    public void setDisconnectHook(Runnable hook) {
+        this.disconnectHook = hook;
+    }
+
+    /**
+     * Peer IP address, or "?" if the socket is already closed.
+     */
+    public String remoteIp() {
+        try {
+            return ((InetSocketAddress) ch.getRemoteAddress()).getAddress().getHostAddress();
+        } catch (Exception e) {
+            return "?";
+        }
+    }
+
+    // ---- identity / protocol ----
+    public long id() {
+        return id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int protocol() {
+        return protocol;
+    }
+
+    public void setProtocol(int protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * True once HELLO 3 switched the connection to RESP3 (push frames, maps, sets).
+     */
+    public boolean resp3() {
+        return protocol == 3;
+    }
+
+    // ---- client-side caching (used by ClientTracking / CommandRegistry) ----
+    ClientTracking.Options trackingOptions() {
+        return trackingOptions;
+    }
+
+    void setTrackingOptions(ClientTracking.Options o) {
+        this.trackingOptions = o;
+    }
+
+    boolean cachingFlag() {
+        return cachingFlag;
+    }
+
+    void setCachingFlag(boolean on) {
+        this.cachingFlag = on;
+    }
+
+    /**
+     * A command other than CLIENT CACHING completed outside MULTI: the CACHING flag is used up.
+     */
+    public void clearCachingFlag() {
+        cachingFlag = false;
+    }
+
+    // ---- blocking helpers (used by BlockingManager) ----
+    BlockingManager.Blocked blocked() {
+        return blocked;
+    }
+
+    void setBlocked(BlockingManager.Blocked b) {
+        this.blocked = b;
+    }
+
+    /**
+     * Unblocked by BlockingManager: send the reply and continue with buffered commands.
+     */
+    void resume(ByteBuffer reply) {
+        push(reply);
+        if (!ch.isOpen()) return;
+        setReadInterest(true);
+        processInput();
+    }
+
+    private void setReadInterest(boolean on) {
+        SelectionKey key = ch.keyFor(selector);
+        if (key != null && key.isValid()) {
+            if (on) key.interestOpsOr(SelectionKey.OP_READ);
+            else key.interestOpsAnd(~SelectionKey.OP_READ);
+        }
     }
 
     // ---- subscription helpers ----
@@ -138,8 +444,35 @@ public class ClientConn {
         return subscriptions.remove(channel);
     }
 
+    public void addPattern(String pattern) {
+        patterns.add(pattern);
+    }
+
+    public boolean removePattern(String pattern) {
+        return patterns.remove(pattern);
+    }
+
+    /**
+     * Channels plus patterns, as reported in subscribe/unsubscribe acks.
+     */
     public int subscriptionCount() {
-        return subscriptions.size();
+        return subscriptions.size() + patterns.size();
+    }
+
+    public DeliveryPool.Partition deliveryPartition() {
+        return delivery;
+    }
+
+    public void setDeliveryPartition(DeliveryPool.Partition p) {
+        this.delivery = p;
+    }
+
+    public Set<String> subscribedChannels() {
+        return Collections.unmodifiableSet(subscriptions);
+    }
+
+    public Set<String> subscribedPatterns() {
+        return Collections.unmodifiableSet(patterns);
     }
 
     // ---- transaction helpers (used by commands/registry) ----
@@ -150,7 +483,8 @@ public class ClientConn {
     public void beginTxn() {
         inTxn = true;
         txnDirty = false;
-        txnQueue.clear();
+        txnCount = 0;
+        if (txnFrames != null) txnFrames.clear();
     }
 
     public void markTxnDirty() {
@@ -161,20 +495,63 @@ public class ClientConn {
         return txnDirty;
     }
 
+    /**
+     * Queue a command for EXEC: the bytes of its frame are appended to one buffer, as received
+     * (argv is encoded again only for a command that did not come from the read buffer).
+     */
     public void queueTxn(List<String> argv) {
-        txnQueue.add(new ArrayList<>(argv));
+        if (txnFrames == null) txnFrames = new ByteBuf(256);
+        if (frameEnd > frameStart) txnFrames.append(readBuf.array(), frameStart, frameEnd - frameStart);
+        else RespWriter.appendCommand(argv, txnFrames);
+        txnCount++;
     }
 
-    public List<List<String>> drainTxnQueue() {
-        List<List<String>> q = new ArrayList<>(txnQueue);
-        txnQueue.clear();
-        return q;
+    public int queuedCount() {
+        return txnCount;
+    }
+
+    /**
+     * The queued frames, for EXEC to parse one by one; valid until endTxn().
+     */
+    public ByteBuffer queuedFrames() {
+        return txnFrames == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(txnFrames.array(), 0, txnFrames.length());
     }
 
     public void endTxn() {
         inTxn = false;
         txnDirty = false;
-        txnQueue.clear();
+        txnCount = 0;
+        if (txnFrames != null) {
+            // keep a small buffer for the next MULTI; let a large batch's memory go
+            if (txnFrames.array().length > READ_BUF_SIZE) txnFrames = null;
+            else txnFrames.clear();
+        }
+        asking = false;
+    }
+
+    /**
+     * True if a key WATCHed by this connection changed since; EXEC must then fail.
+     */
+    public boolean isWatchTouched() {
+        return watchTouched;
+    }
+
+    boolean addWatchedKey(String key) {
+        if (watched == null) watched = new HashSet<>();
+        return watched.add(key);
+    }
+
+    Set<String> watchedKeys() {
+        return watched == null ? Collections.emptySet() : watched;
+    }
+
+    void clearWatch() {
+        watched = null;
+        watchTouched = false;
+    }
+
+    void touchWatch() {
+        watchTouched = true;
     }
 
     public void setBypassTxn(boolean v) {
@@ -184,4 +561,13 @@ public class ClientConn {
     public boolean isBypassTxn() {
         return bypassTxn;
     }
+
+    // ---- cluster helpers ----
+    public void setAsking(boolean v) {
+        this.asking = v;
+    }
+
+    public boolean isAsking() {
+        return asking;
+    }
 }
@@ -0,0 +1,338 @@
+package com.polynomeer.net;
+
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.KeyspaceEvents;
+import com.polynomeer.resp.RespWriter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Server side of client-side caching (CLIENT TRACKING):
+ * - default mode: keys read by a tracking client are remembered in a key -> clients table;
+ *   the first change of such a key sends one invalidation to each of them and forgets the key
+ * - BCAST mode: nothing is remembered; every change of a key starting with one of the
+ *   client's prefixes ("" = all keys) is sent
+ * - OPTIN / OPTOUT: reads are remembered only after CLIENT CACHING yes / unless CLIENT CACHING no
+ * - REDIRECT id: invalidations go to another connection; a RESP2 one receives them as Pub/Sub
+ *   messages on __redis__:invalidate (and must be subscribed to it), a RESP3 one as pushes
+ * <p>
+ * Changes reach this table as keyspace events of the Db (every class, regardless of
+ * notify-keyspace-events). They are collected while a command runs and sent once it
+ * completes, one message per client with all of its keys; so a SET with a TTL invalidates once,
+ * and the writer's own invalidation precedes its reply (for commands inside MULTI, it follows
+ * the EXEC reply). The table holds at most
+ * tracking-table-max-keys keys: the oldest are evicted and invalidated to make room, so no
+ * client keeps a cached value the server no longer watches.
+ * <p>
+ * Entries of clients that turned tracking off or disconnected are dropped lazily, when their
+ * key changes or is evicted. While no client tracks, enabled() is false and the Db reports nothing.
+ * Reactor-thread only.
+ */
+public final class ClientTracking implements KeyspaceEvents {
+    public static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+
+    private final ServerConfig config;
+    // every connection by CLIENT ID (redirect targets need not track themselves)
+    private final Map<Long, ClientConn> connections = new HashMap<>();
+    // insertion order, so eviction starts with the key remembered first
+    private final LinkedHashMap<String, Set<ClientConn>> keys = new LinkedHashMap<>();
+    private final Map<String, Set<ClientConn>> prefixes = new HashMap<>(); // BCAST
+    private final Set<String> pending = new LinkedHashSet<>(); // changed since the last flush
+    private final Map<ClientConn, List<String>> batch = new LinkedHashMap<>(); // scratch for flush
+    private int trackingClients;
+
+    /**
+     * Options of a client's CLIENT TRACKING ON.
+     */
+    public static final class Options {
+        final long redirect; // 0: none
+        final boolean bcast;
+        final boolean optin;
+        final boolean optout;
+        final boolean noloop;
+        final Set<String> prefixes;
+
+        public Options(long redirect, boolean bcast, boolean optin, boolean optout, boolean noloop,
+                       Set<String> prefixes) {
+            this.redirect = redirect;
+            this.bcast = bcast;
+            this.optin = optin;
+            this.optout = optout;
+            this.noloop = noloop;
+            this.prefixes = prefixes;
+        }
+    }
+
+    public ClientTracking(ServerConfig config) {
+        this.config = config;
+    }
+
+    void connected(ClientConn c) {
+        connections.put(c.id(), c);
+    }
+
+    void disconnected(ClientConn c) {
+        connections.remove(c.id());
+        if (c.trackingOptions() != null) disable(c);
+    }
+
+    /**
+     * True while some client has tracking on; callers skip the per-command work otherwise.
+     */
+    public boolean active() {
+        return trackingClients > 0;
+    }
+
+    // ---------- CLIENT TRACKING / CACHING ----------
+
+    /**
+     * Turn tracking on, or add prefixes to a client already tracking in the same mode.
+     * Returns an error message, or null on success.
+     */
+    public String enable(ClientConn c, Options o) {
+        if (o.redirect != 0 && !connections.containsKey(o.redirect)) {
+            return "ERR The client ID you want redirect to does not exist";
+        }
+        if (!o.prefixes.isEmpty() && !o.bcast) {
+            return "ERR PREFIX option requires BCAST mode to be enabled";
+        }
+        if (o.optin && o.optout) return "ERR You can't use both OPTIN and OPTOUT";
+        if (o.bcast && (o.optin || o.optout)) return "ERR OPTIN and OPTOUT are not compatible with BCAST";
+        Options old = c.trackingOptions();
+        if (old != null && old.bcast != o.bcast) {
+            return "ERR You can't switch BCAST mode on/off before disabling tracking for this client, "
+                    + "and then re-enabling it with a different mode.";
+        }
+        if (old != null && (old.optin != o.optin || old.optout != o.optout)) {
+            return "ERR You can't switch OPTIN/OPTOUT mode before disabling tracking for this client, "
+                    + "and then re-enabling it with a different mode.";
+        }
+        Set<String> all = new LinkedHashSet<>(old == null ? Set.of() : old.prefixes);
+        for (String p : o.prefixes) {
+            for (String q : all) {
+                if (!p.equals(q) && (p.startsWith(q) || q.startsWith(p))) {
+                    return "ERR Prefix '" + p + "' overlaps with an existing prefix '" + q
+                            + "'. Prefixes for a single client must not overlap.";
+                }
+            }
+            all.add(p);
+        }
+        if (o.bcast && all.isEmpty()) all.add("");
+        if (old == null) trackingClients++;
+        c.setTrackingOptions(new Options(o.redirect, o.bcast, o.optin, o.optout, o.noloop, all));
+        c.setCachingFlag(false);
+        for (String p : all) prefixes.computeIfAbsent(p, k -> new HashSet<>()).add(c);
+        return null;
+    }
+
+    public void disable(ClientConn c) {
+        Options o = c.trackingOptions();
+        if (o == null) return;
+        for (String p : o.prefixes) {
+            Set<ClientConn> s = prefixes.get(p);
+            if (s != null && s.remove(c) && s.isEmpty()) prefixes.remove(p);
+        }
+        c.setTrackingOptions(null);
+        c.setCachingFlag(false);
+        trackingClients--;
+    }
+
+    /**
+     * CLIENT CACHING yes|no: applies to the next command (or MULTI/EXEC block).
+     * Returns an error message, or null on success.
+     */
+    public String caching(ClientConn c, boolean yes) {
+        Options o = c.trackingOptions();
+        if (o == null || !(o.optin || o.optout)) {
+            return "ERR CLIENT CACHING can be called only when the client is in tracking mode with "
+                    + "OPTIN or OPTOUT mode enabled";
+        }
+        if (yes && !o.optin) return "ERR CLIENT CACHING YES is only valid when tracking is enabled in OPTIN mode.";
+        if (!yes && !o.optout) return "ERR CLIENT CACHING NO is only valid when tracking is enabled in OPTOUT mode.";
+        c.setCachingFlag(true);
+        return null;
+    }
+
+    /**
+     * CLIENT GETREDIR: the redirect target, 0 if none, -1 when tracking is off.
+     */
+    public long redirect(ClientConn c) {
+        Options o = c.trackingOptions();
+        return o == null ? -1 : o.redirect;
+    }
+
+    /**
+     * CLIENT TRACKINGINFO reply.
+     */
+    public ByteBuffer info(ClientConn c) {
+        Options o = c.trackingOptions();
+        List<String> flags = new ArrayList<>();
+        if (o == null) {
+            flags.add("off");
+        } else {
+            flags.add("on");
+            if (o.bcast) flags.add("bcast");
+            if (o.optin) flags.add("optin");
+            if (o.optout) flags.add("optout");
+            if (c.cachingFlag()) flags.add(o.optin ? "caching-yes" : "caching-no");
+            if (o.noloop) flags.add("noloop");
+            if (o.redirect != 0 && !connections.containsKey(o.redirect)) flags.add("broken_redirect");
+        }
+        List<ByteBuffer> out = new ArrayList<>();
+        out.add(RespWriter.bulkString("flags"));
+        out.add(RespWriter.setOfBulkStrings(flags.toArray(new String[0]), c.resp3()));
+        out.add(RespWriter.bulkString("redirect"));
+        out.add(RespWriter.integer(redirect(c)));
+        out.add(RespWriter.bulkString("prefixes"));
+        out.add(RespWriter.arrayOfBulkStrings(o == null || !o.bcast ? new String[0]
+                : o.prefixes.toArray(new String[0])));
+        return RespWriter.mapOfFrames(out, c.resp3());
+    }
+
+    public int trackedKeys() {
+        return keys.size();
+    }
+
+    public int trackingClients() {
+        return trackingClients;
+    }
+
+    // ---------- keyspace events ----------
+
+    @Override
+    public boolean enabled(int type) {
+        return trackingClients > 0 && type != NEW; // "new" always comes with the write itself
+    }
+
+    @Override
+    public void notify(int type, String event, String key) {
+        if (enabled(type)) pending.add(key);
+    }
+
+    /**
+     * The dataset was emptied: every tracking client drops its whole cache (a null invalidation).
+     */
+    @Override
+    public void flushed() {
+        pending.clear();
+        keys.clear();
+        if (trackingClients == 0) return;
+        for (ClientConn c : connections.values()) {
+            if (c.trackingOptions() != null) send(c, null);
+        }
+    }
+
+    /**
+     * After a command: send invalidations for the keys it changed, then remember the keys it
+     * read (argv indexes; none for write commands) for a tracking client in default mode.
+     * 'origin' is null for changes made outside a client (the primary's stream).
+     */
+    public void afterCommand(ClientConn origin, List<String> argv, int[] readKeys) {
+        // inside EXEC nothing is pushed until the transaction is done: the replies are being
+        // streamed as one array
+        if (origin == null || !origin.isBypassTxn()) flush(origin);
+        Options o = origin == null ? null : origin.trackingOptions();
+        if (o == null || o.bcast || readKeys.length == 0) return;
+        if (o.optin ? !origin.cachingFlag() : o.optout && origin.cachingFlag()) return;
+        for (int i : readKeys) remember(argv.get(i), origin);
+    }
+
+    /**
+     * Send invalidations for changes made outside any command (expiry, blocked clients served
+     * later). Cheap when nothing changed.
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    private void flush(ClientConn origin) {
+        if (pending.isEmpty()) {
+            sendBatch(); // keys evicted by the last reads, if any
+            return;
+        }
+        for (String key : pending) {
+            Set<ClientConn> readers = keys.remove(key);
+            if (readers != null) {
+                for (ClientConn c : readers) {
+                    Options o = c.trackingOptions();
+                    if (o != null && !o.bcast && !(o.noloop && c == origin)) add(c, key);
+                }
+            }
+            if (prefixes.isEmpty()) continue;
+            for (Map.Entry<String, Set<ClientConn>> e : prefixes.entrySet()) {
+                if (!key.startsWith(e.getKey())) continue;
+                for (ClientConn c : e.getValue()) {
+                    if (!(c.trackingOptions().noloop && c == origin)) add(c, key);
+                }
+            }
+        }
+        pending.clear();
+        sendBatch();
+    }
+
+    private void remember(String key, ClientConn c) {
+        Set<ClientConn> readers = keys.get(key);
+        if (readers == null) {
+            readers = new HashSet<>(2);
+            keys.put(key, readers);
+            int max = config.trackingTableMaxKeys();
+            if (max > 0 && keys.size() > max) evict(keys.size() - max);
+        }
+        readers.add(c);
+    }
+
+    // drop the n oldest keys, invalidating them for their readers
+    private void evict(int n) {
+        Iterator<Map.Entry<String, Set<ClientConn>>> it = keys.entrySet().iterator();
+        while (n-- > 0 && it.hasNext()) {
+            Map.Entry<String, Set<ClientConn>> e = it.next();
+            it.remove();
+            for (ClientConn c : e.getValue()) {
+                Options o = c.trackingOptions();
+                if (o != null && !o.bcast) add(c, e.getKey());
+            }
+        }
+        // sent by the next flush, which ends this command (or the EXEC it is part of)
+    }
+
+    private void add(ClientConn c, String key) {
+        batch.computeIfAbsent(c, k -> new ArrayList<>()).add(key);
+    }
+
+    private void sendBatch() {
+        for (Map.Entry<ClientConn, List<String>> e : batch.entrySet()) send(e.getKey(), e.getValue());
+        batch.clear();
+    }
+
+    // one invalidation message for c (null keys: everything), to c itself or its redirect target
+    private void send(ClientConn c, List<String> keyList) {
+        long redirect = c.trackingOptions().redirect;
+        ClientConn target = redirect == 0 ? c : connections.get(redirect);
+        if (target == null) {
+            if (c.resp3()) {
+                c.push(RespWriter.pushOfFrames(List.of(RespWriter.bulkString("tracking-redir-broken"),
+                        RespWriter.integer(redirect))));
+            }
+            return;
+        }
+        boolean resp3 = target.resp3();
+        if (!resp3 && !target.subscribedChannels().contains(INVALIDATE_CHANNEL)) return; // nowhere to put it
+        ByteBuffer keysFrame = keyList == null ? RespWriter.nullValue(resp3)
+                : RespWriter.arrayOfBulkStrings(keyList.toArray(new String[0]));
+        if (resp3) {
+            target.push(RespWriter.pushOfFrames(List.of(RespWriter.bulkString("invalidate"), keysFrame)));
+        } else {
+            target.push(RespWriter.arrayOfFrames(List.of(RespWriter.bulkString("message"),
+                    RespWriter.bulkString(INVALIDATE_CHANNEL), keysFrame)));
+        }
+    }
+}
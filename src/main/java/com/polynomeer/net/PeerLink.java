@@ -0,0 +1,21 @@
+package com.polynomeer.net;
+
+import java.io.IOException;
+
+/**
+ * An outbound connection this server opened to another server (a replica's link to its
+ * primary, a cluster node's link to a peer), registered with the reactor's selector with
+ * itself as the attachment. I/O errors propagate to the reactor, which calls fail().
+ */
+public interface PeerLink {
+    void handleConnect() throws IOException;
+
+    void handleRead() throws IOException;
+
+    void handleWrite() throws IOException;
+
+    /**
+     * I/O failure reported by the reactor.
+     */
+    void fail(String reason);
+}
@@ -1,10 +1,19 @@
 package com.polynomeer.net;
 
+import com.polynomeer.cluster.ClusterManager;
 import com.polynomeer.cmd.CommandRegistry;
+import com.polynomeer.cmd.MigrateCommands;
+import com.polynomeer.config.ServerConfig;
 import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceEvents;
 import com.polynomeer.db.MemoryDb;
+import com.polynomeer.db.OffHeapDb;
 import com.polynomeer.lua.LuaEngine;
+import com.polynomeer.persist.AppendOnlyFile;
+import com.polynomeer.persist.ImportManager;
+import com.polynomeer.persist.SnapshotManager;
 import com.polynomeer.pubsub.PubSubBroker;
+import com.polynomeer.repl.ReplicationManager;
 import com.polynomeer.util.Clocks;
 
 import java.io.IOException;
@@ -13,30 +22,78 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Reactor {
-    private final int port;
+    private final ServerConfig config;
     private Selector selector;
     private ServerSocketChannel server;
     private final Db db;
     private final PubSubBroker broker;
+    private final ClientTracking tracking;
+    private final WatchedKeys watches;
     private final LuaEngine lua;
+    private final BlockingManager blocking;
+    private final SnapshotManager snapshots;
+    private final AppendOnlyFile aof;
+    private final ImportManager imports;
+    private final ReplicationManager repl;
+    private final ClusterManager cluster;
+    // work posted from background threads (e.g. BGSAVE completion), run on the loop
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private long nextCronMs;
 
     private static final int EXPIRE_BATCH_LIMIT = 2000;
+    private static final long CRON_INTERVAL_MS = 100;
 
-    public Reactor(int port) {
-        this.port = port;
-        this.db = new MemoryDb(); // single DB (DB 0)
-        this.broker = new PubSubBroker();
-        // Lua sandbox limits: 5_000 ms, max 10_000 redis.call bytes, max 1_000 calls
-        this.lua = new LuaEngine(db, broker, 5_000L, 10_000, 1_000);
-        CommandRegistry.initDefaults(db, broker, lua);
+    public Reactor(ServerConfig config) {
+        this.config = config;
+        // single DB (DB 0)
+        this.db = config.storageEngine().equals("offheap") ? new OffHeapDb() : new MemoryDb();
+        this.broker = new PubSubBroker(config, this::wakeup);
+        this.tracking = new ClientTracking(config);
+        this.watches = new WatchedKeys();
+        db.setKeyspaceEvents(KeyspaceEvents.both(KeyspaceEvents.both(broker.keyspaceEvents(), tracking), watches));
+        this.blocking = new BlockingManager();
+        this.snapshots = new SnapshotManager(db, config, this::runOnLoop);
+        this.aof = new AppendOnlyFile(db, config, this::runOnLoop);
+        this.imports = new ImportManager(db, aof, config, this::runOnLoop);
+        this.repl = new ReplicationManager(db, config, aof, this::runOnLoop);
+        this.cluster = new ClusterManager(db, config);
+        // Lua sandbox limits: max 10_000 redis.call bytes, max 1_000 calls
+        this.lua = new LuaEngine(config, 10_000, 1_000, this::serveWhileBusy);
+        CommandRegistry.initDefaults(db, broker, lua, blocking, config, snapshots, aof, imports, repl, cluster,
+                tracking, watches);
+        ClientConn.applyConfig(config);
+    }
+
+    /**
+     * Thread-safe: run 'task' on the reactor thread during its next iteration.
+     */
+    public void runOnLoop(Runnable task) {
+        tasks.add(task);
+        wakeup();
+    }
+
+    // thread-safe: interrupt a select() in progress, e.g. to pick up interest ops set elsewhere
+    private void wakeup() {
+        Selector s = selector;
+        if (s != null) s.wakeup();
     }
 
     public void start() throws IOException {
         selector = Selector.open();
+        cluster.start(selector);
+        if (config.tieredStorage()) {
+            db.enableTiering(Path.of(config.dir(), config.tieredDir()), config.tieredSegmentSize());
+        }
+        loadData();
+        repl.start(selector);
 
+        int port = config.port();
         server = ServerSocketChannel.open();
         server.configureBlocking(false);
         server.bind(new InetSocketAddress(port));
@@ -45,46 +102,137 @@ public class Reactor {
         System.out.println("[jredis] Listening on port " + port);
 
         while (true) {
-            long nowMs = Clocks.monoMillis();
-            long delayMs = db.nextExpiryDelayMillis(nowMs);
+            // TTLs are absolute wall-clock timestamps; blocking timeouts are monotonic
+            long delayMs = db.nextExpiryDelayMillis(Clocks.nowMillis());
             if (delayMs < 0) delayMs = 1000; // no expirations known
+            long nowMs = Clocks.monoMillis();
+            long blockMs = blocking.nextTimeoutDelayMillis(nowMs);
+            if (blockMs >= 0) delayMs = Math.min(delayMs, blockMs);
+            delayMs = Math.min(delayMs, Math.max(0, nextCronMs - nowMs));
 
             selector.select(Math.max(1, Math.min(delayMs, 1000)));
 
-            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
-            while (it.hasNext()) {
-                SelectionKey key = it.next();
-                it.remove();
+            // taken out of the selected set: a busy script selects again from within a handler
+            for (SelectionKey key : takeSelected()) {
                 if (!key.isValid()) continue;
-
-                try {
-                    if (key.isAcceptable()) {
-                        handleAccept();
-                    } else if (key.isReadable()) {
-                        ((ClientConn) key.attachment()).handleRead();
-                    } else if (key.isWritable()) {
-                        ((ClientConn) key.attachment()).handleWrite();
-                    }
-                } catch (IOException e) {
-                    Object att = key.attachment();
-                    if (att instanceof ClientConn) {
-                        ((ClientConn) att).onDisconnect(); // unsubscribe all
-                        ((ClientConn) att).closeQuietly();
-                    }
-                    key.cancel();
+                if (key.attachment() instanceof PeerLink) {
+                    handlePeerLink(key);
+                } else {
+                    handleClient(key);
                 }
             }
 
+            // serve clients blocked on keys written during this iteration, then time out the rest
+            blocking.handleReadyKeys();
             nowMs = Clocks.monoMillis();
-            db.expireDue(nowMs, EXPIRE_BATCH_LIMIT);
+            blocking.handleTimeouts(nowMs);
+
+            db.expireDue(Clocks.nowMillis(), EXPIRE_BATCH_LIMIT);
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+            if (nowMs >= nextCronMs) {
+                nextCronMs = nowMs + CRON_INTERVAL_MS;
+                snapshots.cron(Clocks.nowMillis());
+                aof.cron(Clocks.nowMillis());
+                repl.cron(nowMs);
+                cluster.cron(nowMs);
+                MigrateCommands.cron(nowMs);
+                db.tierCron(config.tieredIdleSeconds(), config.tieredMaxHeapPercent());
+            }
+
+            // invalidations for keys that expired or changed outside a command
+            tracking.flush();
+
+            // group commit: everything executed in this tick hits the AOF before any reply is sent
+            aof.flush(Clocks.monoMillis());
+            repl.flush();
+        }
+    }
+
+    private SelectionKey[] takeSelected() {
+        Set<SelectionKey> selected = selector.selectedKeys();
+        SelectionKey[] keys = selected.toArray(new SelectionKey[0]);
+        selected.clear();
+        return keys;
+    }
+
+    private void handleClient(SelectionKey key) {
+        try {
+            if (key.isAcceptable()) {
+                handleAccept();
+            } else if (key.isReadable()) {
+                ((ClientConn) key.attachment()).handleRead();
+            } else if (key.isWritable()) {
+                ((ClientConn) key.attachment()).handleWrite();
+            }
+        } catch (IOException e) {
+            Object att = key.attachment();
+            if (att instanceof ClientConn) {
+                ((ClientConn) att).onDisconnect(); // unsubscribe all
+                ((ClientConn) att).closeQuietly();
+            }
+            key.cancel();
+        }
+    }
+
+    /**
+     * Run from the hook of a script past busy-reply-threshold: accept and serve the other
+     * clients, whose commands are answered with -BUSY (SCRIPT KILL and SHUTDOWN NOSAVE run).
+     * The connection running the script and the peer links wait until it returns; their
+     * channels stay ready and are selected again then.
+     */
+    private void serveWhileBusy() {
+        if (selector == null) return;
+        try {
+            selector.selectNow();
+        } catch (IOException e) {
+            return;
+        }
+        // replies about to go out must not overtake the AOF (group commit, as in the loop)
+        aof.flush(Clocks.monoMillis());
+        repl.flush();
+        // the listening socket has no attachment; the script's connection is mid-command
+        Object caller = lua.caller();
+        for (SelectionKey key : takeSelected()) {
+            Object att = key.attachment();
+            if (!key.isValid() || (att != null && att == caller) || att instanceof PeerLink) continue;
+            handleClient(key);
+        }
+    }
+
+    private void handlePeerLink(SelectionKey key) {
+        PeerLink link = (PeerLink) key.attachment();
+        try {
+            if (key.isConnectable()) link.handleConnect();
+            if (key.isValid() && key.isReadable()) link.handleRead();
+            if (key.isValid() && key.isWritable()) link.handleWrite();
+        } catch (IOException e) {
+            link.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * The append-only file, when enabled and present, is the authoritative copy; else the snapshot.
+     * Enabled without a file, it is created by a first rewrite of whatever the snapshot held.
+     */
+    private void loadData() throws IOException {
+        if (config.appendOnly() && aof.exists()) {
+            aof.load();
+            snapshots.resetChangeCounter();
+            aof.openAfterLoad();
+        } else {
+            snapshots.loadAtStartup();
+            if (config.appendOnly()) aof.setEnabled(true);
         }
+        imports.importAtStartup();
     }
 
     private void handleAccept() throws IOException {
         SocketChannel ch = server.accept();
         if (ch == null) return;
         ch.configureBlocking(false);
-        ClientConn conn = new ClientConn(ch, selector, broker);
+        ClientConn conn = new ClientConn(ch, selector, broker, blocking, tracking, watches);
         ch.register(selector, SelectionKey.OP_READ, conn);
         System.out.println("[jredis] Accepted " + ch.getRemoteAddress());
     }
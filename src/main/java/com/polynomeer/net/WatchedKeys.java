@@ -0,0 +1,55 @@
+package com.polynomeer.net;
+
+import com.polynomeer.db.KeyspaceEvents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keys under WATCH, each mapped to the connections watching it.
+ * <p>
+ * Every change of a key (writes, expiry, flushAll) reaches this index as a keyspace event of
+ * the Db; a hash lookup finds the watchers, which are marked so that their next EXEC fails.
+ * While nobody watches anything the index is empty and enabled() false, so the Db reports
+ * nothing on its account. Reactor-thread only.
+ */
+public final class WatchedKeys implements KeyspaceEvents {
+    private final Map<String, List<ClientConn>> watchers = new HashMap<>();
+
+    public void watch(ClientConn c, String key) {
+        if (c.addWatchedKey(key)) watchers.computeIfAbsent(key, k -> new ArrayList<>(2)).add(c);
+    }
+
+    /**
+     * Forget every key c watches (UNWATCH, EXEC, DISCARD, disconnect).
+     */
+    public void unwatchAll(ClientConn c) {
+        for (String key : c.watchedKeys()) {
+            List<ClientConn> list = watchers.get(key);
+            if (list != null && list.remove(c) && list.isEmpty()) watchers.remove(key);
+        }
+        c.clearWatch();
+    }
+
+    @Override
+    public boolean enabled(int type) {
+        return !watchers.isEmpty();
+    }
+
+    @Override
+    public void notify(int type, String event, String key) {
+        if (watchers.isEmpty()) return;
+        List<ClientConn> list = watchers.get(key);
+        if (list == null) return;
+        for (int i = 0; i < list.size(); i++) list.get(i).touchWatch();
+    }
+
+    @Override
+    public void flushed() {
+        for (List<ClientConn> list : watchers.values()) {
+            for (ClientConn c : list) c.touchWatch();
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package com.polynomeer.persist;
+
+import com.polynomeer.cmd.CommandRegistry;
+import com.polynomeer.cmd.Propagator;
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceSnapshot;
+import com.polynomeer.resp.RespError;
+import com.polynomeer.resp.RespReader;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only file: every command that changed the dataset, as a RESP array.
+ * - propagate() only appends to an in-memory buffer
+ * - flush() runs once per reactor iteration, before replies are written to sockets:
+ *   one write() for everything executed in that tick (group commit), then, per appendfsync,
+ *   "always" fsyncs inline, "everysec" hands the fsync to a background thread at most once
+ *   a second, "no" leaves it to the OS
+ * - load() streams the file through a fixed-size buffer and replays it; a truncated last
+ *   command (crash mid-write) is cut off and loading continues
+ * - BGREWRITEAOF writes the commands recreating a keyspace snapshot to a temp file on a
+ *   background thread; commands propagated meanwhile also go to a diff buffer, which the
+ *   reactor appends to the temp file before renaming it over the AOF. Rewrites start
+ *   automatically once the file grew auto-aof-rewrite-percentage over its post-rewrite size.
+ * - Turning appendonly on (at runtime, or at startup without a file) waits for a first
+ *   rewrite before anything is written, so the file always holds the whole dataset.
+ * <p>
+ * Reactor-thread only, except the background fsync and rewrite.
+ */
+public final class AppendOnlyFile implements Propagator {
+    private static final int READ_CHUNK = 1 << 20;
+    private static final int WRITE_CHUNK = 1 << 20;
+    private static final long EVERYSEC_MS = 1000;
+    private static final long REWRITE_RETRY_DELAY_MS = 5_000;
+
+    private enum State { OFF, WAIT_REWRITE, ON }
+
+    /**
+     * Outcome of a BGREWRITEAOF request.
+     */
+    public enum RewriteStart { STARTED, SCHEDULED, ALREADY_RUNNING }
+
+    private final Db db;
+    private final ServerConfig config;
+    private final Executor loop;
+    private final Path path;
+    private final ByteBuf buf = new ByteBuf(64 * 1024);
+    private State state = State.OFF;
+    private FileChannel ch;
+    private long size;
+    private long baseSize;        // size right after the last rewrite (or load)
+
+    private final ExecutorService fsyncer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "jredis-aof-fsync");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService rewriter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "jredis-aof-rewrite");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean fsyncInFlight = new AtomicBoolean();
+    private boolean unsynced;     // bytes written since the last fsync was started
+    private long lastFsyncMs;
+
+    private boolean rewriting;
+    private boolean rewriteScheduled;
+    private ByteBuf diff;         // commands propagated while a rewrite runs
+    private long lastRewriteAttemptMs;
+
+    // stats
+    private boolean lastWriteOk = true;
+    private long writes;
+    private long fsyncs;
+    private long delayedFsyncs;
+    private boolean lastRewriteOk = true;
+    private long lastRewriteMs = -1;
+    private long lastDiffBytes;
+    private long rewrites;
+
+    public AppendOnlyFile(Db db, ServerConfig config, Executor loop) {
+        this.db = db;
+        this.config = config;
+        this.loop = loop;
+        this.path = Paths.get(config.dir()).resolve(config.appendFilename());
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    public boolean enabled() {
+        return state != State.OFF;
+    }
+
+    /**
+     * Start appending to the file just loaded by load().
+     */
+    public void openAfterLoad() throws IOException {
+        ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        size = baseSize = ch.size();
+        ch.position(size);
+        state = State.ON;
+        CommandRegistry.addPropagator(this);
+    }
+
+    /**
+     * appendonly yes/no. Enabling starts a rewrite and logs nothing until it completes.
+     */
+    public void setEnabled(boolean on) {
+        if (on == (state != State.OFF)) return;
+        if (on) {
+            state = State.WAIT_REWRITE;
+            CommandRegistry.addPropagator(this);
+            bgrewrite();
+            return;
+        }
+        flush(lastFsyncMs);
+        CommandRegistry.removePropagator(this);
+        state = State.OFF;
+        closeLater(ch);
+        ch = null;
+        diff = null;
+        buf.clear();
+    }
+
+    @Override
+    public void propagate(List<String> argv) {
+        if (state == State.ON) {
+            int from = buf.length();
+            RespWriter.appendCommand(argv, buf);
+            if (diff != null) diff.append(buf.array(), from, buf.length() - from);
+        } else if (diff != null) {
+            RespWriter.appendCommand(argv, diff);
+        }
+    }
+
+    /**
+     * Write the commands buffered during this tick, then apply the fsync policy.
+     */
+    public void flush(long nowMs) {
+        if (ch == null) return;
+        if (buf.length() > 0) {
+            try {
+                ByteBuffer bb = ByteBuffer.wrap(buf.array(), 0, buf.length());
+                while (bb.hasRemaining()) ch.write(bb);
+                size += buf.length();
+                buf.clear();
+                writes++;
+                unsynced = true;
+                if (!lastWriteOk) System.out.println("[jredis] AOF write error looks solved");
+                lastWriteOk = true;
+            } catch (IOException e) {
+                // undo a partial write and keep the buffer to retry next tick
+                try {
+                    ch.truncate(size);
+                    ch.position(size);
+                } catch (IOException ignored) {
+                    // load() truncates an incomplete tail
+                }
+                if (lastWriteOk) System.out.println("[jredis] Error writing to the AOF file: " + e.getMessage());
+                lastWriteOk = false;
+                return;
+            }
+        }
+        if (!unsynced) return;
+        switch (config.appendFsync()) {
+            case "always":
+                try {
+                    ch.force(false);
+                    fsyncs++;
+                    unsynced = false;
+                } catch (IOException e) {
+                    System.out.println("[jredis] Can't fsync the AOF file: " + e.getMessage());
+                }
+                break;
+            case "everysec":
+                if (nowMs - lastFsyncMs < EVERYSEC_MS) break;
+                if (!fsyncInFlight.compareAndSet(false, true)) {
+                    delayedFsyncs++; // disk slower than one fsync per second
+                    break;
+                }
+                unsynced = false;
+                lastFsyncMs = nowMs;
+                FileChannel c = ch;
+                fsyncer.execute(() -> {
+                    try {
+                        c.force(false);
+                    } catch (IOException e) {
+                        System.out.println("[jredis] Can't fsync the AOF file: " + e.getMessage());
+                    } finally {
+                        fsyncInFlight.set(false);
+                    }
+                });
+                fsyncs++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * SHUTDOWN: write what is buffered and fsync, whatever the appendfsync policy.
+     */
+    public void flushForShutdown(long nowMs) {
+        if (ch == null) return;
+        flush(nowMs);
+        try {
+            ch.force(false);
+        } catch (IOException e) {
+            System.out.println("[jredis] Can't fsync the AOF file: " + e.getMessage());
+        }
+    }
+
+    // ---------- rewrite ----------
+
+    /**
+     * BGREWRITEAOF: start now, or once the running background save finishes.
+     */
+    public RewriteStart bgrewrite() {
+        if (rewriting) return RewriteStart.ALREADY_RUNNING;
+        if (db.snapshotActive()) {
+            rewriteScheduled = true;
+            return RewriteStart.SCHEDULED;
+        }
+        startRewrite();
+        return RewriteStart.STARTED;
+    }
+
+    private void startRewrite() {
+        rewriteScheduled = false;
+        rewriting = true;
+        lastRewriteAttemptMs = System.currentTimeMillis();
+        long start = System.nanoTime();
+        KeyspaceSnapshot snap = db.snapshot();
+        diff = new ByteBuf(64 * 1024);
+        Path tmp = path.resolveSibling("temp-rewriteaof-bg-" + ProcessHandle.current().pid() + ".aof");
+        System.out.println("[jredis] Background append only file rewriting started (" + snap.size() + " keys)");
+        rewriter.execute(() -> {
+            Exception err = null;
+            try {
+                writeSnapshot(snap, tmp);
+            } catch (IOException | RuntimeException e) {
+                err = e;
+            }
+            Exception e = err;
+            loop.execute(() -> rewriteDone(tmp, start, e));
+        });
+    }
+
+    /**
+     * Background thread: the commands recreating every key of the snapshot.
+     */
+    private static void writeSnapshot(KeyspaceSnapshot snap, Path tmp) throws IOException {
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuf b = new ByteBuf(WRITE_CHUNK + 64 * 1024);
+            for (int i = 0; i < snap.size(); i++) {
+                snap.writeCommands(i, argv -> RespWriter.appendCommand(argv, b));
+                if (b.length() >= WRITE_CHUNK) writeFully(out, b);
+            }
+            writeFully(out, b);
+            out.force(true);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuf b) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b.array(), 0, b.length());
+        while (bb.hasRemaining()) out.write(bb);
+        b.clear();
+    }
+
+    /**
+     * Reactor thread: append the diff, swap the files, continue appending to the new one.
+     */
+    private void rewriteDone(Path tmp, long startNanos, Exception err) {
+        db.releaseSnapshot();
+        rewriting = false;
+        ByteBuf d = diff;
+        diff = null;
+        lastRewriteMs = (System.nanoTime() - startNanos) / 1_000_000;
+        try {
+            if (err != null) throw err;
+            flush(lastFsyncMs); // the old file stays complete until the rename
+            long newSize;
+            lastDiffBytes = d.length();
+            try (FileChannel t = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                t.position(t.size());
+                writeFully(t, d);
+                t.force(true);
+                newSize = t.size();
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (state != State.OFF) {
+                FileChannel old = ch;
+                ch = FileChannel.open(path, StandardOpenOption.WRITE);
+                ch.position(newSize);
+                closeLater(old);
+                state = State.ON;
+                unsynced = false;
+            }
+            size = baseSize = newSize;
+            lastRewriteOk = true;
+            rewrites++;
+            System.out.println("[jredis] Background AOF rewrite finished: " + newSize + " bytes ("
+                    + lastDiffBytes + " bytes of diff) in " + lastRewriteMs + " ms");
+        } catch (Exception e) {
+            lastRewriteOk = false;
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // best effort
+            }
+            System.out.println("[jredis] Background AOF rewrite failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close a replaced channel after any fsync already queued on it.
+     */
+    private void closeLater(FileChannel c) {
+        if (c == null) return;
+        fsyncer.execute(() -> {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+                // nothing left to flush
+            }
+        });
+    }
+
+    /**
+     * Periodic check (reactor cron): scheduled rewrites, retries, growth-triggered rewrites.
+     */
+    public void cron(long nowMs) {
+        if (rewriting || db.snapshotActive()) return;
+        if (rewriteScheduled) {
+            startRewrite();
+            return;
+        }
+        if (state == State.WAIT_REWRITE) {
+            if (nowMs - lastRewriteAttemptMs >= REWRITE_RETRY_DELAY_MS) startRewrite();
+            return;
+        }
+        if (state != State.ON) return;
+        long pct = config.autoAofRewritePercentage();
+        if (pct <= 0 || size < config.autoAofRewriteMinSize()) return;
+        long base = baseSize > 0 ? baseSize : 1;
+        long growth = size * 100 / base - 100;
+        if (growth >= pct) {
+            System.out.println("[jredis] Starting automatic rewriting of AOF on " + growth + "% growth");
+            startRewrite();
+        }
+    }
+
+    /**
+     * Replay the file into the keyspace (before clients are accepted). Returns commands applied.
+     */
+    public long load() throws IOException {
+        long start = System.nanoTime();
+        long commands = 0, errors = 0, offset = 0;
+        long txnStart = -1; // offset of the MULTI of the transaction being read
+        RespReader reader = new RespReader();
+        ByteBuffer in = ByteBuffer.allocate(READ_CHUNK);
+        try (FileChannel rc = FileChannel.open(path, StandardOpenOption.READ)) {
+            boolean eof = false;
+            while (!eof) {
+                eof = rc.read(in) < 0;
+                in.flip();
+                while (true) {
+                    int mark = in.position();
+                    List<String> argv;
+                    try {
+                        argv = reader.tryReadCommand(in);
+                    } catch (RespError e) {
+                        throw new IOException("Bad file format reading the append only file at offset "
+                                + (offset + mark) + ": " + e.getMessage());
+                    }
+                    if (argv == null) {
+                        in.position(mark);
+                        break;
+                    }
+                    if (argv.isEmpty()) continue;
+                    String name = argv.get(0);
+                    if (name.equalsIgnoreCase("MULTI")) {
+                        txnStart = offset + mark;
+                    } else if (name.equalsIgnoreCase("EXEC") || name.equalsIgnoreCase("DISCARD")) {
+                        txnStart = -1;
+                    }
+                    ByteBuffer reply = CommandRegistry.replay(argv);
+                    if (reply != null && reply.hasRemaining() && reply.get(reply.position()) == '-') errors++;
+                    commands++;
+                }
+                offset += in.position();
+                in.compact();
+                if (!in.hasRemaining()) {
+                    // a single command larger than the buffer
+                    ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+                    in.flip();
+                    bigger.put(in);
+                    in = bigger;
+                }
+            }
+        }
+        if (CommandRegistry.discardStreamTxn() && txnStart >= 0) {
+            // a torn transaction is dropped whole, as if it never ran
+            System.out.println("[jredis] AOF ends inside a MULTI/EXEC block; truncating to " + txnStart);
+            offset = txnStart;
+            try (FileChannel wc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                wc.truncate(offset);
+            }
+        } else if (in.position() > 0) {
+            System.out.println("[jredis] AOF ends with an incomplete command (" + in.position()
+                    + " bytes); truncating to " + offset);
+            try (FileChannel wc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                wc.truncate(offset);
+            }
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("[jredis] DB loaded from append only file: " + commands + " commands, "
+                + offset + " bytes in " + ms + " ms" + (errors > 0 ? " (" + errors + " commands failed)" : ""));
+        return commands;
+    }
+
+    public String info() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("aof_enabled:").append(state != State.OFF ? 1 : 0).append("\r\n");
+        sb.append("aof_rewrite_in_progress:").append(rewriting ? 1 : 0).append("\r\n");
+        sb.append("aof_rewrite_scheduled:").append(rewriteScheduled ? 1 : 0).append("\r\n");
+        sb.append("aof_last_rewrite_time_ms:").append(lastRewriteMs).append("\r\n");
+        sb.append("aof_last_bgrewrite_status:").append(lastRewriteOk ? "ok" : "err").append("\r\n");
+        sb.append("aof_rewrites:").append(rewrites).append("\r\n");
+        sb.append("aof_last_rewrite_diff_bytes:").append(lastDiffBytes).append("\r\n");
+        if (state == State.OFF) return sb.toString();
+        sb.append("aof_current_size:").append(size).append("\r\n");
+        sb.append("aof_base_size:").append(baseSize).append("\r\n");
+        sb.append("aof_buffer_length:").append(buf.length()).append("\r\n");
+        sb.append("aof_fsync_policy:").append(config.appendFsync()).append("\r\n");
+        sb.append("aof_writes:").append(writes).append("\r\n");
+        sb.append("aof_fsyncs:").append(fsyncs).append("\r\n");
+        sb.append("aof_delayed_fsync:").append(delayedFsyncs).append("\r\n");
+        sb.append("aof_last_write_status:").append(lastWriteOk ? "ok" : "err").append("\r\n");
+        return sb.toString();
+    }
+}
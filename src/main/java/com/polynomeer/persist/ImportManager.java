@@ -0,0 +1,185 @@
+package com.polynomeer.persist;
+
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.Db;
+import com.polynomeer.db.PartialTable;
+import com.polynomeer.util.Clocks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Imports of Redis RDB files (see RdbImporter):
+ * - at startup from the "rdb-import" option, before clients are served; decoding runs on
+ *   its own thread and hands batches to the starting thread through a bounded queue
+ * - on IMPORTRDB, decoded on a background thread while the reactor keeps serving;
+ *   batches are merged on the reactor through 'loop', at most BATCHES_IN_FLIGHT at a time
+ * Imported keys never went through the append-only file, so an AOF rewrite follows.
+ * <p>
+ * All methods are called on the reactor thread.
+ */
+public final class ImportManager {
+    private static final int BATCHES_IN_FLIGHT = 4;
+
+    private final Db db;
+    private final AppendOnlyFile aof;
+    private final ServerConfig config;
+    private final Executor loop;
+
+    private boolean inProgress;
+    private Path lastPath;
+    private boolean lastOk = true;
+    private String lastError;
+    private RdbImporter.Report lastReport;
+
+    public ImportManager(Db db, AppendOnlyFile aof, ServerConfig config, Executor loop) {
+        this.db = db;
+        this.aof = aof;
+        this.config = config;
+        this.loop = loop;
+    }
+
+    public Path resolve(String file) {
+        return Paths.get(config.dir()).resolve(file);
+    }
+
+    /**
+     * Import the "rdb-import" file, if set, on top of the loaded data (throws if it fails).
+     * Decoding runs on a separate thread so it overlaps with merging on this one.
+     */
+    public void importAtStartup() throws IOException {
+        String file = config.rdbImport();
+        if (file.isEmpty()) return;
+        Path path = resolve(file);
+        lastPath = path;
+        BlockingQueue<PartialTable> ready = new ArrayBlockingQueue<>(BATCHES_IN_FLIGHT);
+        PartialTable end = new PartialTable(0);
+        CompletableFuture<RdbImporter.Report> decode = CompletableFuture.supplyAsync(() -> {
+            try {
+                return RdbImporter.read(path, t -> putUninterruptibly(ready, t));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                putUninterruptibly(ready, end);
+            }
+        }, r -> {
+            Thread t = new Thread(r, "jredis-rdb-import");
+            t.setDaemon(true);
+            t.start();
+        });
+        while (true) {
+            PartialTable t;
+            try {
+                t = ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while importing " + path);
+            }
+            if (t == end) break;
+            db.loadBulk(t, Clocks.nowMillis());
+        }
+        try {
+            finished(decode.join(), null);
+        } catch (CompletionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException(c.getMessage(), c);
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<PartialTable> q, PartialTable t) {
+        while (true) {
+            try {
+                q.put(t);
+                return;
+            } catch (InterruptedException ignored) {
+                // the reader always drains the queue to the end marker
+            }
+        }
+    }
+
+    /**
+     * Start a background import; returns false if one is already running.
+     */
+    public boolean bgimport(Path file) {
+        if (inProgress) return false;
+        inProgress = true;
+        lastPath = file;
+        System.out.println("[jredis] Background RDB import of " + file + " started");
+        Semaphore inFlight = new Semaphore(BATCHES_IN_FLIGHT);
+        Thread t = new Thread(() -> {
+            RdbImporter.Report r = null;
+            Exception err = null;
+            try {
+                r = RdbImporter.read(file, batch -> merge(batch, inFlight));
+            } catch (IOException | RuntimeException e) {
+                err = e;
+            }
+            RdbImporter.Report report = r;
+            Exception e = err;
+            loop.execute(() -> finished(report, e));
+        }, "jredis-rdb-import");
+        t.setDaemon(true);
+        t.start();
+        return true;
+    }
+
+    // importer thread: hand the batch to the reactor, waiting while too many are queued
+    private void merge(PartialTable batch, Semaphore inFlight) {
+        inFlight.acquireUninterruptibly();
+        loop.execute(() -> {
+            db.loadBulk(batch, Clocks.nowMillis());
+            inFlight.release();
+        });
+    }
+
+    private void finished(RdbImporter.Report r, Exception err) {
+        inProgress = false;
+        // whatever was merged is in memory only until the AOF is rewritten
+        if (aof.enabled()) aof.bgrewrite();
+        if (err != null) {
+            lastOk = false;
+            lastError = err.getMessage();
+            System.out.println("[jredis] RDB import of " + lastPath + " failed: " + err.getMessage());
+            return;
+        }
+        lastOk = true;
+        lastError = null;
+        lastReport = r;
+        System.out.println("[jredis] RDB v" + r.version + " imported from " + lastPath + ": " + r.keysImported
+                + " keys (" + r.keysExpired + " expired, " + r.keysSkipped() + " skipped"
+                + (r.keysSkipped() > 0 ? ": " + r.skippedSummary() : "") + "), " + r.bytes + " bytes in "
+                + r.millis + " ms (" + r.bytesPerSec() / (1024 * 1024) + " MB/s)"
+                + (r.checksumVerified ? "" : ", no checksum"));
+    }
+
+    public boolean inProgress() {
+        return inProgress;
+    }
+
+    public String info() {
+        if (lastPath == null) return "";
+        StringBuilder sb = new StringBuilder();
+        sb.append("rdb_import_in_progress:").append(inProgress ? 1 : 0).append("\r\n");
+        sb.append("rdb_import_last_status:").append(lastOk ? "ok" : "err").append("\r\n");
+        if (lastError != null) sb.append("rdb_import_last_error:").append(lastError).append("\r\n");
+        if (lastReport != null) {
+            RdbImporter.Report r = lastReport;
+            sb.append("rdb_import_version:").append(r.version).append("\r\n");
+            sb.append("rdb_import_keys:").append(r.keysImported).append("\r\n");
+            sb.append("rdb_import_keys_expired:").append(r.keysExpired).append("\r\n");
+            sb.append("rdb_import_keys_skipped:").append(r.keysSkipped()).append("\r\n");
+            sb.append("rdb_import_skipped_types:").append(r.skippedSummary()).append("\r\n");
+            sb.append("rdb_import_bytes:").append(r.bytes).append("\r\n");
+            sb.append("rdb_import_duration_ms:").append(r.millis).append("\r\n");
+        }
+        return sb.toString();
+    }
+}
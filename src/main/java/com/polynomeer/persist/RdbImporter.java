@@ -0,0 +1,720 @@
+package com.polynomeer.persist;
+
+import com.polynomeer.db.PartialTable;
+import com.polynomeer.util.Crc64;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Streaming reader for Redis RDB files (versions 1-12; written by Redis up to 7.x).
+ * - Reads through a fixed 1 MB buffer; only values larger than that get their own array
+ * - Strings (raw, int-encoded, LZF), hashes (table, zipmap, ziplist, listpack) and
+ *   sets (table, intset, listpack) of database 0 become PartialTable batches of BATCH_KEYS
+ * - Lists, sorted sets, streams and module values are skipped and counted per type,
+ *   as are keys of other databases and keys whose TTL has already passed
+ * - The trailing CRC64 is verified unless the file was written with rdbchecksum no
+ * <p>
+ * Runs on whatever thread calls read(); the sink decides where batches are merged.
+ */
+public final class RdbImporter {
+    static final int MAX_VERSION = 12;
+    static final int BATCH_KEYS = 64 * 1024;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    // opcodes
+    private static final int OP_SLOT_INFO = 244;
+    private static final int OP_FUNCTION2 = 245;
+    private static final int OP_MODULE_AUX = 247;
+    private static final int OP_IDLE = 248;
+    private static final int OP_FREQ = 249;
+    private static final int OP_AUX = 250;
+    private static final int OP_RESIZEDB = 251;
+    private static final int OP_EXPIRETIME_MS = 252;
+    private static final int OP_EXPIRETIME = 253;
+    private static final int OP_SELECTDB = 254;
+    private static final int OP_EOF = 255;
+
+    // value types
+    private static final int T_STRING = 0;
+    private static final int T_LIST = 1;
+    private static final int T_SET = 2;
+    private static final int T_ZSET = 3;
+    private static final int T_HASH = 4;
+    private static final int T_ZSET_2 = 5;
+    private static final int T_MODULE_2 = 7;
+    private static final int T_HASH_ZIPMAP = 9;
+    private static final int T_LIST_ZIPLIST = 10;
+    private static final int T_SET_INTSET = 11;
+    private static final int T_ZSET_ZIPLIST = 12;
+    private static final int T_HASH_ZIPLIST = 13;
+    private static final int T_LIST_QUICKLIST = 14;
+    private static final int T_STREAM_LISTPACKS = 15;
+    private static final int T_HASH_LISTPACK = 16;
+    private static final int T_ZSET_LISTPACK = 17;
+    private static final int T_LIST_QUICKLIST_2 = 18;
+    private static final int T_STREAM_LISTPACKS_2 = 19;
+    private static final int T_SET_LISTPACK = 20;
+    private static final int T_STREAM_LISTPACKS_3 = 21;
+
+    // string encodings (length byte 11xxxxxx)
+    private static final int ENC_INT8 = 0;
+    private static final int ENC_INT16 = 1;
+    private static final int ENC_INT32 = 2;
+    private static final int ENC_LZF = 3;
+
+    // module value opcodes
+    private static final int MODULE_OP_EOF = 0;
+    private static final int MODULE_OP_SINT = 1;
+    private static final int MODULE_OP_UINT = 2;
+    private static final int MODULE_OP_FLOAT = 3;
+    private static final int MODULE_OP_DOUBLE = 4;
+    private static final int MODULE_OP_STRING = 5;
+
+    /**
+     * What an import read and what it left out.
+     */
+    public static final class Report {
+        public int version;
+        public long keysImported;
+        public long keysExpired;
+        public long keysOtherDbs;
+        public final Map<String, Long> skippedByType = new LinkedHashMap<>();
+        public long bytes;
+        public long millis;
+        public boolean checksumVerified;
+
+        public long keysSkipped() {
+            long n = keysOtherDbs;
+            for (long v : skippedByType.values()) n += v;
+            return n;
+        }
+
+        public long bytesPerSec() {
+            return millis > 0 ? bytes * 1000 / millis : bytes;
+        }
+
+        /**
+         * "list=12,zset=3" style summary of skipped types, "" when nothing was skipped.
+         */
+        public String skippedSummary() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Long> e : skippedByType.entrySet()) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(e.getKey()).append('=').append(e.getValue());
+            }
+            if (keysOtherDbs > 0) sb.append(sb.length() > 0 ? "," : "").append("other-db=").append(keysOtherDbs);
+            return sb.toString();
+        }
+    }
+
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final Consumer<PartialTable> sink;
+    private final Report report = new Report();
+    private final long nowMs = System.currentTimeMillis();
+    private long crc;
+    private int crcMark;    // buf position up to which crc is up to date
+    private long consumed;  // bytes consumed before the buffer's current contents
+    private PartialTable batch = new PartialTable(BATCH_KEYS);
+
+    private RdbImporter(FileChannel ch, Consumer<PartialTable> sink) {
+        this.ch = ch;
+        this.sink = sink;
+        buf.limit(0);
+    }
+
+    /**
+     * Decode 'path', handing batches of decoded keys to 'sink' as they fill up.
+     * Throws IOException on unreadable, corrupt or unsupported input; batches already
+     * handed over stay imported.
+     */
+    public static Report read(Path path, Consumer<PartialTable> sink) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            RdbImporter r = new RdbImporter(ch, sink);
+            try {
+                r.readFile();
+            } catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("corrupt RDB at offset " + r.offset() + ": " + e.getMessage(), e);
+            }
+            r.report.millis = (System.nanoTime() - start) / 1_000_000;
+            return r.report;
+        }
+    }
+
+    private void readFile() throws IOException {
+        byte[] magic = bytes(9);
+        String header = new String(magic, StandardCharsets.ISO_8859_1);
+        if (!header.startsWith("REDIS")) throw new IOException("not an RDB file");
+        try {
+            report.version = Integer.parseInt(header.substring(5));
+        } catch (NumberFormatException e) {
+            throw new IOException("bad RDB version '" + header.substring(5) + "'");
+        }
+        if (report.version < 1 || report.version > MAX_VERSION) {
+            throw new IOException("unsupported RDB version " + report.version);
+        }
+        long db = 0;
+        long expireAt = -1;
+        while (true) {
+            int op = u8();
+            switch (op) {
+                case OP_EOF:
+                    finish();
+                    return;
+                case OP_SELECTDB:
+                    db = length();
+                    continue;
+                case OP_RESIZEDB:
+                    length();
+                    length();
+                    continue;
+                case OP_SLOT_INFO:
+                    length();
+                    length();
+                    length();
+                    continue;
+                case OP_AUX:
+                    skipString();
+                    skipString();
+                    continue;
+                case OP_FUNCTION2:
+                    skipString();
+                    continue;
+                case OP_MODULE_AUX:
+                    length(); // module id
+                    length(); // "when" opcode
+                    length(); // when
+                    skipModuleValue();
+                    continue;
+                case OP_IDLE:
+                    length();
+                    continue;
+                case OP_FREQ:
+                    u8();
+                    continue;
+                case OP_EXPIRETIME_MS:
+                    expireAt = i64();
+                    continue;
+                case OP_EXPIRETIME:
+                    expireAt = (i32() & 0xFFFFFFFFL) * 1000;
+                    continue;
+                default:
+                    readEntry(op, db, expireAt);
+                    expireAt = -1;
+            }
+        }
+    }
+
+    private void readEntry(int type, long db, long expireAt) throws IOException {
+        String key = string();
+        boolean keep = db == 0 && (expireAt < 0 || expireAt > nowMs);
+        switch (type) {
+            case T_STRING:
+                if (keep) batch.addString(key, expireAt, string());
+                else skipString();
+                break;
+            case T_HASH:
+            case T_SET: {
+                long n = length() * (type == T_HASH ? 2 : 1);
+                if (!keep) {
+                    for (long i = 0; i < n; i++) skipString();
+                    break;
+                }
+                List<String> items = new ArrayList<>((int) Math.min(n, 1 << 16));
+                for (long i = 0; i < n; i++) items.add(string());
+                add(type, key, expireAt, items);
+                break;
+            }
+            case T_HASH_ZIPMAP:
+            case T_HASH_ZIPLIST:
+            case T_HASH_LISTPACK:
+            case T_SET_INTSET:
+            case T_SET_LISTPACK: {
+                if (!keep) {
+                    skipString();
+                    break;
+                }
+                ByteBuffer blob = ByteBuffer.wrap(stringBytes()).order(ByteOrder.LITTLE_ENDIAN);
+                List<String> items;
+                if (type == T_HASH_ZIPMAP) items = zipmap(blob);
+                else if (type == T_HASH_ZIPLIST) items = ziplist(blob);
+                else if (type == T_SET_INTSET) items = intset(blob);
+                else items = listpack(blob);
+                add(type == T_SET_INTSET || type == T_SET_LISTPACK ? T_SET : T_HASH, key, expireAt, items);
+                break;
+            }
+            default:
+                skipValue(type);
+                if (db == 0) report.skippedByType.merge(typeName(type), 1L, Long::sum);
+                else report.keysOtherDbs++;
+                return;
+        }
+        if (db != 0) report.keysOtherDbs++;
+        else if (!keep) report.keysExpired++;
+        if (batch.size() >= BATCH_KEYS) flushBatch();
+    }
+
+    private void add(int type, String key, long expireAt, List<String> items) {
+        if (items.isEmpty()) return; // Redis never writes empty aggregates; nothing to create
+        if (type == T_HASH) batch.addHash(key, expireAt, items);
+        else batch.addSet(key, expireAt, items);
+    }
+
+    private void flushBatch() {
+        if (batch.size() == 0) return;
+        report.keysImported += batch.size();
+        sink.accept(batch);
+        batch = new PartialTable(BATCH_KEYS);
+    }
+
+    private void finish() throws IOException {
+        flushBatch();
+        updateCrc();
+        long expected = report.version >= 5 ? i64() : 0;
+        report.bytes = offset();
+        if (expected != 0) {
+            if (expected != crc) throw new IOException("RDB checksum mismatch");
+            report.checksumVerified = true;
+        }
+    }
+
+    // ---------- skipping unsupported values ----------
+
+    private void skipValue(int type) throws IOException {
+        switch (type) {
+            case T_LIST:
+            case T_SET:
+                for (long i = length(); i > 0; i--) skipString();
+                return;
+            case T_ZSET:
+                for (long i = length(); i > 0; i--) {
+                    skipString();
+                    int n = u8();
+                    if (n < 253) skip(n); // 253..255: nan, +inf, -inf
+                }
+                return;
+            case T_ZSET_2:
+                for (long i = length(); i > 0; i--) {
+                    skipString();
+                    skip(8);
+                }
+                return;
+            case T_HASH:
+                for (long i = length() * 2; i > 0; i--) skipString();
+                return;
+            case T_MODULE_2:
+                length(); // module id
+                skipModuleValue();
+                return;
+            case T_LIST_ZIPLIST:
+            case T_ZSET_ZIPLIST:
+            case T_ZSET_LISTPACK:
+                skipString();
+                return;
+            case T_LIST_QUICKLIST:
+                for (long i = length(); i > 0; i--) skipString();
+                return;
+            case T_LIST_QUICKLIST_2:
+                for (long i = length(); i > 0; i--) {
+                    length(); // container
+                    skipString();
+                }
+                return;
+            case T_STREAM_LISTPACKS:
+            case T_STREAM_LISTPACKS_2:
+            case T_STREAM_LISTPACKS_3:
+                skipStream(type);
+                return;
+            default:
+                throw new IOException("unsupported RDB value type " + type + " (cannot be skipped)");
+        }
+    }
+
+    private void skipStream(int type) throws IOException {
+        for (long i = length(); i > 0; i--) {
+            skipString(); // master ID
+            skipString(); // listpack
+        }
+        length(); // entries
+        length(); // last ID
+        length();
+        if (type >= T_STREAM_LISTPACKS_2) {
+            for (int i = 0; i < 5; i++) length(); // first ID, max deleted ID, entries added
+        }
+        for (long g = length(); g > 0; g--) {
+            skipString();
+            length(); // last delivered ID
+            length();
+            if (type >= T_STREAM_LISTPACKS_2) length(); // entries read
+            for (long p = length(); p > 0; p--) {
+                skip(16 + 8); // raw ID, delivery time
+                length();     // delivery count
+            }
+            for (long c = length(); c > 0; c--) {
+                skipString();
+                skip(type >= T_STREAM_LISTPACKS_3 ? 16 : 8); // seen time [, active time]
+                for (long p = length(); p > 0; p--) skip(16);
+            }
+        }
+    }
+
+    private void skipModuleValue() throws IOException {
+        while (true) {
+            int op = (int) length();
+            switch (op) {
+                case MODULE_OP_EOF:
+                    return;
+                case MODULE_OP_SINT:
+                case MODULE_OP_UINT:
+                    length();
+                    break;
+                case MODULE_OP_FLOAT:
+                    skip(4);
+                    break;
+                case MODULE_OP_DOUBLE:
+                    skip(8);
+                    break;
+                case MODULE_OP_STRING:
+                    skipString();
+                    break;
+                default:
+                    throw new IllegalArgumentException("bad module opcode " + op);
+            }
+        }
+    }
+
+    private static String typeName(int type) {
+        switch (type) {
+            case T_LIST:
+            case T_LIST_ZIPLIST:
+            case T_LIST_QUICKLIST:
+            case T_LIST_QUICKLIST_2:
+                return "list";
+            case T_ZSET:
+            case T_ZSET_2:
+            case T_ZSET_ZIPLIST:
+            case T_ZSET_LISTPACK:
+                return "zset";
+            case T_STREAM_LISTPACKS:
+            case T_STREAM_LISTPACKS_2:
+            case T_STREAM_LISTPACKS_3:
+                return "stream";
+            case T_MODULE_2:
+                return "module";
+            default:
+                return "type-" + type;
+        }
+    }
+
+    // ---------- compact encodings ----------
+
+    private static List<String> ziplist(ByteBuffer b) {
+        b.position(8); // zlbytes, zltail
+        int n = b.getShort() & 0xFFFF; // 65535 = unknown, walk to the end marker
+        List<String> out = new ArrayList<>(n == 0xFFFF ? 16 : n);
+        while (true) {
+            int prev = b.get() & 0xFF;
+            if (prev == 0xFF) return out;
+            if (prev == 0xFE) b.getInt();
+            int enc = b.get() & 0xFF;
+            switch (enc >>> 6) {
+                case 0:
+                    out.add(latin1(b, enc & 0x3F));
+                    continue;
+                case 1:
+                    out.add(latin1(b, ((enc & 0x3F) << 8) | (b.get() & 0xFF)));
+                    continue;
+                case 2:
+                    out.add(latin1(b, b.order(ByteOrder.BIG_ENDIAN).getInt()));
+                    b.order(ByteOrder.LITTLE_ENDIAN);
+                    continue;
+                default:
+                    break;
+            }
+            long v;
+            if (enc == 0xC0) v = b.getShort();
+            else if (enc == 0xD0) v = b.getInt();
+            else if (enc == 0xE0) v = b.getLong();
+            else if (enc == 0xF0) v = (b.get() & 0xFF) | (b.get() & 0xFF) << 8 | b.get() << 16;
+            else if (enc == 0xFE) v = b.get();
+            else if (enc >= 0xF1 && enc <= 0xFD) v = (enc & 0x0F) - 1;
+            else throw new IllegalArgumentException("bad ziplist encoding " + enc);
+            out.add(Long.toString(v));
+        }
+    }
+
+    private static List<String> listpack(ByteBuffer b) {
+        b.position(4); // total bytes
+        int n = b.getShort() & 0xFFFF;
+        List<String> out = new ArrayList<>(n == 0xFFFF ? 16 : n);
+        while (true) {
+            int start = b.position();
+            int enc = b.get() & 0xFF;
+            if (enc == 0xFF) return out;
+            if ((enc & 0x80) == 0) {
+                out.add(Long.toString(enc));
+            } else if ((enc & 0xC0) == 0x80) {
+                out.add(latin1(b, enc & 0x3F));
+            } else if ((enc & 0xE0) == 0xC0) {
+                int v = ((enc & 0x1F) << 8) | (b.get() & 0xFF);
+                out.add(Long.toString(v >= 1 << 12 ? v - (1 << 13) : v));
+            } else if ((enc & 0xF0) == 0xE0) {
+                out.add(latin1(b, ((enc & 0x0F) << 8) | (b.get() & 0xFF)));
+            } else if (enc == 0xF0) {
+                out.add(latin1(b, b.getInt()));
+            } else if (enc == 0xF1) {
+                out.add(Long.toString(b.getShort()));
+            } else if (enc == 0xF2) {
+                out.add(Long.toString((b.get() & 0xFF) | (b.get() & 0xFF) << 8 | b.get() << 16));
+            } else if (enc == 0xF3) {
+                out.add(Long.toString(b.getInt()));
+            } else if (enc == 0xF4) {
+                out.add(Long.toString(b.getLong()));
+            } else {
+                throw new IllegalArgumentException("bad listpack encoding " + enc);
+            }
+            int len = b.position() - start;
+            b.position(b.position() + (len < 128 ? 1 : len < 16384 ? 2 : len < 2097152 ? 3 : len < 268435456 ? 4 : 5));
+        }
+    }
+
+    private static List<String> intset(ByteBuffer b) {
+        int width = b.getInt();
+        int n = b.getInt();
+        if (width != 2 && width != 4 && width != 8) throw new IllegalArgumentException("bad intset encoding " + width);
+        List<String> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long v = width == 2 ? b.getShort() : width == 4 ? b.getInt() : b.getLong();
+            out.add(Long.toString(v));
+        }
+        return out;
+    }
+
+    private static List<String> zipmap(ByteBuffer b) {
+        b.get(); // element count hint
+        List<String> out = new ArrayList<>();
+        while (true) {
+            int len = zipmapLength(b);
+            if (len < 0) return out;
+            out.add(latin1(b, len)); // field
+            len = zipmapLength(b);
+            int free = b.get() & 0xFF;
+            out.add(latin1(b, len)); // value
+            b.position(b.position() + free);
+        }
+    }
+
+    private static int zipmapLength(ByteBuffer b) {
+        int len = b.get() & 0xFF;
+        if (len == 0xFF) return -1;
+        return len < 254 ? len : b.getInt();
+    }
+
+    private static String latin1(ByteBuffer b, int len) {
+        if (len < 0 || len > b.remaining()) throw new IllegalArgumentException("bad element length " + len);
+        String s = new String(b.array(), b.position(), len, StandardCharsets.ISO_8859_1);
+        b.position(b.position() + len);
+        return s;
+    }
+
+    // ---------- RDB primitives ----------
+
+    /**
+     * RDB length: 00|6 bits, 01|14 bits, 0x80 + u32 BE, 0x81 + u64 BE; 11|enc is a
+     * special string encoding and is returned as -1 - enc.
+     */
+    private long length() throws IOException {
+        int b = u8();
+        switch (b >>> 6) {
+            case 0:
+                return b & 0x3F;
+            case 1:
+                return ((b & 0x3F) << 8) | u8();
+            case 2:
+                if (b == 0x80) return Integer.toUnsignedLong(Integer.reverseBytes(i32()));
+                if (b == 0x81) return Long.reverseBytes(i64());
+                throw new IllegalArgumentException("bad length prefix " + b);
+            default:
+                return -1 - (b & 0x3F);
+        }
+    }
+
+    private String string() throws IOException {
+        long len = length();
+        if (len >= 0) {
+            int n = checkedLength(len);
+            if (n <= buf.capacity()) {
+                ensure(n);
+                String s = new String(buf.array(), buf.position(), n, StandardCharsets.ISO_8859_1);
+                buf.position(buf.position() + n);
+                return s;
+            }
+        }
+        return new String(encodedStringBytes(len), StandardCharsets.ISO_8859_1);
+    }
+
+    private byte[] stringBytes() throws IOException {
+        return encodedStringBytes(length());
+    }
+
+    private byte[] encodedStringBytes(long len) throws IOException {
+        if (len >= 0) return bytes(checkedLength(len));
+        int enc = (int) (-1 - len);
+        switch (enc) {
+            case ENC_INT8:
+                return ascii((byte) u8());
+            case ENC_INT16:
+                ensure(2);
+                return ascii(buf.getShort());
+            case ENC_INT32:
+                return ascii(i32());
+            case ENC_LZF: {
+                int clen = checkedLength(length());
+                int ulen = checkedLength(length());
+                return lzfDecompress(bytes(clen), ulen);
+            }
+            default:
+                throw new IllegalArgumentException("bad string encoding " + enc);
+        }
+    }
+
+    private void skipString() throws IOException {
+        long len = length();
+        if (len >= 0) {
+            skip(checkedLength(len));
+            return;
+        }
+        switch ((int) (-1 - len)) {
+            case ENC_INT8:
+                skip(1);
+                return;
+            case ENC_INT16:
+                skip(2);
+                return;
+            case ENC_INT32:
+                skip(4);
+                return;
+            case ENC_LZF: {
+                int clen = checkedLength(length());
+                length();
+                skip(clen);
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("bad string encoding " + (-1 - len));
+        }
+    }
+
+    private static byte[] ascii(long v) {
+        return Long.toString(v).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static int checkedLength(long len) {
+        if (len < 0 || len > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("bad string length " + len);
+        return (int) len;
+    }
+
+    static byte[] lzfDecompress(byte[] in, int outLen) {
+        byte[] out = new byte[outLen];
+        int ip = 0, op = 0;
+        try {
+            while (ip < in.length) {
+                int ctrl = in[ip++] & 0xFF;
+                if (ctrl < 32) { // literal run of ctrl + 1 bytes
+                    System.arraycopy(in, ip, out, op, ctrl + 1);
+                    ip += ctrl + 1;
+                    op += ctrl + 1;
+                    continue;
+                }
+                int len = ctrl >>> 5;
+                if (len == 7) len += in[ip++] & 0xFF;
+                int ref = op - ((ctrl & 0x1F) << 8) - (in[ip++] & 0xFF) - 1;
+                len += 2;
+                if (ref < 0) throw new IllegalArgumentException("bad LZF back reference");
+                for (int i = 0; i < len; i++) out[op++] = out[ref++]; // may overlap
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("bad LZF data");
+        }
+        if (op != outLen) throw new IllegalArgumentException("LZF length mismatch");
+        return out;
+    }
+
+    private int u8() throws IOException {
+        ensure(1);
+        return buf.get() & 0xFF;
+    }
+
+    private int i32() throws IOException {
+        ensure(4);
+        return buf.getInt();
+    }
+
+    private long i64() throws IOException {
+        ensure(8);
+        return buf.getLong();
+    }
+
+    private byte[] bytes(int n) throws IOException {
+        byte[] out = new byte[n];
+        int fromBuf = Math.min(n, buf.remaining());
+        buf.get(out, 0, fromBuf);
+        if (fromBuf < n) {
+            // large value: read the rest straight into the array
+            updateCrc();
+            ByteBuffer dst = ByteBuffer.wrap(out, fromBuf, n - fromBuf);
+            while (dst.hasRemaining()) {
+                if (ch.read(dst) < 0) throw new IOException("RDB truncated");
+            }
+            crc = Crc64.update(crc, out, fromBuf, n - fromBuf);
+            consumed += n - fromBuf;
+        }
+        return out;
+    }
+
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            ensure(1);
+            int step = (int) Math.min(n, buf.remaining());
+            buf.position(buf.position() + step);
+            n -= step;
+        }
+    }
+
+    /**
+     * Make at least n (<= buffer capacity) bytes available at the buffer's position.
+     */
+    private void ensure(int n) throws IOException {
+        if (buf.remaining() >= n) return;
+        updateCrc();
+        consumed += buf.position();
+        buf.compact();
+        crcMark = 0;
+        while (buf.position() < n) {
+            if (ch.read(buf) < 0) throw new IOException("RDB truncated");
+        }
+        buf.flip();
+    }
+
+    private void updateCrc() {
+        crc = Crc64.update(crc, buf.array(), crcMark, buf.position() - crcMark);
+        crcMark = buf.position();
+    }
+
+    private long offset() {
+        return consumed + buf.position();
+    }
+}
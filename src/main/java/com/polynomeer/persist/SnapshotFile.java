@@ -0,0 +1,372 @@
+package com.polynomeer.persist;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceSnapshot;
+import com.polynomeer.db.PartialTable;
+import com.polynomeer.util.ByteBuf;
+import com.polynomeer.util.VarInts;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot file format, version 2 (integers in entries are varints, see VarInts):
+ * <pre>
+ *   "JRDB" [version=2]
+ *   chunk*:  { [key] [expireAt + 1, 0 = no TTL] [value length: u32] [value (RecordCodec)] } ...
+ *   index:   [chunk count: u32] { [offset: u64] [length: u32] [keys: u32] [crc32: u32] } ...
+ *   trailer: [index offset: u64] [crc32 of index: u32] "JRDX"
+ * </pre>
+ * Chunks hold about CHUNK_BYTES of whole entries each and are independently decodable, so
+ * the loader maps the file and decodes chunks in parallel on a fork-join pool, each into its
+ * own PartialTable, while the calling thread merges finished tables into the Db in order.
+ * Value lengths let expired entries be skipped without decoding them.
+ * <p>
+ * Writes go to a temp file that is fsync'ed and atomically renamed over the target.
+ * Version 1 files (single CRC over a sequential entry stream) are still loaded, sequentially.
+ */
+public final class SnapshotFile {
+    static final byte[] MAGIC = {'J', 'R', 'D', 'B'};
+    static final byte[] INDEX_MAGIC = {'J', 'R', 'D', 'X'};
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = MAGIC.length + 1;
+    static final int TRAILER_BYTES = 8 + 4 + INDEX_MAGIC.length;
+    static final int INDEX_ENTRY_BYTES = 8 + 4 + 4 + 4;
+
+    private static final int CHUNK_BYTES = 1 << 20;
+    // chunks are mapped through windows of whole chunks of at most this size
+    private static final long MAP_WINDOW_BYTES = 1L << 30;
+
+    // version 1
+    private static final int V1_OP_ENTRY = 0x01;
+    private static final int V1_OP_EOF = 0xFF;
+    private static final int V1_LOAD_BATCH = 64 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Outcome of a load: keys inserted, keys skipped because their TTL had passed, bytes read.
+     */
+    public static final class LoadResult {
+        public final long keysLoaded;
+        public final long keysExpired;
+        public final long bytes;
+        public final long millis;
+        public final int threads;
+
+        LoadResult(long keysLoaded, long keysExpired, long bytes, long millis, int threads) {
+            this.keysLoaded = keysLoaded;
+            this.keysExpired = keysExpired;
+            this.bytes = bytes;
+            this.millis = millis;
+            this.threads = threads;
+        }
+
+        public long keysPerSec() {
+            return millis > 0 ? (keysLoaded + keysExpired) * 1000 / millis : keysLoaded + keysExpired;
+        }
+    }
+
+    private static final class Chunk {
+        final long offset;
+        final int length;
+        final int keys;
+        final int crc;
+
+        Chunk(long offset, int length, int keys, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.keys = keys;
+            this.crc = crc;
+        }
+    }
+
+    // ---------- write ----------
+
+    /**
+     * Serialize the snapshot to 'target' (via temp file + rename); returns bytes written.
+     */
+    public static long write(KeyspaceSnapshot snap, Path target) throws IOException {
+        Path tmp = target.resolveSibling("temp-" + ProcessHandle.current().pid() + "-" + target.getFileName());
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuf buf = new ByteBuf(CHUNK_BYTES + 64 * 1024);
+            buf.append(MAGIC, 0, MAGIC.length);
+            buf.appendByte(VERSION);
+            long offset = writeFully(ch, buf);
+
+            List<Chunk> index = new ArrayList<>();
+            CRC32 crc = new CRC32();
+            int keys = 0;
+            for (int i = 0; i < snap.size(); i++) {
+                VarInts.putString(buf, snap.key(i));
+                VarInts.putVarLong(buf, snap.expireAt(i) + 1);
+                int lenAt = buf.length();
+                putInt(buf, 0); // value length, patched below
+                snap.writeValue(i, buf);
+                setInt(buf.array(), lenAt, buf.length() - lenAt - 4);
+                keys++;
+                if (buf.length() >= CHUNK_BYTES) {
+                    offset += writeChunk(ch, buf, keys, offset, index, crc);
+                    keys = 0;
+                }
+            }
+            if (keys > 0) offset += writeChunk(ch, buf, keys, offset, index, crc);
+
+            long indexOffset = offset;
+            putInt(buf, index.size());
+            for (Chunk c : index) {
+                putLong(buf, c.offset);
+                putInt(buf, c.length);
+                putInt(buf, c.keys);
+                putInt(buf, c.crc);
+            }
+            crc.reset();
+            crc.update(buf.array(), 0, buf.length());
+            putLong(buf, indexOffset);
+            putInt(buf, (int) crc.getValue());
+            buf.append(INDEX_MAGIC, 0, INDEX_MAGIC.length);
+            offset += writeFully(ch, buf);
+            ch.force(true);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return offset;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static int writeChunk(FileChannel ch, ByteBuf buf, int keys, long offset, List<Chunk> index,
+                                  CRC32 crc) throws IOException {
+        crc.reset();
+        crc.update(buf.array(), 0, buf.length());
+        index.add(new Chunk(offset, buf.length(), keys, (int) crc.getValue()));
+        return writeFully(ch, buf);
+    }
+
+    private static int writeFully(FileChannel ch, ByteBuf buf) throws IOException {
+        int n = buf.length();
+        ByteBuffer bb = ByteBuffer.wrap(buf.array(), 0, n);
+        while (bb.hasRemaining()) ch.write(bb);
+        buf.clear();
+        return n;
+    }
+
+    // ---------- load ----------
+
+    /**
+     * Load 'path' into db (reactor thread, before serving clients), decoding on 'threads'
+     * workers. Returns null if the file does not exist; throws IOException if it is corrupt.
+     */
+    public static LoadResult load(Path path, Db db, int threads) throws IOException {
+        if (!Files.exists(path)) return null;
+        long start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES) throw new IOException("snapshot truncated");
+            ByteBuffer header = readAt(ch, 0, HEADER_BYTES);
+            for (byte b : MAGIC) {
+                if (header.get() != b) throw new IOException("not a snapshot file");
+            }
+            int version = header.get() & 0xFF;
+            long now = System.currentTimeMillis();
+            if (version == 1) {
+                long[] counts = loadV1(ch, size, db, now);
+                return new LoadResult(counts[0], counts[1], size, (System.nanoTime() - start) / 1_000_000, 1);
+            }
+            if (version != VERSION) throw new IOException("unsupported snapshot version " + version);
+
+            List<Chunk> chunks = readIndex(ch, size);
+            long totalKeys = 0;
+            for (Chunk c : chunks) totalKeys += c.keys;
+            db.reserve((int) Math.min(totalKeys, Integer.MAX_VALUE - 8));
+
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+            try {
+                List<ForkJoinTask<PartialTable>> tasks = new ArrayList<>(chunks.size());
+                for (ByteBuffer[] window : mapWindows(ch, chunks)) {
+                    for (int i = 0; i < window.length; i++) {
+                        Chunk c = chunks.get(tasks.size());
+                        ByteBuffer slice = window[i];
+                        tasks.add(pool.submit(() -> decodeChunk(c, slice, now)));
+                    }
+                }
+                // merge in file order while later chunks are still being decoded
+                long loaded = 0;
+                for (int i = 0; i < tasks.size(); i++) {
+                    PartialTable t;
+                    try {
+                        t = tasks.get(i).join();
+                    } catch (IllegalArgumentException | BufferUnderflowException e) {
+                        // join() rethrows a copy wrapping the worker's exception
+                        Throwable root = e.getCause() != null ? e.getCause() : e;
+                        throw new IOException("corrupt snapshot chunk " + i + ": " + root.getMessage(), e);
+                    }
+                    loaded += db.loadBulk(t, now);
+                    tasks.set(i, null); // let the decoded table go
+                }
+                return new LoadResult(loaded, totalKeys - loaded, size, (System.nanoTime() - start) / 1_000_000,
+                        pool.getParallelism());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static List<Chunk> readIndex(FileChannel ch, long size) throws IOException {
+        if (size < HEADER_BYTES + TRAILER_BYTES + 4) throw new IOException("snapshot truncated");
+        ByteBuffer trailer = readAt(ch, size - TRAILER_BYTES, TRAILER_BYTES);
+        long indexOffset = trailer.getLong();
+        int indexCrc = trailer.getInt();
+        for (byte b : INDEX_MAGIC) {
+            if (trailer.get() != b) throw new IOException("snapshot truncated (no chunk index)");
+        }
+        long indexLen = size - TRAILER_BYTES - indexOffset;
+        if (indexOffset < HEADER_BYTES || indexLen < 4 || indexLen > Integer.MAX_VALUE) {
+            throw new IOException("bad chunk index offset " + indexOffset);
+        }
+        ByteBuffer idx = readAt(ch, indexOffset, (int) indexLen);
+        CRC32 crc = new CRC32();
+        crc.update(idx.duplicate());
+        if ((int) crc.getValue() != indexCrc) throw new IOException("snapshot index checksum mismatch");
+        int n = idx.getInt();
+        if (n < 0 || (long) n * INDEX_ENTRY_BYTES != idx.remaining()) throw new IOException("bad chunk index");
+        List<Chunk> chunks = new ArrayList<>(n);
+        long expect = HEADER_BYTES;
+        for (int i = 0; i < n; i++) {
+            Chunk c = new Chunk(idx.getLong(), idx.getInt(), idx.getInt(), idx.getInt());
+            if (c.offset != expect || c.length < 0 || c.keys < 0) throw new IOException("bad chunk index entry " + i);
+            expect += c.length;
+            chunks.add(c);
+        }
+        if (expect != indexOffset) throw new IOException("chunk index does not cover the file");
+        return chunks;
+    }
+
+    /**
+     * Map consecutive chunks through as few windows as possible; returns one slice per chunk,
+     * grouped by window.
+     */
+    private static List<ByteBuffer[]> mapWindows(FileChannel ch, List<Chunk> chunks) throws IOException {
+        List<ByteBuffer[]> out = new ArrayList<>();
+        int i = 0;
+        while (i < chunks.size()) {
+            long from = chunks.get(i).offset;
+            int j = i;
+            while (j < chunks.size() && chunks.get(j).offset + chunks.get(j).length - from <= MAP_WINDOW_BYTES) j++;
+            if (j == i) j = i + 1; // a single oversized chunk gets its own window
+            Chunk last = chunks.get(j - 1);
+            MappedByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY, from, last.offset + last.length - from);
+            ByteBuffer[] slices = new ByteBuffer[j - i];
+            for (int k = i; k < j; k++) {
+                Chunk c = chunks.get(k);
+                int at = (int) (c.offset - from);
+                slices[k - i] = window.duplicate().position(at).limit(at + c.length).slice();
+            }
+            out.add(slices);
+            i = j;
+        }
+        return out;
+    }
+
+    /**
+     * Worker thread: verify and decode one chunk, skipping entries already expired at nowMs.
+     */
+    private static PartialTable decodeChunk(Chunk c, ByteBuffer in, long nowMs) {
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+        if ((int) crc.getValue() != c.crc) throw new IllegalArgumentException("checksum mismatch");
+        PartialTable t = new PartialTable(c.keys);
+        for (int i = 0; i < c.keys; i++) {
+            String key = VarInts.getString(in);
+            long expireAt = VarInts.getVarLong(in) - 1;
+            int len = in.getInt();
+            if (len < 0 || len > in.remaining()) throw new IllegalArgumentException("bad value length");
+            int end = in.position() + len;
+            if (expireAt >= 0 && expireAt <= nowMs) {
+                in.position(end);
+                continue;
+            }
+            t.decode(key, expireAt, in);
+            if (in.position() != end) throw new IllegalArgumentException("value length mismatch for key " + key);
+        }
+        if (in.hasRemaining()) throw new IllegalArgumentException("trailing bytes");
+        return t;
+    }
+
+    /**
+     * Version 1: one sequential entry stream with a single trailing CRC; returns {loaded, expired}.
+     */
+    private static long[] loadV1(FileChannel ch, long size, Db db, long now) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("snapshot too large to map: " + size);
+        if (size < HEADER_BYTES + 1 + 4) throw new IOException("snapshot truncated");
+        MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(0).limit((int) size - 4));
+        if ((int) crc.getValue() != in.getInt((int) size - 4)) throw new IOException("snapshot checksum mismatch");
+        in.position(HEADER_BYTES).limit((int) size - 4);
+        try {
+            long decoded = 0, loaded = 0;
+            PartialTable batch = new PartialTable(V1_LOAD_BATCH);
+            while (true) {
+                int op = in.get() & 0xFF;
+                if (op == V1_OP_EOF) break;
+                if (op != V1_OP_ENTRY) throw new IOException("bad opcode " + op + " at " + (in.position() - 1));
+                String key = VarInts.getString(in);
+                long expireAt = VarInts.getVarLong(in) - 1;
+                batch.decode(key, expireAt, in);
+                decoded++;
+                if (batch.size() >= V1_LOAD_BATCH) {
+                    loaded += db.loadBulk(batch, now);
+                    batch = new PartialTable(V1_LOAD_BATCH);
+                }
+            }
+            loaded += db.loadBulk(batch, now);
+            return new long[]{loaded, decoded - loaded};
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("corrupt snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    // ---------- primitives ----------
+
+    private static ByteBuffer readAt(FileChannel ch, long pos, int n) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(n);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) throw new IOException("snapshot truncated");
+        }
+        return b.flip();
+    }
+
+    private static void putInt(ByteBuf out, int v) {
+        out.appendByte(v >>> 24);
+        out.appendByte(v >>> 16);
+        out.appendByte(v >>> 8);
+        out.appendByte(v);
+    }
+
+    private static void putLong(ByteBuf out, long v) {
+        putInt(out, (int) (v >>> 32));
+        putInt(out, (int) v);
+    }
+
+    private static void setInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,187 @@
+package com.polynomeer.persist;
+
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * SAVE / BGSAVE / "save <seconds> <changes>" rules.
+ * - The snapshot is captured on the reactor (shallow copy + copy-on-write in the Db)
+ * - BGSAVE serializes it on a dedicated thread while the reactor keeps serving writes
+ * - Completion is handed back to the reactor through 'loop', which also ends COW
+ * <p>
+ * All methods are called on the reactor thread.
+ */
+public final class SnapshotManager {
+    private static final long BGSAVE_RETRY_DELAY_MS = 5_000;
+
+    private final Db db;
+    private final ServerConfig config;
+    private final Executor loop;
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "jredis-bgsave");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private boolean inProgress;
+    private long dirtyAtLastSave;
+    private long lastSaveMs = System.currentTimeMillis();
+    private long lastAttemptMs;
+    private boolean lastOk = true;
+    private long lastDurationMs = -1;
+    private long lastBytes;
+    private long lastKeys;
+    private long lastCowCopies;
+    private SnapshotFile.LoadResult lastLoad;
+
+    public SnapshotManager(Db db, ServerConfig config, Executor loop) {
+        this.db = db;
+        this.config = config;
+        this.loop = loop;
+    }
+
+    public Path path() {
+        return Paths.get(config.dir()).resolve(config.dbFilename());
+    }
+
+    /**
+     * Load the snapshot file, if any, into the (empty) keyspace.
+     */
+    public void loadAtStartup() throws IOException {
+        SnapshotFile.LoadResult r = SnapshotFile.load(path(), db, config.loadThreads());
+        if (r == null) return;
+        lastLoad = r;
+        dirtyAtLastSave = db.dirty();
+        System.out.println("[jredis] DB loaded from disk: " + r.keysLoaded + " keys ("
+                + r.keysExpired + " expired skipped), " + r.bytes + " bytes in " + r.millis + " ms ("
+                + r.keysPerSec() + " keys/sec, " + r.threads + " decode threads)");
+    }
+
+    /**
+     * Treat the current keyspace as saved (after loading it from the append-only file).
+     */
+    public void resetChangeCounter() {
+        dirtyAtLastSave = db.dirty();
+    }
+
+    /**
+     * Foreground SAVE: blocks the reactor for the whole dump.
+     */
+    public void save() throws IOException {
+        if (inProgress) throw new IOException("Background save already in progress");
+        // another snapshot (AOF rewrite) may be active: SAVE takes its own, copy-on-write copes with both
+        long start = System.nanoTime();
+        long dirtyAtStart = db.dirty();
+        KeyspaceSnapshot snap = db.snapshot();
+        try {
+            long bytes = SnapshotFile.write(snap, path());
+            finished(snap, bytes, dirtyAtStart, (System.nanoTime() - start) / 1_000_000, null);
+        } catch (IOException | RuntimeException e) {
+            finished(snap, 0, dirtyAtStart, (System.nanoTime() - start) / 1_000_000, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Start a background save; returns false if a save or an AOF rewrite is already running.
+     */
+    public boolean bgsave() {
+        if (inProgress || db.snapshotActive()) return false;
+        inProgress = true;
+        lastAttemptMs = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long dirtyAtStart = db.dirty();
+        KeyspaceSnapshot snap = db.snapshot();
+        Path target = path();
+        System.out.println("[jredis] Background saving started (" + snap.size() + " keys)");
+        saver.execute(() -> {
+            long bytes = 0;
+            Exception err = null;
+            try {
+                bytes = SnapshotFile.write(snap, target);
+            } catch (IOException | RuntimeException e) {
+                err = e;
+            }
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            long b = bytes;
+            Exception e = err;
+            loop.execute(() -> finished(snap, b, dirtyAtStart, ms, e));
+        });
+        return true;
+    }
+
+    private void finished(KeyspaceSnapshot snap, long bytes, long dirtyAtStart, long ms, Exception err) {
+        lastCowCopies = db.cowCopies();
+        db.releaseSnapshot();
+        inProgress = false;
+        lastDurationMs = ms;
+        if (err != null) {
+            lastOk = false;
+            System.out.println("[jredis] Snapshot failed: " + err.getMessage());
+            return;
+        }
+        lastOk = true;
+        lastSaveMs = System.currentTimeMillis();
+        dirtyAtLastSave = dirtyAtStart;
+        lastBytes = bytes;
+        lastKeys = snap.size();
+        System.out.println("[jredis] DB saved on disk: " + lastKeys + " keys, " + bytes + " bytes in "
+                + ms + " ms (" + lastCowCopies + " values copied on write)");
+    }
+
+    /**
+     * Periodic check of the save rules (called from the reactor cron).
+     */
+    public void cron(long nowMs) {
+        if (inProgress || db.snapshotActive()) return;
+        long changes = db.dirty() - dirtyAtLastSave;
+        if (changes <= 0) return;
+        // after a failure, retry only every few seconds
+        if (!lastOk && nowMs - lastAttemptMs < BGSAVE_RETRY_DELAY_MS) return;
+        for (long[] rule : config.saveRules()) {
+            if (changes >= rule[1] && nowMs - lastSaveMs >= rule[0] * 1000) {
+                System.out.println("[jredis] " + rule[1] + " changes in " + rule[0] + " seconds. Saving...");
+                bgsave();
+                return;
+            }
+        }
+    }
+
+    // ---------- stats (INFO persistence) ----------
+
+    public boolean inProgress() {
+        return inProgress;
+    }
+
+    public long lastSaveSeconds() {
+        return lastSaveMs / 1000;
+    }
+
+    public String info() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("rdb_changes_since_last_save:").append(db.dirty() - dirtyAtLastSave).append("\r\n");
+        sb.append("rdb_bgsave_in_progress:").append(inProgress ? 1 : 0).append("\r\n");
+        sb.append("rdb_last_save_time:").append(lastSaveSeconds()).append("\r\n");
+        sb.append("rdb_last_bgsave_status:").append(lastOk ? "ok" : "err").append("\r\n");
+        sb.append("rdb_last_save_duration_ms:").append(lastDurationMs).append("\r\n");
+        sb.append("rdb_last_save_bytes:").append(lastBytes).append("\r\n");
+        sb.append("rdb_last_save_keys:").append(lastKeys).append("\r\n");
+        sb.append("rdb_last_cow_copies:").append(lastCowCopies).append("\r\n");
+        if (lastLoad != null) {
+            sb.append("rdb_last_load_keys_loaded:").append(lastLoad.keysLoaded).append("\r\n");
+            sb.append("rdb_last_load_keys_expired:").append(lastLoad.keysExpired).append("\r\n");
+            sb.append("rdb_last_load_duration_ms:").append(lastLoad.millis).append("\r\n");
+            sb.append("rdb_last_load_keys_per_sec:").append(lastLoad.keysPerSec()).append("\r\n");
+            sb.append("rdb_last_load_threads:").append(lastLoad.threads).append("\r\n");
+        }
+        return sb.toString();
+    }
+}
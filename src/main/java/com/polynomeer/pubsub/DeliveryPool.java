@@ -0,0 +1,110 @@
+package com.polynomeer.pubsub;
+
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.resp.RespWriter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Delivery threads for large Pub/Sub fan-outs (pubsub-delivery-threads > 0):
+ * - every subscriber is pinned to one partition, i.e. one thread with a FIFO job queue
+ * - a publish to a channel with many subscribers becomes one job per partition, holding the
+ *   shared frame and that partition's subscribers; the delivery thread appends the frame to
+ *   each write queue or writes it to the socket directly, so PUBLISH returns once the jobs
+ *   are queued
+ * <p>
+ * Ordering: while a partition has unfinished jobs, whatever the reactor pushes to one of its
+ * subscribers (messages of small channels, command replies) is queued behind them as a job
+ * too, so each subscriber receives frames in the order the reactor produced them.
+ */
+public final class DeliveryPool {
+    private final Partition[] partitions;
+    private int next; // round-robin assignment (reactor thread)
+
+    DeliveryPool(int threads, Runnable wakeup) {
+        partitions = new Partition[threads];
+        for (int i = 0; i < threads; i++) partitions[i] = new Partition(i, wakeup);
+    }
+
+    /**
+     * Partition for a new subscriber (reactor thread).
+     */
+    Partition assign() {
+        Partition p = partitions[next];
+        next = (next + 1) % partitions.length;
+        return p;
+    }
+
+    int size() {
+        return partitions.length;
+    }
+
+    Partition partition(int i) {
+        return partitions[i];
+    }
+
+    public static final class Partition {
+        final int index;
+        private final Runnable wakeup;
+        private final ExecutorService worker;
+        private long submitted;          // reactor thread
+        private volatile long completed; // delivery thread; published after the job's pushes
+
+        Partition(int index, Runnable wakeup) {
+            this.index = index;
+            this.wakeup = wakeup;
+            this.worker = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "jredis-pubsub-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        /**
+         * True while jobs queued by the reactor are still running (reactor thread).
+         */
+        public boolean busy() {
+            return completed != submitted;
+        }
+
+        /**
+         * Queue one buffer for c behind this partition's pending jobs (reactor thread).
+         */
+        public void submit(ClientConn c, ByteBuffer frame) {
+            submitted++;
+            worker.execute(() -> {
+                try {
+                    if (c.deliver(frame)) wakeup.run();
+                } finally {
+                    completed++;
+                }
+            });
+        }
+
+        /**
+         * Queue a shared frame for every target, all pinned to this partition (reactor thread).
+         */
+        void submitAll(ClientConn[] targets, ByteBuffer frame) {
+            submitted++;
+            worker.execute(() -> {
+                try {
+                    boolean wake = false;
+                    ByteBuffer push = null; // RESP3 variant, encoded on first use
+                    for (ClientConn c : targets) {
+                        if (c.resp3()) {
+                            if (push == null) push = RespWriter.asPush(frame);
+                            wake |= c.deliver(push.asReadOnlyBuffer());
+                        } else {
+                            wake |= c.deliver(frame.asReadOnlyBuffer()); // own position, shared bytes
+                        }
+                    }
+                    if (wake) wakeup.run();
+                } finally {
+                    completed++;
+                }
+            });
+        }
+    }
+}
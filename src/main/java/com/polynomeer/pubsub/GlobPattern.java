@@ -0,0 +1,135 @@
+package com.polynomeer.pubsub;
+
+/**
+ * Glob pattern compiled once for repeated matching, with Redis' stringmatch rules:
+ * '*' any run, '?' any char, [abc] / [^abc] / [a-z] classes, '\' escapes the next char.
+ * Matching is case-sensitive, over server strings (one char per byte).
+ * <p>
+ * The pattern becomes one token per consumed char plus STAR tokens; the leading run of
+ * literal tokens is exposed as prefix() so an index can skip patterns that cannot match,
+ * and matchesAfterPrefix() starts after it.
+ */
+final class GlobPattern {
+    private static final byte LITERAL = 0;
+    private static final byte ANY = 1;
+    private static final byte STAR = 2;
+    private static final byte CLASS = 3;
+
+    private final byte[] kinds;
+    private final char[] chars;       // LITERAL
+    private final boolean[][] sets;   // CLASS: membership by char (negation already applied)
+    private final String prefix;
+
+    private GlobPattern(byte[] kinds, char[] chars, boolean[][] sets, int n) {
+        this.kinds = java.util.Arrays.copyOf(kinds, n);
+        this.chars = java.util.Arrays.copyOf(chars, n);
+        this.sets = java.util.Arrays.copyOf(sets, n);
+        int p = 0;
+        while (p < n && this.kinds[p] == LITERAL) p++;
+        this.prefix = new String(this.chars, 0, p);
+    }
+
+    static GlobPattern compile(String pattern) {
+        int len = pattern.length();
+        byte[] kinds = new byte[len];
+        char[] chars = new char[len];
+        boolean[][] sets = new boolean[len][];
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            char c = pattern.charAt(i);
+            switch (c) {
+                case '*':
+                    if (n > 0 && kinds[n - 1] == STAR) continue; // "**" is "*"
+                    kinds[n++] = STAR;
+                    break;
+                case '?':
+                    kinds[n++] = ANY;
+                    break;
+                case '[': {
+                    boolean[] set = new boolean[256];
+                    boolean not = i + 1 < len && pattern.charAt(i + 1) == '^';
+                    if (not) i++;
+                    // like Redis, an unterminated class runs to the end of the pattern
+                    for (i++; i < len && pattern.charAt(i) != ']'; i++) {
+                        char a = pattern.charAt(i);
+                        if (a == '\\' && i + 1 < len) {
+                            set[pattern.charAt(++i) & 0xFF] = true;
+                        } else if (i + 2 < len && pattern.charAt(i + 1) == '-') {
+                            char b = pattern.charAt(i + 2);
+                            for (int x = Math.min(a, b); x <= Math.max(a, b); x++) set[x & 0xFF] = true;
+                            i += 2;
+                        } else {
+                            set[a & 0xFF] = true;
+                        }
+                    }
+                    if (not) for (int x = 0; x < 256; x++) set[x] = !set[x];
+                    kinds[n] = CLASS;
+                    sets[n++] = set;
+                    break;
+                }
+                case '\\':
+                    if (i + 1 < len) c = pattern.charAt(++i);
+                    // the escaped (or trailing) char is a literal
+                    kinds[n] = LITERAL;
+                    chars[n++] = c;
+                    break;
+                default:
+                    kinds[n] = LITERAL;
+                    chars[n++] = c;
+                    break;
+            }
+        }
+        return new GlobPattern(kinds, chars, sets, n);
+    }
+
+    /**
+     * Literal text every matching string starts with (may be empty).
+     */
+    String prefix() {
+        return prefix;
+    }
+
+    boolean matches(String s) {
+        return s.startsWith(prefix) && matchesAfterPrefix(s);
+    }
+
+    /**
+     * Match s, whose first prefix().length() chars are known to equal the prefix.
+     */
+    boolean matchesAfterPrefix(String s) {
+        int n = kinds.length;
+        int len = s.length();
+        if (len == 0) return n == 0; // as in Redis, even "*" does not match an empty string
+        int t = prefix.length();
+        int i = t;
+        int starT = -1;  // token after the last '*' seen
+        int starI = 0;   // where that '*' currently stops
+        while (i < len) {
+            if (t < n && kinds[t] != STAR && one(t, s.charAt(i))) {
+                t++;
+                i++;
+            } else if (t < n && kinds[t] == STAR) {
+                starT = ++t;
+                starI = i;
+            } else if (starT >= 0) {
+                t = starT; // let the last '*' take one more char
+                i = ++starI;
+            } else {
+                return false;
+            }
+        }
+        while (t < n && kinds[t] == STAR) t++;
+        return t == n;
+    }
+
+    private boolean one(int t, char c) {
+        switch (kinds[t]) {
+            case LITERAL:
+                return chars[t] == c;
+            case ANY:
+                return true;
+            default:
+                return sets[t][c & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.polynomeer.pubsub;
+
+import com.polynomeer.db.KeyspaceEvents;
+
+/**
+ * Keyspace notifications published for the Db (notify-keyspace-events):
+ * - "__keyspace@0__:<key>" with the event name as message (class K)
+ * - "__keyevent@0__:<event>" with the key as message (class E)
+ * <p>
+ * Writes call notify() unconditionally; it returns before building any channel name unless
+ * the event class is enabled and some subscription could receive keyspace events (a
+ * counter kept by the broker), so notifications cost nothing while nobody listens.
+ */
+final class KeyspaceNotifier implements KeyspaceEvents {
+    static final String KEYSPACE_PREFIX = "__keyspace@0__:";
+    static final String KEYEVENT_PREFIX = "__keyevent@0__:";
+
+    private final PubSubBroker broker;
+    private int flags; // 0 unless K or E is set as well
+
+    KeyspaceNotifier(PubSubBroker broker) {
+        this.broker = broker;
+    }
+
+    void setFlags(int flags) {
+        this.flags = (flags & (KEYSPACE | KEYEVENT)) != 0 ? flags : 0;
+    }
+
+    @Override
+    public boolean enabled(int type) {
+        return (flags & type) != 0 && broker.hasKeyspaceListeners();
+    }
+
+    @Override
+    public void notify(int type, String event, String key) {
+        if (!enabled(type)) return;
+        if ((flags & KEYSPACE) != 0) broker.publish(KEYSPACE_PREFIX + key, event);
+        if ((flags & KEYEVENT) != 0) broker.publish(KEYEVENT_PREFIX + event, key);
+    }
+}
@@ -0,0 +1,113 @@
+package com.polynomeer.pubsub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of pattern subscriptions by the literal prefix of their glob:
+ * - one node per prefix char, children in small parallel arrays (few per node in practice)
+ * - a pattern is stored at the node where its literal prefix ends
+ * <p>
+ * A publish walks the channel name down the trie; only patterns stored on that path have a
+ * prefix the channel starts with, so only those are run, starting after their prefix.
+ * Patterns starting with a wildcard sit at the root and are always evaluated.
+ * Reactor-thread only.
+ */
+final class PatternTrie<V> {
+    private static final char[] NO_KEYS = new char[0];
+
+    private final Node<V> root = new Node<>();
+
+    private static final class Node<V> {
+        char[] keys = NO_KEYS;
+        Node<V>[] children;
+        int childCount;
+        final List<V> values = new ArrayList<>(0);
+        final List<GlobPattern> globs = new ArrayList<>(0);
+
+        Node<V> child(char c) {
+            for (int i = 0; i < childCount; i++) {
+                if (keys[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<V> addChild(char c) {
+            if (childCount == keys.length) {
+                int cap = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, cap);
+                children = children == null ? (Node<V>[]) new Node<?>[cap] : Arrays.copyOf(children, cap);
+            }
+            Node<V> n = new Node<>();
+            keys[childCount] = c;
+            children[childCount++] = n;
+            return n;
+        }
+
+        void removeChild(char c) {
+            for (int i = 0; i < childCount; i++) {
+                if (keys[i] == c) {
+                    childCount--;
+                    keys[i] = keys[childCount];
+                    children[i] = children[childCount];
+                    children[childCount] = null;
+                    return;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return childCount == 0 && values.isEmpty();
+        }
+    }
+
+    void add(GlobPattern glob, V value) {
+        String prefix = glob.prefix();
+        Node<V> n = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            Node<V> next = n.child(prefix.charAt(i));
+            n = next != null ? next : n.addChild(prefix.charAt(i));
+        }
+        n.values.add(value);
+        n.globs.add(glob);
+    }
+
+    void remove(GlobPattern glob, V value) {
+        remove(root, glob.prefix(), 0, value);
+    }
+
+    // returns true when 'n' became empty and may be unlinked by its parent
+    private boolean remove(Node<V> n, String prefix, int depth, V value) {
+        if (depth == prefix.length()) {
+            int i = n.values.indexOf(value);
+            if (i >= 0) {
+                n.values.remove(i);
+                n.globs.remove(i);
+            }
+        } else {
+            char c = prefix.charAt(depth);
+            Node<V> next = n.child(c);
+            if (next != null && remove(next, prefix, depth + 1, value)) n.removeChild(c);
+        }
+        return n.isEmpty();
+    }
+
+    /**
+     * Append to out every value whose pattern matches s.
+     */
+    void match(String s, List<V> out) {
+        Node<V> n = root;
+        int depth = 0;
+        while (true) {
+            List<GlobPattern> globs = n.globs;
+            for (int i = 0; i < globs.size(); i++) {
+                if (globs.get(i).matchesAfterPrefix(s)) out.add(n.values.get(i));
+            }
+            if (depth == s.length()) return;
+            n = n.child(s.charAt(depth++));
+            if (n == null) return;
+        }
+    }
+}
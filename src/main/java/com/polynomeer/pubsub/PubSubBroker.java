@@ -1,27 +1,131 @@
 package com.polynomeer.pubsub;
 
 
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.KeyspaceEvents;
 import com.polynomeer.net.ClientConn;
 import com.polynomeer.resp.RespWriter;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
  * In-memory Pub/Sub broker:
- * - channel -> set of connections
+ * - channel -> subscribers (a set for membership, plus an array rebuilt on the first publish
+ *   after a change, so publishing iterates a plain array without copying it)
+ * - pattern -> subscribers the same way; patterns are compiled once and indexed by their
+ *   literal prefix (PatternTrie), so a publish only runs the patterns that can match
  * - subscribe/unsubscribe from reactor thread
- * - non-blocking broadcast: push to each subscriber's write queue
+ * - non-blocking broadcast: the message frame is encoded once (once per matching pattern
+ *   for pmessage) and each subscriber's write queue gets a read-only view of it
+ * - keyspace notifications of the Db are published here too (KeyspaceNotifier); a count of
+ *   channels and patterns that could receive them lets writes skip the work while it is 0
+ * - with pubsub-delivery-threads set, fan-outs of at least pubsub-offload-threshold
+ *   subscribers are handed to DeliveryPool, one job per partition, instead of being pushed
+ *   by the reactor
  */
 public final class PubSubBroker {
+    private static final ClientConn[] NONE = new ClientConn[0];
 
-    private final Map<String, Set<ClientConn>> channels = new HashMap<>();
+    private final Map<String, Subscribers> channels = new HashMap<>();
+    private final Map<String, Subscribers> patterns = new HashMap<>();
+    private final PatternTrie<Subscribers> patternIndex = new PatternTrie<>();
+    private final List<Subscribers> matched = new ArrayList<>(); // publish scratch
+    private final ServerConfig config;
+    private final DeliveryPool pool; // null: every delivery happens on the reactor
+    private final KeyspaceNotifier keyspaceEvents = new KeyspaceNotifier(this);
+    private int keyspaceListeners; // channels and patterns that may match keyspace channels
+
+    public PubSubBroker(ServerConfig config, Runnable wakeup) {
+        this.config = config;
+        int threads = config.pubsubDeliveryThreads();
+        this.pool = threads > 0 ? new DeliveryPool(threads, wakeup) : null;
+        applyConfig();
+    }
+
+    /**
+     * Re-read runtime parameters (after CONFIG SET).
+     */
+    public void applyConfig() {
+        keyspaceEvents.setFlags(config.notifyKeyspaceEvents());
+    }
+
+    /**
+     * Sink for the Db's keyspace events, publishing them as notifications.
+     */
+    public KeyspaceEvents keyspaceEvents() {
+        return keyspaceEvents;
+    }
+
+    boolean hasKeyspaceListeners() {
+        return keyspaceListeners > 0;
+    }
+
+    // could a channel (or, with glob set, a pattern) named 'name' receive keyspace notifications?
+    private static boolean keyspaceRelevant(String name, GlobPattern glob) {
+        if (glob == null) {
+            return name.startsWith(KeyspaceNotifier.KEYSPACE_PREFIX)
+                    || name.startsWith(KeyspaceNotifier.KEYEVENT_PREFIX);
+        }
+        String p = glob.prefix();
+        return KeyspaceNotifier.KEYSPACE_PREFIX.startsWith(p) || p.startsWith(KeyspaceNotifier.KEYSPACE_PREFIX)
+                || KeyspaceNotifier.KEYEVENT_PREFIX.startsWith(p) || p.startsWith(KeyspaceNotifier.KEYEVENT_PREFIX);
+    }
+
+    private static final class Subscribers {
+        final String name;
+        final GlobPattern glob; // pattern subscriptions only
+        final boolean keyspace; // counted in keyspaceListeners
+        final Set<ClientConn> members = new HashSet<>();
+        ClientConn[] targets = NONE; // members as of the last publish; replaced, never modified
+        ClientConn[][] byPartition;  // targets grouped by delivery partition, built on demand
+        boolean stale;
+
+        Subscribers(String name, GlobPattern glob) {
+            this.name = name;
+            this.glob = glob;
+            this.keyspace = keyspaceRelevant(name, glob);
+        }
+
+        ClientConn[] targets() {
+            if (stale) {
+                targets = members.toArray(NONE);
+                byPartition = null;
+                stale = false;
+            }
+            return targets;
+        }
+
+        ClientConn[][] byPartition(DeliveryPool pool) {
+            ClientConn[] all = targets();
+            if (byPartition == null) {
+                int[] counts = new int[pool.size()];
+                for (ClientConn c : all) counts[c.deliveryPartition().index]++;
+                ClientConn[][] groups = new ClientConn[counts.length][];
+                for (int p = 0; p < groups.length; p++) groups[p] = new ClientConn[counts[p]];
+                int[] fill = new int[counts.length];
+                for (ClientConn c : all) {
+                    int p = c.deliveryPartition().index;
+                    groups[p][fill[p]++] = c;
+                }
+                byPartition = groups;
+            }
+            return byPartition;
+        }
+    }
 
     /**
      * Subscribe ctx to channel; returns new subscription count for ctx.
      */
     public int subscribe(String channel, ClientConn ctx) {
-        Set<ClientConn> set = channels.computeIfAbsent(channel, k -> new HashSet<>());
-        set.add(ctx);
+        Subscribers subs = channels.get(channel);
+        if (subs == null) {
+            subs = new Subscribers(channel, null);
+            channels.put(channel, subs);
+            if (subs.keyspace) keyspaceListeners++;
+        }
+        assignPartition(ctx);
+        if (subs.members.add(ctx)) subs.stale = true;
         ctx.addSubscription(channel);
         return ctx.subscriptionCount();
     }
@@ -30,53 +134,163 @@ public final class PubSubBroker {
      * Unsubscribe ctx from channel; returns new subscription count for ctx.
      */
     public int unsubscribe(String channel, ClientConn ctx) {
-        Set<ClientConn> set = channels.get(channel);
-        if (set != null) {
-            set.remove(ctx);
-            if (set.isEmpty()) channels.remove(channel);
+        Subscribers subs = channels.get(channel);
+        if (subs != null && subs.members.remove(ctx)) {
+            subs.stale = true;
+            if (subs.members.isEmpty()) {
+                channels.remove(channel);
+                if (subs.keyspace) keyspaceListeners--;
+            }
         }
         ctx.removeSubscription(channel);
         return ctx.subscriptionCount();
     }
 
     /**
-     * Unsubscribe ctx from all channels.
-     * If 'known' is null, this method will not iterate it; it will push acks by snapshotting.
+     * Subscribe ctx to a glob pattern; returns new subscription count for ctx.
+     */
+    public int psubscribe(String pattern, ClientConn ctx) {
+        Subscribers subs = patterns.get(pattern);
+        if (subs == null) {
+            subs = new Subscribers(pattern, GlobPattern.compile(pattern));
+            patterns.put(pattern, subs);
+            patternIndex.add(subs.glob, subs);
+            if (subs.keyspace) keyspaceListeners++;
+        }
+        assignPartition(ctx);
+        if (subs.members.add(ctx)) subs.stale = true;
+        ctx.addPattern(pattern);
+        return ctx.subscriptionCount();
+    }
+
+    private void assignPartition(ClientConn ctx) {
+        if (pool != null && ctx.deliveryPartition() == null) ctx.setDeliveryPartition(pool.assign());
+    }
+
+    /**
+     * Unsubscribe ctx from a pattern; returns new subscription count for ctx.
      */
-    public void unsubscribeAll(ClientConn ctx, Set<String> known) {
-        // Snapshot to avoid concurrent modification (still single-threaded, but safe)
-        Set<String> subs = (known != null) ? new HashSet<>(known) : snapshotSubscriptions(ctx);
-        for (String ch : subs) {
+    public int punsubscribe(String pattern, ClientConn ctx) {
+        Subscribers subs = patterns.get(pattern);
+        if (subs != null && subs.members.remove(ctx)) {
+            subs.stale = true;
+            if (subs.members.isEmpty()) {
+                patterns.remove(pattern);
+                patternIndex.remove(subs.glob, subs);
+                if (subs.keyspace) keyspaceListeners--;
+            }
+        }
+        ctx.removePattern(pattern);
+        return ctx.subscriptionCount();
+    }
+
+    /**
+     * Unsubscribe ctx from all channels, pushing an ack per channel.
+     */
+    public void unsubscribeAll(ClientConn ctx) {
+        for (String ch : new ArrayList<>(ctx.subscribedChannels())) {
             int count = unsubscribe(ch, ctx);
-            ctx.push(RespWriter.array3("unsubscribe", ch, count));
+            ctx.push(ack(ctx, "unsubscribe", ch, count));
+        }
+    }
+
+    /**
+     * Unsubscribe ctx from all patterns, pushing an ack per pattern.
+     */
+    public void punsubscribeAll(ClientConn ctx) {
+        for (String p : new ArrayList<>(ctx.subscribedPatterns())) {
+            int count = punsubscribe(p, ctx);
+            ctx.push(ack(ctx, "punsubscribe", p, count));
         }
     }
 
     /**
-     * Publish payload to channel; returns number of subscribers delivered to.
+     * [kind, name, count] (un)subscribe ack; a push frame for a RESP3 connection, where it
+     * arrives out of band like the messages themselves.
+     */
+    public static ByteBuffer ack(ClientConn ctx, String kind, String name, int count) {
+        ByteBuffer frame = RespWriter.array3(kind, name, count);
+        return ctx.resp3() ? RespWriter.asPush(frame) : frame;
+    }
+
+    /**
+     * Drop every subscription of a disconnecting client (no acks).
+     */
+    public void dropAll(ClientConn ctx) {
+        for (String ch : new ArrayList<>(ctx.subscribedChannels())) unsubscribe(ch, ctx);
+        for (String p : new ArrayList<>(ctx.subscribedPatterns())) punsubscribe(p, ctx);
+    }
+
+    /**
+     * Publish payload to channel; returns number of deliveries (channel subscribers plus one
+     * per matching pattern a client is subscribed to).
      */
     public int publish(String channel, String payload) {
-        Set<ClientConn> set = channels.get(channel);
-        if (set == null || set.isEmpty()) return 0;
-        int n = 0;
-        // Snapshot to avoid surprises if any client unsubscribes while iterating
-        List<ClientConn> targets = new ArrayList<>(set);
-        for (ClientConn c : targets) {
-            c.push(RespWriter.arrayMessage(channel, payload));
-            n++;
+        int delivered = 0;
+        Subscribers subs = channels.get(channel);
+        if (subs != null) {
+            delivered = fanOut(subs, RespWriter.arrayMessage(channel, payload));
+        }
+        if (patterns.isEmpty()) return delivered;
+        List<Subscribers> hits = matched;
+        patternIndex.match(channel, hits);
+        try {
+            for (int i = 0; i < hits.size(); i++) {
+                Subscribers p = hits.get(i);
+                delivered += fanOut(p, RespWriter.arrayPMessage(p.name, channel, payload));
+            }
+        } finally {
+            hits.clear();
+        }
+        return delivered;
+    }
+
+    // hand frame to every subscriber; returns how many there are
+    private int fanOut(Subscribers subs, ByteBuffer frame) {
+        ClientConn[] targets = subs.targets();
+        if (pool != null && targets.length >= config.pubsubOffloadThreshold()) {
+            ClientConn[][] groups = subs.byPartition(pool);
+            for (int p = 0; p < groups.length; p++) {
+                if (groups[p].length > 0) pool.partition(p).submitAll(groups[p], frame);
+            }
+        } else {
+            ByteBuffer push = null; // RESP3 variant, encoded on first use
+            for (ClientConn c : targets) {
+                if (c.resp3()) {
+                    if (push == null) push = RespWriter.asPush(frame);
+                    c.push(push.asReadOnlyBuffer());
+                } else {
+                    c.push(frame.asReadOnlyBuffer()); // own position, shared bytes
+                }
+            }
         }
-        return n;
+        return targets.length;
     }
 
-    private Set<String> snapshotSubscriptions(ClientConn ctx) {
-        // We don't keep a reverse map; ask ctx to enumerate.
-        // For simplicity, we can't access ctx's set directly; handled through known=null path
-        // and per-channel removal above after snapshotting from channels map.
-        // Create a snapshot by scanning channels. O(#channels), acceptable for this step.
-        Set<String> subs = new HashSet<>();
-        for (Map.Entry<String, Set<ClientConn>> e : channels.entrySet()) {
-            if (e.getValue().contains(ctx)) subs.add(e.getKey());
+    /**
+     * Active channels (at least one subscriber), optionally filtered by a glob pattern.
+     */
+    public List<String> channels(String pattern) {
+        GlobPattern glob = pattern == null ? null : GlobPattern.compile(pattern);
+        List<String> out = new ArrayList<>();
+        for (String ch : channels.keySet()) {
+            if (glob == null || glob.matches(ch)) out.add(ch);
         }
-        return subs;
+        return out;
+    }
+
+    /**
+     * Number of subscribers of a channel (pattern subscribers not counted).
+     */
+    public int numsub(String channel) {
+        Subscribers subs = channels.get(channel);
+        return subs == null ? 0 : subs.members.size();
+    }
+
+    /**
+     * Number of distinct patterns subscribed to by any client.
+     */
+    public int numpat() {
+        return patterns.size();
     }
 }
@@ -0,0 +1,302 @@
+package com.polynomeer.repl;
+
+import com.polynomeer.net.PeerLink;
+import com.polynomeer.resp.RespError;
+import com.polynomeer.resp.RespReader;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.ByteBuf;
+import com.polynomeer.util.Clocks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A replica's connection to its primary, registered with the reactor's selector:
+ * - CONNECTING: non-blocking connect
+ * - HANDSHAKE: PING, REPLCONF listening-port / capa and PSYNC are pipelined, replies read in order
+ * - TRANSFER: after +FULLRESYNC, the "$len" payload (newlines before it are keepalives)
+ *   goes to a temp file, which is loaded once complete
+ * - STREAMING: command frames are applied as they arrive (ReplicationManager.onCommand)
+ * <p>
+ * Reactor-thread only. I/O errors propagate to the reactor, which calls fail().
+ */
+public final class PrimaryLink implements PeerLink {
+    private static final int READ_BUF_SIZE = 64 * 1024;
+    private static final int HANDSHAKE_REPLIES = 4;
+
+    private enum State {CONNECTING, HANDSHAKE, TRANSFER, STREAMING}
+
+    private final ReplicationManager repl;
+    private final SocketChannel ch;
+    private final Selector selector;
+    private final Path payloadFile;
+    private final RespReader reader = new RespReader();
+    private final Deque<ByteBuffer> out = new ArrayDeque<>();
+    private ByteBuffer in = ByteBuffer.allocate(READ_BUF_SIZE);
+
+    private State state = State.CONNECTING;
+    private int repliesPending;
+    private FileChannel payload;
+    private long payloadRemaining = -1;
+    private long lastIoMs;
+    private boolean closed;
+
+    private PrimaryLink(ReplicationManager repl, SocketChannel ch, Selector selector, long nowMs) {
+        this.repl = repl;
+        this.ch = ch;
+        this.selector = selector;
+        this.payloadFile = repl.payloadPath();
+        this.lastIoMs = nowMs;
+    }
+
+    static PrimaryLink connect(ReplicationManager repl, Selector selector, String host, int port, long nowMs)
+            throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        try {
+            ch.configureBlocking(false);
+            PrimaryLink link = new PrimaryLink(repl, ch, selector, nowMs);
+            ch.register(selector, SelectionKey.OP_CONNECT, link);
+            if (ch.connect(new InetSocketAddress(host, port))) link.connected();
+            return link;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    boolean streaming() {
+        return state == State.STREAMING && !closed;
+    }
+
+    boolean transferring() {
+        return state == State.TRANSFER;
+    }
+
+    String stateName() {
+        switch (state) {
+            case CONNECTING:
+                return "connecting";
+            case HANDSHAKE:
+                return "handshake";
+            case TRANSFER:
+                return "sync";
+            default:
+                return "connected";
+        }
+    }
+
+    long lastIoMs() {
+        return lastIoMs;
+    }
+
+    // ---------- selector events ----------
+
+    @Override
+    public void handleConnect() throws IOException {
+        if (ch.finishConnect()) connected();
+    }
+
+    private void connected() throws IOException {
+        state = State.HANDSHAKE;
+        repliesPending = HANDSHAKE_REPLIES;
+        setInterest(SelectionKey.OP_READ);
+        for (List<String> cmd : repl.handshake()) send(cmd);
+    }
+
+    @Override
+    public void handleRead() throws IOException {
+        if (!in.hasRemaining()) {
+            // a frame larger than the buffer: grow it
+            ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+        int n = ch.read(in);
+        if (n < 0) throw new IOException("connection closed by primary");
+        if (n == 0) return;
+        lastIoMs = Clocks.monoMillis();
+        in.flip();
+        try {
+            process();
+        } catch (RespError e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            if (!closed) in.compact();
+        }
+    }
+
+    @Override
+    public void handleWrite() throws IOException {
+        while (!out.isEmpty()) {
+            ByteBuffer b = out.peekFirst();
+            ch.write(b);
+            if (b.hasRemaining()) return;
+            out.pollFirst();
+        }
+        setInterest(SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void fail(String reason) {
+        if (closed) return;
+        close();
+        repl.onLinkLost(this, reason);
+    }
+
+    // ---------- input ----------
+
+    private void process() throws IOException {
+        while (!closed) {
+            switch (state) {
+                case HANDSHAKE: {
+                    String line = readLine();
+                    if (line == null) return;
+                    handshakeReply(line);
+                    break;
+                }
+                case TRANSFER:
+                    if (!transfer()) return;
+                    break;
+                case STREAMING: {
+                    int start = in.position();
+                    List<String> argv = reader.tryReadCommand(in);
+                    if (argv == null) {
+                        in.position(start);
+                        return;
+                    }
+                    repl.onCommand(argv, in.array(), start, in.position() - start);
+                    break;
+                }
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void handshakeReply(String line) throws IOException {
+        int which = HANDSHAKE_REPLIES - repliesPending--;
+        if (which == 0) {
+            if (line.startsWith("-")) throw new IOException("primary replied to PING: " + line.substring(1));
+        } else if (which < HANDSHAKE_REPLIES - 1) {
+            // REPLCONF: older servers may not know an option, which is fine
+        } else if (line.startsWith("+FULLRESYNC ")) {
+            String[] parts = line.split(" ");
+            if (parts.length != 3) throw new IOException("bad FULLRESYNC reply: " + line);
+            try {
+                repl.onFullResync(parts[1], Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("bad FULLRESYNC reply: " + line);
+            }
+            state = State.TRANSFER;
+        } else if (line.startsWith("+CONTINUE")) {
+            repl.onContinue(line.length() > 10 ? line.substring(10).trim() : "");
+            state = State.STREAMING;
+        } else {
+            throw new IOException("primary refused PSYNC: " + line);
+        }
+    }
+
+    /**
+     * Consume payload bytes; true once the payload is loaded.
+     */
+    private boolean transfer() throws IOException {
+        if (payloadRemaining < 0) {
+            while (in.hasRemaining() && in.get(in.position()) == '\n') in.get(); // keepalives
+            String line = readLine();
+            if (line == null) return false;
+            if (!line.startsWith("$")) throw new IOException("bad payload header from primary: " + line);
+            try {
+                payloadRemaining = Long.parseLong(line.substring(1));
+            } catch (NumberFormatException e) {
+                throw new IOException("bad payload header from primary: " + line);
+            }
+            payload = FileChannel.open(payloadFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        int n = (int) Math.min(payloadRemaining, in.remaining());
+        ByteBuffer part = in.duplicate();
+        part.limit(part.position() + n);
+        while (part.hasRemaining()) payload.write(part);
+        in.position(in.position() + n);
+        payloadRemaining -= n;
+        if (payloadRemaining > 0) return false;
+        payload.close();
+        payload = null;
+        payloadRemaining = -1;
+        repl.onPayload(payloadFile);
+        lastIoMs = Clocks.monoMillis(); // loading may take a while
+        state = State.STREAMING;
+        return true;
+    }
+
+    private String readLine() {
+        for (int i = in.position(); i + 1 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                String s = new String(in.array(), in.position(), i - in.position(), StandardCharsets.ISO_8859_1);
+                in.position(i + 2);
+                return s;
+            }
+        }
+        return null;
+    }
+
+    // ---------- output ----------
+
+    void send(List<String> argv) {
+        ByteBuf b = new ByteBuf(64);
+        RespWriter.appendCommand(argv, b);
+        out.addLast(ByteBuffer.wrap(b.array(), 0, b.length()));
+        try {
+            handleWrite();
+            if (!out.isEmpty()) setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private void setInterest(int ops) {
+        SelectionKey key = ch.keyFor(selector);
+        if (key != null && key.isValid()) key.interestOps(ops);
+    }
+
+    // ---------- lifecycle ----------
+
+    /**
+     * Periodic check (monotonic ms); closes the link and returns false on timeout.
+     */
+    boolean cron(long nowMs) {
+        if (nowMs - lastIoMs <= repl.timeoutMillis()) return true;
+        fail("timeout (no data from primary for " + (nowMs - lastIoMs) / 1000 + " s)");
+        return false;
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+        if (payload != null) {
+            try {
+                payload.close();
+                Files.deleteIfExists(payloadFile);
+            } catch (IOException ignored) {
+            }
+            payload = null;
+        }
+    }
+}
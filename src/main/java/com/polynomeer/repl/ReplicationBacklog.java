@@ -0,0 +1,79 @@
+package com.polynomeer.repl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size ring buffer holding the tail of the replication stream, so a replica that
+ * reconnects can continue from its offset (PSYNC) instead of reloading everything.
+ * <p>
+ * Offsets follow Redis: the stream's first byte has offset 1, and after N bytes the
+ * replication offset is N. The backlog covers [endOffset - histlen + 1, endOffset].
+ */
+final class ReplicationBacklog {
+    private final byte[] ring;
+    private int idx;        // next write position
+    private long histlen;   // valid bytes, <= ring.length
+    private long endOffset; // replication offset of the last byte written
+
+    ReplicationBacklog(int size, long offset) {
+        this.ring = new byte[size];
+        this.endOffset = offset;
+    }
+
+    void append(byte[] b, int off, int len) {
+        endOffset += len;
+        if (len >= ring.length) {
+            // only the last ring.length bytes survive
+            System.arraycopy(b, off + len - ring.length, ring, 0, ring.length);
+            idx = 0;
+            histlen = ring.length;
+            return;
+        }
+        int first = Math.min(len, ring.length - idx);
+        System.arraycopy(b, off, ring, idx, first);
+        System.arraycopy(b, off + first, ring, 0, len - first);
+        idx = (idx + len) % ring.length;
+        histlen = Math.min(ring.length, histlen + len);
+    }
+
+    /**
+     * Forget the content and continue at 'offset' (after a full resync from a new primary).
+     */
+    void reset(long offset) {
+        idx = 0;
+        histlen = 0;
+        endOffset = offset;
+    }
+
+    int size() {
+        return ring.length;
+    }
+
+    long histlen() {
+        return histlen;
+    }
+
+    long firstByteOffset() {
+        return endOffset - histlen + 1;
+    }
+
+    /**
+     * True if every byte from 'offset' on is still here (offset == end + 1: nothing to send).
+     */
+    boolean covers(long offset) {
+        return offset >= firstByteOffset() && offset <= endOffset + 1;
+    }
+
+    /**
+     * Bytes from 'offset' to the end; covers(offset) must hold.
+     */
+    ByteBuffer copyFrom(long offset) {
+        int n = (int) (endOffset + 1 - offset);
+        byte[] out = new byte[n];
+        int start = (int) Math.floorMod(idx - n, (long) ring.length);
+        int first = Math.min(n, ring.length - start);
+        System.arraycopy(ring, start, out, 0, first);
+        System.arraycopy(ring, 0, out, first, n - first);
+        return ByteBuffer.wrap(out);
+    }
+}
@@ -0,0 +1,583 @@
+package com.polynomeer.repl;
+
+import com.polynomeer.cmd.CommandRegistry;
+import com.polynomeer.cmd.Propagator;
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceSnapshot;
+import com.polynomeer.net.ClientConn;
+import com.polynomeer.persist.AppendOnlyFile;
+import com.polynomeer.persist.SnapshotFile;
+import com.polynomeer.resp.RespWriter;
+import com.polynomeer.util.ByteBuf;
+import com.polynomeer.util.Clocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Primary / replica replication (REPLICAOF, PSYNC, REPLCONF, ROLE, INFO replication).
+ * Primary side:
+ * - propagated writes are encoded once into the replication stream, which feeds the
+ *   backlog and is sent once per reactor tick, as one buffer, to every online replica
+ * - PSYNC continues from the backlog when the replica's replication ID and offset are
+ *   still covered (+CONTINUE); otherwise a full resync sends a copy-on-write snapshot
+ *   serialized on a background thread ("$len" + SnapshotFile bytes), then the stream
+ *   produced meanwhile. Replicas arriving during serialization share the same snapshot
+ * Replica side:
+ * - PrimaryLink handshakes, loads the snapshot and applies the stream, acknowledging its
+ *   offset every second; applied commands reach the AOF as usual and, byte for byte,
+ *   this server's own backlog and replicas (chained replication)
+ * - clients get -READONLY for writes while replica-read-only is set
+ * <p>
+ * Offsets and replication IDs follow Redis, so a promoted replica (REPLICAOF NO ONE)
+ * keeps accepting partial resyncs for its previous ID up to the promotion offset.
+ * All methods are called on the reactor thread.
+ */
+public final class ReplicationManager implements Propagator {
+    private static final String NO_REPLID = "0000000000000000000000000000000000000000";
+    private static final long PING_INTERVAL_MS = 10_000;
+    private static final long KEEPALIVE_INTERVAL_MS = 1_000;
+    private static final long ACK_INTERVAL_MS = 1_000;
+    private static final long RECONNECT_INTERVAL_MS = 1_000;
+
+    private enum ReplicaState {HANDSHAKE, WAIT_SNAPSHOT, ONLINE}
+
+    /**
+     * A replica connected to this server, as seen from here.
+     */
+    private static final class Replica {
+        final ClientConn conn;
+        final String ip;
+        int port;
+        ReplicaState state = ReplicaState.HANDSHAKE;
+        long ackOffset;
+        long lastAckMs;
+
+        Replica(ClientConn conn) {
+            this.conn = conn;
+            this.ip = conn.remoteIp();
+        }
+    }
+
+    /**
+     * A snapshot being serialized for one or more replicas waiting for a full resync.
+     */
+    private static final class FullSync {
+        final long offset;
+        final List<Replica> waiting = new ArrayList<>();
+        final List<byte[]> streamSince = new ArrayList<>(); // stream sent after the snapshot point
+
+        FullSync(long offset) {
+            this.offset = offset;
+        }
+    }
+
+    private final Db db;
+    private final ServerConfig config;
+    private final AppendOnlyFile aof;
+    private final Executor loop;
+    private final ExecutorService syncer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "jredis-repl-sync");
+        t.setDaemon(true);
+        return t;
+    });
+    private Selector selector;
+
+    private String replid = newReplid();
+    private String replid2 = NO_REPLID;
+    private long secondOffset = -1;
+    private long offset;                      // master_repl_offset
+    private boolean hasHistory;               // synced from a primary at least once
+    private ReplicationBacklog backlog;       // created when the first replica connects
+    private final ByteBuf tick = new ByteBuf(16 * 1024); // stream produced this tick, not sent yet
+    private final Map<ClientConn, Replica> replicas = new LinkedHashMap<>();
+    private FullSync sync;
+    private long lastPingMs;
+    private long lastKeepaliveMs;
+    private long syncFull;
+    private long syncPartialOk;
+    private long syncPartialErr;
+
+    // replica role
+    private String primaryHost;
+    private int primaryPort;
+    private PrimaryLink link;
+    private long nextConnectMs;
+    private long lastAckSentMs;
+
+    public ReplicationManager(Db db, ServerConfig config, AppendOnlyFile aof, Executor loop) {
+        this.db = db;
+        this.config = config;
+        this.aof = aof;
+        this.loop = loop;
+    }
+
+    /**
+     * Called once the reactor's selector exists; starts replicating if "replicaof" is set.
+     */
+    public void start(Selector selector) {
+        this.selector = selector;
+        String[] primary = config.replicaOf();
+        if (primary != null) replicaOf(primary[0], Integer.parseInt(primary[1]));
+    }
+
+    public boolean isReplica() {
+        return primaryHost != null;
+    }
+
+    // ---------- replication stream ----------
+
+    @Override
+    public void propagate(List<String> argv) {
+        // a replica's stream is its primary's, passed through by applyFromPrimary
+        if (isReplica()) return;
+        int from = tick.length();
+        RespWriter.appendCommand(argv, tick);
+        fed(from);
+    }
+
+    private void fed(int from) {
+        int n = tick.length() - from;
+        if (backlog != null) backlog.append(tick.array(), from, n);
+        offset += n;
+    }
+
+    /**
+     * End of reactor tick: send the stream produced during the tick to online replicas.
+     */
+    public void flush() {
+        if (tick.length() == 0) return;
+        byte[] out = Arrays.copyOf(tick.array(), tick.length());
+        tick.clear();
+        for (Replica r : replicas.values()) {
+            if (r.state == ReplicaState.ONLINE) r.conn.push(ByteBuffer.wrap(out));
+        }
+        if (sync != null) sync.streamSince.add(out);
+    }
+
+    private void ensureBacklog() {
+        if (backlog != null) return;
+        backlog = new ReplicationBacklog(config.replBacklogSize(), offset);
+        CommandRegistry.addPropagator(this);
+    }
+
+    // ---------- primary side: PSYNC / REPLCONF ----------
+
+    public ByteBuffer psync(ClientConn ctx, String id, String offsetArg) {
+        if (ctx == null) return RespWriter.error("ERR PSYNC is not allowed here");
+        if (isReplica() && (link == null || !link.streaming())) {
+            return RespWriter.error("NOMASTERLINK Can't SYNC while not connected with my master");
+        }
+        long psyncOffset;
+        try {
+            psyncOffset = Long.parseLong(offsetArg);
+        } catch (NumberFormatException e) {
+            return RespWriter.error("ERR value is not an integer or out of range");
+        }
+        flush(); // everything produced so far has been sent; what follows belongs to this replica too
+        ensureBacklog();
+        Replica r = replica(ctx);
+        boolean sameHistory = id.equals(replid) || (id.equals(replid2) && psyncOffset <= secondOffset);
+        if (sameHistory && backlog.covers(psyncOffset)) {
+            r.state = ReplicaState.ONLINE;
+            r.lastAckMs = Clocks.monoMillis();
+            ctx.push(RespWriter.simpleString("CONTINUE " + replid));
+            ByteBuffer missing = backlog.copyFrom(psyncOffset);
+            if (missing.hasRemaining()) ctx.push(missing);
+            syncPartialOk++;
+            System.out.println("[jredis] Partial resync of replica " + r.ip + ":" + r.port + " from offset "
+                    + psyncOffset + " (" + missing.remaining() + " bytes of backlog)");
+            return null;
+        }
+        if (!id.equals("?")) syncPartialErr++;
+        syncFull++;
+        r.state = ReplicaState.WAIT_SNAPSHOT;
+        if (sync == null) startFullSync();
+        sync.waiting.add(r);
+        ctx.push(RespWriter.simpleString("FULLRESYNC " + replid + " " + sync.offset));
+        System.out.println("[jredis] Full resync requested by replica " + r.ip + ":" + r.port);
+        return null;
+    }
+
+    public ByteBuffer replconf(List<String> argv, ClientConn ctx) {
+        if (argv.size() < 3 || argv.size() % 2 != 1) return RespWriter.error("ERR syntax error");
+        if (ctx == null) return RespWriter.error("ERR REPLCONF is not allowed here");
+        for (int i = 1; i < argv.size(); i += 2) {
+            String opt = argv.get(i).toLowerCase(Locale.ROOT);
+            String val = argv.get(i + 1);
+            switch (opt) {
+                case "listening-port":
+                    try {
+                        replica(ctx).port = Integer.parseInt(val);
+                    } catch (NumberFormatException e) {
+                        return RespWriter.error("ERR value is not an integer or out of range");
+                    }
+                    break;
+                case "capa":
+                    break;
+                case "ack": {
+                    // no reply: acknowledgements flow on the replication link
+                    Replica r = replicas.get(ctx);
+                    if (r != null) {
+                        try {
+                            r.ackOffset = Long.parseLong(val);
+                        } catch (NumberFormatException ignored) {
+                            return null;
+                        }
+                        r.lastAckMs = Clocks.monoMillis();
+                    }
+                    return null;
+                }
+                case "getack":
+                    return null; // only meaningful from a primary, see onCommand
+                default:
+                    return RespWriter.error("ERR Unrecognized REPLCONF option: " + argv.get(i));
+            }
+        }
+        return RespWriter.simpleString("OK");
+    }
+
+    private Replica replica(ClientConn ctx) {
+        Replica r = replicas.get(ctx);
+        if (r == null) {
+            r = new Replica(ctx);
+            replicas.put(ctx, r);
+            ctx.setDisconnectHook(() -> dropReplica(ctx));
+        }
+        return r;
+    }
+
+    private void dropReplica(ClientConn conn) {
+        Replica r = replicas.remove(conn);
+        if (r == null) return;
+        if (sync != null) sync.waiting.remove(r);
+        if (r.state != ReplicaState.HANDSHAKE) {
+            System.out.println("[jredis] Connection with replica " + r.ip + ":" + r.port + " lost");
+        }
+    }
+
+    private void disconnectReplicas() {
+        for (Replica r : new ArrayList<>(replicas.values())) {
+            r.conn.onDisconnect();
+            r.conn.closeQuietly();
+        }
+    }
+
+    private void startFullSync() {
+        KeyspaceSnapshot snap = db.snapshot();
+        FullSync s = new FullSync(offset);
+        sync = s;
+        Path target = Paths.get(config.dir()).resolve("temp-repl-" + ProcessHandle.current().pid() + ".jrdb");
+        long start = System.nanoTime();
+        System.out.println("[jredis] Starting snapshot for replication (" + snap.size() + " keys, offset "
+                + s.offset + ")");
+        syncer.execute(() -> {
+            Exception err = null;
+            try {
+                SnapshotFile.write(snap, target);
+            } catch (IOException | RuntimeException e) {
+                err = e;
+            }
+            Exception e = err;
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            loop.execute(() -> fullSyncReady(s, target, ms, e));
+        });
+    }
+
+    private void fullSyncReady(FullSync s, Path file, long ms, Exception err) {
+        db.releaseSnapshot();
+        sync = null;
+        ByteBuffer payload = null;
+        if (err == null) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                payload = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException e) {
+                err = e;
+            }
+        }
+        try {
+            Files.deleteIfExists(file); // the mapping stays valid
+        } catch (IOException ignored) {
+        }
+        if (err != null) {
+            System.out.println("[jredis] Snapshot for replication failed: " + err.getMessage());
+            for (Replica r : s.waiting) {
+                r.conn.onDisconnect();
+                r.conn.closeQuietly();
+            }
+            return;
+        }
+        byte[] header = ("$" + payload.capacity() + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        for (Replica r : s.waiting) {
+            if (replicas.get(r.conn) != r) continue; // gone meanwhile
+            r.conn.push(ByteBuffer.wrap(header));
+            r.conn.push(payload.duplicate());
+            for (byte[] b : s.streamSince) r.conn.push(ByteBuffer.wrap(b));
+            r.state = ReplicaState.ONLINE;
+            r.lastAckMs = Clocks.monoMillis();
+        }
+        System.out.println("[jredis] Snapshot for replication ready: " + payload.capacity() + " bytes in " + ms
+                + " ms, sent to " + s.waiting.size() + " replica(s)");
+    }
+
+    // ---------- replica side ----------
+
+    /**
+     * Start replicating from host:port (REPLICAOF host port). Keeps the current replication
+     * ID and offset, so the new primary can continue from them if it shares this history.
+     */
+    public void replicaOf(String host, int port) {
+        if (host.equals(primaryHost) && port == primaryPort) return;
+        closeLink();
+        primaryHost = host;
+        primaryPort = port;
+        nextConnectMs = 0;
+        CommandRegistry.setReadOnly(config.replicaReadOnly());
+        System.out.println("[jredis] Replicating from " + host + ":" + port);
+    }
+
+    /**
+     * Stop replicating and become a primary (REPLICAOF NO ONE).
+     */
+    public void replicaOfNoOne() {
+        if (!isReplica()) return;
+        closeLink();
+        primaryHost = null;
+        primaryPort = 0;
+        // the old ID stays valid up to here for replicas that followed the same primary
+        replid2 = replid;
+        secondOffset = offset + 1;
+        replid = newReplid();
+        CommandRegistry.setReadOnly(false);
+        System.out.println("[jredis] Primary mode enabled (new replication ID " + replid + ")");
+    }
+
+    /**
+     * Re-read settings after CONFIG SET.
+     */
+    public void applyConfig() {
+        CommandRegistry.setReadOnly(isReplica() && config.replicaReadOnly());
+    }
+
+    public boolean connectedTo(String host, int port) {
+        return host.equals(primaryHost) && port == primaryPort;
+    }
+
+    private void closeLink() {
+        if (link != null) {
+            link.close();
+            link = null;
+        }
+    }
+
+    List<List<String>> handshake() {
+        // with no stream seen yet there is nothing to continue: ask for a full sync
+        List<String> psync = !hasHistory && backlog == null ? List.of("PSYNC", "?", "-1")
+                : List.of("PSYNC", replid, Long.toString(offset + 1));
+        return List.of(List.of("PING"),
+                List.of("REPLCONF", "listening-port", Integer.toString(config.port())),
+                List.of("REPLCONF", "capa", "psync2"),
+                psync);
+    }
+
+    void onFullResync(String id, long primaryOffset) {
+        System.out.println("[jredis] Full resync from primary: " + id + ":" + primaryOffset);
+        replid = id;
+        replid2 = NO_REPLID;
+        secondOffset = -1;
+        offset = primaryOffset;
+        hasHistory = true;
+        if (backlog != null) backlog.reset(primaryOffset);
+        disconnectReplicas(); // they follow the old history
+    }
+
+    void onContinue(String id) {
+        System.out.println("[jredis] Partial resync with primary accepted at offset " + offset);
+        if (!id.isEmpty() && !id.equals(replid)) {
+            replid2 = replid;
+            secondOffset = offset + 1;
+            replid = id;
+            disconnectReplicas(); // so that they learn the new ID
+        }
+    }
+
+    void onPayload(Path file) throws IOException {
+        CommandRegistry.discardStreamTxn(); // the stream restarts after the payload
+        db.flushAll();
+        SnapshotFile.LoadResult r = SnapshotFile.load(file, db, config.loadThreads());
+        Files.deleteIfExists(file);
+        if (aof.enabled()) aof.bgrewrite();
+        System.out.println("[jredis] Loaded dataset from primary: " + (r == null ? 0 : r.keysLoaded) + " keys in "
+                + (r == null ? 0 : r.millis) + " ms");
+    }
+
+    /**
+     * A command from the primary's stream, 'raw' being its exact bytes.
+     */
+    void onCommand(List<String> argv, byte[] raw, int off, int len) {
+        if (argv.size() >= 2 && argv.get(0).equalsIgnoreCase("REPLCONF")
+                && argv.get(1).equalsIgnoreCase("GETACK")) {
+            sendAck();
+        } else if (!argv.get(0).equalsIgnoreCase("PING")) {
+            CommandRegistry.applyFromPrimary(argv);
+        }
+        int from = tick.length();
+        tick.append(raw, off, len);
+        fed(from);
+    }
+
+    void onLinkLost(PrimaryLink l, String reason) {
+        if (link != l) return;
+        link = null;
+        nextConnectMs = Clocks.monoMillis() + RECONNECT_INTERVAL_MS;
+        System.out.println("[jredis] Connection with primary lost: " + reason);
+    }
+
+    private void sendAck() {
+        if (link != null && link.streaming()) link.send(List.of("REPLCONF", "ACK", Long.toString(offset)));
+    }
+
+    Path payloadPath() {
+        return Paths.get(config.dir()).resolve("temp-repl-recv-" + ProcessHandle.current().pid() + ".jrdb");
+    }
+
+    long timeoutMillis() {
+        return config.replTimeoutMillis();
+    }
+
+    // ---------- cron ----------
+
+    /**
+     * Periodic work (reactor cron, monotonic ms): pings and keepalives to replicas, their
+     * timeouts, connecting to the primary and acknowledging its stream.
+     */
+    public void cron(long nowMs) {
+        if (!replicas.isEmpty() && !isReplica() && nowMs - lastPingMs >= PING_INTERVAL_MS) {
+            lastPingMs = nowMs;
+            propagate(List.of("PING"));
+        }
+        if (sync != null && nowMs - lastKeepaliveMs >= KEEPALIVE_INTERVAL_MS) {
+            // newlines keep a replica waiting for the snapshot from timing out
+            lastKeepaliveMs = nowMs;
+            for (Replica r : sync.waiting) r.conn.push(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+        for (Replica r : new ArrayList<>(replicas.values())) {
+            if (r.state == ReplicaState.ONLINE && nowMs - r.lastAckMs > timeoutMillis()) {
+                System.out.println("[jredis] Disconnecting timed out replica " + r.ip + ":" + r.port);
+                r.conn.onDisconnect();
+                r.conn.closeQuietly();
+            }
+        }
+        if (!isReplica()) return;
+        if (link == null) {
+            if (nowMs >= nextConnectMs) connect(nowMs);
+            return;
+        }
+        if (!link.cron(nowMs)) return;
+        if (link.streaming() && nowMs - lastAckSentMs >= ACK_INTERVAL_MS) {
+            lastAckSentMs = nowMs;
+            sendAck();
+        }
+    }
+
+    private void connect(long nowMs) {
+        nextConnectMs = nowMs + RECONNECT_INTERVAL_MS;
+        try {
+            link = PrimaryLink.connect(this, selector, primaryHost, primaryPort, nowMs);
+        } catch (IOException e) {
+            System.out.println("[jredis] Error connecting to primary " + primaryHost + ":" + primaryPort + ": "
+                    + e.getMessage());
+        }
+    }
+
+    // ---------- ROLE / INFO ----------
+
+    public ByteBuffer role() {
+        List<ByteBuffer> out = new ArrayList<>();
+        if (isReplica()) {
+            out.add(RespWriter.bulkString("slave"));
+            out.add(RespWriter.bulkString(primaryHost));
+            out.add(RespWriter.integer(primaryPort));
+            out.add(RespWriter.bulkString(link == null ? "connect" : link.stateName()));
+            out.add(RespWriter.integer(link != null && link.streaming() ? offset : -1));
+        } else {
+            out.add(RespWriter.bulkString("master"));
+            out.add(RespWriter.integer(offset));
+            List<ByteBuffer> list = new ArrayList<>();
+            for (Replica r : replicas.values()) {
+                if (r.state != ReplicaState.ONLINE) continue;
+                list.add(RespWriter.arrayOfBulkStrings(new String[]{r.ip, Integer.toString(r.port),
+                        Long.toString(r.ackOffset)}));
+            }
+            out.add(RespWriter.arrayOfFrames(list));
+        }
+        return RespWriter.arrayOfFrames(out);
+    }
+
+    public String info() {
+        long now = Clocks.monoMillis();
+        StringBuilder sb = new StringBuilder();
+        sb.append("role:").append(isReplica() ? "slave" : "master").append("\r\n");
+        if (isReplica()) {
+            boolean up = link != null && link.streaming();
+            sb.append("master_host:").append(primaryHost).append("\r\n");
+            sb.append("master_port:").append(primaryPort).append("\r\n");
+            sb.append("master_link_status:").append(up ? "up" : "down").append("\r\n");
+            sb.append("master_last_io_seconds_ago:").append(link == null ? -1 : (now - link.lastIoMs()) / 1000)
+                    .append("\r\n");
+            sb.append("master_sync_in_progress:").append(link != null && link.transferring() ? 1 : 0).append("\r\n");
+            sb.append("slave_repl_offset:").append(offset).append("\r\n");
+            sb.append("slave_read_only:").append(config.replicaReadOnly() ? 1 : 0).append("\r\n");
+        }
+        int online = 0;
+        StringBuilder list = new StringBuilder();
+        for (Replica r : replicas.values()) {
+            if (r.state == ReplicaState.HANDSHAKE) continue;
+            list.append("slave").append(online++).append(":ip=").append(r.ip).append(",port=").append(r.port)
+                    .append(",state=").append(r.state == ReplicaState.ONLINE ? "online" : "wait_bgsave")
+                    .append(",offset=").append(r.ackOffset)
+                    .append(",lag=").append((now - r.lastAckMs) / 1000).append("\r\n");
+        }
+        sb.append("connected_slaves:").append(online).append("\r\n").append(list);
+        sb.append("master_replid:").append(replid).append("\r\n");
+        sb.append("master_replid2:").append(replid2).append("\r\n");
+        sb.append("master_repl_offset:").append(offset).append("\r\n");
+        sb.append("second_repl_offset:").append(secondOffset).append("\r\n");
+        sb.append("repl_backlog_active:").append(backlog != null ? 1 : 0).append("\r\n");
+        sb.append("repl_backlog_size:").append(backlog != null ? backlog.size() : config.replBacklogSize())
+                .append("\r\n");
+        sb.append("repl_backlog_first_byte_offset:").append(backlog != null ? backlog.firstByteOffset() : 0)
+                .append("\r\n");
+        sb.append("repl_backlog_histlen:").append(backlog != null ? backlog.histlen() : 0).append("\r\n");
+        sb.append("sync_full:").append(syncFull).append("\r\n");
+        sb.append("sync_partial_ok:").append(syncPartialOk).append("\r\n");
+        sb.append("sync_partial_err:").append(syncPartialErr).append("\r\n");
+        return sb.toString();
+    }
+
+    private static String newReplid() {
+        byte[] b = new byte[20];
+        new SecureRandom().nextBytes(b);
+        StringBuilder sb = new StringBuilder(40);
+        for (byte x : b) sb.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        return sb.toString();
+    }
+}
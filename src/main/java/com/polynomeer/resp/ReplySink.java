@@ -0,0 +1,42 @@
+package com.polynomeer.resp;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Where a command's reply goes, given in its shape rather than as bytes. RespSink encodes it
+ * as a RESP frame for a connection; a script's redis.call takes Lua values instead, with no
+ * RESP written and parsed in between. Commands written against a sink (cmd.SinkCommand)
+ * serve both. Strings are byte strings (ISO-8859-1), as everywhere else.
+ */
+public interface ReplySink<R> {
+    R status(String s);
+
+    R error(String message);
+
+    R integer(long v);
+
+    /**
+     * Bulk string; null is the null bulk string.
+     */
+    R bulk(String s);
+
+    R bulkBytes(byte[] b, int off, int n);
+
+    R nullBulk();
+
+    /**
+     * Array of bulk strings.
+     */
+    R array(List<String> items);
+
+    /**
+     * Set of bulk strings (an array unless the connection speaks RESP3).
+     */
+    R set(List<String> members);
+
+    /**
+     * A reply that only exists as an encoded RESP frame.
+     */
+    R frame(ByteBuffer resp);
+}
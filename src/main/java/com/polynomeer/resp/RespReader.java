@@ -10,8 +10,21 @@ import java.util.List;
  *   ARRAY of BULK STRINGS  (e.g., *2\r\n$4\r\nPING\r\n$4\r\nPONG\r\n)
  * - Safe for pipelining: returns null if not enough bytes for a full frame
  * - On success advances buffer position to end of frame
+ * - Bulk strings are decoded as ISO-8859-1: one char per byte, so arbitrary binary
+ *   values round-trip unchanged through String
  */
 public class RespReader {
+    // longest header line ("*<count>", "$<len>") or stray line waited for, as in Redis
+    private static final int MAX_LINE = 64 * 1024;
+    // longest bulk string accepted (proto-max-bulk-len for client connections)
+    private int maxBulkLen = Integer.MAX_VALUE;
+
+    /**
+     * Refuse bulk strings longer than 'max' bytes with a RespError, before any of it is buffered.
+     */
+    public void setMaxBulkLen(int max) {
+        this.maxBulkLen = max;
+    }
 
     /**
      * Try to parse one command frame: Array of Bulk Strings.
@@ -25,7 +38,10 @@ public class RespReader {
         // Expect array header "*<count>\r\n"
         if (peek(buf) != '*') {
             // Not a command frame
-            if (!hasFullLineFrom(buf, buf.position())) return null;
+            if (!hasFullLineFrom(buf, buf.position())) {
+                if (buf.remaining() > MAX_LINE) throw new RespError("Protocol error: too big inline request");
+                return null;
+            }
             throw new RespError("Protocol error: expected Array '*'");
         }
         // Consume '*' and read integer count
@@ -34,7 +50,8 @@ public class RespReader {
         if (count == null) { buf.position(startPos); return null; }
         if (count < 0) { buf.position(startPos); return null; }
 
-        List<String> argv = new ArrayList<>(count);
+        // the count is not trusted: the list grows as arguments actually arrive
+        List<String> argv = new ArrayList<>(Math.min(count, 1024));
         for (int i = 0; i < count; i++) {
             String s = readBulkString(buf);
             if (s == null) { buf.position(startPos); return null; }
@@ -56,12 +73,13 @@ public class RespReader {
         if (len == null) return null;
         if (len == -1) return null; // Null bulk not used for commands
         if (len < 0) throw new RespError("Negative bulk length");
-        if (buf.remaining() < len + 2) return null;
+        if (len > maxBulkLen) throw new RespError("Protocol error: invalid bulk length");
+        if (buf.remaining() < (long) len + 2) return null;
 
         byte[] data = new byte[len];
         buf.get(data);
         expectCRLF(buf);
-        return new String(data, StandardCharsets.UTF_8);
+        return new String(data, StandardCharsets.ISO_8859_1);
     }
 
     /** Read CRLF-terminated decimal int; returns null if incomplete. */
@@ -85,9 +103,10 @@ public class RespReader {
                 byte[] out = new byte[len];
                 buf.get(out); // advances to i
                 buf.position(buf.position() + 2); // skip CRLF
-                return new String(out, StandardCharsets.UTF_8);
+                return new String(out, StandardCharsets.ISO_8859_1);
             }
         }
+        if (lim - p > MAX_LINE) throw new RespError("Protocol error: too big count string");
         return null;
     }
 
@@ -0,0 +1,67 @@
+package com.polynomeer.resp;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * ReplySink for connections: each reply is the RespWriter frame for it.
+ */
+public final class RespSink implements ReplySink<ByteBuffer> {
+    public static final RespSink RESP2 = new RespSink(false);
+    public static final RespSink RESP3 = new RespSink(true);
+
+    private final boolean resp3;
+
+    private RespSink(boolean resp3) {
+        this.resp3 = resp3;
+    }
+
+    public static RespSink of(boolean resp3) {
+        return resp3 ? RESP3 : RESP2;
+    }
+
+    @Override
+    public ByteBuffer status(String s) {
+        return RespWriter.simpleString(s);
+    }
+
+    @Override
+    public ByteBuffer error(String message) {
+        return RespWriter.error(message);
+    }
+
+    @Override
+    public ByteBuffer integer(long v) {
+        return RespWriter.integer(v);
+    }
+
+    @Override
+    public ByteBuffer bulk(String s) {
+        return RespWriter.bulkString(s);
+    }
+
+    @Override
+    public ByteBuffer bulkBytes(byte[] b, int off, int n) {
+        return RespWriter.bulkBytes(b, off, n);
+    }
+
+    @Override
+    public ByteBuffer nullBulk() {
+        return RespWriter.nullBulk();
+    }
+
+    @Override
+    public ByteBuffer array(List<String> items) {
+        return RespWriter.arrayOfBulkStrings(items.toArray(new String[0]));
+    }
+
+    @Override
+    public ByteBuffer set(List<String> members) {
+        return RespWriter.setOfBulkStrings(members.toArray(new String[0]), resp3);
+    }
+
+    @Override
+    public ByteBuffer frame(ByteBuffer resp) {
+        return resp;
+    }
+}
@@ -1,5 +1,7 @@
 package com.polynomeer.resp;
 
+import com.polynomeer.util.ByteBuf;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
@@ -7,11 +9,17 @@ import java.util.List;
 /**
  * Minimal RESP writer helpers.
  * Returned ByteBuffers are flipped for reading (position = 0, limit = size).
+ * Strings are byte strings (ISO-8859-1, see RespReader) and are written back byte for byte.
+ * <p>
+ * RESP3 types (map, set, double, push) take a resp3 flag where a RESP2 connection needs the
+ * RESP2 shape instead: maps flatten to key/value arrays, sets to arrays, doubles to bulk strings.
  */
 public class RespWriter {
+    private static final byte[] MESSAGE_HEADER = "*3\r\n$7\r\nmessage\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] PMESSAGE_HEADER = "*4\r\n$8\r\npmessage\r\n".getBytes(StandardCharsets.ISO_8859_1);
 
     public static ByteBuffer simpleString(String s) {
-        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
         ByteBuffer buf = ByteBuffer.allocate(1 + b.length + 2);
         buf.put((byte) '+').put(b).put((byte) '\r').put((byte) '\n');
         buf.flip();
@@ -19,7 +27,7 @@ public class RespWriter {
     }
 
     public static ByteBuffer error(String s) {
-        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
         ByteBuffer buf = ByteBuffer.allocate(1 + b.length + 2);
         buf.put((byte) '-').put(b).put((byte) '\r').put((byte) '\n');
         buf.flip();
@@ -28,8 +36,8 @@ public class RespWriter {
 
     public static ByteBuffer bulkString(String s) {
         if (s == null) return nullBulk();
-        byte[] b = s.getBytes(StandardCharsets.UTF_8);
-        byte[] len = Integer.toString(b.length).getBytes(StandardCharsets.UTF_8);
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] len = Integer.toString(b.length).getBytes(StandardCharsets.ISO_8859_1);
         ByteBuffer buf = ByteBuffer.allocate(1 + len.length + 2 + b.length + 2);
         buf.put((byte) '$').put(len).put((byte) '\r').put((byte) '\n');
         buf.put(b).put((byte) '\r').put((byte) '\n');
@@ -37,8 +45,20 @@ public class RespWriter {
         return buf;
     }
 
+    /**
+     * Bulk string from a byte range (binary values held outside String).
+     */
+    public static ByteBuffer bulkBytes(byte[] b, int off, int n) {
+        byte[] len = Integer.toString(n).getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buf = ByteBuffer.allocate(1 + len.length + 2 + n + 2);
+        buf.put((byte) '$').put(len).put((byte) '\r').put((byte) '\n');
+        buf.put(b, off, n).put((byte) '\r').put((byte) '\n');
+        buf.flip();
+        return buf;
+    }
+
     public static ByteBuffer integer(long v) {
-        byte[] b = Long.toString(v).getBytes(StandardCharsets.UTF_8);
+        byte[] b = Long.toString(v).getBytes(StandardCharsets.ISO_8859_1);
         ByteBuffer buf = ByteBuffer.allocate(1 + b.length + 2);
         buf.put((byte) ':').put(b).put((byte) '\r').put((byte) '\n');
         buf.flip();
@@ -52,18 +72,25 @@ public class RespWriter {
         return buf;
     }
 
+    public static ByteBuffer nullArray() {
+        ByteBuffer buf = ByteBuffer.allocate(5);
+        buf.put((byte) '*').put((byte) '-').put((byte) '1').put((byte) '\r').put((byte) '\n');
+        buf.flip();
+        return buf;
+    }
+
     // ---------- Arrays / mixed elements (bulk strings + integer) ----------
 
     /**
      * RESP Array of 3 elements: bulk, bulk, integer (used for subscribe/unsubscribe ack).
      */
     public static ByteBuffer array3(String a, String b, long c) {
-        byte[] A = a.getBytes(StandardCharsets.UTF_8);
-        byte[] B = b.getBytes(StandardCharsets.UTF_8);
-        byte[] Ci = Long.toString(c).getBytes(StandardCharsets.UTF_8);
+        byte[] A = a.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] B = b.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] Ci = Long.toString(c).getBytes(StandardCharsets.ISO_8859_1);
 
-        byte[] lenA = Integer.toString(A.length).getBytes(StandardCharsets.UTF_8);
-        byte[] lenB = Integer.toString(B.length).getBytes(StandardCharsets.UTF_8);
+        byte[] lenA = Integer.toString(A.length).getBytes(StandardCharsets.ISO_8859_1);
+        byte[] lenB = Integer.toString(B.length).getBytes(StandardCharsets.ISO_8859_1);
 
         // "*3\r\n" is 4 bytes (NOT 3)
         int cap = 4
@@ -88,23 +115,64 @@ public class RespWriter {
     }
 
     /**
-     * RESP Array ["message", channel, payload] for PUBLISH delivery.
+     * RESP Array ["message", channel, payload] for PUBLISH delivery, encoded in one pass
+     * into one array; the broker shares it between all subscribers.
      */
     public static ByteBuffer arrayMessage(String channel, String payload) {
-        return arrayBulk3("message", channel, payload);
+        String cl = Integer.toString(channel.length());
+        String pl = Integer.toString(payload.length());
+        byte[] b = new byte[MESSAGE_HEADER.length + 1 + cl.length() + 2 + channel.length() + 2
+                + 1 + pl.length() + 2 + payload.length() + 2];
+        System.arraycopy(MESSAGE_HEADER, 0, b, 0, MESSAGE_HEADER.length);
+        int at = putBulk(b, MESSAGE_HEADER.length, cl, channel);
+        putBulk(b, at, pl, payload);
+        return ByteBuffer.wrap(b);
+    }
+
+    /**
+     * RESP Array ["pmessage", pattern, channel, payload] for delivery through a pattern
+     * subscription; encoded once per matching pattern and shared like arrayMessage.
+     */
+    public static ByteBuffer arrayPMessage(String pattern, String channel, String payload) {
+        String tl = Integer.toString(pattern.length());
+        String cl = Integer.toString(channel.length());
+        String pl = Integer.toString(payload.length());
+        byte[] b = new byte[PMESSAGE_HEADER.length + 1 + tl.length() + 2 + pattern.length() + 2
+                + 1 + cl.length() + 2 + channel.length() + 2
+                + 1 + pl.length() + 2 + payload.length() + 2];
+        System.arraycopy(PMESSAGE_HEADER, 0, b, 0, PMESSAGE_HEADER.length);
+        int at = putBulk(b, PMESSAGE_HEADER.length, tl, pattern);
+        at = putBulk(b, at, cl, channel);
+        putBulk(b, at, pl, payload);
+        return ByteBuffer.wrap(b);
+    }
+
+    // "$<len>\r\n<s>\r\n" at b[at..]; returns the end offset
+    @SuppressWarnings("deprecation")
+    private static int putBulk(byte[] b, int at, String len, String s) {
+        b[at++] = '$';
+        len.getBytes(0, len.length(), b, at);
+        at += len.length();
+        b[at++] = '\r';
+        b[at++] = '\n';
+        s.getBytes(0, s.length(), b, at); // one byte per char, no temporary array
+        at += s.length();
+        b[at++] = '\r';
+        b[at++] = '\n';
+        return at;
     }
 
     /**
      * RESP Array of 3 bulk strings. (used for ["message", channel, payload])
      */
     public static ByteBuffer arrayBulk3(String a, String b, String c) {
-        byte[] A = a.getBytes(StandardCharsets.UTF_8);
-        byte[] B = b.getBytes(StandardCharsets.UTF_8);
-        byte[] C = c.getBytes(StandardCharsets.UTF_8);
+        byte[] A = a.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] B = b.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] C = c.getBytes(StandardCharsets.ISO_8859_1);
 
-        byte[] lenA = Integer.toString(A.length).getBytes(StandardCharsets.UTF_8);
-        byte[] lenB = Integer.toString(B.length).getBytes(StandardCharsets.UTF_8);
-        byte[] lenC = Integer.toString(C.length).getBytes(StandardCharsets.UTF_8);
+        byte[] lenA = Integer.toString(A.length).getBytes(StandardCharsets.ISO_8859_1);
+        byte[] lenB = Integer.toString(B.length).getBytes(StandardCharsets.ISO_8859_1);
+        byte[] lenC = Integer.toString(C.length).getBytes(StandardCharsets.ISO_8859_1);
 
         // "*3\r\n" is 4 bytes
         int cap = 4
@@ -137,7 +205,7 @@ public class RespWriter {
         ByteBuffer buf = ByteBuffer.allocate(cap);
         writeHeader(buf, values.length);
         for (int v : values) {
-            byte[] b = Integer.toString(v).getBytes(StandardCharsets.UTF_8);
+            byte[] b = Integer.toString(v).getBytes(StandardCharsets.ISO_8859_1);
             buf.put((byte) ':').put(b).put((byte) '\r').put((byte) '\n');
         }
         buf.flip();
@@ -150,15 +218,15 @@ public class RespWriter {
     public static ByteBuffer arrayOfBulkStrings(String[] vals) {
         int cap = headerLen(vals.length);
         for (String s : vals) {
-            byte[] b = s.getBytes(StandardCharsets.UTF_8);
-            byte[] len = Integer.toString(b.length).getBytes(StandardCharsets.UTF_8);
+            byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] len = Integer.toString(b.length).getBytes(StandardCharsets.ISO_8859_1);
             cap += 1 + len.length + 2 + b.length + 2;
         }
         ByteBuffer buf = ByteBuffer.allocate(cap);
         writeHeader(buf, vals.length);
         for (String s : vals) {
-            byte[] b = s.getBytes(StandardCharsets.UTF_8);
-            byte[] len = Integer.toString(b.length).getBytes(StandardCharsets.UTF_8);
+            byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] len = Integer.toString(b.length).getBytes(StandardCharsets.ISO_8859_1);
             buf.put((byte) '$').put(len).put((byte) '\r').put((byte) '\n');
             buf.put(b).put((byte) '\r').put((byte) '\n');
         }
@@ -166,23 +234,129 @@ public class RespWriter {
         return buf;
     }
 
+    /**
+     * Append a command as a RESP array of bulk strings (AOF, replication stream).
+     */
+    public static void appendCommand(List<String> argv, ByteBuf out) {
+        out.appendByte('*');
+        out.append(Integer.toString(argv.size()));
+        out.append("\r\n");
+        for (String a : argv) appendBulk(a, out);
+    }
+
+    /**
+     * Append one bulk string element (for building commands piece by piece).
+     */
+    public static void appendBulk(String s, ByteBuf out) {
+        appendBulkHeader(s.length(), out);
+        out.append(s);
+        out.append("\r\n");
+    }
+
+    /**
+     * Append the "$n\r\n" header of a bulk string whose n bytes and CRLF the caller writes.
+     */
+    public static void appendBulkHeader(int n, ByteBuf out) {
+        out.appendByte('$');
+        out.append(Integer.toString(n));
+        out.append("\r\n");
+    }
+
     private static int headerLen(int n) {
         return 1 + digits(n) + 2;
     } // *N\r\n
 
     private static void writeHeader(ByteBuffer buf, int n) {
-        buf.put((byte) '*').put(Integer.toString(n).getBytes(StandardCharsets.UTF_8)).put((byte) '\r').put((byte) '\n');
+        buf.put((byte) '*').put(Integer.toString(n).getBytes(StandardCharsets.ISO_8859_1)).put((byte) '\r').put((byte) '\n');
+    }
+
+    /**
+     * "*n\r\n": the header of an array whose n elements are sent as separate frames.
+     */
+    public static ByteBuffer arrayHeader(int n) {
+        ByteBuffer buf = ByteBuffer.allocate(headerLen(n));
+        writeHeader(buf, n);
+        buf.flip();
+        return buf;
     }
 
     /**
      * Build RESP Array whose elements are already-encoded RESP frames.
      */
     public static ByteBuffer arrayOfFrames(List<ByteBuffer> frames) {
-        int n = frames.size();
-        int cap = 1 + digits(n) + 2; // *n\r\n
+        return aggregate('*', frames.size(), frames);
+    }
+
+    // ---------- RESP3 ----------
+
+    /**
+     * Map of already-encoded frames, alternating key and value: "%n" for RESP3, a flat array of
+     * 2n elements for RESP2.
+     */
+    public static ByteBuffer mapOfFrames(List<ByteBuffer> keysAndValues, boolean resp3) {
+        return resp3 ? aggregate('%', keysAndValues.size() / 2, keysAndValues) : arrayOfFrames(keysAndValues);
+    }
+
+    /**
+     * Set of bulk strings: "~n" for RESP3, an array for RESP2.
+     */
+    public static ByteBuffer setOfBulkStrings(String[] vals, boolean resp3) {
+        ByteBuffer b = arrayOfBulkStrings(vals);
+        if (resp3) b.put(0, (byte) '~');
+        return b;
+    }
+
+    /**
+     * Out-of-band push frame ">n" (RESP3 only); elements are already-encoded frames.
+     */
+    public static ByteBuffer pushOfFrames(List<ByteBuffer> frames) {
+        return aggregate('>', frames.size(), frames);
+    }
+
+    /**
+     * Copy of an encoded array frame with its type turned into push, for RESP3 receivers of
+     * Pub/Sub messages. The original is not modified (it may be shared).
+     */
+    public static ByteBuffer asPush(ByteBuffer arrayFrame) {
+        ByteBuffer src = arrayFrame.asReadOnlyBuffer();
+        src.rewind();
+        ByteBuffer b = ByteBuffer.allocate(src.remaining());
+        b.put(src).put(0, (byte) '>');
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Double: ",v" for RESP3 (inf, -inf, nan spelled as RESP3 does), a bulk string for RESP2.
+     */
+    public static ByteBuffer doubleValue(double v, boolean resp3) {
+        String s = Double.isNaN(v) ? "nan" : Double.isInfinite(v) ? (v > 0 ? "inf" : "-inf")
+                : v == Math.rint(v) && Math.abs(v) < 1e17 ? Long.toString((long) v) : Double.toString(v);
+        if (!resp3) return bulkString(s);
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buf = ByteBuffer.allocate(1 + b.length + 2);
+        buf.put((byte) ',').put(b).put((byte) '\r').put((byte) '\n');
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Null: "_" for RESP3, a null bulk string for RESP2.
+     */
+    public static ByteBuffer nullValue(boolean resp3) {
+        if (!resp3) return nullBulk();
+        ByteBuffer buf = ByteBuffer.allocate(3);
+        buf.put((byte) '_').put((byte) '\r').put((byte) '\n');
+        buf.flip();
+        return buf;
+    }
+
+    // "<type>n" header followed by the frames
+    private static ByteBuffer aggregate(char type, int n, List<ByteBuffer> frames) {
+        int cap = 1 + digits(n) + 2;
         for (ByteBuffer f : frames) cap += f.remaining();
         ByteBuffer buf = ByteBuffer.allocate(cap);
-        buf.put((byte) '*').put(Integer.toString(n).getBytes(StandardCharsets.UTF_8))
+        buf.put((byte) type).put(Integer.toString(n).getBytes(StandardCharsets.ISO_8859_1))
                 .put((byte) '\r').put((byte) '\n');
         for (ByteBuffer f : frames) {
             ByteBuffer dup = f.asReadOnlyBuffer();
@@ -0,0 +1,406 @@
+package com.polynomeer.struct;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog cardinality estimator compatible with Redis (P=14, 6-bit registers,
+ * MurmurHash64A, Ertl's improved estimator; standard error ~0.81%).
+ * - Sparse encoding: run-length opcodes ZERO / XZERO / VAL, same byte layout as Redis
+ * - Dense encoding: 16384 registers packed 6 bits each (12 KB), promoted to once a register
+ *   exceeds 32 or the sparse form grows beyond SPARSE_MAX_BYTES
+ * - Cardinality is cached and invalidated when any register changes
+ * <p>
+ * Not thread-safe; intended for single-threaded reactor usage.
+ */
+public final class HyperLogLog {
+    public static final int P = 14;
+    public static final int Q = 64 - P;
+    public static final int REGISTERS = 1 << P;
+    public static final int DENSE_BYTES = (REGISTERS * 6 + 7) / 8; // 12288
+    static final int SPARSE_MAX_BYTES = 3000;
+
+    private static final int SPARSE_VAL_MAX_VALUE = 32;
+    private static final int SPARSE_VAL_MAX_LEN = 4;
+    private static final int SPARSE_ZERO_MAX_LEN = 64;
+    private static final double ALPHA_INF = 0.721347520444481703680;
+
+    private byte[] sparse;   // sparse opcodes, valid up to sparseLen; null when dense
+    private int sparseLen;
+    private byte[] dense;    // DENSE_BYTES + 1 guard byte; null when sparse
+    private long cachedCard = -1;
+
+    /**
+     * Empty HLL in sparse encoding: one XZERO opcode covering every register.
+     */
+    public HyperLogLog() {
+        sparse = new byte[16];
+        sparseLen = 0;
+        appendZeroRun(REGISTERS);
+    }
+
+    /**
+     * Dense HLL from unpacked registers (one byte per register), e.g. after a merge.
+     */
+    public static HyperLogLog fromRegisters(byte[] regs) {
+        HyperLogLog h = new HyperLogLog();
+        h.sparse = null;
+        h.dense = new byte[DENSE_BYTES + 1];
+        for (int i = 0; i < REGISTERS; i++) {
+            if (regs[i] != 0) setDense(h.dense, i, regs[i]);
+        }
+        return h;
+    }
+
+    /**
+     * Serialized form: [0 = sparse | 1 = dense][opcodes or packed registers].
+     */
+    public byte[] toBytes() {
+        byte[] src = sparse != null ? sparse : dense;
+        int n = sparse != null ? sparseLen : DENSE_BYTES;
+        byte[] out = new byte[n + 1];
+        out[0] = (byte) (sparse != null ? 0 : 1);
+        System.arraycopy(src, 0, out, 1, n);
+        return out;
+    }
+
+    /**
+     * Inverse of toBytes(); throws IllegalArgumentException on malformed input.
+     */
+    public static HyperLogLog fromBytes(byte[] b, int off, int len) {
+        HyperLogLog h = new HyperLogLog();
+        if (len >= 1 && b[off] == 0) {
+            h.sparse = Arrays.copyOfRange(b, off + 1, off + len);
+            h.sparseLen = len - 1;
+            int regs = 0;
+            for (int p = 0; p < h.sparseLen; ) {
+                int op = h.sparse[p] & 0xFF;
+                if ((op & 0xC0) == 0x00) {
+                    regs += (op & 0x3F) + 1;
+                    p++;
+                } else if ((op & 0xC0) == 0x40) {
+                    if (p + 1 >= h.sparseLen) throw new IllegalArgumentException("truncated HLL");
+                    regs += (((op & 0x3F) << 8) | (h.sparse[p + 1] & 0xFF)) + 1;
+                    p += 2;
+                } else {
+                    regs += (op & 0x03) + 1;
+                    p++;
+                }
+            }
+            if (regs != REGISTERS) throw new IllegalArgumentException("invalid sparse HLL");
+        } else if (len == DENSE_BYTES + 1 && b[off] == 1) {
+            h.sparse = null;
+            h.dense = new byte[DENSE_BYTES + 1];
+            System.arraycopy(b, off + 1, h.dense, 0, DENSE_BYTES);
+        } else {
+            throw new IllegalArgumentException("invalid HLL encoding");
+        }
+        return h;
+    }
+
+    public boolean isSparse() {
+        return sparse != null;
+    }
+
+    /**
+     * Add an element; returns true if any register changed (estimate may have changed).
+     */
+    public boolean add(byte[] element) {
+        long hash = murmurHash64A(element, 0xadc83b19L);
+        int index = (int) (hash & (REGISTERS - 1));
+        hash >>>= P;
+        hash |= 1L << Q; // guarantee termination
+        int count = Long.numberOfTrailingZeros(hash) + 1;
+        boolean changed = (sparse != null) ? sparseSet(index, count) : denseSet(index, count);
+        if (changed) cachedCard = -1;
+        return changed;
+    }
+
+    /**
+     * Estimated cardinality (cached until the next register change).
+     */
+    public long count() {
+        if (cachedCard < 0) {
+            int[] histo = new int[64];
+            if (sparse != null) sparseHistogram(histo);
+            else for (int i = 0; i < REGISTERS; i++) histo[getDense(dense, i)]++;
+            cachedCard = estimate(histo);
+        }
+        return cachedCard;
+    }
+
+    /**
+     * Raise each regs[i] to max(regs[i], register i) — the core of PFMERGE / multi-key PFCOUNT.
+     */
+    public void mergeInto(byte[] regs) {
+        if (sparse == null) {
+            for (int i = 0; i < REGISTERS; i++) {
+                int v = getDense(dense, i);
+                if (v > regs[i]) regs[i] = (byte) v;
+            }
+            return;
+        }
+        int idx = 0;
+        for (int p = 0; p < sparseLen; ) {
+            int op = sparse[p] & 0xFF;
+            if ((op & 0xC0) == 0x00) {          // ZERO
+                idx += (op & 0x3F) + 1;
+                p++;
+            } else if ((op & 0xC0) == 0x40) {   // XZERO
+                idx += (((op & 0x3F) << 8) | (sparse[p + 1] & 0xFF)) + 1;
+                p += 2;
+            } else {                             // VAL
+                int val = ((op >>> 2) & 0x1F) + 1;
+                int len = (op & 0x03) + 1;
+                for (int k = 0; k < len; k++, idx++) {
+                    if (val > regs[idx]) regs[idx] = (byte) val;
+                }
+                p++;
+            }
+        }
+    }
+
+    /**
+     * Estimate the cardinality of unpacked registers (one byte per register).
+     */
+    public static long countRegisters(byte[] regs) {
+        int[] histo = new int[64];
+        for (int i = 0; i < REGISTERS; i++) histo[regs[i]]++;
+        return estimate(histo);
+    }
+
+    // ---------- sparse encoding ----------
+
+    private boolean sparseSet(int index, int count) {
+        if (count > SPARSE_VAL_MAX_VALUE) {
+            promote();
+            return denseSet(index, count);
+        }
+        // find the opcode covering 'index'
+        int p = 0, first = 0, span = 0, opLen = 0;
+        while (p < sparseLen) {
+            int op = sparse[p] & 0xFF;
+            if ((op & 0xC0) == 0x00) {
+                span = (op & 0x3F) + 1;
+                opLen = 1;
+            } else if ((op & 0xC0) == 0x40) {
+                span = (((op & 0x3F) << 8) | (sparse[p + 1] & 0xFF)) + 1;
+                opLen = 2;
+            } else {
+                span = (op & 0x03) + 1;
+                opLen = 1;
+            }
+            if (index < first + span) break;
+            first += span;
+            p += opLen;
+        }
+        int op = sparse[p] & 0xFF;
+        boolean isVal = (op & 0x80) != 0;
+        int oldVal = isVal ? ((op >>> 2) & 0x1F) + 1 : 0;
+        if (isVal && oldVal >= count) return false;
+        if (span == 1 && opLen == 1) {
+            // single-register ZERO or VAL: rewrite in place
+            sparse[p] = valOp(count, 1);
+            mergeAdjacentVals();
+            return true;
+        }
+
+        // split the run into [prefix][VAL count,1][suffix]
+        byte[] seq = new byte[5];
+        int n = 0;
+        int last = first + span - 1;
+        if (index != first) n = putRun(seq, n, isVal, oldVal, index - first);
+        seq[n++] = valOp(count, 1);
+        if (index != last) n = putRun(seq, n, isVal, oldVal, last - index);
+
+        int newLen = sparseLen - opLen + n;
+        if (newLen > SPARSE_MAX_BYTES) {
+            promote();
+            return denseSet(index, count);
+        }
+        if (newLen > sparse.length) sparse = Arrays.copyOf(sparse, Math.max(newLen, sparse.length * 2));
+        System.arraycopy(sparse, p + opLen, sparse, p + n, sparseLen - p - opLen);
+        System.arraycopy(seq, 0, sparse, p, n);
+        sparseLen = newLen;
+        mergeAdjacentVals();
+        return true;
+    }
+
+    private static int putRun(byte[] seq, int n, boolean isVal, int val, int len) {
+        if (isVal) {
+            seq[n++] = valOp(val, len);
+        } else if (len <= SPARSE_ZERO_MAX_LEN) {
+            seq[n++] = (byte) (len - 1);
+        } else {
+            seq[n++] = (byte) (0x40 | ((len - 1) >>> 8));
+            seq[n++] = (byte) (len - 1);
+        }
+        return n;
+    }
+
+    private static byte valOp(int val, int len) {
+        return (byte) (0x80 | ((val - 1) << 2) | (len - 1));
+    }
+
+    /**
+     * Collapse consecutive VAL opcodes with the same value (keeps the sparse form compact).
+     */
+    private void mergeAdjacentVals() {
+        int p = 0;
+        while (p < sparseLen) {
+            int op = sparse[p] & 0xFF;
+            if ((op & 0xC0) == 0x40) {
+                p += 2;
+                continue;
+            }
+            if ((op & 0x80) != 0 && p + 1 < sparseLen) {
+                int next = sparse[p + 1] & 0xFF;
+                if ((next & 0x80) != 0 && ((op >>> 2) & 0x1F) == ((next >>> 2) & 0x1F)) {
+                    int len = (op & 0x03) + (next & 0x03) + 2;
+                    if (len <= SPARSE_VAL_MAX_LEN) {
+                        sparse[p] = valOp(((op >>> 2) & 0x1F) + 1, len);
+                        System.arraycopy(sparse, p + 2, sparse, p + 1, sparseLen - p - 2);
+                        sparseLen--;
+                        continue; // try merging the following opcode too
+                    }
+                }
+            }
+            p++;
+        }
+    }
+
+    private void appendZeroRun(int len) {
+        sparseLen = putRun(sparse, sparseLen, false, 0, len);
+    }
+
+    private void sparseHistogram(int[] histo) {
+        for (int p = 0; p < sparseLen; ) {
+            int op = sparse[p] & 0xFF;
+            if ((op & 0xC0) == 0x00) {
+                histo[0] += (op & 0x3F) + 1;
+                p++;
+            } else if ((op & 0xC0) == 0x40) {
+                histo[0] += (((op & 0x3F) << 8) | (sparse[p + 1] & 0xFF)) + 1;
+                p += 2;
+            } else {
+                histo[((op >>> 2) & 0x1F) + 1] += (op & 0x03) + 1;
+                p++;
+            }
+        }
+    }
+
+    private void promote() {
+        byte[] regs = new byte[REGISTERS];
+        mergeInto(regs);
+        byte[] d = new byte[DENSE_BYTES + 1];
+        for (int i = 0; i < REGISTERS; i++) {
+            if (regs[i] != 0) setDense(d, i, regs[i]);
+        }
+        dense = d;
+        sparse = null;
+        sparseLen = 0;
+    }
+
+    // ---------- dense encoding ----------
+
+    private boolean denseSet(int index, int count) {
+        if (getDense(dense, index) >= count) return false;
+        setDense(dense, index, count);
+        return true;
+    }
+
+    private static int getDense(byte[] d, int reg) {
+        int bit = reg * 6;
+        int b = bit >>> 3, fb = bit & 7;
+        int v = ((d[b] & 0xFF) >>> fb) | ((d[b + 1] & 0xFF) << (8 - fb));
+        return v & 63;
+    }
+
+    private static void setDense(byte[] d, int reg, int val) {
+        int bit = reg * 6;
+        int b = bit >>> 3, fb = bit & 7;
+        d[b] = (byte) ((d[b] & ~(63 << fb)) | (val << fb));
+        d[b + 1] = (byte) ((d[b + 1] & ~(63 >>> (8 - fb))) | (val >>> (8 - fb)));
+    }
+
+    // ---------- estimator ----------
+
+    private static long estimate(int[] histo) {
+        double m = REGISTERS;
+        double z = m * tau((m - histo[Q + 1]) / m);
+        for (int j = Q; j >= 1; j--) {
+            z += histo[j];
+            z *= 0.5;
+        }
+        z += m * sigma(histo[0] / m);
+        return Math.round(ALPHA_INF * m * m / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1.0) return Double.POSITIVE_INFINITY;
+        double zPrime, y = 1, z = x;
+        do {
+            x *= x;
+            zPrime = z;
+            z += x * y;
+            y += y;
+        } while (zPrime != z);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0.0 || x == 1.0) return 0.0;
+        double zPrime, y = 1.0, z = 1 - x;
+        do {
+            x = Math.sqrt(x);
+            zPrime = z;
+            y *= 0.5;
+            z -= Math.pow(1 - x, 2) * y;
+        } while (zPrime != z);
+        return z / 3;
+    }
+
+    /**
+     * MurmurHash64A as used by Redis (little-endian 8-byte blocks).
+     */
+    @SuppressWarnings("fallthrough") // the tail switch falls through on purpose
+    static long murmurHash64A(byte[] key, long seed) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        int len = key.length;
+        long h = seed ^ (len * m);
+        int end = len - (len & 7);
+        for (int i = 0; i < end; i += 8) {
+            long k = (key[i] & 0xFFL)
+                    | (key[i + 1] & 0xFFL) << 8
+                    | (key[i + 2] & 0xFFL) << 16
+                    | (key[i + 3] & 0xFFL) << 24
+                    | (key[i + 4] & 0xFFL) << 32
+                    | (key[i + 5] & 0xFFL) << 40
+                    | (key[i + 6] & 0xFFL) << 48
+                    | (key[i + 7] & 0xFFL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+        switch (len & 7) {
+            case 7: h ^= (key[end + 6] & 0xFFL) << 48; // fall through
+            case 6: h ^= (key[end + 5] & 0xFFL) << 40; // fall through
+            case 5: h ^= (key[end + 4] & 0xFFL) << 32; // fall through
+            case 4: h ^= (key[end + 3] & 0xFFL) << 24; // fall through
+            case 3: h ^= (key[end + 2] & 0xFFL) << 16; // fall through
+            case 2: h ^= (key[end + 1] & 0xFFL) << 8;  // fall through
+            case 1:
+                h ^= key[end] & 0xFFL;
+                h *= m;
+                break;
+            default:
+                break;
+        }
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+}
@@ -0,0 +1,114 @@
+package com.polynomeer.struct;
+
+import java.util.Arrays;
+
+/**
+ * A compact sorted set of integers (Redis "intset" encoding).
+ * - Values kept sorted in a primitive array; membership by binary search
+ * - Starts with int[] storage and upgrades to long[] once a value needs 64 bits
+ * - Not thread-safe; intended for single-threaded reactor usage
+ */
+public final class IntSet {
+    private static final int INIT_CAP = 4;
+
+    private int[] ints = new int[INIT_CAP]; // used while every value fits in 32 bits
+    private long[] longs;                   // non-null once upgraded
+    private int size;
+
+    /**
+     * Returns number of members.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Value at sorted position i (0 <= i < size).
+     */
+    public long get(int i) {
+        return longs != null ? longs[i] : ints[i];
+    }
+
+    public boolean contains(long v) {
+        return search(v) >= 0;
+    }
+
+    /**
+     * Add value; returns true if it was not present.
+     */
+    public boolean add(long v) {
+        if (longs == null && (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)) {
+            upgrade();
+        }
+        int pos = search(v);
+        if (pos >= 0) return false;
+        int ins = -(pos + 1);
+        if (longs != null) {
+            if (size == longs.length) longs = Arrays.copyOf(longs, size << 1);
+            System.arraycopy(longs, ins, longs, ins + 1, size - ins);
+            longs[ins] = v;
+        } else {
+            if (size == ints.length) ints = Arrays.copyOf(ints, size << 1);
+            System.arraycopy(ints, ins, ints, ins + 1, size - ins);
+            ints[ins] = (int) v;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove value; returns true if it was present.
+     */
+    public boolean remove(long v) {
+        int pos = search(v);
+        if (pos < 0) return false;
+        int tail = size - pos - 1;
+        if (longs != null) {
+            System.arraycopy(longs, pos + 1, longs, pos, tail);
+        } else {
+            System.arraycopy(ints, pos + 1, ints, pos, tail);
+        }
+        size--;
+        return true;
+    }
+
+    private int search(long v) {
+        if (longs != null) return Arrays.binarySearch(longs, 0, size, v);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) return -(size + 1);
+        return Arrays.binarySearch(ints, 0, size, (int) v);
+    }
+
+    private void upgrade() {
+        long[] l = new long[Math.max(INIT_CAP, ints.length)];
+        for (int i = 0; i < size; i++) l[i] = ints[i];
+        longs = l;
+        ints = null;
+    }
+
+    /**
+     * Parse s as a canonical integer (no sign prefix '+', no leading zeros, no "-0"),
+     * i.e. a string that round-trips through Long.toString. Returns false otherwise.
+     */
+    public static boolean isCanonicalLong(String s) {
+        int n = s.length();
+        if (n == 0 || n > 20) return false;
+        int i = 0;
+        if (s.charAt(0) == '-') {
+            if (n == 1) return false;
+            i = 1;
+        }
+        char first = s.charAt(i);
+        if (first == '0') return n == 1; // "0" only; rejects "-0" and "007"
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        if (n < 19) return true;
+        try {
+            Long.parseLong(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.polynomeer.struct;
 
+import java.util.function.BiConsumer;
+
 /**
  * A lightweight open-addressing hash map specialized for String->String.
  * - Linear probing with states array (0=empty, 1=used, 2=deleted)
@@ -110,6 +112,15 @@ public final class OpenHashStringMap {
         }
     }
 
+    /**
+     * Visit every key/value pair (slot order).
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] == 1) action.accept(keys[i], vals[i]);
+        }
+    }
+
     private void ensureCapacityForInsert() {
         int cap = keys.length;
         if ((occupied + 1) > (int) (cap * MAX_LOAD)) {
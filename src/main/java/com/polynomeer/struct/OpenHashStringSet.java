@@ -0,0 +1,159 @@
+package com.polynomeer.struct;
+
+import java.util.function.Consumer;
+
+/**
+ * A lightweight open-addressing hash set of Strings.
+ * - Same layout as OpenHashStringMap: linear probing with states array (0=empty, 1=used, 2=deleted)
+ * - Power-of-two capacity, load factor ~0.66 before rehash
+ * - Not thread-safe; intended for single-threaded reactor usage
+ */
+public final class OpenHashStringSet {
+    private static final int INIT_CAP = 8; // must be power of two
+    private static final double MAX_LOAD = 0.66;
+
+    private String[] keys;
+    private byte[] states; // 0=empty, 1=used, 2=deleted
+    private int size;      // number of used entries
+    private int occupied;  // used + deleted (for rehash trigger)
+
+    public OpenHashStringSet() {
+        this(INIT_CAP);
+    }
+
+    /**
+     * Pre-size for about 'expected' members to avoid rehashing while bulk loading.
+     */
+    public OpenHashStringSet(int expected) {
+        int cap = nextPowerOfTwo(Math.max(INIT_CAP, (int) (expected / MAX_LOAD) + 1));
+        this.keys = new String[cap];
+        this.states = new byte[cap];
+    }
+
+    /**
+     * Returns number of members.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String k) {
+        int mask = keys.length - 1;
+        int i = indexFor(k, mask);
+        while (true) {
+            byte st = states[i];
+            if (st == 0) return false;
+            if (st == 1 && k.equals(keys[i])) return true;
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Add member; returns true if it was not present.
+     */
+    public boolean add(String k) {
+        ensureCapacityForInsert();
+        int mask = keys.length - 1;
+        int i = indexFor(k, mask);
+        int firstTomb = -1;
+        while (true) {
+            byte st = states[i];
+            if (st == 0) {
+                int idx = (firstTomb >= 0) ? firstTomb : i;
+                if (states[idx] == 0) occupied++;
+                keys[idx] = k;
+                states[idx] = 1;
+                size++;
+                return true;
+            } else if (st == 1) {
+                if (k.equals(keys[i])) return false;
+            } else if (firstTomb < 0) {
+                firstTomb = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove member; returns true if removed.
+     */
+    public boolean remove(String k) {
+        int cap = keys.length;
+        int mask = cap - 1;
+        int i = indexFor(k, mask);
+        while (true) {
+            byte st = states[i];
+            if (st == 0) return false;
+            if (st == 1 && k.equals(keys[i])) {
+                keys[i] = null;
+                states[i] = 2;
+                size--;
+                if (cap > INIT_CAP && size * 4 < cap) {
+                    rehash(cap >>> 1);
+                }
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Visit every member in slot order. The set must not be modified during iteration.
+     */
+    public void forEach(Consumer<String> action) {
+        String[] k = keys;
+        byte[] s = states;
+        for (int i = 0; i < k.length; i++) {
+            if (s[i] == 1) action.accept(k[i]);
+        }
+    }
+
+    private void ensureCapacityForInsert() {
+        int cap = keys.length;
+        if ((occupied + 1) > (int) (cap * MAX_LOAD)) {
+            rehash(cap << 1);
+        }
+    }
+
+    private void rehash(int newCap) {
+        newCap = Math.max(INIT_CAP, nextPowerOfTwo(newCap));
+        String[] oldK = keys;
+        byte[] oldS = states;
+
+        keys = new String[newCap];
+        states = new byte[newCap];
+        size = 0;
+        occupied = 0;
+
+        int mask = newCap - 1;
+        for (int i = 0; i < oldK.length; i++) {
+            if (oldS[i] == 1) {
+                String k = oldK[i];
+                int j = indexFor(k, mask);
+                while (states[j] != 0) j = (j + 1) & mask;
+                keys[j] = k;
+                states[j] = 1;
+                size++;
+                occupied++;
+            }
+        }
+    }
+
+    private static int nextPowerOfTwo(int x) {
+        int n = x - 1;
+        n |= n >> 1;
+        n |= n >> 2;
+        n |= n >> 4;
+        n |= n >> 8;
+        n |= n >> 16;
+        return (n < 0) ? 1 : (n + 1);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static int indexFor(String k, int mask) {
+        return spread(k.hashCode()) & mask;
+    }
+}
@@ -0,0 +1,266 @@
+package com.polynomeer.struct;
+
+import java.util.Arrays;
+
+/**
+ * Ordered map from byte[] keys to values, stored as a path-compressed radix tree.
+ * - Each node holds the edge label leading into it, sorted child labels and an optional value
+ * - Keys compare as unsigned bytes (lexicographic), so big-endian encoded numbers sort numerically
+ * - Ordered lookups (floor/ceiling/first/last) walk one root-to-leaf path
+ * - Not thread-safe; intended for single-threaded reactor usage
+ */
+public final class RadixTree<V> {
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final class Node<V> {
+        byte[] prefix;                 // edge label from parent to this node
+        byte[] labels = EMPTY;         // first byte of each child's prefix, sorted unsigned
+        Node<V>[] children = newArray(0);
+        V value;                       // non-null when a key ends here
+
+        Node(byte[] prefix) {
+            this.prefix = prefix;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V>[] newArray(int n) {
+            return (Node<V>[]) new Node<?>[n];
+        }
+    }
+
+    private final Node<V> root = new Node<>(EMPTY);
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(byte[] key) {
+        Node<V> n = root;
+        int pos = 0;
+        while (true) {
+            if (pos == key.length) return n.value;
+            int idx = childIndex(n, key[pos]);
+            if (idx < 0) return null;
+            Node<V> c = n.children[idx];
+            if (commonPrefix(c.prefix, key, pos) != c.prefix.length) return null;
+            pos += c.prefix.length;
+            n = c;
+        }
+    }
+
+    /**
+     * Insert or replace; returns the previous value or null. Values must be non-null.
+     */
+    public V put(byte[] key, V value) {
+        if (value == null) throw new IllegalArgumentException("null value");
+        Node<V> n = root;
+        int pos = 0;
+        while (true) {
+            if (pos == key.length) {
+                V old = n.value;
+                n.value = value;
+                if (old == null) size++;
+                return old;
+            }
+            int idx = childIndex(n, key[pos]);
+            if (idx < 0) {
+                Node<V> leaf = new Node<>(Arrays.copyOfRange(key, pos, key.length));
+                leaf.value = value;
+                addChild(n, -(idx + 1), leaf);
+                size++;
+                return null;
+            }
+            Node<V> c = n.children[idx];
+            int common = commonPrefix(c.prefix, key, pos);
+            if (common < c.prefix.length) {
+                // split edge: n -> mid(prefix[0..common)) -> c(prefix[common..])
+                Node<V> mid = new Node<>(Arrays.copyOf(c.prefix, common));
+                c.prefix = Arrays.copyOfRange(c.prefix, common, c.prefix.length);
+                mid.labels = new byte[]{c.prefix[0]};
+                mid.children = Node.newArray(1);
+                mid.children[0] = c;
+                n.children[idx] = mid;
+                c = mid;
+            }
+            pos += common;
+            n = c;
+        }
+    }
+
+    /**
+     * Remove key; returns the removed value or null.
+     */
+    public V remove(byte[] key) {
+        // remember the path so emptied nodes can be pruned/merged on the way back
+        Node<V>[] path = Node.newArray(key.length + 1);
+        int[] slots = new int[key.length + 1];
+        int depth = 0;
+        Node<V> n = root;
+        int pos = 0;
+        while (pos < key.length) {
+            int idx = childIndex(n, key[pos]);
+            if (idx < 0) return null;
+            Node<V> c = n.children[idx];
+            if (commonPrefix(c.prefix, key, pos) != c.prefix.length) return null;
+            path[depth] = n;
+            slots[depth] = idx;
+            depth++;
+            pos += c.prefix.length;
+            n = c;
+        }
+        V old = n.value;
+        if (old == null) return null;
+        n.value = null;
+        size--;
+
+        while (depth > 0 && n.value == null && n.children.length == 0) {
+            depth--;
+            removeChild(path[depth], slots[depth]);
+            n = path[depth];
+        }
+        if (n != root && n.value == null && n.children.length == 1) {
+            mergeWithOnlyChild(n);
+        }
+        return old;
+    }
+
+    public V first() {
+        return size == 0 ? null : min(root);
+    }
+
+    public V last() {
+        return size == 0 ? null : max(root);
+    }
+
+    /**
+     * Value of the smallest key >= key, or null.
+     */
+    public V ceiling(byte[] key) {
+        return ceiling(root, key, 0);
+    }
+
+    /**
+     * Value of the greatest key <= key, or null.
+     */
+    public V floor(byte[] key) {
+        return floor(root, key, 0);
+    }
+
+    private V ceiling(Node<V> n, byte[] key, int pos) {
+        byte[] p = n.prefix;
+        int i = commonPrefix(p, key, pos);
+        if (i < p.length) {
+            // key exhausted inside this edge, or edge byte is greater: everything below is greater
+            if (pos + i == key.length || (p[i] & 0xFF) > (key[pos + i] & 0xFF)) return min(n);
+            return null;
+        }
+        pos += p.length;
+        if (pos == key.length) return n.value != null ? n.value : min(n);
+        int idx = childIndex(n, key[pos]);
+        int start;
+        if (idx >= 0) {
+            V r = ceiling(n.children[idx], key, pos);
+            if (r != null) return r;
+            start = idx + 1;
+        } else {
+            start = -(idx + 1);
+        }
+        return start < n.children.length ? min(n.children[start]) : null;
+    }
+
+    private V floor(Node<V> n, byte[] key, int pos) {
+        byte[] p = n.prefix;
+        int i = commonPrefix(p, key, pos);
+        if (i < p.length) {
+            if (pos + i == key.length) return null; // every key below extends 'key' -> greater
+            if ((p[i] & 0xFF) < (key[pos + i] & 0xFF)) return max(n);
+            return null;
+        }
+        pos += p.length;
+        if (pos == key.length) return n.value;
+        int idx = childIndex(n, key[pos]);
+        int end;
+        if (idx >= 0) {
+            V r = floor(n.children[idx], key, pos);
+            if (r != null) return r;
+            end = idx - 1;
+        } else {
+            end = -(idx + 1) - 1;
+        }
+        if (end >= 0) return max(n.children[end]);
+        return n.value;
+    }
+
+    private V min(Node<V> n) {
+        while (n.value == null) {
+            if (n.children.length == 0) return null;
+            n = n.children[0];
+        }
+        return n.value;
+    }
+
+    private V max(Node<V> n) {
+        while (n.children.length > 0) n = n.children[n.children.length - 1];
+        return n.value;
+    }
+
+    private void mergeWithOnlyChild(Node<V> n) {
+        Node<V> c = n.children[0];
+        byte[] merged = Arrays.copyOf(n.prefix, n.prefix.length + c.prefix.length);
+        System.arraycopy(c.prefix, 0, merged, n.prefix.length, c.prefix.length);
+        n.prefix = merged;
+        n.labels = c.labels;
+        n.children = c.children;
+        n.value = c.value;
+    }
+
+    private static <V> int childIndex(Node<V> n, byte b) {
+        int lo = 0, hi = n.labels.length - 1, key = b & 0xFF;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = n.labels[mid] & 0xFF;
+            if (v < key) lo = mid + 1;
+            else if (v > key) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    private static <V> void addChild(Node<V> n, int at, Node<V> child) {
+        int len = n.labels.length;
+        byte[] labels = new byte[len + 1];
+        Node<V>[] children = Node.newArray(len + 1);
+        System.arraycopy(n.labels, 0, labels, 0, at);
+        System.arraycopy(n.children, 0, children, 0, at);
+        labels[at] = child.prefix[0];
+        children[at] = child;
+        System.arraycopy(n.labels, at, labels, at + 1, len - at);
+        System.arraycopy(n.children, at, children, at + 1, len - at);
+        n.labels = labels;
+        n.children = children;
+    }
+
+    private static <V> void removeChild(Node<V> n, int at) {
+        int len = n.labels.length;
+        byte[] labels = new byte[len - 1];
+        Node<V>[] children = Node.newArray(len - 1);
+        System.arraycopy(n.labels, 0, labels, 0, at);
+        System.arraycopy(n.children, 0, children, 0, at);
+        System.arraycopy(n.labels, at + 1, labels, at, len - at - 1);
+        System.arraycopy(n.children, at + 1, children, at, len - at - 1);
+        n.labels = labels;
+        n.children = children;
+    }
+
+    private static int commonPrefix(byte[] prefix, byte[] key, int pos) {
+        int max = Math.min(prefix.length, key.length - pos);
+        int i = 0;
+        while (i < max && prefix[i] == key[pos + i]) i++;
+        return i;
+    }
+}
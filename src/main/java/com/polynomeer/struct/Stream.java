@@ -0,0 +1,219 @@
+package com.polynomeer.struct;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of field/value entries with monotonically increasing IDs.
+ * - Entries are packed into StreamNode macro-nodes (delta-encoded IDs, shared field names)
+ * - Nodes are indexed by their master ID in a RadixTree, so range seeks touch one node path
+ * - Consumer groups keep their own pending entries lists
+ * <p>
+ * Not thread-safe; intended for single-threaded reactor usage.
+ */
+public final class Stream {
+
+    private final RadixTree<StreamNode> nodes = new RadixTree<>();
+    private StreamNode tail;             // node receiving appends, null if a new one is needed
+    private long length;                 // live entries
+    private long entriesAdded;           // all entries ever appended
+    private StreamId lastId = StreamId.MIN;
+    private final Map<String, StreamConsumerGroup> groups = new LinkedHashMap<>();
+
+    public long length() {
+        return length;
+    }
+
+    public long entriesAdded() {
+        return entriesAdded;
+    }
+
+    public StreamId lastId() {
+        return lastId;
+    }
+
+    /**
+     * Restore lastId/entriesAdded after reloading entries (they can run ahead of the
+     * last live entry once entries were deleted or trimmed).
+     */
+    public void restoreCounters(StreamId lastId, long entriesAdded) {
+        this.lastId = lastId;
+        this.entriesAdded = entriesAdded;
+    }
+
+    /**
+     * Append an entry; 'id' must be greater than lastId() (checked by callers).
+     */
+    public void append(StreamId id, List<String> fieldsValues) {
+        if (tail == null || tail.isFull()) {
+            tail = new StreamNode(id, fieldsValues);
+            nodes.put(id.toKey(), tail);
+        }
+        tail.append(id, fieldsValues);
+        lastId = id;
+        length++;
+        entriesAdded++;
+    }
+
+    /**
+     * Entries with start <= id <= end, ascending (or descending when rev), at most 'count'.
+     */
+    public List<StreamEntry> range(StreamId start, StreamId end, long count, boolean rev) {
+        List<StreamEntry> out = new ArrayList<>();
+        if (start.compareTo(end) > 0 || count <= 0) return out;
+        if (!rev) {
+            StreamNode n = nodes.floor(start.toKey());
+            if (n == null) n = nodes.first();
+            while (n != null && n.master.compareTo(end) <= 0) {
+                for (int off = n.begin(); off < n.end(); off = n.next(off)) {
+                    if (n.isDeleted(off)) continue;
+                    StreamId id = n.idAt(off);
+                    if (id.compareTo(start) < 0) continue;
+                    if (id.compareTo(end) > 0) return out;
+                    out.add(new StreamEntry(id, n.fieldsValuesAt(off)));
+                    if (out.size() >= count) return out;
+                }
+                n = nodeAfter(n);
+            }
+        } else {
+            StreamNode n = nodes.floor(end.toKey());
+            while (n != null && n.last.compareTo(start) >= 0) {
+                int[] offs = n.offsets();
+                for (int i = offs.length - 1; i >= 0; i--) {
+                    if (n.isDeleted(offs[i])) continue;
+                    StreamId id = n.idAt(offs[i]);
+                    if (id.compareTo(end) > 0) continue;
+                    if (id.compareTo(start) < 0) return out;
+                    out.add(new StreamEntry(id, n.fieldsValuesAt(offs[i])));
+                    if (out.size() >= count) return out;
+                }
+                n = nodeBefore(n);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Single live entry or null.
+     */
+    public StreamEntry get(StreamId id) {
+        List<StreamEntry> r = range(id, id, 1, false);
+        return r.isEmpty() ? null : r.get(0);
+    }
+
+    /**
+     * Delete one entry by ID; returns true if it existed.
+     */
+    public boolean delete(StreamId id) {
+        StreamNode n = nodes.floor(id.toKey());
+        if (n == null || n.last.compareTo(id) < 0) return false;
+        for (int off = n.begin(); off < n.end(); off = n.next(off)) {
+            int c = n.idAt(off).compareTo(id);
+            if (c > 0) return false;
+            if (c == 0) {
+                if (!n.markDeleted(off)) return false;
+                length--;
+                if (n.live == 0) dropNode(n);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Trim to at most maxLen entries, oldest first. With 'approx' only whole nodes are
+     * dropped, and at most 'limit' entries (0 = unlimited). Returns entries removed.
+     */
+    public long trimByMaxLen(long maxLen, boolean approx, long limit) {
+        long removed = 0;
+        while (length > maxLen) {
+            StreamNode n = nodes.first();
+            long excess = length - maxLen;
+            if (n.live <= excess) {
+                if (limit > 0 && removed + n.live > limit) break;
+                removed += n.live;
+                length -= n.live;
+                dropNode(n);
+                continue;
+            }
+            if (approx) break;
+            for (int off = n.begin(); off < n.end() && length > maxLen; off = n.next(off)) {
+                if (n.markDeleted(off)) {
+                    length--;
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove entries with id < minId; same 'approx'/'limit' semantics as trimByMaxLen.
+     */
+    public long trimByMinId(StreamId minId, boolean approx, long limit) {
+        long removed = 0;
+        while (length > 0) {
+            StreamNode n = nodes.first();
+            if (n.master.compareTo(minId) >= 0) break;
+            if (n.last.compareTo(minId) < 0) {
+                if (limit > 0 && removed + n.live > limit) break;
+                removed += n.live;
+                length -= n.live;
+                dropNode(n);
+                continue;
+            }
+            if (approx) break;
+            for (int off = n.begin(); off < n.end(); off = n.next(off)) {
+                if (n.idAt(off).compareTo(minId) >= 0) break;
+                if (n.markDeleted(off)) {
+                    length--;
+                    removed++;
+                }
+            }
+            break;
+        }
+        return removed;
+    }
+
+    // ---------- consumer groups ----------
+
+    public StreamConsumerGroup group(String name) {
+        return groups.get(name);
+    }
+
+    /**
+     * Create a group; returns null if one with that name already exists.
+     */
+    public StreamConsumerGroup createGroup(String name, StreamId lastDelivered) {
+        if (groups.containsKey(name)) return null;
+        StreamConsumerGroup g = new StreamConsumerGroup(name, lastDelivered);
+        groups.put(name, g);
+        return g;
+    }
+
+    public boolean destroyGroup(String name) {
+        return groups.remove(name) != null;
+    }
+
+    public Collection<StreamConsumerGroup> groups() {
+        return groups.values();
+    }
+
+    private void dropNode(StreamNode n) {
+        nodes.remove(n.master.toKey());
+        if (n == tail) tail = null;
+    }
+
+    private StreamNode nodeAfter(StreamNode n) {
+        StreamId nx = n.master.next();
+        return nx == null ? null : nodes.ceiling(nx.toKey());
+    }
+
+    private StreamNode nodeBefore(StreamNode n) {
+        StreamId pv = n.master.prev();
+        return pv == null ? null : nodes.floor(pv.toKey());
+    }
+}
@@ -0,0 +1,187 @@
+package com.polynomeer.struct;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consumer group of a stream:
+ * - last delivered ID (entries after it are "new" for XREADGROUP ... >)
+ * - group-wide pending entries list (PEL) keyed by entry ID in a radix tree
+ * - per-consumer PELs sharing the same PendingEntry objects
+ */
+public final class StreamConsumerGroup {
+
+    public static final class Consumer {
+        public final String name;
+        public long seenTime;
+        final RadixTree<PendingEntry> pel = new RadixTree<>();
+
+        Consumer(String name, long now) {
+            this.name = name;
+            this.seenTime = now;
+        }
+
+        public int pendingCount() {
+            return pel.size();
+        }
+    }
+
+    public static final class PendingEntry {
+        public final StreamId id;
+        public Consumer consumer;
+        public long deliveryTime;
+        public long deliveryCount;
+
+        PendingEntry(StreamId id, Consumer consumer, long deliveryTime) {
+            this.id = id;
+            this.consumer = consumer;
+            this.deliveryTime = deliveryTime;
+            this.deliveryCount = 1;
+        }
+    }
+
+    public final String name;
+    public StreamId lastDeliveredId;
+    private final RadixTree<PendingEntry> pel = new RadixTree<>();
+    private final Map<String, Consumer> consumers = new LinkedHashMap<>();
+
+    StreamConsumerGroup(String name, StreamId lastDeliveredId) {
+        this.name = name;
+        this.lastDeliveredId = lastDeliveredId;
+    }
+
+    public Consumer consumer(String name) {
+        return consumers.get(name);
+    }
+
+    public Consumer getOrCreateConsumer(String name, long now) {
+        Consumer c = consumers.get(name);
+        if (c == null) {
+            c = new Consumer(name, now);
+            consumers.put(name, c);
+        }
+        return c;
+    }
+
+    public Collection<Consumer> consumers() {
+        return consumers.values();
+    }
+
+    /**
+     * Remove consumer and release its pending entries; returns how many were pending, or -1 if unknown.
+     */
+    public long deleteConsumer(String name) {
+        Consumer c = consumers.remove(name);
+        if (c == null) return -1;
+        long n = c.pel.size();
+        for (PendingEntry pe = c.pel.first(); pe != null; pe = c.pel.first()) {
+            c.pel.remove(pe.id.toKey());
+            pel.remove(pe.id.toKey());
+        }
+        return n;
+    }
+
+    public PendingEntry pending(StreamId id) {
+        return pel.get(id.toKey());
+    }
+
+    public int pendingCount() {
+        return pel.size();
+    }
+
+    public StreamId firstPendingId() {
+        PendingEntry pe = pel.first();
+        return pe == null ? null : pe.id;
+    }
+
+    public StreamId lastPendingId() {
+        PendingEntry pe = pel.last();
+        return pe == null ? null : pe.id;
+    }
+
+    /**
+     * Record delivery of 'id' to 'c'. A fresh delivery creates a PEL entry; re-delivering an
+     * entry already pending moves it to 'c' and bumps its delivery count.
+     */
+    public void deliver(StreamId id, Consumer c, long now) {
+        byte[] key = id.toKey();
+        PendingEntry pe = pel.get(key);
+        if (pe == null) {
+            pe = new PendingEntry(id, c, now);
+            pel.put(key, pe);
+        } else {
+            pe.deliveryCount++;
+            pe.deliveryTime = now;
+            moveTo(pe, c);
+        }
+        c.pel.put(key, pe);
+    }
+
+    /**
+     * Transfer ownership of a pending entry to another consumer (XCLAIM).
+     */
+    public void moveTo(PendingEntry pe, Consumer to) {
+        if (pe.consumer == to) return;
+        byte[] key = pe.id.toKey();
+        pe.consumer.pel.remove(key);
+        pe.consumer = to;
+        to.pel.put(key, pe);
+    }
+
+    /**
+     * Insert a pending entry as-is (XCLAIM ... FORCE on an ID that is not pending).
+     */
+    public PendingEntry forcePending(StreamId id, Consumer c, long now) {
+        PendingEntry pe = new PendingEntry(id, c, now);
+        pe.deliveryCount = 0;
+        pel.put(id.toKey(), pe);
+        c.pel.put(id.toKey(), pe);
+        return pe;
+    }
+
+    /**
+     * XACK: drop from group and consumer PEL; returns true if it was pending.
+     */
+    public boolean ack(StreamId id) {
+        byte[] key = id.toKey();
+        PendingEntry pe = pel.remove(key);
+        if (pe == null) return false;
+        pe.consumer.pel.remove(key);
+        return true;
+    }
+
+    /**
+     * Pending entries with start <= id <= end in ID order, optionally only for one consumer
+     * and only idle for at least minIdleMs.
+     */
+    public List<PendingEntry> pendingRange(StreamId start, StreamId end, long count,
+                                           Consumer only, long minIdleMs, long now) {
+        RadixTree<PendingEntry> tree = (only != null) ? only.pel : pel;
+        List<PendingEntry> out = new ArrayList<>();
+        PendingEntry pe = tree.ceiling(start.toKey());
+        while (pe != null && pe.id.compareTo(end) <= 0 && out.size() < count) {
+            if (now - pe.deliveryTime >= minIdleMs) out.add(pe);
+            StreamId nx = pe.id.next();
+            pe = (nx == null) ? null : tree.ceiling(nx.toKey());
+        }
+        return out;
+    }
+
+    /**
+     * Consumer's own pending entries with id > after, in ID order (XREADGROUP history reads).
+     */
+    public List<PendingEntry> consumerPendingAfter(Consumer c, StreamId after, long count) {
+        List<PendingEntry> out = new ArrayList<>();
+        StreamId from = after.next();
+        PendingEntry pe = (from == null) ? null : c.pel.ceiling(from.toKey());
+        while (pe != null && out.size() < count) {
+            out.add(pe);
+            StreamId nx = pe.id.next();
+            pe = (nx == null) ? null : c.pel.ceiling(nx.toKey());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,15 @@
+package com.polynomeer.struct;
+
+/**
+ * One decoded stream entry: ID plus alternating field/value strings.
+ * fieldsValues is null for an entry that was deleted after being delivered (XREADGROUP history).
+ */
+public final class StreamEntry {
+    public final StreamId id;
+    public final String[] fieldsValues;
+
+    public StreamEntry(StreamId id, String[] fieldsValues) {
+        this.id = id;
+        this.fieldsValues = fieldsValues;
+    }
+}
@@ -0,0 +1,90 @@
+package com.polynomeer.struct;
+
+/**
+ * Stream entry ID "<ms>-<seq>"; both parts are unsigned 64-bit in Redis,
+ * here kept as non-negative longs (ms fits comfortably, seq rarely exceeds 2^63).
+ */
+public final class StreamId implements Comparable<StreamId> {
+    public static final StreamId MIN = new StreamId(0, 0);
+    public static final StreamId MAX = new StreamId(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    public final long ms;
+    public final long seq;
+
+    public StreamId(long ms, long seq) {
+        this.ms = ms;
+        this.seq = seq;
+    }
+
+    /**
+     * Parse "ms-seq" or "ms". For a bare "ms", 'missingSeq' is used as the sequence part.
+     * Returns null on a malformed ID.
+     */
+    public static StreamId parse(String s, long missingSeq) {
+        int dash = s.indexOf('-');
+        try {
+            if (dash < 0) {
+                long ms = Long.parseLong(s);
+                return ms < 0 ? null : new StreamId(ms, missingSeq);
+            }
+            long ms = Long.parseLong(s.substring(0, dash));
+            long seq = Long.parseLong(s.substring(dash + 1));
+            return (ms < 0 || seq < 0) ? null : new StreamId(ms, seq);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Smallest ID greater than this one, or null if this is MAX.
+     */
+    public StreamId next() {
+        if (seq < Long.MAX_VALUE) return new StreamId(ms, seq + 1);
+        if (ms < Long.MAX_VALUE) return new StreamId(ms + 1, 0);
+        return null;
+    }
+
+    /**
+     * Greatest ID smaller than this one, or null if this is 0-0.
+     */
+    public StreamId prev() {
+        if (seq > 0) return new StreamId(ms, seq - 1);
+        if (ms > 0) return new StreamId(ms - 1, Long.MAX_VALUE);
+        return null;
+    }
+
+    /**
+     * 16-byte big-endian key, so that byte order equals ID order (radix tree keys).
+     */
+    public byte[] toKey() {
+        byte[] k = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            k[i] = (byte) (ms >>> (56 - 8 * i));
+            k[8 + i] = (byte) (seq >>> (56 - 8 * i));
+        }
+        return k;
+    }
+
+    @Override
+    public int compareTo(StreamId o) {
+        int c = Long.compare(ms, o.ms);
+        return c != 0 ? c : Long.compare(seq, o.seq);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StreamId)) return false;
+        StreamId other = (StreamId) o;
+        return ms == other.ms && seq == other.seq;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(ms) * 31 + Long.hashCode(seq);
+    }
+
+    @Override
+    public String toString() {
+        return ms + "-" + seq;
+    }
+}
@@ -0,0 +1,205 @@
+package com.polynomeer.struct;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Macro-node of a stream: up to MAX_ENTRIES entries packed into one byte[].
+ * - IDs are delta-encoded against the node's master (first) ID as varints
+ * - Entries whose field names equal the master entry's fields store only their values
+ * - Deletion only flips a flag byte; space is reclaimed when the whole node is dropped
+ * <p>
+ * Entry layout: [flags][ms delta: uvarint][seq delta: zigzag varint]
+ * [field count: uvarint, then field/value pairs | values only when SAMEFIELDS],
+ * each string as uvarint length + bytes.
+ */
+final class StreamNode {
+    static final int MAX_ENTRIES = 100;
+    static final int MAX_BYTES = 4096;
+
+    private static final int FLAG_DELETED = 1;
+    private static final int FLAG_SAMEFIELDS = 2;
+
+    final StreamId master;
+    private final String[] masterFields;
+
+    private byte[] data = new byte[64];
+    private int used;
+    int count;   // entries including deleted ones
+    int live;    // entries not deleted
+    StreamId last;
+
+    StreamNode(StreamId first, List<String> fieldsValues) {
+        this.master = first;
+        this.masterFields = new String[fieldsValues.size() / 2];
+        for (int i = 0; i < masterFields.length; i++) masterFields[i] = fieldsValues.get(2 * i);
+    }
+
+    boolean isFull() {
+        return count >= MAX_ENTRIES || used >= MAX_BYTES;
+    }
+
+    /**
+     * Offset of the first entry; iteration ends when offset == end().
+     */
+    int begin() {
+        return 0;
+    }
+
+    int end() {
+        return used;
+    }
+
+    void append(StreamId id, List<String> fieldsValues) {
+        boolean same = sameAsMaster(fieldsValues);
+        putByte(same ? FLAG_SAMEFIELDS : 0);
+        putVarLong(id.ms - master.ms);
+        putVarLong(zigzag(id.seq - master.seq));
+        if (same) {
+            for (int i = 1; i < fieldsValues.size(); i += 2) putString(fieldsValues.get(i));
+        } else {
+            putVarLong(fieldsValues.size() / 2);
+            for (String s : fieldsValues) putString(s);
+        }
+        count++;
+        live++;
+        last = id;
+    }
+
+    boolean isDeleted(int off) {
+        return (data[off] & FLAG_DELETED) != 0;
+    }
+
+    /**
+     * Flag the entry at 'off' as deleted; returns false if it already was.
+     */
+    boolean markDeleted(int off) {
+        if (isDeleted(off)) return false;
+        data[off] |= FLAG_DELETED;
+        live--;
+        return true;
+    }
+
+    StreamId idAt(int off) {
+        int[] pos = {off + 1};
+        long ms = master.ms + readVarLong(pos);
+        long seq = master.seq + unzigzag(readVarLong(pos));
+        return new StreamId(ms, seq);
+    }
+
+    /**
+     * Field/value pairs of the entry at 'off', alternating.
+     */
+    String[] fieldsValuesAt(int off) {
+        boolean same = (data[off] & FLAG_SAMEFIELDS) != 0;
+        int[] pos = {off + 1};
+        readVarLong(pos);
+        readVarLong(pos);
+        if (same) {
+            String[] out = new String[masterFields.length * 2];
+            for (int i = 0; i < masterFields.length; i++) {
+                out[2 * i] = masterFields[i];
+                out[2 * i + 1] = readString(pos);
+            }
+            return out;
+        }
+        int n = (int) readVarLong(pos);
+        String[] out = new String[n * 2];
+        for (int i = 0; i < out.length; i++) out[i] = readString(pos);
+        return out;
+    }
+
+    /**
+     * Offset of the entry following the one at 'off'.
+     */
+    int next(int off) {
+        boolean same = (data[off] & FLAG_SAMEFIELDS) != 0;
+        int[] pos = {off + 1};
+        readVarLong(pos);
+        readVarLong(pos);
+        int strings = same ? masterFields.length : (int) readVarLong(pos) * 2;
+        for (int i = 0; i < strings; i++) {
+            int len = (int) readVarLong(pos);
+            pos[0] += len;
+        }
+        return pos[0];
+    }
+
+    /**
+     * Offsets of all entries in order (used for reverse iteration).
+     */
+    int[] offsets() {
+        int[] out = new int[count];
+        int off = 0;
+        for (int i = 0; i < count; i++) {
+            out[i] = off;
+            off = next(off);
+        }
+        return out;
+    }
+
+    private boolean sameAsMaster(List<String> fv) {
+        if (fv.size() != masterFields.length * 2) return false;
+        for (int i = 0; i < masterFields.length; i++) {
+            if (!masterFields[i].equals(fv.get(2 * i))) return false;
+        }
+        return true;
+    }
+
+    // ---------- byte encoding helpers ----------
+
+    private void ensure(int extra) {
+        if (used + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length << 1, used + extra));
+        }
+    }
+
+    private void putByte(int b) {
+        ensure(1);
+        data[used++] = (byte) b;
+    }
+
+    private void putVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            data[used++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        data[used++] = (byte) v;
+    }
+
+    private void putString(String s) {
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        putVarLong(b.length);
+        ensure(b.length);
+        System.arraycopy(b, 0, data, used, b.length);
+        used += b.length;
+    }
+
+    private long readVarLong(int[] pos) {
+        long v = 0;
+        int shift = 0;
+        while (true) {
+            byte b = data[pos[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+            shift += 7;
+        }
+    }
+
+    private String readString(int[] pos) {
+        int len = (int) readVarLong(pos);
+        String s = new String(data, pos[0], len, StandardCharsets.ISO_8859_1);
+        pos[0] += len;
+        return s;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -0,0 +1,145 @@
+package com.polynomeer.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Bit-level helpers over byte arrays with Redis bit numbering
+ * (bit 0 is the most significant bit of byte 0).
+ * Bulk operations (count, search, AND/OR/XOR/NOT) work on 64-bit words read
+ * straight out of the byte[] and fall back to single bytes only at the edges.
+ */
+public final class BitOps {
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    public static final int AND = 0, OR = 1, XOR = 2, NOT = 3;
+
+    private BitOps() {
+    }
+
+    public static int getBit(byte[] a, int len, long bitOffset) {
+        long byteIdx = bitOffset >>> 3;
+        if (byteIdx >= len) return 0;
+        return (a[(int) byteIdx] >> (7 - (int) (bitOffset & 7))) & 1;
+    }
+
+    private static int bitAt(byte[] a, long bitOffset) {
+        return (a[(int) (bitOffset >>> 3)] >> (7 - (int) (bitOffset & 7))) & 1;
+    }
+
+    /**
+     * Set one bit; the caller guarantees the byte exists. Returns the previous bit.
+     */
+    public static int setBit(byte[] a, long bitOffset, int bit) {
+        int idx = (int) (bitOffset >>> 3);
+        int shift = 7 - (int) (bitOffset & 7);
+        int old = (a[idx] >> shift) & 1;
+        if (bit != 0) a[idx] |= (byte) (1 << shift);
+        else a[idx] &= (byte) ~(1 << shift);
+        return old;
+    }
+
+    /**
+     * Number of set bits in bytes [from, to).
+     */
+    public static long popcount(byte[] a, int from, int to) {
+        long n = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8) n += Long.bitCount((long) LONGS.get(a, i));
+        for (; i < to; i++) n += Integer.bitCount(a[i] & 0xFF);
+        return n;
+    }
+
+    /**
+     * Number of set bits in the inclusive bit range [startBit, endBit] (must lie within the array).
+     */
+    public static long popcountBits(byte[] a, long startBit, long endBit) {
+        int first = (int) (startBit >>> 3), last = (int) (endBit >>> 3);
+        int headMask = 0xFF >>> (int) (startBit & 7);
+        int tailMask = (0xFF << (7 - (int) (endBit & 7))) & 0xFF;
+        if (first == last) return Integer.bitCount(a[first] & headMask & tailMask);
+        return Integer.bitCount(a[first] & headMask)
+                + popcount(a, first + 1, last)
+                + Integer.bitCount(a[last] & tailMask);
+    }
+
+    /**
+     * Position of the first bit equal to 'bit' in the inclusive range [startBit, endBit], or -1.
+     */
+    public static long bitpos(byte[] a, long startBit, long endBit, int bit) {
+        long i = startBit;
+        while (i <= endBit && (i & 7) != 0) {
+            if (bitAt(a, i) == bit) return i;
+            i++;
+        }
+        int b = (int) (i >>> 3);
+        int wholeEnd = (int) ((endBit + 1) >>> 3); // bytes [b, wholeEnd) are fully in range
+        long skip = bit == 1 ? 0L : -1L;
+        while (b + 8 <= wholeEnd && (long) LONGS.get(a, b) == skip) b += 8;
+        for (; b < wholeEnd; b++) {
+            int v = bit == 1 ? a[b] & 0xFF : ~a[b] & 0xFF;
+            if (v != 0) return ((long) b << 3) + Integer.numberOfLeadingZeros(v) - 24;
+        }
+        for (i = Math.max(i, (long) b << 3); i <= endBit; i++) {
+            if (bitAt(a, i) == bit) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * BITOP over sources (null or shorter sources read as zero bytes); result has length maxLen.
+     */
+    public static byte[] bitop(int op, byte[][] srcs, int[] lens, int maxLen) {
+        byte[] out = new byte[maxLen];
+        if (op == NOT) {
+            byte[] s = srcs[0];
+            int n = lens[0];
+            int i = 0;
+            for (; i + 8 <= n; i += 8) LONGS.set(out, i, ~(long) LONGS.get(s, i));
+            for (; i < n; i++) out[i] = (byte) ~s[i];
+            return out;
+        }
+        if (srcs[0] != null) System.arraycopy(srcs[0], 0, out, 0, lens[0]);
+        for (int k = 1; k < srcs.length; k++) {
+            byte[] s = srcs[k];
+            int n = s == null ? 0 : lens[k];
+            int i = 0;
+            for (; i + 8 <= n; i += 8) {
+                long x = (long) LONGS.get(out, i), y = (long) LONGS.get(s, i);
+                LONGS.set(out, i, op == AND ? x & y : op == OR ? x | y : x ^ y);
+            }
+            for (; i < n; i++) {
+                out[i] = (byte) (op == AND ? out[i] & s[i] : op == OR ? out[i] | s[i] : out[i] ^ s[i]);
+            }
+            if (op == AND && n < maxLen) Arrays.fill(out, n, maxLen, (byte) 0);
+        }
+        return out;
+    }
+
+    /**
+     * Read 'bits' (1..64) bits starting at bitOffset as an unsigned value; bytes past len read as zero.
+     */
+    public static long getUnsigned(byte[] a, int len, long bitOffset, int bits) {
+        long v = 0;
+        for (int j = 0; j < bits; j++) v = (v << 1) | getBit(a, len, bitOffset + j);
+        return v;
+    }
+
+    public static long getSigned(byte[] a, int len, long bitOffset, int bits) {
+        long v = getUnsigned(a, len, bitOffset, bits);
+        if (bits < 64 && (v & (1L << (bits - 1))) != 0) v |= -1L << bits;
+        return v;
+    }
+
+    /**
+     * Write the low 'bits' bits of value at bitOffset; the caller guarantees the bytes exist.
+     */
+    public static void setBits(byte[] a, long bitOffset, int bits, long value) {
+        for (int j = 0; j < bits; j++) {
+            setBit(a, bitOffset + j, (int) (value >>> (bits - 1 - j)) & 1);
+        }
+    }
+}
@@ -1,4 +1,107 @@
 package com.polynomeer.util;
 
-public class ByteBuf {
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte string (SDS-like): a byte[] with a logical length and spare capacity.
+ * - Growth doubles up to 1 MB, then adds 1 MB at a time, so repeated writes are amortized O(1)
+ * - Extending the length zero-fills the new bytes
+ * - Converts to/from server strings as ISO-8859-1 (one char per byte)
+ * <p>
+ * Not thread-safe; intended for single-threaded reactor usage.
+ */
+public final class ByteBuf {
+    private static final int MAX_PREALLOC = 1024 * 1024;
+
+    private byte[] buf;
+    private int len;
+
+    public ByteBuf(int capacity) {
+        this.buf = new byte[Math.max(capacity, 0)];
+    }
+
+    private ByteBuf(byte[] buf, int len) {
+        this.buf = buf;
+        this.len = len;
+    }
+
+    public static ByteBuf of(String s) {
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        return new ByteBuf(b, b.length);
+    }
+
+    /**
+     * Take ownership of b[0..len) without copying.
+     */
+    public static ByteBuf wrap(byte[] b, int len) {
+        return new ByteBuf(b, len);
+    }
+
+    public int length() {
+        return len;
+    }
+
+    /**
+     * Backing array; valid bytes are [0, length()). Callers may write within that range.
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Grow the logical length to at least newLen, zero-filling the new bytes.
+     */
+    public void ensureLength(int newLen) {
+        if (newLen <= len) return;
+        if (newLen > buf.length) {
+            int cap = newLen < MAX_PREALLOC ? newLen * 2 : newLen + MAX_PREALLOC;
+            if (cap < 0) cap = Integer.MAX_VALUE - 8;
+            buf = Arrays.copyOf(buf, cap);
+        } else {
+            Arrays.fill(buf, len, newLen, (byte) 0);
+        }
+        len = newLen;
+    }
+
+    /**
+     * Reset the length to zero, keeping the capacity (for reusable encode buffers).
+     */
+    public void clear() {
+        len = 0;
+    }
+
+    public void appendByte(int b) {
+        ensureLength(len + 1);
+        buf[len - 1] = (byte) b;
+    }
+
+    public void append(byte[] b, int off, int n) {
+        int at = len;
+        ensureLength(len + n);
+        System.arraycopy(b, off, buf, at, n);
+    }
+
+    /**
+     * Append the bytes of s; amortized O(s.length()).
+     */
+    public void append(String s) {
+        setRange(len, s);
+    }
+
+    /**
+     * Overwrite bytes starting at off with s, zero-padding and growing as needed.
+     */
+    @SuppressWarnings("deprecation")
+    public void setRange(int off, String s) {
+        int n = s.length();
+        ensureLength(off + n);
+        // one byte per char (ISO-8859-1): copy the low bytes straight in, no temporary byte[]
+        s.getBytes(0, n, buf, off);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len, StandardCharsets.ISO_8859_1);
+    }
 }
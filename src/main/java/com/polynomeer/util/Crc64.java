@@ -0,0 +1,27 @@
+package com.polynomeer.util;
+
+/**
+ * CRC-64 with the Jones polynomial (reflected), the checksum Redis uses for RDB files
+ * and DUMP payloads. Start from 0 and feed bytes with update().
+ */
+public final class Crc64 {
+    private static final long[] TABLE = new long[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            long c = i;
+            for (int k = 0; k < 8; k++) c = (c & 1) != 0 ? (c >>> 1) ^ 0x95AC9329AC4BC9B5L : c >>> 1;
+            TABLE[i] = c;
+        }
+    }
+
+    private Crc64() {
+    }
+
+    public static long update(long crc, byte[] b, int off, int len) {
+        for (int i = off, end = off + len; i < end; i++) {
+            crc = TABLE[(int) (crc ^ b[i]) & 0xFF] ^ (crc >>> 8);
+        }
+        return crc;
+    }
+}
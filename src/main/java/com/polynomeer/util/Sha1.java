@@ -6,16 +6,21 @@ import java.security.MessageDigest;
  * SHA-1 hex helper for SCRIPT cache keys.
  */
 public final class Sha1 {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     private Sha1() {
     }
 
     public static String hex(String s) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] d = md.digest(s.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder(d.length * 2);
-            for (byte b : d) sb.append(String.format("%02x", b));
-            return sb.toString();
+            byte[] d = md.digest(s.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1));
+            char[] out = new char[d.length * 2];
+            for (int i = 0; i < d.length; i++) {
+                out[2 * i] = HEX[(d[i] >> 4) & 0xf];
+                out[2 * i + 1] = HEX[d[i] & 0xf];
+            }
+            return new String(out);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
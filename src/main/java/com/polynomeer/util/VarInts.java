@@ -0,0 +1,64 @@
+package com.polynomeer.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unsigned LEB128 varints and length-prefixed byte strings used by the persistence formats.
+ */
+public final class VarInts {
+    private VarInts() {
+    }
+
+    public static void putVarLong(ByteBuf out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.appendByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.appendByte((int) v);
+    }
+
+    /**
+     * Varint length + bytes (one char per byte).
+     */
+    public static void putString(ByteBuf out, String s) {
+        putVarLong(out, s.length());
+        out.append(s);
+    }
+
+    /**
+     * Read a varint; throws IllegalArgumentException if longer than 10 bytes
+     * and BufferUnderflowException if truncated.
+     */
+    public static long getVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    /**
+     * Varint length (checked against the remaining input) for counts and string lengths.
+     */
+    public static int getLength(ByteBuffer in) {
+        long n = getVarLong(in);
+        // every element takes at least one byte, so a count beyond the remaining input is corrupt
+        if (n < 0 || n > in.remaining()) throw new IllegalArgumentException("bad length");
+        return (int) n;
+    }
+
+    public static String getString(ByteBuffer in) {
+        int n = getLength(in);
+        if (in.hasArray()) {
+            String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.ISO_8859_1);
+            in.position(in.position() + n);
+            return s;
+        }
+        byte[] b = new byte[n];
+        in.get(b);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,101 @@
+package com.polynomeer.cmd;
+
+import com.polynomeer.cluster.ClusterManager;
+import com.polynomeer.config.ServerConfig;
+import com.polynomeer.db.Db;
+import com.polynomeer.db.MemoryDb;
+import com.polynomeer.lua.LuaEngine;
+import com.polynomeer.net.BlockingManager;
+import com.polynomeer.net.ClientTracking;
+import com.polynomeer.net.WatchedKeys;
+import com.polynomeer.persist.AppendOnlyFile;
+import com.polynomeer.persist.ImportManager;
+import com.polynomeer.persist.SnapshotManager;
+import com.polynomeer.pubsub.PubSubBroker;
+import com.polynomeer.repl.ReplicationManager;
+import com.polynomeer.resp.RespSink;
+import com.polynomeer.resp.RespWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A script's writes reach the append-only file as their deterministic rewrites in one
+ * MULTI/EXEC block, so replaying the file gives the dataset the script produced.
+ */
+class ScriptPropagationTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void effectsReplayToTheSameDataset() throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--dir", dir.toString()});
+        Db db = new MemoryDb();
+        AppendOnlyFile aof = init(db, config);
+        aof.openAfterLoad();
+        CommandRegistry.applyFromPrimary(Arrays.asList("EVAL", "script", "0"));
+        aof.flush(0);
+
+        String log = new String(Files.readAllBytes(aof.path()), StandardCharsets.ISO_8859_1);
+        assertFalse(log.contains("EVAL"), log);
+        assertTrue(log.startsWith("*1\r\n$5\r\nMULTI\r\n"), log);
+        assertTrue(log.endsWith("*1\r\n$4\r\nEXEC\r\n"), log);
+        assertTrue(log.contains("PXAT"), log);
+        assertFalse(log.contains("$1\r\n*\r\n"), log);
+
+        long pttl = db.pttl("k");
+        Thread.sleep(20); // a replayed SET ... EX would expire later, XADD * would get another ID
+        Db replayed = new MemoryDb();
+        AppendOnlyFile reader = init(replayed, config);
+        assertEquals(5L, reader.load());
+        assertEquals("v", replayed.getString("k"));
+        assertEquals("1", replayed.getString("plain"));
+        assertTrue(replayed.pttl("k") > 0 && replayed.pttl("k") < pttl, replayed.pttl("k") + " vs " + pttl);
+        assertEquals(db.getStream("s").lastId(), replayed.getStream("s").lastId());
+        assertEquals(1L, replayed.getStream("s").length());
+    }
+
+    @Test
+    void scriptIsPropagatedVerbatimWhenConfigured() throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--dir", dir.toString(), "--lua-replicate-commands", "no"});
+        AppendOnlyFile aof = init(new MemoryDb(), config);
+        aof.openAfterLoad();
+        CommandRegistry.applyFromPrimary(Arrays.asList("EVAL", "script", "0"));
+        aof.flush(0);
+
+        String log = new String(Files.readAllBytes(aof.path()), StandardCharsets.ISO_8859_1);
+        assertEquals("*3\r\n$4\r\nEVAL\r\n$6\r\nscript\r\n$1\r\n0\r\n", log);
+    }
+
+    /**
+     * Registers every command over 'db', with EVAL standing in for a script: it makes the
+     * calls a script's redis.call would, through callFromScript.
+     */
+    private static AppendOnlyFile init(Db db, ServerConfig config) {
+        Runnable noWakeup = () -> {
+        };
+        AppendOnlyFile aof = new AppendOnlyFile(db, config, Runnable::run);
+        CommandRegistry.initDefaults(db, new PubSubBroker(config, noWakeup),
+                new LuaEngine(config, 10_000, 1_000, noWakeup), new BlockingManager(), config,
+                new SnapshotManager(db, config, Runnable::run), aof,
+                new ImportManager(db, aof, config, Runnable::run),
+                new ReplicationManager(db, config, aof, Runnable::run), new ClusterManager(db, config),
+                new ClientTracking(config), new WatchedKeys());
+        CommandRegistry.register("EVAL", (argv, ctx) -> {
+            CommandRegistry.callFromScript(Arrays.asList("SET", "k", "v", "EX", "100"), RespSink.RESP2);
+            CommandRegistry.callFromScript(Arrays.asList("XADD", "s", "*", "f", "v"), RespSink.RESP2);
+            CommandRegistry.callFromScript(Arrays.asList("GET", "k"), RespSink.RESP2);
+            CommandRegistry.callFromScript(Arrays.asList("SET", "plain", "1"), RespSink.RESP2);
+            return RespWriter.simpleString("OK");
+        });
+        return aof;
+    }
+}
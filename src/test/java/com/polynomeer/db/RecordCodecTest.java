@@ -0,0 +1,153 @@
+package com.polynomeer.db;
+
+import com.polynomeer.struct.HyperLogLog;
+import com.polynomeer.struct.OpenHashStringMap;
+import com.polynomeer.struct.Stream;
+import com.polynomeer.struct.StreamConsumerGroup;
+import com.polynomeer.struct.StreamEntry;
+import com.polynomeer.struct.StreamId;
+import com.polynomeer.util.ByteBuf;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every value type survives encode/decode and dump/undump unchanged.
+ */
+class RecordCodecTest {
+
+    @Test
+    void strings() {
+        Record r = roundTrip(new Record("caf\u00e9 \r\n\u0000", 1234L));
+        assertEquals(Record.Type.STR, r.type);
+        assertEquals("caf\u00e9 \r\n\u0000", r.strVal);
+        assertEquals(1234L, r.expireAtMs);
+
+        // the mutable form encodes the same bytes as the immutable one
+        Record b = roundTrip(new Record(ByteBuf.of("bytes"), -1));
+        assertEquals("bytes", b.strVal);
+        assertEquals(Arrays.toString(encoded(new Record("bytes", -1))),
+                Arrays.toString(encoded(new Record(ByteBuf.of("bytes"), -1))));
+    }
+
+    @Test
+    void hashes() {
+        OpenHashStringMap m = new OpenHashStringMap();
+        for (int i = 0; i < 100; i++) m.put("f" + i, "v" + i);
+        m.put("", "empty field");
+        Record r = roundTrip(new Record(m, -1));
+        assertEquals(Record.Type.HASH, r.type);
+        assertEquals(101, r.hashVal.size());
+        assertEquals("v42", r.hashVal.get("f42"));
+        assertEquals("empty field", r.hashVal.get(""));
+    }
+
+    @Test
+    void intsetAndHashtableSets() {
+        SetValue ints = SetValue.forFirstMember("-5");
+        for (String m : Arrays.asList("-5", "0", "7", Long.toString(Long.MAX_VALUE), Long.toString(Long.MIN_VALUE))) {
+            ints.add(m);
+        }
+        assertTrue(ints.isIntset());
+        Record r = roundTrip(new Record(ints, -1));
+        assertTrue(r.setVal.isIntset());
+        assertEquals(members(ints), members(r.setVal));
+
+        SetValue strs = SetValue.hashtable(4);
+        for (String m : Arrays.asList("a", "b", "10")) strs.add(m);
+        Record s = roundTrip(new Record(strs, -1));
+        assertFalse(s.setVal.isIntset());
+        assertEquals(members(strs), members(s.setVal));
+    }
+
+    @Test
+    void streams() {
+        Stream st = new Stream();
+        st.append(new StreamId(1, 0), Arrays.asList("a", "1"));
+        st.append(new StreamId(1, 1), Arrays.asList("b", "2", "c", "3"));
+        st.append(new StreamId(5, 0), Arrays.asList("d", "4"));
+        st.delete(new StreamId(1, 1));
+        st.createGroup("g", new StreamId(1, 0));
+
+        Record r = roundTrip(new Record(st, -1));
+        Stream got = r.streamVal;
+        assertEquals(2, got.length());
+        assertEquals(st.lastId(), got.lastId());
+        assertEquals(st.entriesAdded(), got.entriesAdded());
+        List<StreamEntry> entries = got.range(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, false);
+        assertEquals(new StreamId(1, 0), entries.get(0).id);
+        assertEquals(Arrays.asList("d", "4"), Arrays.asList(entries.get(1).fieldsValues));
+        StreamConsumerGroup g = got.group("g");
+        assertEquals(new StreamId(1, 0), g.lastDeliveredId);
+    }
+
+    @Test
+    void hyperLogLogs() {
+        HyperLogLog h = new HyperLogLog();
+        for (int i = 0; i < 1000; i++) h.add(("e" + i).getBytes(StandardCharsets.ISO_8859_1));
+        Record r = roundTrip(new Record(h, -1));
+        assertEquals(h.count(), r.hllVal.count());
+        assertTrue(Arrays.equals(h.toBytes(), r.hllVal.toBytes()));
+    }
+
+    @Test
+    void dumpPayloads() {
+        ByteBuf out = new ByteBuf(64);
+        RecordCodec.dump(new Record("value", -1), out);
+        byte[] b = Arrays.copyOf(out.array(), out.length());
+        assertTrue(RecordCodec.verifyDump(b, 0, b.length));
+        assertEquals("value", RecordCodec.undump(b, 0, b.length, 99L).strVal);
+        assertEquals(99L, RecordCodec.undump(b, 0, b.length, 99L).expireAtMs);
+
+        for (int i = 0; i < b.length; i++) {
+            byte[] bad = b.clone();
+            bad[i] ^= 0x40;
+            assertFalse(RecordCodec.verifyDump(bad, 0, bad.length), "flipped byte " + i);
+        }
+        assertFalse(RecordCodec.verifyDump(b, 0, 5));
+    }
+
+    @Test
+    void malformedValues() {
+        assertThrows(IllegalArgumentException.class, () -> RecordCodec.decode(ByteBuffer.wrap(new byte[]{(byte) 0x7F}), -1));
+        byte[] enc = encoded(new Record("truncate me", -1));
+        assertThrows(IllegalArgumentException.class,
+                () -> RecordCodec.decode(ByteBuffer.wrap(enc, 0, enc.length - 1), -1));
+    }
+
+    private static Record roundTrip(Record r) {
+        byte[] enc = encoded(r);
+        ByteBuffer in = ByteBuffer.wrap(enc);
+        Record got = RecordCodec.decode(in, r.expireAtMs);
+        assertFalse(in.hasRemaining());
+
+        ByteBuf dump = new ByteBuf(enc.length + 16);
+        RecordCodec.dump(r, dump);
+        assertTrue(RecordCodec.verifyDump(dump.array(), 0, dump.length()));
+        Record undumped = RecordCodec.undump(dump.array(), 0, dump.length(), r.expireAtMs);
+        assertEquals(Arrays.toString(enc), Arrays.toString(encoded(undumped)));
+        return got;
+    }
+
+    private static byte[] encoded(Record r) {
+        ByteBuf out = new ByteBuf(64);
+        RecordCodec.encode(r, out);
+        return Arrays.copyOf(out.array(), out.length());
+    }
+
+    private static Set<String> members(SetValue s) {
+        Set<String> out = new HashSet<>();
+        s.forEach(out::add);
+        return out;
+    }
+}
@@ -0,0 +1,65 @@
+package com.polynomeer.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A set starts as an intset when it can and converts, once, to a hashtable.
+ */
+class SetValueTest {
+
+    @Test
+    void firstMemberPicksTheEncoding() {
+        assertTrue(SetValue.forFirstMember("12").isIntset());
+        assertFalse(SetValue.forFirstMember("012").isIntset());
+        assertFalse(SetValue.forFirstMember("a").isIntset());
+    }
+
+    @Test
+    void nonIntegerMemberConverts() {
+        SetValue s = SetValue.forFirstMember("1");
+        for (String m : new String[]{"1", "2", "-3"}) s.add(m);
+        assertTrue(s.isIntset());
+        assertFalse(s.contains("02"));
+        assertFalse(s.remove("+2"));
+
+        assertTrue(s.add("x"));
+        assertFalse(s.isIntset());
+        assertEquals(set("1", "2", "-3", "x"), members(s));
+        assertTrue(s.containsLong(-3));
+        assertTrue(s.remove("x"));
+        assertFalse(s.isIntset()); // conversion is one-way
+    }
+
+    @Test
+    void tooManyIntegersConvert() {
+        SetValue s = SetValue.forFirstMember("0");
+        for (int i = 0; i < SetValue.MAX_INTSET_ENTRIES; i++) s.add(Integer.toString(i));
+        assertTrue(s.isIntset());
+        assertFalse(s.add("0"));
+        assertTrue(s.isIntset());
+
+        assertTrue(s.add(Integer.toString(SetValue.MAX_INTSET_ENTRIES)));
+        assertFalse(s.isIntset());
+        assertEquals(SetValue.MAX_INTSET_ENTRIES + 1, s.size());
+        for (int i = 0; i <= SetValue.MAX_INTSET_ENTRIES; i++) assertTrue(s.contains(Integer.toString(i)));
+    }
+
+    private static Set<String> set(String... members) {
+        Set<String> s = new HashSet<>();
+        for (String m : members) s.add(m);
+        return s;
+    }
+
+    private static Set<String> members(SetValue s) {
+        Set<String> out = new HashSet<>();
+        s.forEach(out::add);
+        return out;
+    }
+}
@@ -0,0 +1,129 @@
+package com.polynomeer.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Chunks are distinct, never overlap, are reused after free, and the byte accounting
+ * returns to zero.
+ */
+class SlabAllocatorTest {
+
+    @Test
+    void sizeClasses() {
+        assertEquals(16, SlabAllocator.chunkSize(0));
+        assertEquals(16, SlabAllocator.chunkSize(16));
+        assertEquals(32, SlabAllocator.chunkSize(17));
+        assertEquals(128, SlabAllocator.chunkSize(128));
+        assertEquals(160, SlabAllocator.chunkSize(129));
+        assertEquals(256 * 1024, SlabAllocator.MAX_CHUNK);
+        assertEquals(SlabAllocator.MAX_CHUNK + 1, SlabAllocator.chunkSize(SlabAllocator.MAX_CHUNK + 1));
+        int prev = 0;
+        for (int size = 1; size <= SlabAllocator.MAX_CHUNK; size += 7) {
+            int c = SlabAllocator.chunkSize(size);
+            assertTrue(c >= size && c >= prev, "size " + size);
+            // at most 25% waste once past the 16-byte steps
+            assertTrue(size <= 128 || c <= size * 5 / 4 + 1, "size " + size + " -> " + c);
+            prev = c;
+        }
+    }
+
+    @Test
+    void chunksDoNotOverlap() {
+        SlabAllocator a = new SlabAllocator();
+        Random rnd = new Random(40);
+        List<long[]> live = new ArrayList<>(); // {ref, size, fill}
+        Set<Long> refs = new HashSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            if (!live.isEmpty() && rnd.nextInt(3) == 0) {
+                long[] c = live.remove(rnd.nextInt(live.size()));
+                check(a, c);
+                refs.remove(c[0]);
+                a.free(c[0], (int) c[1]);
+                continue;
+            }
+            int size = 1 + (rnd.nextInt(10) == 0 ? rnd.nextInt(20_000) : rnd.nextInt(200));
+            long ref = a.allocate(size);
+            assertTrue(ref != 0);
+            assertTrue(refs.add(ref), "chunk handed out twice");
+            long[] c = {ref, size, i};
+            fill(a, c);
+            live.add(c);
+        }
+        long used = 0;
+        for (long[] c : live) {
+            check(a, c);
+            used += SlabAllocator.chunkSize((int) c[1]);
+        }
+        assertEquals(used, a.usedBytes());
+        for (long[] c : live) a.free(c[0], (int) c[1]);
+        assertEquals(0, a.usedBytes());
+    }
+
+    @Test
+    void freedChunksAreReusedBeforeCarvingMore() {
+        SlabAllocator a = new SlabAllocator();
+        long first = a.allocate(100);
+        long second = a.allocate(100);
+        assertEquals(SlabAllocator.offset(first) + SlabAllocator.chunkSize(100), SlabAllocator.offset(second));
+        a.free(first, 100);
+        assertEquals(first, a.allocate(110)); // same size class
+        assertEquals(1, a.pages());
+
+        long reserved = a.reservedBytes();
+        List<Long> more = new ArrayList<>();
+        for (int i = 0; i < SlabAllocator.PAGE_SIZE / 112; i++) more.add(a.allocate(100));
+        assertEquals(2, a.pages());
+        assertEquals(reserved + SlabAllocator.PAGE_SIZE, a.reservedBytes());
+        for (long ref : more) a.free(ref, 100);
+        for (int i = 0; i < more.size(); i++) a.allocate(100);
+        assertEquals(2, a.pages()); // pages are kept and refilled, not added
+    }
+
+    @Test
+    void largeChunksGetTheirOwnBuffer() {
+        SlabAllocator a = new SlabAllocator();
+        int size = SlabAllocator.MAX_CHUNK + 1000;
+        long ref = a.allocate(size);
+        assertEquals(0, SlabAllocator.offset(ref));
+        ByteBuffer b = a.page(ref);
+        assertNotNull(b);
+        assertEquals(size, b.capacity());
+        assertEquals(1, a.largeCount());
+        assertEquals(size, a.usedBytes());
+        assertEquals(size, a.reservedBytes());
+
+        a.free(ref, size);
+        assertEquals(0, a.largeCount());
+        assertEquals(0, a.reservedBytes());
+        long again = a.allocate(size * 2);
+        assertEquals(ref, again); // the page index is reused
+        assertEquals(size * 2, a.page(again).capacity());
+    }
+
+    private static void fill(SlabAllocator a, long[] c) {
+        ByteBuffer b = a.page(c[0]);
+        int off = SlabAllocator.offset(c[0]);
+        for (int i = 0; i < c[1]; i++) b.put(off + i, (byte) (c[2] + i));
+    }
+
+    private static void check(SlabAllocator a, long[] c) {
+        ByteBuffer b = a.page(c[0]);
+        int off = SlabAllocator.offset(c[0]);
+        for (int i = 0; i < c[1]; i++) {
+            if (b.get(off + i) != (byte) (c[2] + i)) {
+                assertEquals((byte) (c[2] + i), b.get(off + i), "chunk " + c[0] + " byte " + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.polynomeer.persist;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.db.MemoryDb;
+import com.polynomeer.db.PartialTable;
+import com.polynomeer.util.Crc64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes small RDB files laid out byte for byte the way Redis writes them: header, AUX
+ * fields, SELECTDB, entries in each compact encoding, EOF and the CRC64 trailer.
+ */
+class RdbImporterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void crc64MatchesRedisTestVector() {
+        byte[] b = "123456789".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(0xe9c6d914c4b8d9caL, Crc64.update(0, b, 0, b.length));
+    }
+
+    @Test
+    void emptyRedisRdbVerifiesChecksum() throws IOException {
+        // redis-server 7.2 "SAVE" on an empty instance
+        RdbImporter.Report r = read(hex("524544495330303131fa0972656469732d76657205372e322e30fa0a72656469732d626974"
+                + "73c040fa056374696d65c26d08bc65fa08757365642d6d656dc2b0c41000fa08616f662d62617365c000ff"
+                + "f06e3bfec0ff5aa2"), new MemoryDb());
+        assertEquals(11, r.version);
+        assertEquals(0, r.keysImported);
+        assertTrue(r.checksumVerified);
+    }
+
+    @Test
+    void integerEncodedStrings() throws IOException {
+        Db db = new MemoryDb();
+        RdbImporter.Report r = read(new Fixture()
+                .hex("00 01 61 c0 7b")          // INT8 123
+                .hex("00 01 62 c0 f6")          // INT8 -10
+                .hex("00 01 63 c1 39 30")       // INT16 12345
+                .hex("00 01 64 c2 15 cd 5b 07") // INT32 123456789
+                .hex("00 01 65 c2 ff ff ff ff") // INT32 -1
+                .finish(), db);
+        assertEquals(5, r.keysImported);
+        assertTrue(r.checksumVerified);
+        assertEquals("123", db.getString("a"));
+        assertEquals("-10", db.getString("b"));
+        assertEquals("12345", db.getString("c"));
+        assertEquals("123456789", db.getString("d"));
+        assertEquals("-1", db.getString("e"));
+    }
+
+    @Test
+    void lzfStrings() throws IOException {
+        byte[] abc = RdbImporter.lzfDecompress(hex("02 61 62 63 e0 00 02"), 12);
+        assertEquals("abcabcabcabc", new String(abc, StandardCharsets.ISO_8859_1));
+        // a back reference overlapping its own output, with an extended length
+        byte[] run = RdbImporter.lzfDecompress(hex("00 61 e0 14 00"), 30);
+        assertEquals(repeat('a', 30), new String(run, StandardCharsets.ISO_8859_1));
+        assertThrows(IllegalArgumentException.class, () -> RdbImporter.lzfDecompress(hex("00 61 e0 14 00"), 31));
+        assertThrows(IllegalArgumentException.class, () -> RdbImporter.lzfDecompress(hex("20 05"), 3));
+
+        Db db = new MemoryDb();
+        read(new Fixture().hex("00 01 6c c3 07 0c 02 61 62 63 e0 00 02").finish(), db);
+        assertEquals("abcabcabcabc", db.getString("l"));
+    }
+
+    @Test
+    void ziplistHash() throws IOException {
+        Db db = new MemoryDb();
+        read(new Fixture()
+                .hex("0d 01 68 18")
+                .hex("18000000 15000000 0400 00 02 6631 04 02 7631 04 01 6e 03 f8 ff")
+                .finish(), db);
+        assertEquals("v1", db.hget("h", "f1"));
+        assertEquals("7", db.hget("h", "n"));
+    }
+
+    @Test
+    void zipmapHash() throws IOException {
+        Db db = new MemoryDb();
+        read(new Fixture().hex("09 01 7a 0e 02 01 61 02 00 62 62 01 63 01 01 64 00 ff").finish(), db);
+        assertEquals("bb", db.hget("z", "a"));
+        assertEquals("d", db.hget("z", "c"));
+    }
+
+    @Test
+    void intsetSet() throws IOException {
+        Db db = new MemoryDb();
+        read(new Fixture()
+                .hex("0b 01 69 0e 02000000 03000000 0100 0200 2c01")
+                .hex("0b 01 6a 10 08000000 01000000 0000000000000080")
+                .finish(), db);
+        assertEquals(set("1", "2", "300"), new HashSet<>(db.smembers("i")));
+        assertEquals(set(Long.toString(Long.MIN_VALUE)), new HashSet<>(db.smembers("j")));
+    }
+
+    @Test
+    void listpackSetAndHash() throws IOException {
+        Db db = new MemoryDb();
+        read(new Fixture()
+                .hex("14 01 73 16 16000000 0400 81 78 02 05 01 85 68656c6c6f 06 c3 e8 02 ff")
+                .hex("10 01 68 11 11000000 0200 84 6e616d65 05 82 616c 03 ff")
+                .finish(), db);
+        assertEquals(set("x", "5", "hello", "1000"), new HashSet<>(db.smembers("s")));
+        assertEquals("al", db.hget("h", "name"));
+    }
+
+    @Test
+    void lengthPrefixes() throws IOException {
+        String s300 = repeat('m', 300);
+        String big = repeat('b', 3 << 20); // larger than the read buffer
+        Fixture f = new Fixture()
+                .hex("00 01 61 41 2c").bytes(s300)                          // 14-bit
+                .hex("00 01 62 80 00 00 00 05").bytes("hello")              // 32-bit
+                .hex("00 01 63 81 00 00 00 00 00 00 00 05").bytes("world")  // 64-bit
+                .hex("00 01 64 80 00 30 00 00").bytes(big)                  // 32-bit, read past the buffer
+                .hex("02 01 65 80 00 00 00 02 01 78 01 79");                // set count, 32-bit
+        Db db = new MemoryDb();
+        RdbImporter.Report r = read(f.finish(), db);
+        assertTrue(r.checksumVerified);
+        assertEquals(s300, db.getString("a"));
+        assertEquals("hello", db.getString("b"));
+        assertEquals("world", db.getString("c"));
+        assertEquals(big, db.getString("d"));
+        assertEquals(set("x", "y"), new HashSet<>(db.smembers("e")));
+    }
+
+    @Test
+    void expiriesOtherDbsAndSkippedTypes() throws IOException {
+        Db db = new MemoryDb();
+        RdbImporter.Report r = read(new Fixture()
+                .hex("fc e8 03 00 00 00 00 00 00 00 01 61 01 31")  // expired in 1970
+                .hex("fd f0 ff ff ff 00 01 62 01 32")              // expires in 2106
+                .hex("01 01 6c 02 01 78 01 79")                    // list: skipped
+                .hex("fe 01 00 01 63 01 33")                       // db 1
+                .finish(), db);
+        assertEquals(1, r.keysImported);
+        assertEquals(1, r.keysExpired);
+        assertEquals(1, r.keysOtherDbs);
+        assertEquals(Long.valueOf(1), r.skippedByType.get("list"));
+        assertNull(db.getString("a"));
+        assertEquals("2", db.getString("b"));
+        assertTrue(db.pttl("b") > 0);
+        assertFalse(db.exists("c"));
+    }
+
+    @Test
+    void checksumMismatchIsRejected() throws IOException {
+        byte[] rdb = new Fixture().hex("00 01 61 01 31").finish();
+        rdb[rdb.length - 1] ^= 1;
+        IOException e = assertThrows(IOException.class, () -> read(rdb, new MemoryDb()));
+        assertEquals("RDB checksum mismatch", e.getMessage());
+    }
+
+    @Test
+    void zeroChecksumIsNotVerified() throws IOException {
+        byte[] rdb = new Fixture().hex("00 01 61 01 31").finish();
+        Arrays.fill(rdb, rdb.length - 8, rdb.length, (byte) 0);
+        RdbImporter.Report r = read(rdb, new MemoryDb());
+        assertFalse(r.checksumVerified);
+        assertEquals(1, r.keysImported);
+    }
+
+    @Test
+    void truncatedFileIsCorrupt() {
+        byte[] rdb = new Fixture().hex("00 01 61 05").bytes("hello").finish();
+        byte[] cut = Arrays.copyOf(rdb, rdb.length - 12);
+        IOException e = assertThrows(IOException.class, () -> read(cut, new MemoryDb()));
+        assertTrue(e.getMessage().contains("truncated"), e.getMessage());
+    }
+
+    private RdbImporter.Report read(byte[] rdb, Db db) throws IOException {
+        Path p = dir.resolve("dump.rdb");
+        Files.write(p, rdb);
+        List<PartialTable> batches = new ArrayList<>();
+        RdbImporter.Report r = RdbImporter.read(p, batches::add);
+        for (PartialTable t : batches) db.loadBulk(t, System.currentTimeMillis());
+        return r;
+    }
+
+    private static HashSet<String> set(String... members) {
+        HashSet<String> s = new HashSet<>();
+        Collections.addAll(s, members);
+        return s;
+    }
+
+    private static String repeat(char c, int n) {
+        char[] a = new char[n];
+        Arrays.fill(a, c);
+        return new String(a);
+    }
+
+    private static byte[] hex(String s) {
+        s = s.replace(" ", "");
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return b;
+    }
+
+    /**
+     * Version 11 file with an AUX field and SELECTDB 0; finish() appends EOF and the checksum.
+     */
+    private static final class Fixture {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Fixture() {
+            bytes("REDIS0011");
+            hex("fa 09").bytes("redis-ver").hex("05").bytes("7.2.0");
+            hex("fe 00 fb 02 00");
+        }
+
+        Fixture hex(String s) {
+            byte[] b = RdbImporterTest.hex(s);
+            out.write(b, 0, b.length);
+            return this;
+        }
+
+        Fixture bytes(String s) {
+            byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+            out.write(b, 0, b.length);
+            return this;
+        }
+
+        byte[] finish() {
+            out.write(0xFF);
+            byte[] body = out.toByteArray();
+            long crc = Crc64.update(0, body, 0, body.length);
+            for (int i = 0; i < 8; i++) out.write((int) (crc >>> (8 * i)));
+            return out.toByteArray();
+        }
+    }
+}
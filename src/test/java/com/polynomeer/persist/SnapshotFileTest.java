@@ -0,0 +1,126 @@
+package com.polynomeer.persist;
+
+import com.polynomeer.db.Db;
+import com.polynomeer.db.KeyspaceSnapshot;
+import com.polynomeer.db.MemoryDb;
+import com.polynomeer.struct.StreamId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A keyspace written with SnapshotFile.write loads back identically, across several chunks
+ * and decoder threads; damaged files are refused.
+ */
+class SnapshotFileTest {
+    private static final int KEYS = 20_000; // ~2 MB of values: several chunks
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws Exception {
+        Db src = populate();
+        Path file = dir.resolve("dump.jrdb");
+        save(src, file);
+
+        for (int threads : new int[]{1, 4}) {
+            Db dst = new MemoryDb();
+            SnapshotFile.LoadResult r = SnapshotFile.load(file, dst, threads);
+            assertEquals(src.dbsize(), r.keysLoaded);
+            assertEquals(Files.size(file), r.bytes);
+            assertEquals(src.dbsize(), dst.dbsize());
+            for (int i = 0; i < KEYS; i++) assertEquals(value(i), dst.getString("key:" + i));
+            assertEquals("v2", dst.hget("hash", "f2"));
+            assertEquals(new HashSet<>(src.smembers("ints")), new HashSet<>(dst.smembers("ints")));
+            assertEquals(new HashSet<>(src.smembers("strs")), new HashSet<>(dst.smembers("strs")));
+            assertEquals(src.pfcount(Arrays.asList("hll")), dst.pfcount(Arrays.asList("hll")));
+            assertEquals(2, dst.getStream("stream").length());
+            assertTrue(dst.pttl("ttl") > 0);
+        }
+    }
+
+    @Test
+    void expiredKeysAreSkipped() throws Exception {
+        Db src = new MemoryDb();
+        src.setString("live", "1", -1);
+        src.setString("soon", "2", System.currentTimeMillis() + 200);
+        Path file = dir.resolve("dump.jrdb");
+        save(src, file);
+        Thread.sleep(250);
+
+        Db dst = new MemoryDb();
+        SnapshotFile.LoadResult r = SnapshotFile.load(file, dst, 2);
+        assertEquals(1, r.keysLoaded);
+        assertEquals(1, r.keysExpired);
+        assertEquals("1", dst.getString("live"));
+        assertNull(dst.getString("soon"));
+    }
+
+    @Test
+    void missingFileLoadsNothing() throws IOException {
+        assertNull(SnapshotFile.load(dir.resolve("absent.jrdb"), new MemoryDb(), 1));
+    }
+
+    @Test
+    void damagedFilesAreRefused() throws Exception {
+        Path file = dir.resolve("dump.jrdb");
+        save(populate(), file);
+        byte[] good = Files.readAllBytes(file);
+
+        byte[] flipped = good.clone();
+        flipped[SnapshotFile.HEADER_BYTES + 100] ^= 1; // inside the first chunk
+        Files.write(file, flipped);
+        assertThrows(IOException.class, () -> SnapshotFile.load(file, new MemoryDb(), 2));
+
+        Files.write(file, Arrays.copyOf(good, good.length - 1));
+        assertThrows(IOException.class, () -> SnapshotFile.load(file, new MemoryDb(), 2));
+
+        byte[] magic = good.clone();
+        magic[0] = 'X';
+        Files.write(file, magic);
+        IOException e = assertThrows(IOException.class, () -> SnapshotFile.load(file, new MemoryDb(), 2));
+        assertEquals("not a snapshot file", e.getMessage());
+        assertFalse(Files.exists(dir.resolve("temp-" + ProcessHandle.current().pid() + "-dump.jrdb")));
+    }
+
+    private static Db populate() throws Exception {
+        Db db = new MemoryDb();
+        for (int i = 0; i < KEYS; i++) db.setString("key:" + i, value(i), -1);
+        db.hset("hash", "f1", "v1");
+        db.hset("hash", "f2", "v2");
+        db.sadd("ints", Arrays.asList("1", "2", "-3"));
+        db.sadd("strs", Arrays.asList("a", "b"));
+        db.pfadd("hll", Arrays.asList("x", "y", "z"));
+        db.getOrCreateStream("stream").append(new StreamId(1, 0), Arrays.asList("f", "v"));
+        db.getOrCreateStream("stream").append(new StreamId(2, 0), Arrays.asList("f", "w"));
+        db.setString("ttl", "t", System.currentTimeMillis() + 3_600_000);
+        return db;
+    }
+
+    private static void save(Db db, Path file) throws IOException {
+        KeyspaceSnapshot snap = db.snapshot();
+        try {
+            SnapshotFile.write(snap, file);
+        } finally {
+            db.releaseSnapshot();
+        }
+    }
+
+    private static String value(int i) {
+        StringBuilder sb = new StringBuilder(100);
+        while (sb.length() < 100) sb.append(i).append(':');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,180 @@
+package com.polynomeer.pubsub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * GlobPattern agrees with a direct port of Redis' stringmatch, and the prefix index finds
+ * exactly the patterns a scan over all of them would.
+ */
+class PatternTrieTest {
+    private static final String[] PIECES = {"a", "b", "ab", "*", "?", "[ab]", "[^a]", "[b-a]", "\\*", "\\", "[a"};
+
+    @Test
+    void globRules() {
+        assertTrue(GlobPattern.compile("news.*").matches("news.sports"));
+        assertTrue(GlobPattern.compile("news.*").matches("news."));
+        assertFalse(GlobPattern.compile("news.*").matches("news"));
+        assertTrue(GlobPattern.compile("h?llo").matches("hallo"));
+        assertFalse(GlobPattern.compile("h?llo").matches("hllo"));
+        assertTrue(GlobPattern.compile("h[^e]llo").matches("hallo"));
+        assertFalse(GlobPattern.compile("h[^e]llo").matches("hello"));
+        assertTrue(GlobPattern.compile("h[a-b]llo").matches("hbllo"));
+        assertTrue(GlobPattern.compile("a\\*b").matches("a*b"));
+        assertFalse(GlobPattern.compile("a\\*b").matches("axb"));
+        assertTrue(GlobPattern.compile("*").matches("x"));
+        assertFalse(GlobPattern.compile("*").matches(""));
+        assertTrue(GlobPattern.compile("").matches(""));
+        assertEquals("news.", GlobPattern.compile("news.*").prefix());
+        assertEquals("a*b", GlobPattern.compile("a\\*b").prefix());
+        assertEquals("", GlobPattern.compile("?x").prefix());
+    }
+
+    @Test
+    void globMatchesRedisStringmatch() {
+        Random rnd = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            String pattern = randomPattern(rnd);
+            String s = randomChannel(rnd);
+            assertEquals(redisMatch(pattern, 0, s, 0), GlobPattern.compile(pattern).matches(s),
+                    "'" + pattern + "' vs '" + s + "'");
+        }
+    }
+
+    @Test
+    void indexFindsWhatAScanFinds() {
+        Random rnd = new Random(7);
+        PatternTrie<String> trie = new PatternTrie<>();
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String p = randomPattern(rnd);
+            patterns.add(p);
+            trie.add(GlobPattern.compile(p), p + "#" + i);
+        }
+        checkAgainstScan(trie, patterns, rnd);
+
+        // drop every other pattern; emptied nodes are unlinked without losing their neighbours
+        for (int i = 0; i < patterns.size(); i += 2) {
+            trie.remove(GlobPattern.compile(patterns.get(i)), patterns.get(i) + "#" + i);
+            patterns.set(i, null);
+        }
+        trie.remove(GlobPattern.compile("not-added"), "not-added#0");
+        checkAgainstScan(trie, patterns, rnd);
+    }
+
+    @Test
+    void samePatternTwice() {
+        PatternTrie<String> trie = new PatternTrie<>();
+        trie.add(GlobPattern.compile("ch*"), "first");
+        trie.add(GlobPattern.compile("ch*"), "second");
+        trie.add(GlobPattern.compile("*"), "all");
+        List<String> out = new ArrayList<>();
+        trie.match("channel", out);
+        Collections.sort(out);
+        assertEquals(List.of("all", "first", "second"), out);
+
+        trie.remove(GlobPattern.compile("ch*"), "first");
+        out.clear();
+        trie.match("ch", out);
+        Collections.sort(out);
+        assertEquals(List.of("all", "second"), out);
+    }
+
+    private static void checkAgainstScan(PatternTrie<String> trie, List<String> patterns, Random rnd) {
+        for (int i = 0; i < 3_000; i++) {
+            String s = randomChannel(rnd);
+            List<String> expected = new ArrayList<>();
+            for (int k = 0; k < patterns.size(); k++) {
+                String p = patterns.get(k);
+                if (p != null && GlobPattern.compile(p).matches(s)) expected.add(p + "#" + k);
+            }
+            List<String> got = new ArrayList<>();
+            trie.match(s, got);
+            Collections.sort(expected);
+            Collections.sort(got);
+            assertEquals(expected, got, "channel '" + s + "'");
+        }
+    }
+
+    private static String randomPattern(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = rnd.nextInt(5); n > 0; n--) sb.append(PIECES[rnd.nextInt(PIECES.length)]);
+        return sb.toString();
+    }
+
+    private static String randomChannel(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = rnd.nextInt(6); n > 0; n--) sb.append("ab*[".charAt(rnd.nextInt(4)));
+        return sb.toString();
+    }
+
+    /**
+     * Recursive port of Redis' stringmatchlen (util.c), case-sensitive.
+     */
+    private static boolean redisMatch(String p, int pi, String s, int si) {
+        int plen = p.length(), slen = s.length();
+        while (pi < plen && si < slen) {
+            char c = p.charAt(pi);
+            switch (c) {
+                case '*':
+                    while (pi + 1 < plen && p.charAt(pi + 1) == '*') pi++;
+                    if (pi + 1 == plen) return true;
+                    for (int k = si; k < slen; k++) {
+                        if (redisMatch(p, pi + 1, s, k)) return true;
+                    }
+                    return false;
+                case '?':
+                    si++;
+                    break;
+                case '[': {
+                    pi++;
+                    boolean not = pi < plen && p.charAt(pi) == '^';
+                    if (not) pi++;
+                    boolean match = false;
+                    while (true) {
+                        if (pi < plen && p.charAt(pi) == '\\' && plen - pi >= 2) {
+                            pi++;
+                            if (p.charAt(pi) == s.charAt(si)) match = true;
+                        } else if (pi < plen && p.charAt(pi) == ']') {
+                            break;
+                        } else if (pi >= plen) {
+                            pi--;
+                            break;
+                        } else if (plen - pi >= 3 && p.charAt(pi + 1) == '-') {
+                            char lo = (char) Math.min(p.charAt(pi), p.charAt(pi + 2));
+                            char hi = (char) Math.max(p.charAt(pi), p.charAt(pi + 2));
+                            if (s.charAt(si) >= lo && s.charAt(si) <= hi) match = true;
+                            pi += 2;
+                        } else if (p.charAt(pi) == s.charAt(si)) {
+                            match = true;
+                        }
+                        pi++;
+                    }
+                    if (not) match = !match;
+                    if (!match) return false;
+                    si++;
+                    break;
+                }
+                default:
+                    if (c == '\\' && plen - pi >= 2) c = p.charAt(++pi);
+                    if (c != s.charAt(si)) return false;
+                    si++;
+                    break;
+            }
+            pi++;
+            if (si == slen) {
+                while (pi < plen && p.charAt(pi) == '*') pi++;
+                break;
+            }
+        }
+        return pi == plen && si == slen;
+    }
+}
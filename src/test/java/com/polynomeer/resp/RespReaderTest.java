@@ -0,0 +1,64 @@
+package com.polynomeer.resp;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Lengths announced by a client are checked before anything is allocated for them.
+ */
+class RespReaderTest {
+
+    @Test
+    void partialFramesWaitForMoreInput() {
+        RespReader r = new RespReader();
+        ByteBuffer b = buf("*2\r\n$3\r\nGET\r\n$1\r\n");
+        assertNull(r.tryReadCommand(b));
+        assertEquals(0, b.position());
+        b = buf("*2\r\n$3\r\nGET\r\n$1\r\nk\r\n");
+        assertEquals(Arrays.asList("GET", "k"), r.tryReadCommand(b));
+        assertEquals(b.limit(), b.position());
+    }
+
+    @Test
+    void bulkLongerThanTheLimitIsRefused() {
+        RespReader r = new RespReader();
+        r.setMaxBulkLen(1024);
+        assertEquals(1, r.tryReadCommand(buf("*1\r\n$1024\r\n" + repeat('x', 1024) + "\r\n")).size());
+        RespError e = assertThrows(RespError.class, () -> r.tryReadCommand(buf("*1\r\n$1025\r\n")));
+        assertEquals("Protocol error: invalid bulk length", e.getMessage());
+    }
+
+    @Test
+    void hugeCountsDoNotOverflowOrPreallocate() {
+        RespReader r = new RespReader();
+        // Integer.MAX_VALUE + 2 would overflow an int comparison with the bytes remaining
+        assertNull(r.tryReadCommand(buf("*1\r\n$" + Integer.MAX_VALUE + "\r\nabc")));
+        assertNull(r.tryReadCommand(buf("*" + Integer.MAX_VALUE + "\r\n$3\r\nGET\r\n")));
+        assertThrows(RespError.class, () -> r.tryReadCommand(buf("*1\r\n$99999999999\r\n")));
+    }
+
+    @Test
+    void unterminatedLinesAreBounded() {
+        RespReader r = new RespReader();
+        assertNull(r.tryReadCommand(buf("*" + repeat('1', 1000))));
+        assertThrows(RespError.class, () -> r.tryReadCommand(buf("*" + repeat('1', 70_000))));
+        assertThrows(RespError.class, () -> r.tryReadCommand(buf("GET " + repeat('k', 70_000))));
+    }
+
+    private static String repeat(char c, int n) {
+        char[] a = new char[n];
+        Arrays.fill(a, c);
+        return new String(a);
+    }
+
+    private static ByteBuffer buf(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,108 @@
+package com.polynomeer.struct;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Estimates stay within a few standard errors, the sparse and dense encodings agree, and
+ * merging behaves like a union.
+ */
+class HyperLogLogTest {
+
+    @Test
+    void estimatesStayWithinErrorBounds() {
+        HyperLogLog h = new HyperLogLog();
+        int added = 0;
+        for (int n : new int[]{10, 100, 1_000, 10_000, 100_000, 1_000_000}) {
+            while (added < n) h.add(element("e", added++));
+            // 0.81% standard error; small cardinalities are near exact
+            double tolerance = Math.max(3 * 0.0081 * n, 1);
+            assertTrue(Math.abs(h.count() - n) <= tolerance, n + " -> " + h.count());
+        }
+    }
+
+    @Test
+    void repeatedElementsDoNotChangeTheEstimate() {
+        HyperLogLog h = new HyperLogLog();
+        for (int i = 0; i < 500; i++) h.add(element("e", i));
+        long count = h.count();
+        for (int i = 0; i < 500; i++) assertFalse(h.add(element("e", i)));
+        assertEquals(count, h.count());
+    }
+
+    @Test
+    void sparsePromotesToDense() {
+        HyperLogLog h = new HyperLogLog();
+        assertTrue(h.isSparse());
+        int i = 0;
+        while (h.isSparse()) h.add(element("e", i++));
+        assertTrue(h.toBytes().length <= HyperLogLog.DENSE_BYTES + 1);
+        // far fewer elements than registers when the sparse form outgrows its limit
+        assertTrue(i < HyperLogLog.REGISTERS / 2, "promoted after " + i);
+
+        // the dense form counts exactly what the sparse registers held
+        HyperLogLog sparse = new HyperLogLog();
+        for (int k = 0; k < i - 1; k++) sparse.add(element("e", k));
+        assertTrue(sparse.isSparse());
+        byte[] regs = new byte[HyperLogLog.REGISTERS];
+        sparse.mergeInto(regs);
+        HyperLogLog dense = HyperLogLog.fromRegisters(regs);
+        assertFalse(dense.isSparse());
+        assertEquals(sparse.count(), dense.count());
+        assertEquals(sparse.count(), HyperLogLog.countRegisters(regs));
+    }
+
+    @Test
+    void mergeIsAUnion() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 30_000; i++) a.add(element("e", i));
+        for (int i = 20_000; i < 50_000; i++) b.add(element("e", i));
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 100; i++) small.add(element("s", i));
+        assertTrue(small.isSparse());
+
+        byte[] regs = new byte[HyperLogLog.REGISTERS];
+        a.mergeInto(regs);
+        b.mergeInto(regs);
+        small.mergeInto(regs);
+        long union = HyperLogLog.countRegisters(regs);
+        assertTrue(Math.abs(union - 50_100) <= 3 * 0.0081 * 50_100, "union " + union);
+
+        // merging again, or merging a subset, changes nothing
+        byte[] again = regs.clone();
+        a.mergeInto(again);
+        small.mergeInto(again);
+        assertTrue(Arrays.equals(regs, again));
+    }
+
+    @Test
+    void serializedFormsRoundTrip() {
+        HyperLogLog sparse = new HyperLogLog();
+        for (int i = 0; i < 200; i++) sparse.add(element("e", i));
+        HyperLogLog dense = new HyperLogLog();
+        for (int i = 0; i < 20_000; i++) dense.add(element("e", i));
+        for (HyperLogLog h : new HyperLogLog[]{new HyperLogLog(), sparse, dense}) {
+            byte[] b = h.toBytes();
+            HyperLogLog back = HyperLogLog.fromBytes(b, 0, b.length);
+            assertEquals(h.isSparse(), back.isSparse());
+            assertEquals(h.count(), back.count());
+            assertTrue(Arrays.equals(b, back.toBytes()));
+        }
+        byte[] b = sparse.toBytes();
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(b, 0, b.length - 1));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{1, 0}, 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[0], 0, 0));
+    }
+
+    private static byte[] element(String prefix, int i) {
+        return (prefix + i).getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,79 @@
+package com.polynomeer.struct;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Members stay sorted and unique across the int[] to long[] upgrade.
+ */
+class IntSetTest {
+
+    @Test
+    void keepsMembersSortedAndUnique() {
+        IntSet s = new IntSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random rnd = new Random(26);
+        for (int i = 0; i < 2000; i++) {
+            long v = rnd.nextInt(1000) - 500;
+            assertEquals(expected.add(v), s.add(v));
+        }
+        for (int i = 0; i < 500; i++) {
+            long v = rnd.nextInt(1000) - 500;
+            assertEquals(expected.remove(v), s.remove(v));
+        }
+        assertSame(expected, s);
+    }
+
+    @Test
+    void upgradesToLongsWhenAValueNeeds64Bits() {
+        IntSet s = new IntSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (long v : new long[]{3, -7, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            s.add(v);
+            expected.add(v);
+        }
+        assertFalse(s.contains(Integer.MAX_VALUE + 1L));
+        assertFalse(s.remove(Long.MIN_VALUE));
+
+        assertTrue(s.add(Integer.MAX_VALUE + 1L));
+        assertTrue(s.add(Long.MIN_VALUE));
+        assertTrue(s.add(Long.MAX_VALUE));
+        assertFalse(s.add(-7));
+        expected.add(Integer.MAX_VALUE + 1L);
+        expected.add(Long.MIN_VALUE);
+        expected.add(Long.MAX_VALUE);
+        assertSame(expected, s);
+
+        assertTrue(s.remove(Long.MIN_VALUE));
+        assertTrue(s.remove(3));
+        expected.remove(Long.MIN_VALUE);
+        expected.remove(3L);
+        assertSame(expected, s);
+    }
+
+    @Test
+    void canonicalLongs() {
+        for (String ok : new String[]{"0", "-1", "42", "9223372036854775807", "-9223372036854775808"}) {
+            assertTrue(IntSet.isCanonicalLong(ok), ok);
+        }
+        for (String bad : new String[]{"", "-", "-0", "007", "+1", "1.0", " 1", "9223372036854775808",
+                "-9223372036854775809", "99999999999999999999"}) {
+            assertFalse(IntSet.isCanonicalLong(bad), bad);
+        }
+    }
+
+    private static void assertSame(TreeSet<Long> expected, IntSet s) {
+        assertEquals(expected.size(), s.size());
+        int i = 0;
+        for (long v : expected) {
+            assertEquals(v, s.get(i++));
+            assertTrue(s.contains(v));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.polynomeer.struct;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Membership survives growing, shrinking and probing past deleted slots.
+ */
+class OpenHashStringSetTest {
+
+    @Test
+    void growsAndShrinks() {
+        OpenHashStringSet s = new OpenHashStringSet();
+        for (int i = 0; i < 10_000; i++) assertTrue(s.add("m" + i));
+        for (int i = 0; i < 10_000; i++) assertFalse(s.add("m" + i));
+        assertEquals(10_000, s.size());
+
+        for (int i = 0; i < 10_000; i += 2) assertTrue(s.remove("m" + i));
+        assertFalse(s.remove("m0"));
+        assertEquals(5_000, s.size());
+        for (int i = 0; i < 10_000; i++) assertEquals(i % 2 == 1, s.contains("m" + i));
+
+        for (int i = 1; i < 10_000; i += 2) assertTrue(s.remove("m" + i));
+        assertEquals(0, s.size());
+        assertEquals(0, members(s).size());
+    }
+
+    @Test
+    void reusesDeletedSlots() {
+        OpenHashStringSet s = new OpenHashStringSet(64);
+        for (int i = 0; i < 40; i++) s.add("k" + i);
+        // churn through tombstones without ever holding more than 40 members
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 40; i += 3) {
+                assertTrue(s.remove("k" + i));
+                assertTrue(s.add("k" + i));
+            }
+        }
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 40; i++) expected.add("k" + i);
+        assertEquals(expected, members(s));
+        assertFalse(s.contains("k40"));
+        assertTrue(s.add(""));
+        assertTrue(s.contains(""));
+    }
+
+    private static Set<String> members(OpenHashStringSet s) {
+        Set<String> out = new HashSet<>();
+        s.forEach(out::add);
+        return out;
+    }
+}
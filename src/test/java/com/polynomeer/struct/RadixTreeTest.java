@@ -0,0 +1,101 @@
+package com.polynomeer.struct;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Lookups and ordered seeks agree with a TreeMap over unsigned byte order, through edge
+ * splits and the pruning and merging done by remove.
+ */
+class RadixTreeTest {
+
+    @Test
+    void matchesSortedMap() {
+        RadixTree<String> t = new RadixTree<>();
+        TreeMap<byte[], String> m = new TreeMap<>(Arrays::compareUnsigned);
+        Random rnd = new Random(27);
+        for (int i = 0; i < 20_000; i++) {
+            byte[] k = randomKey(rnd);
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(m.remove(k), t.remove(k));
+            } else {
+                String v = "v" + i;
+                assertEquals(m.put(k, v), t.put(k, v));
+            }
+            assertEquals(m.size(), t.size());
+        }
+        for (Map.Entry<byte[], String> e : m.entrySet()) assertEquals(e.getValue(), t.get(e.getKey()));
+        assertEquals(m.firstEntry().getValue(), t.first());
+        assertEquals(m.lastEntry().getValue(), t.last());
+        for (int i = 0; i < 5_000; i++) {
+            byte[] k = randomKey(rnd);
+            assertEquals(value(m.floorEntry(k)), t.floor(k), "floor " + Arrays.toString(k));
+            assertEquals(value(m.ceilingEntry(k)), t.ceiling(k), "ceiling " + Arrays.toString(k));
+        }
+    }
+
+    @Test
+    void keysCompareAsUnsignedBytes() {
+        RadixTree<String> t = new RadixTree<>();
+        t.put(new byte[]{0x01}, "low");
+        t.put(new byte[]{(byte) 0x80}, "high");
+        t.put(new byte[]{(byte) 0x80, 0x00}, "high+");
+        assertEquals("low", t.first());
+        assertEquals("high+", t.last());
+        assertEquals("low", t.floor(new byte[]{0x7F}));
+        assertEquals("high", t.ceiling(new byte[]{0x7F}));
+        assertEquals("high", t.floor(new byte[]{(byte) 0x80}));
+        assertEquals("high+", t.ceiling(new byte[]{(byte) 0x80, 0x00}));
+        assertNull(t.ceiling(new byte[]{(byte) 0x80, 0x01}));
+    }
+
+    @Test
+    void removingEverythingLeavesAnEmptyTree() {
+        RadixTree<String> t = new RadixTree<>();
+        String[] keys = {"romane", "romanus", "romulus", "rubens", "ruber", "rubicon", "rubicundus", "r"};
+        for (String k : keys) t.put(k.getBytes(), k);
+        assertEquals("romulus", t.get("romulus".getBytes()));
+        assertNull(t.get("rom".getBytes()));
+        assertNull(t.remove("rom".getBytes()));
+        for (String k : keys) {
+            assertEquals(k, t.remove(k.getBytes()));
+            assertNull(t.get(k.getBytes()));
+        }
+        assertEquals(0, t.size());
+        assertNull(t.first());
+        assertNull(t.floor("z".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> t.put(new byte[]{1}, null));
+    }
+
+    @Test
+    void streamIdKeysSortNumerically() {
+        RadixTree<StreamId> t = new RadixTree<>();
+        StreamId[] ids = {new StreamId(0, 1), new StreamId(255, 0), new StreamId(256, 0),
+                new StreamId(1L << 40, 7), new StreamId(Long.MAX_VALUE, 0), new StreamId(256, 300)};
+        for (StreamId id : ids) t.put(id.toKey(), id);
+        assertEquals(new StreamId(0, 1), t.first());
+        assertEquals(new StreamId(Long.MAX_VALUE, 0), t.last());
+        assertEquals(new StreamId(256, 0), t.floor(new StreamId(256, 299).toKey()));
+        assertEquals(new StreamId(256, 300), t.ceiling(new StreamId(256, 1).toKey()));
+        assertEquals(new StreamId(1L << 40, 7), t.ceiling(new StreamId(257, 0).toKey()));
+    }
+
+    private static byte[] randomKey(Random rnd) {
+        // short keys over a small alphabet, so that prefixes are shared and edges split
+        byte[] k = new byte[rnd.nextInt(6)];
+        for (int i = 0; i < k.length; i++) k[i] = (byte) (rnd.nextInt(4) * 0x50);
+        return k;
+    }
+
+    private static String value(Map.Entry<byte[], String> e) {
+        return e == null ? null : e.getValue();
+    }
+}
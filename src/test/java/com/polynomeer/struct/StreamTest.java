@@ -0,0 +1,140 @@
+package com.polynomeer.struct;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Entries come back in ID order across macro-nodes, in both directions, and trimming and
+ * deletion remove exactly the entries they should.
+ */
+class StreamTest {
+
+    @Test
+    void nodeEncodingRoundTrips() {
+        StreamNode n = new StreamNode(new StreamId(1000, 5), Arrays.asList("a", "1", "b", "2"));
+        n.append(new StreamId(1000, 5), Arrays.asList("a", "1", "b", "2"));
+        n.append(new StreamId(1001, 0), Arrays.asList("a", "x", "b", "y"));   // same fields, seq below master's
+        n.append(new StreamId(1L << 41, 9), Arrays.asList("other", "z"));     // own fields, large delta
+        n.append(new StreamId(1L << 41, 10), Arrays.asList("a", "", "b", repeat(300)));
+
+        int[] offs = n.offsets();
+        assertEquals(4, offs.length);
+        assertEquals(new StreamId(1001, 0), n.idAt(offs[1]));
+        assertEquals(Arrays.asList("a", "x", "b", "y"), Arrays.asList(n.fieldsValuesAt(offs[1])));
+        assertEquals(new StreamId(1L << 41, 9), n.idAt(offs[2]));
+        assertEquals(Arrays.asList("other", "z"), Arrays.asList(n.fieldsValuesAt(offs[2])));
+        assertEquals(repeat(300), n.fieldsValuesAt(offs[3])[3]);
+        assertEquals(n.end(), n.next(offs[3]));
+
+        assertTrue(n.markDeleted(offs[2]));
+        assertFalse(n.markDeleted(offs[2]));
+        assertEquals(3, n.live);
+        assertEquals(new StreamId(1001, 0), n.idAt(offs[1])); // neighbours unaffected
+    }
+
+    @Test
+    void rangesAcrossNodes() {
+        Stream s = filled(1000);
+        List<StreamEntry> all = s.range(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, false);
+        assertEquals(1000, all.size());
+        for (int i = 0; i < all.size(); i++) assertEquals(id(i), all.get(i).id);
+
+        List<StreamEntry> rev = s.range(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, true);
+        for (int i = 0; i < rev.size(); i++) assertEquals(id(999 - i), rev.get(i).id);
+
+        // bounds inside nodes, between node boundaries and past the ends
+        assertEquals(ids(150, 260), ids(s.range(id(150), id(259), Long.MAX_VALUE, false)));
+        assertEquals(ids(150, 160), ids(s.range(id(150), id(999), 10, false)));
+        List<StreamId> back = ids(s.range(id(150), id(259), 5, true));
+        assertEquals(Arrays.asList(id(259), id(258), id(257), id(256), id(255)), back);
+        assertEquals(ids(0, 3), ids(s.range(StreamId.MIN, new StreamId(1, 5), Long.MAX_VALUE, false)));
+        assertTrue(s.range(id(999).next(), StreamId.MAX, 10, false).isEmpty());
+        assertTrue(s.range(id(10), id(5), 10, false).isEmpty());
+    }
+
+    @Test
+    void deleteSkipsEntriesAndDropsEmptyNodes() {
+        Stream s = filled(300);
+        for (int i = 0; i < StreamNode.MAX_ENTRIES; i++) assertTrue(s.delete(id(i)));
+        assertFalse(s.delete(id(0)));
+        assertFalse(s.delete(new StreamId(0, 1)));
+        assertTrue(s.delete(id(150)));
+        assertEquals(199, s.length());
+        assertNull(s.get(id(150)));
+        assertEquals(id(100), s.range(StreamId.MIN, StreamId.MAX, 1, false).get(0).id);
+        assertEquals(id(151), s.range(id(150), StreamId.MAX, 1, false).get(0).id);
+        assertEquals(id(149), s.range(StreamId.MIN, id(150), 1, true).get(0).id);
+        assertEquals(id(299), s.lastId());
+        assertEquals(300, s.entriesAdded());
+    }
+
+    @Test
+    void trimByMaxLen() {
+        Stream exact = filled(1000);
+        assertEquals(750, exact.trimByMaxLen(250, false, 0));
+        assertEquals(250, exact.length());
+        assertEquals(ids(750, 1000), ids(exact.range(StreamId.MIN, StreamId.MAX, Long.MAX_VALUE, false)));
+
+        // '~' drops whole nodes only, so some extra entries stay
+        Stream approx = filled(1000);
+        long removed = approx.trimByMaxLen(250, true, 0);
+        assertEquals(700, removed);
+        assertEquals(300, approx.length());
+        assertEquals(id(700), approx.range(StreamId.MIN, StreamId.MAX, 1, false).get(0).id);
+
+        Stream limited = filled(1000);
+        assertEquals(200, limited.trimByMaxLen(0, true, 250));
+        assertEquals(800, limited.length());
+    }
+
+    @Test
+    void trimByMinId() {
+        Stream exact = filled(1000);
+        assertEquals(333, exact.trimByMinId(id(333), false, 0));
+        assertEquals(id(333), exact.range(StreamId.MIN, StreamId.MAX, 1, false).get(0).id);
+        assertEquals(0, exact.trimByMinId(id(333), false, 0));
+
+        Stream approx = filled(1000);
+        assertEquals(300, approx.trimByMinId(id(333), true, 0));
+        assertEquals(id(300), approx.range(StreamId.MIN, StreamId.MAX, 1, false).get(0).id);
+    }
+
+    /**
+     * Entries 0..n-1 with IDs that cross millisecond boundaries, all sharing field names.
+     */
+    private static Stream filled(int n) {
+        Stream s = new Stream();
+        for (int i = 0; i < n; i++) s.append(id(i), Arrays.asList("f", Integer.toString(i)));
+        return s;
+    }
+
+    private static StreamId id(int i) {
+        return new StreamId(1 + i / 3, i % 3);
+    }
+
+    private static List<StreamId> ids(int from, int to) {
+        List<StreamId> out = new ArrayList<>();
+        for (int i = from; i < to; i++) out.add(id(i));
+        return out;
+    }
+
+    private static List<StreamId> ids(List<StreamEntry> entries) {
+        List<StreamId> out = new ArrayList<>();
+        for (StreamEntry e : entries) out.add(e.id);
+        return out;
+    }
+
+    private static String repeat(int n) {
+        char[] c = new char[n];
+        Arrays.fill(c, 'r');
+        return new String(c);
+    }
+}